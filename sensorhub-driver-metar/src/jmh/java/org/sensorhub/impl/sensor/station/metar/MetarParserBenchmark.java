@@ -0,0 +1,75 @@
+package org.sensorhub.impl.sensor.station.metar;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * <p>Title: MetarParserBenchmark.java</p>
+ * <p>Description: MetarCursorParser against MetarParserNew on a mixed sample of US and
+ *   international reports, as found in the raw_text column of the aviation weather
+ *   files.  Each invocation parses the whole sample.  MetarParserNew prints the groups it
+ *   decodes, which is part of its cost in the driver too, so its results come with
+ *   console output.  cursorParserFields leaves out toMetar(), for consumers reading the
+ *   parser fields directly.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MetarParserBenchmark
+{
+	static final String [] REPORTS = {
+		"KJFK 121851Z 18012G20KT 10SM FEW050 SCT250 26/18 A2995 RMK AO2 SLP142 T02610183",
+		"METAR KORD 051751Z 27015G25KT 10SM BKN035 OVC250 M02/M08 A3012 RMK AO2 PK WND 28032/1720 SLP204 T10221078",
+		"SPECI KDEN 101830Z 23013KT 210V250 3SM -TSRA BR BKN030CB 18/14 A3001 RMK AO2 SLP982 P0012 T01780139",
+		"KSEA 220053Z VRB03KT 1 1/2SM -RA BR OVC008 11/10 A2978 RMK AO2 SLP088 P0004 T01060100",
+		"KBOS 031454Z COR 02022G31KT 1/2SM +SN FZFG VV004 M03/M04 A2958 RMK AO2 SLP013 P0009 T10281044",
+		"KMIA 121853Z 09010KT 10SM SCT025TCU 31/24 A3004 RMK AO2 SLP172 T03110239",
+		"KDFW 231353Z 17014KT 10SM CLR 24/19 A2992 RMK AO2 SLP999 T02440189",
+		"KABQ 121852Z 33016G24KT 290V360 10SM FEW090 SCT200 19/M04 A3008 RMK AO2 PK WND 32030/52 SLP087",
+		"KDCA 121852Z AUTO 00000KT 10SM CLR 20/10 A3000 RMK AO2 SLP155",
+		"METAR CYYZ 121900Z 31010KT 15SM FEW040 SCT100 22/09 A2994 RMK CU2AC3 SLP141",
+		"EGLL 151150Z 24012KT 9999 FEW030 15/08 Q1018",
+		"LFPG 151200Z 05008KT 0800 FG VV002 08/08 Q1025",
+		"SPECI SBGR 121800Z 14006KT CAVOK 25/14 Q1016",
+		"METAR UUEE 151200Z 20010KT 6000 -SHSN BKN015CB M05/M07 Q1002",
+	};
+
+	MetarParserNew parserNew = new MetarParserNew();
+	MetarCursorParser cursorParser = new MetarCursorParser();
+
+	@Benchmark
+	public void parserNew(Blackhole bh) {
+		for(String report: REPORTS)
+			bh.consume(parserNew.parseMetar(report));
+	}
+
+	@Benchmark
+	public void cursorParser(Blackhole bh) {
+		for(String report: REPORTS) {
+			cursorParser.parse(report);
+			bh.consume(cursorParser.toMetar());
+		}
+	}
+
+	@Benchmark
+	public void cursorParserFields(Blackhole bh) {
+		for(String report: REPORTS) {
+			bh.consume(cursorParser.parse(report));
+			bh.consume(cursorParser.windSpeed);
+		}
+	}
+}
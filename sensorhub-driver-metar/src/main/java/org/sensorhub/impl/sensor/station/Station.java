@@ -16,6 +16,7 @@ public class Station {
 	private double lon;
 	private double elevation;
 	private String stationType;  // Metar, CWOP, etc. May create an enum for this
+	private String countryCode;  // ISO 3166 alpha-2, null if unknown
 	
 	public final String getId() {
 		return id;
@@ -29,6 +30,12 @@ public class Station {
 	public final void setStationType(String stationType) {
 		this.stationType = stationType;
 	}
+	public String getCountryCode() {
+		return countryCode;
+	}
+	public void setCountryCode(String countryCode) {
+		this.countryCode = countryCode;
+	}
 	public String getName() {
 		return name;
 	}
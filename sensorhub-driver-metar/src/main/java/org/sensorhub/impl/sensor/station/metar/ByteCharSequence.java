@@ -0,0 +1,49 @@
+package org.sensorhub.impl.sensor.station.metar;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ * CharSequence view of the bytes of a ByteBuffer, one char per byte (ISO-8859-1), so text
+ * files read in a buffer or mapped can be parsed without decoding them to Strings.  Only
+ * subSequence() copies.  The view is rewrapped from one buffer to the next and is not
+ * thread safe.
+ * </p>
+ */
+public class ByteCharSequence implements CharSequence
+{
+	ByteBuffer buffer;
+	int offset;
+	int length;
+
+	public ByteCharSequence wrap(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.offset = buffer.position();
+		this.length = buffer.remaining();
+		return this;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char)(buffer.get(offset + index) & 0xff);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		byte [] b = new byte[end - start];
+		for(int i=0; i<b.length; i++)
+			b[i] = buffer.get(offset + start + i);
+		return new String(b, StandardCharsets.ISO_8859_1);
+	}
+
+	@Override
+	public String toString() {
+		return subSequence(0, length).toString();
+	}
+}
@@ -1,6 +1,9 @@
 package org.sensorhub.impl.sensor.station.metar;
 
 import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardWatchEventKinds;
@@ -8,83 +11,271 @@ import java.nio.file.WatchEvent;
 import java.nio.file.WatchEvent.Kind;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>Title: DirectoryWatcher.java</p>
- * <p>Description: Simple way to monitor a directory for changes.</p>
+ * <p>Description: Simple way to monitor a directory for changes.  Events are coalesced in
+ *   batches- after the first event, events keep being collected for batchDelay ms or until
+ *   maxBatchSize files, and listeners get the files of the batch at once.  When the watch
+ *   service overflows and events are lost, the directory is rescanned for files modified
+ *   since the previous batch.
+ *
+ *   ENTRY_CREATE comes as soon as the file exists, usually before it is written: a file is
+ *   only delivered once its size and modification time haven't changed for batchDelay ms.
+ *   Files still growing are kept for a later batch.
+ *
+ *   Files delivered in the last minute are remembered with their size and modification
+ *   time, so a rescan or a late event doesn't deliver them twice.  A file written again
+ *   under the same name, or after that minute, is delivered again.</p>
  *
  * @author Tony Cook
  * @date Jul 22, 2014
- * 
+ *
  */
 public class DirectoryWatcher implements Runnable
 {
-	List<FileListener> listeners = new ArrayList<>();
+	static final long DEFAULT_BATCH_DELAY = 250;
+	static final int DEFAULT_MAX_BATCH_SIZE = 4096;
+	static final long RECENT_FILES_TIME = 60000;
+	//  file times are coarse on some file systems
+	static final long RESCAN_MARGIN = 2000;
+
+	List<FileListener> listeners = new CopyOnWriteArrayList<>();
 	WatchService watcher;
 	Path path;
-	
+	long batchDelay = DEFAULT_BATCH_DELAY;
+	int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+	volatile boolean running;
+	long lastBatchTime;
+	//  files seen but not delivered yet, with their state when last checked
+	LinkedHashMap<Path, FileState> pending = new LinkedHashMap<>();
+	//  files delivered, in delivery order, with their state when delivered
+	LinkedHashMap<Path, FileState> recentFiles = new LinkedHashMap<>();
+
+	static class FileState {
+		long size;
+		long modified;
+		long checkTime;
+
+		/**
+		 * @return state of file, null if it is gone or not a regular file
+		 */
+		static FileState of(Path file, long now) {
+			try {
+				BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+				if(!attrs.isRegularFile())
+					return null;
+				FileState state = new FileState();
+				state.size = attrs.size();
+				state.modified = attrs.lastModifiedTime().toMillis();
+				state.checkTime = now;
+				return state;
+			} catch (IOException e) {
+				return null;
+			}
+		}
+
+		boolean sameFile(FileState other) {
+			return size == other.size && modified == other.modified;
+		}
+	}
+
 	public DirectoryWatcher(Path path, Kind<?> ... eventKinds) throws IOException {
 		watcher = path.getFileSystem().newWatchService();
 		path.register(watcher, eventKinds);
 		this.path = path;
 	}
-	
+
 	public boolean addListener(FileListener f) {
 		return listeners.add(f);
 	}
-	
+
 	public boolean removeListener(FileListener f) {
 		return listeners.remove(f);
 	}
-	
+
+	public void setBatchDelay(long batchDelay) {
+		this.batchDelay = batchDelay;
+	}
+
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = Math.max(1, maxBatchSize);
+	}
+
+	public void stop() {
+		running = false;
+		try {
+			watcher.close();
+		} catch (IOException e) {
+			MetarSensor.log.debug("Cannot close watch service", e);
+		}
+	}
+
 	@Override
-	public void run()  { //, InterruptedException {
-		while (true) {
-			WatchKey watchKey;
-			try {
-				watchKey = watcher.take();
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-				continue;
-			} 
-			List<WatchEvent<?>> events = watchKey.pollEvents();
-
-			for (WatchEvent<?> event : events) {
-				//				System.out.println(event.kind() + " : " + event.context());
-				WatchEvent.Kind<?> kind = event.kind();
-
-				@SuppressWarnings("unchecked")
-				WatchEvent<Path> ev = (WatchEvent<Path>) event;
-				Path filename = ev.context();
-
-				System.out.println(kind.name() + ": " + filename);
-
-				if (kind == StandardWatchEventKinds.ENTRY_CREATE ) {
-					System.out.println("Created: " + filename);
-					for(FileListener l: listeners) {
-						try {
-							l.newFile(Paths.get(path.toString(), filename.toString()));
-						} catch (Exception e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						}
+	public void run() {
+		running = true;
+		lastBatchTime = System.currentTimeMillis();
+		try {
+			while (running) {
+				//  files still being written are checked again after batchDelay
+				WatchKey watchKey = pending.isEmpty() ? watcher.take() : watcher.poll(batchDelay, TimeUnit.MILLISECONDS);
+				long batchTime = System.currentTimeMillis();
+				long deadline = batchTime + batchDelay;
+				boolean overflow = false;
+				boolean valid = true;
+				while (watchKey != null) {
+					overflow |= pollEvents(watchKey);
+					if(!watchKey.reset()) {
+						MetarSensor.log.error("Watch key of {} no longer valid, stopping", path);
+						valid = false;
+						break;
 					}
-				}			
-			} 
+					long wait = deadline - System.currentTimeMillis();
+					if(pending.size() >= maxBatchSize || wait <= 0)
+						break;
+					watchKey = watcher.poll(wait, TimeUnit.MILLISECONDS);
+				}
 
-			if(!watchKey.reset()) {
-				System.err.println("Now what?");
-				break;
+				if(overflow)
+					rescan(lastBatchTime - RESCAN_MARGIN);
+				lastBatchTime = batchTime;
+				deliver(takeCompleteFiles());
+				if(!valid)
+					break;
 			}
+		} catch (InterruptedException e) {
+			MetarSensor.log.debug("Watcher of {} interrupted", path);
+		} catch (ClosedWatchServiceException e) {
+			//  stopped
+		} finally {
+			running = false;
 		}
 	}
 
+	/**
+	 * Add files created or modified to pending
+	 * @return true if events were lost
+	 */
+	private boolean pollEvents(WatchKey watchKey) {
+		boolean overflow = false;
+		for (WatchEvent<?> event : watchKey.pollEvents()) {
+			WatchEvent.Kind<?> kind = event.kind();
+			if (kind == StandardWatchEventKinds.OVERFLOW) {
+				overflow = true;
+			} else if (kind == StandardWatchEventKinds.ENTRY_CREATE || kind == StandardWatchEventKinds.ENTRY_MODIFY) {
+				addPending(path.resolve((Path)event.context()));
+			}
+		}
+		return overflow;
+	}
+
+	private boolean addPending(Path file) {
+		if(pending.containsKey(file))
+			return false;
+		FileState state = FileState.of(file, System.currentTimeMillis());
+		if(state == null || isDelivered(file, state))
+			return false;
+		pending.put(file, state);
+		return true;
+	}
+
+	/**
+	 * Add files modified since time that haven't been delivered yet
+	 */
+	private void rescan(long time) {
+		int cnt = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(path)) {
+			for (Path file: files) {
+				if(Files.getLastModifiedTime(file).toMillis() >= time && addPending(file))
+					cnt++;
+			}
+		} catch (IOException e) {
+			MetarSensor.log.error("Cannot rescan {}", path, e);
+		}
+		MetarSensor.log.warn("Watch events of {} overflowed- {} files found by rescan", path, cnt);
+	}
+
+	/**
+	 * Remove from pending the files whose size and modification time haven't changed for
+	 * batchDelay ms, and the files that are gone
+	 * @return files ready to be delivered
+	 */
+	private List<Path> takeCompleteFiles() {
+		List<Path> complete = new ArrayList<>();
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<Path, FileState>> it = pending.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<Path, FileState> e = it.next();
+			FileState last = e.getValue();
+			FileState state = FileState.of(e.getKey(), now);
+			if(state == null) {
+				it.remove();
+			} else if(!state.sameFile(last)) {
+				e.setValue(state);
+			} else if(now - last.checkTime >= batchDelay) {
+				it.remove();
+				//  a late event of a file delivered while it was pending
+				if(!isDelivered(e.getKey(), state))
+					complete.add(e.getKey());
+			}
+		}
+		return complete;
+	}
+
+	/**
+	 * @return true if file was delivered in the last RECENT_FILES_TIME ms, as it is now
+	 */
+	private boolean isDelivered(Path file, FileState state) {
+		FileState delivered = recentFiles.get(file);
+		return delivered != null && state.checkTime - delivered.checkTime < RECENT_FILES_TIME && delivered.sameFile(state);
+	}
+
+	private void deliver(List<Path> files) {
+		if(files.isEmpty())
+			return;
+		rememberFiles(files);
+		MetarSensor.log.debug("{} new files in {}", files.size(), path);
+		for(FileListener l: listeners) {
+			try {
+				l.newFiles(files);
+			} catch (Exception e) {
+				MetarSensor.log.error("Listener failed on files of {}", path, e);
+			}
+		}
+	}
+
+	//  events of files already found by a rescan can still be queued- keep files delivered
+	//  in the last RECENT_FILES_TIME ms, oldest first
+	private void rememberFiles(List<Path> files) {
+		long now = System.currentTimeMillis();
+		for(Path p: files) {
+			FileState state = FileState.of(p, now);
+			recentFiles.remove(p);
+			if(state != null)
+				recentFiles.put(p, state);
+		}
+		Iterator<FileState> it = recentFiles.values().iterator();
+		while(it.hasNext() && it.next().checkTime <= now - RECENT_FILES_TIME)
+			it.remove();
+	}
+
 	public static void main(String[] args) throws Exception {
 //		DirectoryWatcher watcher = new DirectoryWatcher(Paths.get("C:/Data/tmp"),StandardWatchEventKinds.ENTRY_CREATE);
-		DirectoryWatcher watcher = new DirectoryWatcher(Paths.get(args[0]),StandardWatchEventKinds.ENTRY_CREATE);
+		DirectoryWatcher watcher = new DirectoryWatcher(Paths.get(args[0]), StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		watcher.addListener(new FileListener() {
+			@Override
+			public void newFile(Path p) {
+				System.out.println("Created: " + p);
+			}
+		});
 
 		watcher.run();
 	}
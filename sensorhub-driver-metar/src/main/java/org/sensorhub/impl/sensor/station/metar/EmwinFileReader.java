@@ -0,0 +1,130 @@
+package org.sensorhub.impl.sensor.station.metar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+/**
+ * <p>
+ * Read the METARs of an EMWIN bulletin file.  The file is read through a FileChannel into a
+ * buffer kept from one file to the next, or mapped if it is large, and reports are found
+ * by their '=' terminators and parsed in place by MetarCursorParser.  Unlike
+ * MetarUtil.cleanFile, no lines or Strings are built for the file- only the Metar objects.
+ *
+ * Bulletin headers (sequence number, WMO heading, AWIPS ID) are skipped: a report starts on
+ * the first line beginning with METAR, SPECI or a 4 letter station ID.  NIL reports, and
+ * text of other products that has no ddhhmmZ date group, are dropped.  Not thread safe- use one reader per thread.
+ * </p>
+ */
+public class EmwinFileReader
+{
+	//  mapping costs more than reading for the small files EMWIN mostly delivers
+	static final int MAP_THRESHOLD = 256 * 1024;
+	static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+	ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+	ByteCharSequence text = new ByteCharSequence();
+	MetarCursorParser parser = new MetarCursorParser();
+
+	/**
+	 * Only parse reports of these stations, null for all stations
+	 */
+	public void setStationFilter(Set<String> stationIds) {
+		parser.setStationFilter(stationIds);
+	}
+
+	/**
+	 * Parse the reports of file p and pass them to handler, in file order
+	 * @return number of reports parsed
+	 */
+	public int read(Path p, MetarHandler handler) throws IOException {
+		try(FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+			long size = ch.size();
+			if(size >= MAP_THRESHOLD)
+				return parse(ch.map(FileChannel.MapMode.READ_ONLY, 0, size), handler);
+
+			if(buffer.capacity() < size)
+				buffer = ByteBuffer.allocate(Integer.highestOneBit((int)size) << 1);
+			buffer.clear();
+			while(buffer.position() < size && ch.read(buffer) >= 0);
+			buffer.flip();
+			return parse(buffer, handler);
+		}
+	}
+
+	/**
+	 * Parse the reports in buf[position, limit)
+	 * @return number of reports parsed
+	 */
+	public int parse(ByteBuffer buf, MetarHandler handler) {
+		text.wrap(buf);
+		int len = text.length();
+		int cnt = 0;
+		int reportStart = 0;
+		for(int i=0; i<=len; i++) {
+			//  the last report of a file may not be terminated
+			if(i < len && text.charAt(i) != '=')
+				continue;
+			if(parseReport(reportStart, i, handler))
+				cnt++;
+			reportStart = i + 1;
+		}
+		return cnt;
+	}
+
+	private boolean parseReport(int start, int end, MetarHandler handler) {
+		start = skipHeaders(start, end);
+		while(end > start && text.charAt(end - 1) <= ' ')
+			end--;
+		if(end - start < 5 || endsWith(start, end, "NIL"))
+			return false;
+		try {
+			//  EMWIN carries all products- text without a report date isn't a METAR
+			if(!parser.parse(text, start, end) || parser.day < 0)
+				return false;
+			handler.newMetar(parser.toMetar());
+			return true;
+		} catch (RuntimeException e) {
+			MetarSensor.log.debug("Cannot parse report: {}", text.subSequence(start, end), e);
+			return false;
+		}
+	}
+
+	/**
+	 * @return start of the first line of text[start, end) that begins with METAR, SPECI or
+	 * a 4 letter station ID
+	 */
+	private int skipHeaders(int start, int end) {
+		int line = start;
+		while(line < end) {
+			int ts = line;
+			while(ts < end && text.charAt(ts) <= ' ' && text.charAt(ts) != '\n')
+				ts++;
+			int te = ts;
+			while(te < end && text.charAt(te) > ' ')
+				te++;
+			if(te - ts == 4 || regionEquals(ts, te, "METAR") || regionEquals(ts, te, "SPECI"))
+				return ts;
+			while(te < end && text.charAt(te) != '\n')
+				te++;
+			line = te + 1;
+		}
+		return end;
+	}
+
+	private boolean regionEquals(int start, int end, String s) {
+		if(end - start != s.length())
+			return false;
+		for(int i=0; i<s.length(); i++)
+			if(text.charAt(start + i) != s.charAt(i))
+				return false;
+		return true;
+	}
+
+	private boolean endsWith(int start, int end, String s) {
+		return end - start >= s.length() && regionEquals(end - s.length(), end, s);
+	}
+}
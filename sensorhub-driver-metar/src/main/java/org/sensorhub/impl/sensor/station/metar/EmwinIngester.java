@@ -0,0 +1,124 @@
+package org.sensorhub.impl.sensor.station.metar;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * <p>
+ * Realtime METARs of an EMWIN receiver directory.  The directory is watched by a
+ * DirectoryWatcher, which hands over the files created in batches.  Files of a batch are
+ * read by EmwinFileReaders on a ForkJoinPool, one reader per worker thread, and reports are
+ * passed to the handler on the watcher thread in the order of the files, so a burst of
+ * thousands of small files is read on all cores and the handler doesn't need to be thread
+ * safe.
+ * </p>
+ */
+public class EmwinIngester implements FileListener
+{
+	static final int FILES_PER_TASK = 64;
+
+	private static final ThreadLocal<EmwinFileReader> READERS = new ThreadLocal<EmwinFileReader>() {
+		@Override
+		protected EmwinFileReader initialValue() {
+			return new EmwinFileReader();
+		}
+	};
+
+	final Path root;
+	final MetarHandler handler;
+	ForkJoinPool pool = ForkJoinPool.commonPool();
+	DirectoryWatcher watcher;
+	Thread watcherThread;
+	Set<String> stationFilter;
+
+	public EmwinIngester(String emwinRoot, MetarHandler handler) {
+		this.root = Paths.get(emwinRoot);
+		this.handler = handler;
+	}
+
+	/**
+	 * Only parse reports of these stations, null for all stations.  Set before start()
+	 */
+	public void setStationFilter(Set<String> stationIds) {
+		this.stationFilter = stationIds;
+	}
+
+	public synchronized void start() throws IOException {
+		if(watcherThread != null)
+			return;
+		if(!Files.isDirectory(root))
+			throw new IOException("EMWIN root is not a directory: " + root);
+		watcher = new DirectoryWatcher(root, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		watcher.addListener(this);
+		watcherThread = new Thread(watcher, "EmwinWatcher");
+		watcherThread.setDaemon(true);
+		watcherThread.start();
+	}
+
+	public synchronized void stop() {
+		if(watcher != null) {
+			watcher.stop();
+			watcherThread.interrupt();
+			watcher = null;
+			watcherThread = null;
+		}
+	}
+
+	@Override
+	public void newFile(Path p) throws IOException {
+		EmwinFileReader reader = READERS.get();
+		reader.setStationFilter(stationFilter);
+		reader.read(p, handler);
+	}
+
+	@Override
+	public void newFiles(List<Path> files) {
+		List<ForkJoinTask<List<Metar>>> tasks = new ArrayList<>();
+		for(int i=0; i<files.size(); i+=FILES_PER_TASK) {
+			final List<Path> chunk = files.subList(i, Math.min(i + FILES_PER_TASK, files.size()));
+			tasks.add(pool.submit(new Callable<List<Metar>>() {
+				@Override
+				public List<Metar> call() {
+					return readFiles(chunk, stationFilter);
+				}
+			}));
+		}
+		int cnt = 0;
+		for(ForkJoinTask<List<Metar>> task: tasks) {
+			for(Metar metar: task.join()) {
+				handler.newMetar(metar);
+				cnt++;
+			}
+		}
+		MetarSensor.log.debug("{} METARs in {} EMWIN files", cnt, files.size());
+	}
+
+	static List<Metar> readFiles(List<Path> files, Set<String> stationFilter) {
+		EmwinFileReader reader = READERS.get();
+		reader.setStationFilter(stationFilter);
+		final List<Metar> metars = new ArrayList<>();
+		MetarHandler collector = new MetarHandler() {
+			@Override
+			public void newMetar(Metar metar) {
+				metars.add(metar);
+			}
+		};
+		for(Path p: files) {
+			try {
+				reader.read(p, collector);
+			} catch (IOException e) {
+				MetarSensor.log.error("Cannot read EMWIN file {}", p, e);
+			}
+		}
+		return metars;
+	}
+}
@@ -2,7 +2,17 @@ package org.sensorhub.impl.sensor.station.metar;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
 
 public interface FileListener {
 	public void newFile(Path p) throws IOException;
+
+	/**
+	 * Files created since the last batch, in the order they were seen.  Override to process
+	 * a burst of files at once
+	 */
+	public default void newFiles(List<Path> files) throws IOException {
+		for(Path p: files)
+			newFile(p);
+	}
 }
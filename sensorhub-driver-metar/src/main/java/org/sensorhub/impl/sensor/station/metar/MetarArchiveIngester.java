@@ -0,0 +1,348 @@
+package org.sensorhub.impl.sensor.station.metar;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Backfill of archived METARs.  Day files of raw reports are fetched from the archive
+ * server (archiveServerUrl + archiveServerPath, with the date of the day in the path) for
+ * archiveStartDate to archiveStopDate, several days at a time.  Days are processed in order:
+ * reports are parsed with MetarBulkParser and timed with the year and month of the day.  The
+ * file of a day often holds late reports of the previous day, so the reports of a day are
+ * held until the next file is read, then passed to the handler in time order, at 
+ * archiveReplaySpeed times real time or as fast as possible.
+ *
+ * Once a day has been published it is written to the checkpoint file, if configured, with the
+ * time before which all reports were published.  A restarted backfill resumes with the next
+ * day and skips the reports before that time, which the files read again may still hold.  A
+ * download that still fails after retries stops the backfill, so the day is fetched again on
+ * restart.
+ * </p>
+ */
+public class MetarArchiveIngester implements Runnable
+{
+	static final String CHECKPOINT_KEY = "lastDay";
+	static final String PUBLISHED_KEY = "publishedBefore";
+	static final long DAY_SECONDS = 86400L;
+	static final int MAX_TRIES = 3;
+
+	final MetarConfig config;
+	final MetarHandler handler;
+	final MetarBulkParser parser = new MetarBulkParser();
+	volatile boolean running;
+	Thread thread;
+	ExecutorService downloadPool;
+	List<Metar> pending = new ArrayList<>();
+	long replayStartWall, replayStartData;
+
+	static class Checkpoint {
+		LocalDate lastDay;
+		//  epoch seconds
+		long publishedBefore;
+	}
+
+	public MetarArchiveIngester(MetarConfig config, MetarHandler handler) {
+		this.config = config;
+		this.handler = handler;
+	}
+
+	/**
+	 * Only parse reports of these stations, null for all stations.  Set before start()
+	 */
+	public void setStationFilter(Set<String> stationIds) {
+		parser.setStationFilter(stationIds);
+	}
+
+	public synchronized void start() {
+		if(thread != null)
+			return;
+		running = true;
+		thread = new Thread(this, "MetarArchiveIngester");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop() {
+		running = false;
+		if(thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public void run() {
+		running = true;
+		LocalDate start = LocalDate.parse(config.archiveStartDate);
+		LocalDate stop = (config.archiveStopDate != null) ? LocalDate.parse(config.archiveStopDate) : LocalDate.now(ZoneOffset.UTC);
+		Checkpoint checkpoint = readCheckpoint();
+		long resumeTime = Long.MIN_VALUE;
+		if(checkpoint != null && !checkpoint.lastDay.isBefore(start)) {
+			MetarSensor.log.info("Resuming METAR archive backfill after {}", checkpoint.lastDay);
+			start = checkpoint.lastDay.plusDays(1);
+			resumeTime = checkpoint.publishedBefore;
+		}
+
+		int numThreads = Math.max(1, config.archiveDownloadThreads);
+		downloadPool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			AtomicInteger cnt = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "MetarArchiveDownload-" + cnt.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		//  downloads run ahead of publishing, a bounded number of days at a time
+		ArrayDeque<Future<List<String>>> downloads = new ArrayDeque<>();
+		ArrayDeque<LocalDate> days = new ArrayDeque<>();
+		LocalDate next = start;
+		pending.clear();
+		replayStartWall = 0;
+		try {
+			while(running && (!days.isEmpty() || !next.isAfter(stop))) {
+				while(downloads.size() < 2 * numThreads && !next.isAfter(stop)) {
+					final LocalDate day = next;
+					downloads.addLast(downloadPool.submit(new Callable<List<String>>() {
+						@Override
+						public List<String> call() throws IOException, InterruptedException {
+							return download(day);
+						}
+					}));
+					days.addLast(day);
+					next = next.plusDays(1);
+				}
+
+				LocalDate day = days.pollFirst();
+				List<String> lines;
+				try {
+					lines = downloads.pollFirst().get();
+				} catch (ExecutionException e) {
+					MetarSensor.log.error("Cannot download METAR archive of {}, stopping backfill", day, e.getCause());
+					return;
+				}
+
+				//  everything before this day is complete now.  Reports published before a 
+				//  restart are skipped
+				for(Metar metar: parseDay(day, lines))
+					if(metar.timeUtc >= resumeTime)
+						pending.add(metar);
+				sortByTime(pending);
+				long dayStart = day.atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+				if(!publishBefore(dayStart))
+					return;
+				//  the file of the day is read again on restart, for its reports still pending
+				writeCheckpoint(day.minusDays(1), dayStart);
+			}
+			if(running && publishBefore(Long.MAX_VALUE)) {
+				//  all files through stop published, later files may hold late reports of stop
+				writeCheckpoint(stop, stop.atStartOfDay(ZoneOffset.UTC).toEpochSecond());
+				MetarSensor.log.info("METAR archive backfill complete through {}", stop);
+			}
+		} catch (InterruptedException e) {
+			MetarSensor.log.debug("METAR archive backfill interrupted");
+		} finally {
+			running = false;
+			downloadPool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Publish pending reports earlier than time, in time order
+	 * @return false if stopped
+	 */
+	private boolean publishBefore(long time) throws InterruptedException {
+		int n = 0;
+		for(; n < pending.size(); n++) {
+			Metar metar = pending.get(n);
+			if(metar.timeUtc >= time)
+				break;
+			if(!running)
+				return false;
+			//  pace on the data times, relative to the first report published
+			if(config.archiveReplaySpeed > 0) {
+				if(replayStartWall == 0) {
+					replayStartWall = System.currentTimeMillis();
+					replayStartData = metar.timeUtc;
+				}
+				long due = replayStartWall + (long)((metar.timeUtc - replayStartData) * 1000.0 / config.archiveReplaySpeed);
+				long wait = due - System.currentTimeMillis();
+				if(wait > 0)
+					Thread.sleep(wait);
+			}
+			handler.newMetar(metar);
+		}
+		pending.subList(0, n).clear();
+		if(n > 0)
+			MetarSensor.log.debug("Published {} archived METARs", n);
+		return true;
+	}
+
+	//  stable, so reports of a station at the same time keep their order
+	private static void sortByTime(List<Metar> metars) {
+		Collections.sort(metars, new Comparator<Metar>() {
+			@Override
+			public int compare(Metar m1, Metar m2) {
+				return Long.compare(m1.timeUtc, m2.timeUtc);
+			}
+		});
+	}
+
+	/**
+	 * @return reports of a day file with their time set
+	 */
+	List<Metar> parseDay(LocalDate day, List<String> lines) {
+		List<Metar> metars = parser.parse(lines);
+		List<Metar> timed = new ArrayList<>(metars.size());
+		long dayStart = day.atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+		for(Metar metar: metars) {
+			try {
+				metar.timeUtc = computeTimeUtc(day, metar.dateString);
+			} catch (RuntimeException e) {
+				continue;
+			}
+			//  a report more than two days away from its file is most likely garbled
+			if(Math.abs(metar.timeUtc - dayStart) > 2 * DAY_SECONDS)
+				continue;
+			timed.add(metar);
+		}
+		return timed;
+	}
+
+	/**
+	 * @return time of a ddhhmmZ date string, with year and month of the day file.  Handles
+	 * reports from the end of the previous month in the file of the 1st
+	 */
+	static long computeTimeUtc(LocalDate day, String dateString) {
+		int reportDay = Integer.parseInt(dateString.substring(0, 2));
+		LocalDate month = day;
+		if(reportDay > day.getDayOfMonth() + 1)
+			month = day.minusMonths(1);
+		return MetarParserNew.computeTimeUtc(month.getYear(), month.getMonthValue(), dateString);
+	}
+
+	/**
+	 * @return cleaned report lines of the day, empty if the server has no file for it
+	 */
+	List<String> download(LocalDate day) throws IOException, InterruptedException {
+		URL url = new URL(getDayUrl(day));
+		for(int tries = 1; ; tries++) {
+			List<String> lines = new ArrayList<>();
+			try(InputStream is = MetarAviationWeatherReader.getInputStream(url.openStream());
+				BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.ISO_8859_1))) {
+				String line;
+				boolean terminated = false;
+				while((line = reader.readLine()) != null) {
+					lines.add(line);
+					terminated |= line.endsWith("=");
+				}
+				//  bulletin files end reports with '=', plain files have one report per line
+				return terminated ? MetarUtil.cleanLines(lines, false) : trimLines(lines);
+			} catch (FileNotFoundException e) {
+				MetarSensor.log.warn("No METAR archive for {}: {}", day, url);
+				return lines;
+			} catch (IOException e) {
+				if(tries == MAX_TRIES)
+					throw e;
+				MetarSensor.log.debug("Retrying {}: {}", url, e.getMessage());
+				Thread.sleep(1000L * tries);
+			}
+		}
+	}
+
+	private static List<String> trimLines(List<String> lines) {
+		List<String> reports = new ArrayList<>(lines.size());
+		for(String line: lines) {
+			line = line.trim();
+			if(!line.isEmpty() && !line.endsWith("NIL"))
+				reports.add(line);
+		}
+		return reports;
+	}
+
+	String getDayUrl(LocalDate day) {
+		String path = (config.archiveServerPath != null) ? config.archiveServerPath : "";
+		path = path.replace("{yyyy}", String.format("%04d", day.getYear()))
+				.replace("{MM}", String.format("%02d", day.getMonthValue()))
+				.replace("{dd}", String.format("%02d", day.getDayOfMonth()));
+		return config.archiveServerUrl + path;
+	}
+
+	Checkpoint readCheckpoint() {
+		if(config.archiveCheckpointFile == null)
+			return null;
+		Path p = Paths.get(config.archiveCheckpointFile);
+		if(!Files.exists(p))
+			return null;
+		Properties props = new Properties();
+		try(Reader r = Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
+			props.load(r);
+			String last = props.getProperty(CHECKPOINT_KEY);
+			if(last == null)
+				return null;
+			Checkpoint checkpoint = new Checkpoint();
+			checkpoint.lastDay = LocalDate.parse(last);
+			String published = props.getProperty(PUBLISHED_KEY);
+			checkpoint.publishedBefore = (published != null) ? Long.parseLong(published) : 
+				checkpoint.lastDay.plusDays(1).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+			return checkpoint;
+		} catch (IOException | RuntimeException e) {
+			MetarSensor.log.warn("Cannot read METAR archive checkpoint {}", p, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Write through a temporary file so a crash never leaves a truncated checkpoint
+	 */
+	void writeCheckpoint(LocalDate day, long publishedBefore) {
+		if(config.archiveCheckpointFile == null)
+			return;
+		Path p = Paths.get(config.archiveCheckpointFile).toAbsolutePath();
+		Path tmp = p.resolveSibling(p.getFileName() + ".tmp");
+		Properties props = new Properties();
+		props.setProperty(CHECKPOINT_KEY, day.toString());
+		props.setProperty(PUBLISHED_KEY, Long.toString(publishedBefore));
+		try {
+			try(Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+				props.store(w, "METAR archive backfill");
+			}
+			Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			MetarSensor.log.warn("Cannot write METAR archive checkpoint {}", p, e);
+		}
+	}
+}
@@ -13,18 +13,35 @@ Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
 ******************************* END LICENSE BLOCK ***************************/
 package org.sensorhub.impl.sensor.station.metar;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 /**
  * <p>
  * Pull Metar data from https://aviationweather.gov/adds/dataserver_current/current/metars.cache.csv
- * Updated every 5 minutes- using as a backup and possible primary data source for Metars
+ * (or metars.cache.csv.gz, about 10x smaller).  Updated every 5 minutes- using as a backup 
+ * and possible primary data source for Metars
+ *
+ * The file is streamed: gzip content is detected from its magic bytes and inflated as it
+ * arrives, lines are scanned from the bytes into a reused buffer, and each new report is 
+ * parsed and handed to a MetarHandler before the next line is read.
+ *
+ * The reader is meant to be kept between polls: the file is requested with the ETag and 
+ * Last-Modified of the previous download, and a fingerprint of the last report of each 
+ * station is kept so only new reports are parsed.  These are only updated once the whole
+ * file has been read, up to its Content-Length: if the download fails midway, the next poll reads the file again
+ * (handlers may then get some reports twice) instead of skipping the reports not read.
  * </p>
  *
  * @author tcook
@@ -33,43 +50,256 @@ import java.util.List;
  */
 public class MetarAviationWeatherReader 
 {
+	static final int BUFFER_SIZE = 1 << 16;
+
 	public final String serverUrl;
+	String etag;
+	String lastModified;
+	//  station ID -> hash of its last raw report 
+	Map<String, Long> fingerprints = new HashMap<>();
+	int numLines;
+	MetarCursorParser parser = new MetarCursorParser();
+	byte [] buf = new byte[BUFFER_SIZE];
+	StringBuilder line = new StringBuilder(512);
+	Set<String> stationFilter;
 	
 	public MetarAviationWeatherReader(String serverUrl) {
 		this.serverUrl = serverUrl;
 	}
 	
+	/**
+	 * Only return reports of these stations, null for all stations.  Reports of other
+	 * stations are dropped before they are parsed or remembered
+	 */
+	public void setStationFilter(Set<String> stationIds) {
+		this.stationFilter = stationIds;
+	}
+
+	/**
+	 * @return reports that are new since the previous call (all reports on the first call),
+	 * empty if the file hasn't changed
+	 */
 	public List<Metar> read() throws IOException {
-		List<Metar> metars = new ArrayList<>();
-		MetarParserNew parser = new MetarParserNew();
-		URL url = new URL(serverUrl);
-		InputStream is = url.openStream();
-		boolean startProcessing = false;
-		try(BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
-			String inline = "";
-			while (inline != null) {
-				inline = reader.readLine();
-				if(inline == null)  break;
-				if(inline.startsWith("raw_text")) {
-					startProcessing = true;
-					continue;
-				}
-				if(!startProcessing)  continue;
-				int commaIdx = inline.indexOf(",");
-				if(commaIdx == -1)  continue;
-				String rawText = inline.substring(0, commaIdx);
-				Metar metar = parser.parseMetar(rawText);
+		final List<Metar> metars = new ArrayList<>();
+		read(new MetarHandler() {
+			@Override
+			public void newMetar(Metar metar) {
 				metars.add(metar);
-				System.err.println(metar);
-			} 
+			}
+		});
+		return metars;
+	}
+
+	/**
+	 * Stream the file and pass each report that is new since the previous call to handler,
+	 * as it is read
+	 * @return number of new reports
+	 */
+	public int read(MetarHandler handler) throws IOException {
+		URLConnection conn = new URL(serverUrl).openConnection();
+		conn.setRequestProperty("Accept-Encoding", "gzip");
+		if(etag != null)
+			conn.setRequestProperty("If-None-Match", etag);
+		if(lastModified != null)
+			conn.setRequestProperty("If-Modified-Since", lastModified);
+		if(conn instanceof HttpURLConnection) {
+			HttpURLConnection http = (HttpURLConnection)conn;
+			if(http.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				http.disconnect();
+				MetarSensor.log.debug("{} not modified", serverUrl);
+				return 0;
+			}
+		}
+		String newEtag = conn.getHeaderField("ETag");
+		String newLastModified = conn.getHeaderField("Last-Modified");
+
+		//  reports of this file, committed to fingerprints once it has been read to the end
+		Map<String, Long> seen = new HashMap<>();
+		int numNew = 0;
+		numLines = 0;
+		long contentLength = conn.getContentLengthLong();
+		CountingInputStream raw = new CountingInputStream(conn.getInputStream());
+		try(InputStream is = getInputStream(raw)) {
+			boolean startProcessing = false;
+			line.setLength(0);
+			int n;
+			while((n = is.read(buf)) != -1) {
+				for(int i=0; i<n; i++) {
+					byte b = buf[i];
+					if(b != '\n') {
+						if(b != '\r')
+							line.append((char)(b & 0xFF));
+						continue;
+					}
+					if(startProcessing) {
+						if(processLine(handler, seen))
+							numNew++;
+					} else if(startsWith(line, "raw_text")) {
+						startProcessing = true;
+					}
+					line.setLength(0);
+				}
+			}
+			//  last line may not end with a newline
+			if(startProcessing && line.length() > 0 && processLine(handler, seen))
+				numNew++;
 		}
-		System.err.println(metars.size());
+		//  HttpURLConnection returns EOF if the connection drops before Content-Length bytes
+		if(contentLength >= 0 && raw.count != contentLength)
+			throw new IOException("Download of " + serverUrl + " cut after " + raw.count + " of " + contentLength + " bytes");
+		fingerprints.putAll(seen);
+		etag = newEtag;
+		lastModified = newLastModified;
+		MetarSensor.log.debug("{} new reports of {}", numNew, numLines);
 		
-		return metars;
+		return numNew;
+	}
+
+	/**
+	 * @return true if the line held a new report
+	 */
+	private boolean processLine(MetarHandler handler, Map<String, Long> seen) {
+		int commaIdx = indexOf(line, ',');
+		if(commaIdx == -1)  return false;
+		numLines++;
+		//  raw_text is the first column
+		if(!isNewReport(line, commaIdx, seen))  return false;
+		if(!parser.parse(line, 0, commaIdx))  return false;
+		handler.newMetar(parser.toMetar());
+		return true;
+	}
+
+	/**
+	 * Counts the bytes received, before any inflating
+	 */
+	static class CountingInputStream extends FilterInputStream {
+		long count;
+
+		CountingInputStream(InputStream is) {
+			super(is);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b != -1)
+				count++;
+			return b;
+		}
+
+		@Override
+		public int read(byte [] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if(n > 0)
+				count += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+
+	/**
+	 * @return is, inflated if it starts with the gzip magic bytes (.gz file or gzip 
+	 * Content-Encoding)
+	 */
+	static InputStream getInputStream(InputStream is) throws IOException {
+		BufferedInputStream bis = new BufferedInputStream(is, BUFFER_SIZE);
+		bis.mark(2);
+		int b0 = bis.read();
+		int b1 = bis.read();
+		bis.reset();
+		if(b0 == 0x1f && b1 == 0x8b)
+			return new GZIPInputStream(bis, BUFFER_SIZE);
+		return bis;
+	}
+
+	/**
+	 * Compare the report in line[0, end) to the last one of its station, and remember it
+	 * in seen
+	 * @return false if the station's last report was the same
+	 */
+	boolean isNewReport(CharSequence line, int end, Map<String, Long> seen) {
+		String stationId = getStationId(line, end);
+		if(stationId == null || (stationFilter != null && !stationFilter.contains(stationId)))
+			return false;
+		long hash = hash(line, end);
+		Long last = seen.put(stationId, hash);
+		if(last == null)
+			last = fingerprints.get(stationId);
+		return last == null || last != hash;
+	}
+
+	/**
+	 * @return first token of the report, after METAR or SPECI if present
+	 */
+	static String getStationId(CharSequence line, int end) {
+		int s = 0;
+		while(true) {
+			while(s < end && line.charAt(s) == ' ')
+				s++;
+			int e = s;
+			while(e < end && line.charAt(e) != ' ')
+				e++;
+			if(e == s)
+				return null;
+			if(!(e - s == 5 && (regionEquals(line, s, "METAR") || regionEquals(line, s, "SPECI"))))
+				return line.subSequence(s, e).toString();
+			s = e;
+		}
+	}
+
+	private static boolean regionEquals(CharSequence s, int off, String str) {
+		if(off + str.length() > s.length())
+			return false;
+		for(int i=0; i<str.length(); i++) {
+			if(s.charAt(off + i) != str.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean startsWith(CharSequence s, String prefix) {
+		return regionEquals(s, 0, prefix);
+	}
+
+	private static int indexOf(CharSequence s, char c) {
+		for(int i=0; i<s.length(); i++) {
+			if(s.charAt(i) == c)
+				return i;
+		}
+		return -1;
+	}
+	//  64 bit FNV-1a of the raw report- it holds the station and date, so a new report
+	//  always changes it
+	static long hash(CharSequence s, int end) {
+		long h = 0xcbf29ce484222325L;
+		for(int i=0; i<end; i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * @return number of reports in the last file read
+	 */
+	public int getNumLines() {
+		return numLines;
 	}
 	
 	public static void main(String[] args) throws Exception {
-		MetarAviationWeatherReader reader = new MetarAviationWeatherReader("https://aviationweather.gov/adds/dataserver_current/current/metars.cache.csv");
-		reader.read();
+		MetarAviationWeatherReader reader = new MetarAviationWeatherReader("https://aviationweather.gov/adds/dataserver_current/current/metars.cache.csv.gz");
+		int cnt = reader.read(new MetarHandler() {
+			@Override
+			public void newMetar(Metar metar) {
+				System.err.println(metar.reportString);
+			}
+		});
+		System.err.println(cnt + " reports");
 	}
 }
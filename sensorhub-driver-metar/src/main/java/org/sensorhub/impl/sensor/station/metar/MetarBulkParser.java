@@ -0,0 +1,133 @@
+package org.sensorhub.impl.sensor.station.metar;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * <p>
+ * Parse large numbers of cleaned reports (archive backfills, EMWIN bulk files) on all cores.
+ * Reports are cut in chunks parsed on a ForkJoinPool, each worker thread with its own
+ * MetarCursorParser.  Results are handed back on the calling thread in input order, so the
+ * reports of a station keep their order and the handler doesn't need to be thread safe.
+ *
+ * Only a bounded number of chunks is in flight, so reports can be streamed through from an
+ * iterator without holding them all in memory.
+ * </p>
+ */
+public class MetarBulkParser
+{
+	static final int DEFAULT_CHUNK_SIZE = 2048;
+
+	private static final ThreadLocal<MetarCursorParser> PARSERS = new ThreadLocal<MetarCursorParser>() {
+		@Override
+		protected MetarCursorParser initialValue() {
+			return new MetarCursorParser();
+		}
+	};
+
+	ForkJoinPool pool;
+	int chunkSize;
+	int maxChunksInFlight;
+	Set<String> stationFilter;
+
+	public MetarBulkParser() {
+		this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+	}
+
+	public MetarBulkParser(ForkJoinPool pool, int chunkSize) {
+		this.pool = pool;
+		this.chunkSize = Math.max(1, chunkSize);
+		this.maxChunksInFlight = 2 * pool.getParallelism() + 1;
+	}
+
+	/**
+	 * Only parse reports of these stations, null for all stations
+	 */
+	public void setStationFilter(Set<String> stationIds) {
+		this.stationFilter = stationIds;
+	}
+
+	/**
+	 * @return reports parsed, in input order.  Reports that can't be parsed are left out
+	 */
+	public List<Metar> parse(List<? extends CharSequence> reports) {
+		final List<Metar> metars = new ArrayList<>(reports.size());
+		parse(reports.iterator(), new MetarHandler() {
+			@Override
+			public void newMetar(Metar metar) {
+				metars.add(metar);
+			}
+		});
+		return metars;
+	}
+
+	/**
+	 * Parse the reports of a file cleaned by MetarUtil.cleanFile
+	 */
+	public List<Metar> parseFile(Path p) throws IOException {
+		return parse(MetarUtil.cleanFile(p));
+	}
+
+	/**
+	 * Parse reports in parallel and pass them to handler on the calling thread, in input order
+	 * @return number of reports parsed
+	 */
+	public int parse(Iterator<? extends CharSequence> reports, MetarHandler handler) {
+		ArrayDeque<ForkJoinTask<Metar []>> inFlight = new ArrayDeque<>();
+		final Set<String> filter = stationFilter;
+		int cnt = 0;
+		while(reports.hasNext()) {
+			final CharSequence [] chunk = new CharSequence[chunkSize];
+			int n = 0;
+			while(n < chunkSize && reports.hasNext())
+				chunk[n++] = reports.next();
+			final int len = n;
+			inFlight.addLast(pool.submit(new Callable<Metar []>() {
+				@Override
+				public Metar [] call() {
+					return parseChunk(chunk, len, filter);
+				}
+			}));
+			if(inFlight.size() >= maxChunksInFlight)
+				cnt += deliver(inFlight.pollFirst(), handler);
+		}
+		while(!inFlight.isEmpty())
+			cnt += deliver(inFlight.pollFirst(), handler);
+		return cnt;
+	}
+
+	private static int deliver(ForkJoinTask<Metar []> task, MetarHandler handler) {
+		int cnt = 0;
+		for(Metar m: task.join()) {
+			if(m == null)
+				continue;
+			handler.newMetar(m);
+			cnt++;
+		}
+		return cnt;
+	}
+
+	static Metar [] parseChunk(CharSequence [] chunk, int len, Set<String> filter) {
+		//  thread parsers serve every MetarBulkParser on the pool- set the filter of this run
+		MetarCursorParser parser = PARSERS.get();
+		parser.setStationFilter(filter);
+		Metar [] metars = new Metar[len];
+		for(int i=0; i<len; i++) {
+			try {
+				if(parser.parse(chunk[i]))
+					metars[i] = parser.toMetar();
+			} catch (RuntimeException e) {
+				MetarSensor.log.debug("Cannot parse report: {}", chunk[i], e);
+			}
+		}
+		return metars;
+	}
+}
@@ -15,6 +15,9 @@ Developer are Copyright (C) 2014 the Initial Developer. All Rights Reserved.
 
 package org.sensorhub.impl.sensor.station.metar;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.sensorhub.api.sensor.SensorConfig;
 
 
@@ -29,13 +32,40 @@ import org.sensorhub.api.sensor.SensorConfig;
  */
 public class MetarConfig extends SensorConfig
 {   
+    //  directory where an EMWIN receiver writes its bulletin files
     public String emwinRoot;
 	public String metarStationMapPath;
+
+	//  Stations served- a station is served if it passes every filter set, all stations of
+	//  the map if none is.  Reports of other stations are dropped before they are parsed
+	public List<String> stationIds = new ArrayList<String>();
+	public List<String> countryCodes = new ArrayList<String>();
+	//  bounding box in decimal degrees- bboxMinLon > bboxMaxLon for a box crossing the 
+	//  antimeridian
+	public Double bboxMinLat;
+	public Double bboxMinLon;
+	public Double bboxMaxLat;
+	public Double bboxMaxLon;
 	
 	//  For realtime
 	public String aviationWeatherUrl;
+	//  Publish all new reports of a poll as one multi-record event instead of one event per station
+	public boolean batchEvents = false;
 	
 	//  For archive
 	public String archiveServerUrl;
+	//  path of the day files of raw reports on the archive server- {yyyy}, {MM} and {dd} are 
+	//  replaced by the date of each day
 	public String archiveServerPath;
+	//  days to ingest, yyyy-MM-dd, inclusive
+	public String archiveStartDate;
+	public String archiveStopDate;
+	public int archiveDownloadThreads = 4;
+	//  replay speed relative to real time, 0 to publish as fast as possible
+	public double archiveReplaySpeed = 0.0;
+	//  file recording the last day published, so an interrupted backfill resumes after it
+	public String archiveCheckpointFile;
+	//  credentials of the archive server, if it needs them
+	public String archiveClientId;
+	public String archiveAccessKey;
 }
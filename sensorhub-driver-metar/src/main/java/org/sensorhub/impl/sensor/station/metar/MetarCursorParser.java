@@ -0,0 +1,863 @@
+package org.sensorhub.impl.sensor.station.metar;
+
+import java.util.Set;
+
+import org.sensorhub.impl.sensor.station.metar.MetarConstants.Modifier;
+import org.sensorhub.impl.sensor.station.metar.PresentWeather.Description;
+import org.sensorhub.impl.sensor.station.metar.PresentWeather.Intensity;
+import org.sensorhub.impl.sensor.station.metar.PresentWeather.Obscuration;
+import org.sensorhub.impl.sensor.station.metar.PresentWeather.Other;
+import org.sensorhub.impl.sensor.station.metar.PresentWeather.Precipitation;
+import org.sensorhub.impl.sensor.station.metar.RunwayVisualRange.Range;
+import org.sensorhub.impl.sensor.station.metar.SkyCondition.Coverage;
+
+/**
+ * <p>
+ * Single pass METAR parser.  Walks the report once with a cursor and decodes the groups
+ * into primitive fields of the parser- no split, regex or substrings, so parsing a report
+ * only allocates its station ID.  Unlike MetarParserNew, groups it doesn't recognize are
+ * skipped instead of ending the parse, and trend groups (TEMPO, BECMG, NOSIG) end the
+ * body so forecast values don't overwrite observed ones.
+ *
+ * The parser is reused from one report to the next and is not thread safe.  Fields hold
+ * the last report parsed- use toMetar() for a Metar object.  Missing values are NaN, or -1
+ * for integers.
+ * </p>
+ */
+public class MetarCursorParser
+{
+	static final int MAX_GROUPS = 8;
+	static final double MPS_TO_KNOTS = 1.943844;
+	static final double KMH_TO_KNOTS = 0.539957;
+
+	static final Intensity [] INTENSITIES = Intensity.values();
+	static final Description [] DESCRIPTIONS = Description.values();
+	static final Precipitation [] PRECIPITATIONS = Precipitation.values();
+	static final Obscuration [] OBSCURATIONS = Obscuration.values();
+	static final Other [] OTHERS = Other.values();
+	static final Coverage [] COVERAGES = Coverage.values();
+
+	//  weather codes by their two letters: kind in the high bits, enum ordinal in the low bits
+	static final int WX_DESCRIPTION = 1 << 8;
+	static final int WX_PRECIPITATION = 2 << 8;
+	static final int WX_OBSCURATION = 3 << 8;
+	static final int WX_OTHER = 4 << 8;
+	static final short [] WX_CODES = new short[26 * 26];
+
+	static {
+		for(Description d: DESCRIPTIONS)
+			WX_CODES[code(d.name())] = (short)(WX_DESCRIPTION | d.ordinal());
+		for(Precipitation p: PRECIPITATIONS)
+			WX_CODES[code(p.name())] = (short)(WX_PRECIPITATION | p.ordinal());
+		for(Obscuration o: OBSCURATIONS)
+			WX_CODES[code(o.name())] = (short)(WX_OBSCURATION | o.ordinal());
+		for(Other o: OTHERS)
+			WX_CODES[code(o.name())] = (short)(WX_OTHER | o.ordinal());
+	}
+
+	//  cursor
+	CharSequence text;
+	int start, end;
+	int pos;
+	int ts, te;  // current token
+	Set<String> stationFilter;
+
+	//  header
+	public String stationId;
+	public boolean isSpeci;
+	public boolean isAuto;
+	public boolean isCorrection;
+	public int day, hour, minute;
+	int dateStart, dateEnd;
+
+	//  wind, in knots
+	public int windDirection;
+	public boolean windDirectionIsVariable;
+	public int windDirectionMin, windDirectionMax;
+	public double windSpeed;
+	public double windGust;
+
+	//  visibility
+	public double visibilityKm;
+	public boolean visibilityLessThan;
+	public boolean isCavok;
+
+	//  runway visual range- lower == upper when not a range
+	public int numRvr;
+	public boolean [] rvrFeet = new boolean[MAX_GROUPS];
+	public int [] rvrLower = new int[MAX_GROUPS];
+	public int [] rvrUpper = new int[MAX_GROUPS];
+	public char [] rvrLowerModifier = new char[MAX_GROUPS];  // 'M', 'P' or 0
+	public char [] rvrUpperModifier = new char[MAX_GROUPS];
+	public char [] rvrTrend = new char[MAX_GROUPS];  // 'U', 'D', 'N' or 0
+	int [] rvrStart = new int[MAX_GROUPS];
+	int [] rvrIdEnd = new int[MAX_GROUPS];
+	int [] rvrEnd = new int[MAX_GROUPS];
+
+	//  present weather- ordinals of the PresentWeather enums, -1 if absent
+	public int numWeather;
+	public int [] wxIntensity = new int[MAX_GROUPS];
+	public boolean [] wxVicinity = new boolean[MAX_GROUPS];
+	public int [] wxDescription = new int[MAX_GROUPS];
+	public int [] wxPrecipitation = new int[MAX_GROUPS];  // bit per Precipitation ordinal
+	public int [] wxObscuration = new int[MAX_GROUPS];
+	public int [] wxOther = new int[MAX_GROUPS];
+
+	//  sky condition- ordinals of SkyCondition.Coverage
+	public int numSky;
+	public int [] skyCoverage = new int[MAX_GROUPS];
+	public int [] skyHeightFeet = new int[MAX_GROUPS];
+	public boolean [] skyCb = new boolean[MAX_GROUPS];
+	public boolean [] skyTcu = new boolean[MAX_GROUPS];
+
+	public double temperatureC;
+	public double dewPointC;
+	public double altimeterInHg;
+	public double pressureHpa;
+
+	//  remarks
+	public double seaLevelPressureHpa;
+	public double temperaturePreciseC;
+	public double dewPointPreciseC;
+	public int peakWindDirection;
+	public double peakWindSpeed;
+	public int peakWindHour, peakWindMinute;
+	public double hourlyPrecipInches;
+	public double sixHourPrecipInches;
+	public double dailyPrecipInches;
+
+	/**
+	 * Only parse reports of these stations- parse() stops after the station ID of others.
+	 * null for all stations
+	 */
+	public void setStationFilter(Set<String> stationIds) {
+		this.stationFilter = stationIds;
+	}
+
+	public boolean parse(CharSequence report) {
+		return parse(report, 0, report.length());
+	}
+
+	/**
+	 * Parse the report in text[start, end).  Headers should already be removed (MetarUtil,
+	 * EmwinFileReader)- line breaks and control characters separate groups like spaces
+	 * @return false if the report has no station and date, or its station is filtered out
+	 */
+	public boolean parse(CharSequence text, int start, int end) {
+		reset();
+		this.text = text;
+		this.start = start;
+		this.pos = start;
+		this.end = end;
+		if(end > start && text.charAt(end - 1) == '=')
+			this.end--;
+
+		if(!nextToken())
+			return false;
+		if(tokenEquals("METAR")) {
+			if(!nextToken())  return false;
+		} else if(tokenEquals("SPECI")) {
+			isSpeci = true;
+			if(!nextToken())  return false;
+		}
+		stationId = text.subSequence(ts, te).toString();
+		if(stationFilter != null && !stationFilter.contains(stationId))
+			return false;
+		if(!nextToken())
+			return false;
+		dateStart = ts;
+		dateEnd = te;
+		if(te - ts == 7 && text.charAt(ts + 6) == 'Z') {
+			day = digits(ts, 2);
+			hour = digits(ts + 2, 2);
+			minute = digits(ts + 4, 2);
+		}
+
+		boolean trend = false;
+		while(nextToken()) {
+			if(tokenEquals("RMK")) {
+				parseRemarks();
+				break;
+			}
+			if(trend || isMissing())
+				continue;
+			if(tokenEquals("TEMPO") || tokenEquals("BECMG") || tokenEquals("NOSIG")) {
+				trend = true;
+				continue;
+			}
+			//  groups not recognized are skipped
+			parseBodyGroup();
+		}
+		return true;
+	}
+
+	private void reset() {
+		stationId = null;
+		isSpeci = isAuto = isCorrection = false;
+		day = hour = minute = -1;
+		dateStart = dateEnd = 0;
+		windDirection = windDirectionMin = windDirectionMax = -1;
+		windDirectionIsVariable = false;
+		windSpeed = windGust = Double.NaN;
+		visibilityKm = Double.NaN;
+		visibilityLessThan = isCavok = false;
+		numRvr = numWeather = numSky = 0;
+		temperatureC = dewPointC = Double.NaN;
+		altimeterInHg = pressureHpa = Double.NaN;
+		seaLevelPressureHpa = temperaturePreciseC = dewPointPreciseC = Double.NaN;
+		peakWindDirection = peakWindHour = peakWindMinute = -1;
+		peakWindSpeed = Double.NaN;
+		hourlyPrecipInches = sixHourPrecipInches = dailyPrecipInches = Double.NaN;
+	}
+
+	private boolean parseBodyGroup() {
+		char c0 = text.charAt(ts);
+		int len = te - ts;
+		if(len == 4 && tokenEquals("AUTO")) {
+			isAuto = true;
+			return true;
+		}
+		if(tokenEquals("COR") || (len == 3 && c0 == 'C' && text.charAt(ts + 1) == 'C')) {  // CCA, CCB- Canadian corrections
+			isCorrection = true;
+			return true;
+		}
+		if(tokenEquals("CAVOK")) {
+			isCavok = true;
+			visibilityKm = 10.0;
+			return true;
+		}
+		if(parseWind())
+			return true;
+		if(len == 7 && text.charAt(ts + 3) == 'V' && digits(ts, 3) >= 0 && digits(ts + 4, 3) >= 0) {
+			windDirectionIsVariable = true;
+			windDirectionMin = digits(ts, 3);
+			windDirectionMax = digits(ts + 4, 3);
+			return true;
+		}
+		if(parseVisibility())
+			return true;
+		if(c0 == 'R' && len > 3 && isDigit(text.charAt(ts + 1)))
+			return parseRunwayVisualRange();
+		if(parseSkyCondition())
+			return true;
+		if(parsePresentWeather())
+			return true;
+		if(parseTemperature())
+			return true;
+		if(len == 5 && (c0 == 'A' || c0 == 'Q')) {
+			int val = digits(ts + 1, 4);
+			if(val < 0)
+				return false;
+			if(c0 == 'A')
+				altimeterInHg = val / 100.0;
+			else
+				pressureHpa = val;
+			return true;
+		}
+		return false;
+	}
+
+	//  dddff(f)(Gff(f))KT, VRBffKT, ///ffKT- also MPS and KMH
+	private boolean parseWind() {
+		int len = te - ts;
+		double toKnots;
+		int unitLen;
+		if(endsWith("KT")) {
+			toKnots = 1.0;
+			unitLen = 2;
+		} else if(endsWith("MPS")) {
+			toKnots = MPS_TO_KNOTS;
+			unitLen = 3;
+		} else if(endsWith("KMH")) {
+			toKnots = KMH_TO_KNOTS;
+			unitLen = 3;
+		} else {
+			return false;
+		}
+		if(len < unitLen + 5)
+			return false;
+
+		int dir = digits(ts, 3);
+		boolean vrb = text.charAt(ts) == 'V' && text.charAt(ts + 1) == 'R' && text.charAt(ts + 2) == 'B';
+		if(dir < 0 && !vrb && !isSlashes(ts, ts + 3))
+			return false;
+
+		int p = ts + 3;
+		int stop = te - unitLen;
+		int speedEnd = p;
+		while(speedEnd < stop && isDigit(text.charAt(speedEnd)))
+			speedEnd++;
+		int speed = digits(p, speedEnd - p);
+		if(speed < 0 && !isSlashes(p, stop))
+			return false;
+		int gust = -1;
+		if(speedEnd < stop && text.charAt(speedEnd) == 'G') {
+			gust = digits(speedEnd + 1, stop - speedEnd - 1);
+			if(gust < 0)
+				return false;
+		} else if(speed >= 0 && speedEnd != stop) {
+			return false;
+		}
+
+		windDirection = dir;
+		windDirectionIsVariable = vrb;
+		if(speed >= 0)
+			windSpeed = speed * toKnots;
+		if(gust >= 0)
+			windGust = gust * toKnots;
+		return true;
+	}
+
+	//  9999, 0800, 4000NE (meters), 10SM, 1/2SM, M1/4SM, P6SM, 1 1/2SM, 10KM
+	private boolean parseVisibility() {
+		int len = te - ts;
+		if(len >= 4 && digits(ts, 4) >= 0 && (len == 4 || isLetters(ts + 4, te))) {
+			int meters = digits(ts, 4);
+			if(Double.isNaN(visibilityKm))
+				visibilityKm = (meters == 9999) ? 10.0 : meters / 1000.0;
+			return true;
+		}
+
+		//  whole miles followed by a fraction
+		if(len <= 2 && digits(ts, len) >= 0) {
+			int whole = digits(ts, len);
+			int savePos = pos, saveTs = ts, saveTe = te;
+			if(nextToken() && (endsWith("SM") || endsWith("KM"))) {
+				double frac = parseFraction(ts, te - 2);
+				if(!Double.isNaN(frac)) {
+					setVisibility(whole + frac, endsWith("SM"));
+					return true;
+				}
+			}
+			pos = savePos;
+			ts = saveTs;
+			te = saveTe;
+			return false;
+		}
+
+		if(len < 3 || !(endsWith("SM") || endsWith("KM")))
+			return false;
+		int p = ts;
+		boolean lessThan = false;
+		char c0 = text.charAt(p);
+		if(c0 == 'M') {
+			lessThan = true;
+			p++;
+		} else if(c0 == 'P') {  // greater than- keep the value
+			p++;
+		}
+		double val = parseFraction(p, te - 2);
+		if(Double.isNaN(val))
+			return false;
+		visibilityLessThan = lessThan;
+		setVisibility(val, endsWith("SM"));
+		return true;
+	}
+
+	private void setVisibility(double val, boolean miles) {
+		if(!Double.isNaN(visibilityKm))
+			return;
+		visibilityKm = miles ? val * Metar.STATUTEMILES_TO_KILOMETERS : val;
+	}
+
+	//  R26L/2400FT, R08/0400V0800FT, R01/3500VP6000FT, R27/0600U, R27/0600/D
+	private boolean parseRunwayVisualRange() {
+		int slash = indexOf('/', ts, te);
+		if(slash < 0)
+			return false;
+		if(numRvr == MAX_GROUPS)
+			return true;
+		int i = numRvr;
+		int p = slash + 1;
+		int stop = te;
+		boolean feet = false;
+		char trend = 0;
+		if(stop - p > 2 && text.charAt(stop - 2) == 'F' && text.charAt(stop - 1) == 'T') {
+			feet = true;
+			stop -= 2;
+		}
+		if(stop > p) {
+			char c = text.charAt(stop - 1);
+			if(c == 'U' || c == 'D' || c == 'N') {
+				trend = c;
+				stop--;
+				if(stop > p && text.charAt(stop - 1) == '/')
+					stop--;
+			}
+		}
+		int v = indexOf('V', p, stop);
+		int lowerEnd = (v < 0) ? stop : v;
+		//  ranges are 4 digits- R06L/290050 is a runway state group, not a range
+		char lowerMod = modifier(p);
+		int low = (lowerMod == 0) ? p : p + 1;
+		int lower = (lowerEnd - low == 4) ? digits(low, 4) : -1;
+		if(lower < 0)
+			return false;
+		char upperMod = lowerMod;
+		int upper = lower;
+		if(v >= 0) {
+			upperMod = modifier(v + 1);
+			int up = (upperMod == 0) ? v + 1 : v + 2;
+			upper = (stop - up == 4) ? digits(up, 4) : -1;
+			if(upper < 0)
+				return false;
+		}
+		rvrStart[i] = ts;
+		rvrIdEnd[i] = slash;
+		rvrEnd[i] = te;
+		rvrFeet[i] = feet;
+		rvrLower[i] = lower;
+		rvrUpper[i] = upper;
+		rvrLowerModifier[i] = lowerMod;
+		rvrUpperModifier[i] = upperMod;
+		rvrTrend[i] = trend;
+		numRvr++;
+		return true;
+	}
+
+	private char modifier(int p) {
+		if(p >= te)
+			return 0;
+		char c = text.charAt(p);
+		return (c == 'M' || c == 'P') ? c : 0;
+	}
+
+	//  SKC, CLR, NCD, FEW015, SCT250CB, BKN030TCU, OVC///, VV002
+	private boolean parseSkyCondition() {
+		int len = te - ts;
+		if(len < 2)
+			return false;
+		int cov = coverage();
+		if(cov < 0)
+			return false;
+		int p = ts + COVERAGES[cov].name().length();
+		int height = -1;
+		boolean cb = false, tcu = false;
+		if(p < te) {
+			if(te - p < 3)
+				return false;
+			height = digits(p, 3);
+			if(height < 0 && !isSlashes(p, p + 3))
+				return false;
+			p += 3;
+			if(te - p == 2 && text.charAt(p) == 'C' && text.charAt(p + 1) == 'B')
+				cb = true;
+			else if(te - p == 3 && text.charAt(p) == 'T' && text.charAt(p + 1) == 'C' && text.charAt(p + 2) == 'U')
+				tcu = true;
+			else if(p < te && !isSlashes(p, te))
+				return false;
+		}
+		if(numSky == MAX_GROUPS)
+			return true;
+		skyCoverage[numSky] = cov;
+		skyHeightFeet[numSky] = (height >= 0) ? height * 100 : -1;
+		skyCb[numSky] = cb;
+		skyTcu[numSky] = tcu;
+		numSky++;
+		return true;
+	}
+
+	private int coverage() {
+		for(int i=0; i<COVERAGES.length; i++) {
+			String name = COVERAGES[i].name();
+			if(te - ts >= name.length() && regionEquals(ts, name))
+				return i;
+		}
+		return -1;
+	}
+
+	//  (+|-)(VC)(descriptor)(codes...)  e.g. -RA, +TSRAGR, VCSH, FZFG, BR
+	private boolean parsePresentWeather() {
+		int p = ts;
+		int intensity = Intensity.MODERATE.ordinal();
+		boolean vicinity = false;
+		char c0 = text.charAt(p);
+		if(c0 == '+') {
+			intensity = Intensity.HEAVY.ordinal();
+			p++;
+		} else if(c0 == '-') {
+			intensity = Intensity.LIGHT.ordinal();
+			p++;
+		}
+		if(te - p >= 2 && text.charAt(p) == 'V' && text.charAt(p + 1) == 'C') {
+			vicinity = true;
+			p += 2;
+		}
+		if(p == te || (te - p) % 2 != 0)
+			return false;
+
+		int description = -1, precip = 0, obscuration = -1, other = -1;
+		for(; p < te; p += 2) {
+			int wx = weatherCode(text.charAt(p), text.charAt(p + 1));
+			int ord = wx & 0xFF;
+			switch(wx & 0xFF00) {
+			case WX_DESCRIPTION:
+				description = ord;
+				break;
+			case WX_PRECIPITATION:
+				precip |= 1 << ord;
+				break;
+			case WX_OBSCURATION:
+				obscuration = ord;
+				break;
+			case WX_OTHER:
+				other = ord;
+				break;
+			default:
+				return false;
+			}
+		}
+		if(numWeather == MAX_GROUPS)
+			return true;
+		int i = numWeather++;
+		wxIntensity[i] = intensity;
+		wxVicinity[i] = vicinity;
+		wxDescription[i] = description;
+		wxPrecipitation[i] = precip;
+		wxObscuration[i] = obscuration;
+		wxOther[i] = other;
+		return true;
+	}
+
+	//  12/07, M04/M07, 23/ (missing dew point), /M03 (missing temperature)
+	private boolean parseTemperature() {
+		int slash = indexOf('/', ts, te);
+		if(slash < 0 || te - ts > 7)
+			return false;
+		double t = Double.NaN, d = Double.NaN;
+		if(slash > ts) {
+			t = signedDigits(ts, slash);
+			if(Double.isNaN(t))
+				return false;
+		}
+		if(slash + 1 < te) {
+			d = signedDigits(slash + 1, te);
+			if(Double.isNaN(d))
+				return false;
+		}
+		if(Double.isNaN(t) && Double.isNaN(d))
+			return false;
+		temperatureC = t;
+		dewPointC = d;
+		return true;
+	}
+
+	//  M prefix means minus
+	private double signedDigits(int from, int to) {
+		boolean neg = text.charAt(from) == 'M';
+		if(neg)
+			from++;
+		int len = to - from;
+		if(len < 1 || len > 2)
+			return Double.NaN;
+		int v = digits(from, len);
+		if(v < 0)
+			return Double.NaN;
+		return neg ? -v : v;
+	}
+
+	//  Supported remarks:
+	//  SLPppp          : sea level pressure in 10ths of mb- SLP982 = 998.2, SLP142 = 1014.2, SLP426 = 1042.6
+	//  Tsttt sddd      : temp/dew in 10ths C, sign digit 1 is negative
+	//  PK WND dddff(f)/(hh)mm : peak wind
+	//  Ppppp           : hourly precip in 100ths of inches
+	//  6pppp, 7pppp    : 3/6 hour and 24 hour precip in 100ths of inches
+	private void parseRemarks() {
+		while(nextToken()) {
+			int len = te - ts;
+			char c0 = text.charAt(ts);
+			if(len == 6 && c0 == 'S' && regionEquals(ts, "SLP")) {
+				int p = digits(ts + 3, 3);
+				if(p >= 0)
+					// as MetarParserNew, assumes 900 <= P < 1090: 9xx is 99x.x hPa, anything else 10xx.x
+					seaLevelPressureHpa = p / 10.0 + ((p >= 900) ? 900.0 : 1000.0);
+			} else if(len == 9 && c0 == 'T') {
+				int t = digits(ts + 2, 3), d = digits(ts + 6, 3);
+				char ts0 = text.charAt(ts + 1), td0 = text.charAt(ts + 5);
+				if(t >= 0 && d >= 0 && (ts0 == '0' || ts0 == '1') && (td0 == '0' || td0 == '1')) {
+					temperaturePreciseC = (ts0 == '1' ? -t : t) / 10.0;
+					dewPointPreciseC = (td0 == '1' ? -d : d) / 10.0;
+				}
+			} else if(len == 2 && tokenEquals("PK")) {
+				int savePos = pos;
+				if(nextToken() && tokenEquals("WND") && nextToken()) {
+					parsePeakWind();
+				} else {
+					pos = savePos;
+				}
+			} else if(len == 5 && (c0 == 'P' || c0 == '6' || c0 == '7')) {
+				int v = digits(ts + 1, 4);
+				if(v < 0)
+					continue;
+				if(c0 == 'P')
+					hourlyPrecipInches = v / 100.0;
+				else if(c0 == '6')
+					sixHourPrecipInches = v / 100.0;
+				else
+					dailyPrecipInches = v / 100.0;
+			}
+		}
+	}
+
+	private void parsePeakWind() {
+		int slash = indexOf('/', ts, te);
+		if(slash < 0 || slash - ts < 5)
+			return;
+		int dir = digits(ts, 3);
+		int speed = digits(ts + 3, slash - ts - 3);
+		int timeLen = te - slash - 1;
+		if(dir < 0 || speed < 0 || (timeLen != 2 && timeLen != 4))
+			return;
+		peakWindDirection = dir;
+		peakWindSpeed = speed;
+		if(timeLen == 4) {
+			peakWindHour = digits(slash + 1, 2);
+			peakWindMinute = digits(slash + 3, 2);
+		} else {
+			peakWindMinute = digits(slash + 1, 2);
+		}
+	}
+
+	/**
+	 * @return report date as in the METAR (ddhhmmZ), for MetarParserNew.computeTimeUtc
+	 */
+	public String getDateString() {
+		return text.subSequence(dateStart, dateEnd).toString();
+	}
+
+	/**
+	 * @return last report parsed.  Reports of bulletin files span lines- groups are joined
+	 * with single spaces
+	 */
+	public String getReportString() {
+		int s = start, e = end;
+		while(s < e && text.charAt(s) <= ' ')
+			s++;
+		while(e > s && text.charAt(e - 1) <= ' ')
+			e--;
+		boolean clean = true;
+		for(int i=s; i<e && clean; i++) {
+			char c = text.charAt(i);
+			clean = c > ' ' || (c == ' ' && text.charAt(i - 1) != ' ');
+		}
+		if(clean)
+			return text.subSequence(s, e).toString();
+		StringBuilder b = new StringBuilder(e - s);
+		for(int i=s; i<e; i++) {
+			char c = text.charAt(i);
+			if(c > ' ')
+				b.append(c);
+			else if(b.charAt(b.length() - 1) != ' ')
+				b.append(' ');
+		}
+		return b.toString();
+	}
+
+	/**
+	 * @return Metar built from the last report parsed
+	 */
+	public Metar toMetar() {
+		Metar m = new Metar();
+		m.reportString = getReportString();
+		m.stationID = stationId;
+		m.dateString = getDateString();
+		m.isSpeci = isSpeci;
+		m.isCorrection = isCorrection;
+
+		m.windDirection = (windDirection >= 0) ? windDirection : 0;
+		m.windDirectionIsVariable = windDirectionIsVariable;
+		if(windDirectionMin >= 0) {
+			m.windDirectionMin = windDirectionMin;
+			m.windDirectionMax = windDirectionMax;
+		}
+		m.setWindSpeed(windSpeed);
+		m.windGust = windGust;
+		if(peakWindDirection >= 0) {
+			m.windDirectionGust = peakWindDirection;
+			m.windGust = peakWindSpeed;
+		}
+
+		m.isCavok = isCavok;
+		m.visibilityLessThan = visibilityLessThan;
+		if(!Double.isNaN(visibilityKm))
+			m.setVisibilityKilometers(visibilityKm);
+
+		for(int i=0; i<numRvr; i++)
+			m.addRunwayVisualRange(toRunwayVisualRange(i));
+		for(int i=0; i<numWeather; i++)
+			m.addPresentWeather(toPresentWeather(i));
+		for(int i=0; i<numSky; i++) {
+			SkyCondition sc = new SkyCondition();
+			sc.coverage = COVERAGES[skyCoverage[i]];
+			sc.visibilityFeet = (skyHeightFeet[i] >= 0) ? skyHeightFeet[i] : null;
+			sc.isCb = skyCb[i];
+			sc.isTcu = skyTcu[i];
+			m.addSkyCondition(sc);
+		}
+
+		if(!Double.isNaN(temperatureC))
+			m.setTemperatureC(temperatureC);
+		if(!Double.isNaN(dewPointC))
+			m.setDewPointC(dewPointC);
+		if(!Double.isNaN(temperaturePreciseC)) {
+			m.setTemperaturePrecise(temperaturePreciseC);
+			m.setDewPointPrecise(dewPointPreciseC);
+		}
+		if(!Double.isNaN(altimeterInHg))
+			m.altimeter = altimeterInHg;
+		m.pressure = !Double.isNaN(seaLevelPressureHpa) ? seaLevelPressureHpa : pressureHpa;
+		m.hourlyPrecipInches = hourlyPrecipInches;
+		return m;
+	}
+
+	private RunwayVisualRange toRunwayVisualRange(int i) {
+		RunwayVisualRange rvr = new RunwayVisualRange(text.subSequence(rvrStart[i], rvrEnd[i]).toString());
+		rvr.runwayId = text.subSequence(rvrStart[i], rvrIdEnd[i]).toString();
+		rvr.units = rvrFeet[i] ? "feet" : "meters";
+		if(rvrLower[i] == rvrUpper[i] && rvrLowerModifier[i] == rvrUpperModifier[i]) {
+			rvr.range = toRange(rvr, rvrLower[i], rvrLowerModifier[i], rvrTrend[i]);
+		} else {
+			rvr.lowerRange = toRange(rvr, rvrLower[i], rvrLowerModifier[i], (char)0);
+			rvr.upperRange = toRange(rvr, rvrUpper[i], rvrUpperModifier[i], rvrTrend[i]);
+		}
+		return rvr;
+	}
+
+	private static Range toRange(RunwayVisualRange rvr, int value, char mod, char trend) {
+		Range range = rvr.new Range();
+		range.value = value;
+		if(mod == 'M')
+			range.addModifier(Modifier.LESS_THAN);
+		else if(mod == 'P')
+			range.addModifier(Modifier.GREATER_THAN);
+		if(trend == 'U')
+			range.addModifier(Modifier.INCREASING);
+		else if(trend == 'D')
+			range.addModifier(Modifier.DECREASING);
+		else if(trend == 'N')
+			range.addModifier(Modifier.NO_CHANGE);
+		return range;
+	}
+
+	private PresentWeather toPresentWeather(int i) {
+		PresentWeather pw = new PresentWeather();
+		pw.intensity = INTENSITIES[wxIntensity[i]];
+		pw.inViciinty = wxVicinity[i];
+		if(wxDescription[i] >= 0)
+			pw.description = DESCRIPTIONS[wxDescription[i]];
+		for(int j=0; j<PRECIPITATIONS.length; j++) {
+			if((wxPrecipitation[i] & (1 << j)) != 0)
+				pw.precipitations.add(PRECIPITATIONS[j]);
+		}
+		if(wxObscuration[i] >= 0)
+			pw.obscuration = OBSCURATIONS[wxObscuration[i]];
+		if(wxOther[i] >= 0)
+			pw.other = OTHERS[wxOther[i]];
+		return pw;
+	}
+
+	//  cursor helpers
+
+	private boolean nextToken() {
+		while(pos < end && text.charAt(pos) <= ' ')
+			pos++;
+		if(pos >= end)
+			return false;
+		ts = pos;
+		while(pos < end && text.charAt(pos) > ' ')
+			pos++;
+		te = pos;
+		return true;
+	}
+
+	private boolean tokenEquals(String s) {
+		return te - ts == s.length() && regionEquals(ts, s);
+	}
+
+	private boolean endsWith(String s) {
+		return te - ts >= s.length() && regionEquals(te - s.length(), s);
+	}
+
+	private boolean regionEquals(int p, String s) {
+		for(int i=0; i<s.length(); i++) {
+			if(text.charAt(p + i) != s.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private boolean isMissing() {
+		return isSlashes(ts, te);
+	}
+
+	private boolean isSlashes(int from, int to) {
+		if(from >= to)
+			return false;
+		for(int i=from; i<to; i++) {
+			if(text.charAt(i) != '/')
+				return false;
+		}
+		return true;
+	}
+
+	private boolean isLetters(int from, int to) {
+		for(int i=from; i<to; i++) {
+			char c = text.charAt(i);
+			if(c < 'A' || c > 'Z')
+				return false;
+		}
+		return true;
+	}
+
+	private int indexOf(char c, int from, int to) {
+		for(int i=from; i<to; i++) {
+			if(text.charAt(i) == c)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return value of the len digits at p, -1 if empty or not all digits
+	 */
+	private int digits(int p, int len) {
+		if(len <= 0 || len > 9 || p + len > end)
+			return -1;
+		int v = 0;
+		for(int i=p; i<p+len; i++) {
+			char c = text.charAt(i);
+			if(!isDigit(c))
+				return -1;
+			v = v * 10 + (c - '0');
+		}
+		return v;
+	}
+
+	//  n, n/d
+	private double parseFraction(int from, int to) {
+		int slash = indexOf('/', from, to);
+		if(slash < 0) {
+			int v = digits(from, to - from);
+			return (v < 0) ? Double.NaN : v;
+		}
+		int num = digits(from, slash - from);
+		int den = digits(slash + 1, to - slash - 1);
+		if(num < 0 || den <= 0)
+			return Double.NaN;
+		return (double)num / den;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static int code(String name) {
+		return (name.charAt(0) - 'A') * 26 + (name.charAt(1) - 'A');
+	}
+
+	private static int weatherCode(char c0, char c1) {
+		if(c0 < 'A' || c0 > 'Z' || c1 < 'A' || c1 > 'Z')
+			return 0;
+		return WX_CODES[(c0 - 'A') * 26 + (c1 - 'A')];
+	}
+}
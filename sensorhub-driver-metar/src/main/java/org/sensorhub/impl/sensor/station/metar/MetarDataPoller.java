@@ -24,18 +24,26 @@ public class MetarDataPoller {
 	//	private static final String path = "/CurrentObs/GetCurrentObs";
 	private final String server; //= "http://192.168.1.91:8080"; // ?clientId=BuildingIQ&accessKey=b42r10a49a474zn5&format=CSV&stationId=3340&startTime=2016-01-01&stopTime=2016-01-02";
 	private final String path;  // = "/CurrentObs/GetCurrentObs";
+	private final String clientId;
+	private final String accessKey;
 
-	public MetarDataPoller(String server, String path) {
+	public MetarDataPoller(String server, String path, String clientId, String accessKey) {
 		this.server = server;
 		this.path = path;
+		this.clientId = clientId;
+		this.accessKey = accessKey;
 	}
 
 	/**
 	 * 
-	 * @return the last available data record
+	 * @param startTime yyyy-MM-dd
+	 * @param stopTime yyyy-MM-dd
+	 * @return the records of the station between startTime and stopTime
 	 */
-	public List<Metar> pollStationData(String stationID) {
-		String csvData = pollServer(stationID);
+	public List<Metar> pollStationData(String stationID, String startTime, String stopTime) {
+		String csvData = pollServer(stationID, startTime, stopTime);
+		if(csvData == null)
+			return new ArrayList<>();
 		List<Metar> recs = new ArrayList<>();
 		String [] lines = csvData.split("\\n");
 		//  first line is header- we can skip it
@@ -64,17 +72,15 @@ public class MetarDataPoller {
 		return recs;
 	}
 
-	private String pollServer(String stationID) {
-		String startTime = "2017-06-10";
-		String stopTime = "2017-06-15";
+	private String pollServer(String stationID, String startTime, String stopTime) {
 		URI uri;
 		try {
 			uri = new URIBuilder()
 					.setScheme("http")
 					.setHost(server)
 					.setPath(path)
-					.setParameter("clientId", "SensorHub")
-					.setParameter("accessKey", "mMHAkRZMtQfBmZvH")
+					.setParameter("clientId", clientId)
+					.setParameter("accessKey", accessKey)
 					.setParameter("format", "csv")
 					.setParameter("startTime", startTime + "")
 					.setParameter("stopTime", stopTime + "")
@@ -114,7 +120,7 @@ public class MetarDataPoller {
 	}
 
 	public static void main(String[] args) {
-		MetarDataPoller poller = new MetarDataPoller("66.37.155.91:8080","/CurrentObs/GetCurrentObs");
-		poller.pollStationData("KAUS");
+		MetarDataPoller poller = new MetarDataPoller(args[0], "/CurrentObs/GetCurrentObs", args[1], args[2]);
+		poller.pollStationData("KAUS", args[3], args[4]);
 	}
 }
@@ -0,0 +1,49 @@
+package org.sensorhub.impl.sensor.station.metar;
+
+import java.util.Collection;
+
+import org.sensorhub.impl.sensor.station.Station;
+import org.sensorhub.impl.sensor.weather.FeatureCache;
+import org.vast.sensorML.SMLHelper;
+
+import net.opengis.gml.v32.Point;
+import net.opengis.gml.v32.impl.GMLFactory;
+import net.opengis.sensorml.v20.PhysicalSystem;
+
+/**
+ * <p>
+ * FOIs and SensorML descriptions of the stations served, created the first time they are
+ * asked for instead of for every station at start.
+ * </p>
+ */
+public class MetarFeatureCache extends FeatureCache<Station>
+{
+	public MetarFeatureCache(Collection<Station> stationList) {
+		for(Station s: stationList)
+			put(MetarSensor.STATION_UID_PREFIX + s.getId(), s);
+	}
+
+	@Override
+	protected PhysicalSystem newFoi(String uid, Station station) {
+		PhysicalSystem foi = new SMLHelper().newPhysicalSystem();
+		foi.setId(station.getId());
+		foi.setUniqueIdentifier(uid);
+		foi.setName(station.getName());
+		foi.setDescription("METAR weather station: " + station.getId());
+
+		Point stationLoc = new GMLFactory(true).newPoint();
+		stationLoc.setPos(new double[] {station.getLat(), station.getLon(), station.getElevation()});
+		foi.setLocation(stationLoc);
+		return foi;
+	}
+
+	@Override
+	protected PhysicalSystem newDescription(String uid, Station station) {
+		PhysicalSystem sensorDesc = new SMLHelper().newPhysicalSystem();
+		sensorDesc.setId("STATION_" + station.getId());
+		sensorDesc.setUniqueIdentifier(uid);
+		sensorDesc.setName(station.getName());
+		sensorDesc.setDescription("METAR weather station: " + station.getId());
+		return sensorDesc;
+	}
+}
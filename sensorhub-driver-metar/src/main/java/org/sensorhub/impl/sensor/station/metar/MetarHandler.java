@@ -0,0 +1,5 @@
+package org.sensorhub.impl.sensor.station.metar;
+
+public interface MetarHandler {
+	public void newMetar(Metar metar);
+}
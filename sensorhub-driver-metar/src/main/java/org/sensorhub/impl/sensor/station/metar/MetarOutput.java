@@ -16,17 +16,18 @@ Developer are Copyright (C) 2014 the Initial Developer. All Rights Reserved.
 package org.sensorhub.impl.sensor.station.metar;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import org.sensorhub.api.data.IMultiSourceDataInterface;
+import org.sensorhub.api.sensor.SensorDataEvent;
 import org.sensorhub.impl.sensor.AbstractSensorOutput;
 import org.vast.swe.SWEHelper;
 
@@ -49,18 +50,20 @@ public class MetarOutput extends AbstractSensorOutput<MetarSensor> implements IM
 
 	DataRecord metarRecordStruct;
 	DataEncoding metarRecordEncoding;
-	Map<String, Long> latestUpdateTimes;
-	Map<String, DataBlock> latestRecords = new LinkedHashMap<String, DataBlock>();
+	//  written by the polling timer and the EMWIN and archive threads
+	Map<String, Long> latestUpdateTimes = new ConcurrentHashMap<String, Long>();
+	Map<String, DataBlock> latestRecords = new ConcurrentHashMap<String, DataBlock>();
 	Timer timer;
-	TimerTask aviationTimerTask;
+	AviationTimerTask aviationTimerTask;
+	//  kept across restarts, so reports already published aren't sent again
+	MetarAviationWeatherReader aviationReader;
 	
 	public MetarOutput(MetarSensor parentSensor)
 	{
 		super(parentSensor);
-		aviationTimerTask = new AviationTimerTask(parentSensor.getConfiguration().aviationWeatherUrl);
-		timer = new Timer(true);
-	    timer.scheduleAtFixedRate(aviationTimerTask, 0, AVERAGE_POLLING_PERIOD);
-		latestUpdateTimes = new HashMap<String, Long>();
+		MetarConfig config = parentSensor.getConfiguration();
+		if(config.aviationWeatherUrl != null)
+			aviationReader = new MetarAviationWeatherReader(config.aviationWeatherUrl);
 	}
 
 
@@ -105,6 +108,23 @@ public class MetarOutput extends AbstractSensorOutput<MetarSensor> implements IM
 
 		// default encoding is text
 		metarRecordEncoding = fac.newTextEncoding(",", "\n");
+
+		//  only stations served are read and kept
+		if(aviationReader != null)
+			aviationReader.setStationFilter(parentSensor.stationFilter);
+	}
+
+
+	//  polling starts with the sensor, once consumers can be attached- reports of the first
+	//  poll are published and won't be returned again by the reader.  A cancelled TimerTask
+	//  can't be scheduled again, so each start gets its own
+	protected void start()
+	{
+		if(aviationReader == null || timer != null)
+			return;
+		aviationTimerTask = new AviationTimerTask(aviationReader, parentSensor.getConfiguration().batchEvents);
+		timer = new Timer(getName() + " poller", true);
+		timer.scheduleAtFixedRate(aviationTimerTask, 0, AVERAGE_POLLING_PERIOD);
 	}
 
 
@@ -134,6 +154,11 @@ public class MetarOutput extends AbstractSensorOutput<MetarSensor> implements IM
 
 	protected void stop()
 	{
+		if (aviationTimerTask != null)
+		{
+			aviationTimerTask.cancel();
+			aviationTimerTask = null;
+		}
 		if (timer != null)
 		{
 			timer.cancel();
@@ -189,35 +214,69 @@ public class MetarOutput extends AbstractSensorOutput<MetarSensor> implements IM
 	}
 	
 	// Realtime 
-	class AviationTimerTask extends TimerTask {
-		String serverUrl;
+	//  The reader is kept between polls, so only reports that changed are returned.  Reports
+	//  are handled as the file is streamed
+	class AviationTimerTask extends TimerTask implements MetarHandler {
+		MetarAviationWeatherReader reader;
+		boolean batchEvents;
+		List<DataBlock> batch = new ArrayList<>();
 		
-		public AviationTimerTask(String url) {
-			serverUrl = url;
+		public AviationTimerTask(MetarAviationWeatherReader reader, boolean batchEvents) {
+			this.reader = reader;
+			this.batchEvents = batchEvents;
 		}
 		
 		@Override
 		public void run() {
-			MetarAviationWeatherReader reader = new MetarAviationWeatherReader(serverUrl);
+			batch.clear();
 			try {
-				List<Metar> metars = reader.read();
-				for(Metar metar: metars) {
-					try {
-						metar.timeUtc = MetarParserNew.computeTimeUtc(metar.dateString);
-						// TODO Fix the time!!
-						latestUpdateTimes.put(metar.stationID, metar.timeUtc);
-						latestRecordTime = System.currentTimeMillis();
-						String stationUID = MetarSensor.STATION_UID_PREFIX + metar.stationID;
-						latestRecord = metarRecordToDataBlock(metar.stationID, metar);
-						latestRecords.put(stationUID, latestRecord);   
-					} catch (Exception e) {
-						e.printStackTrace(System.err);
-						continue;
-					}
-				}
+				reader.read(this);
 			} catch (IOException e) {
-				e.printStackTrace();
+				MetarSensor.log.error("Cannot read METARs from {}", reader.serverUrl, e);
+			}
+			//  one event for the whole poll- each record carries its station ID
+			if(!batch.isEmpty()) {
+				eventHandler.publishEvent(new SensorDataEvent(latestRecordTime, MetarOutput.this, batch.toArray(new DataBlock[batch.size()])));
+				batch.clear();
 			}
 		}
+
+		@Override
+		public void newMetar(Metar metar) {
+			try {
+				metar.timeUtc = MetarParserNew.computeTimeUtc(metar.dateString);
+			} catch (RuntimeException e) {
+				MetarSensor.log.debug("Bad date in report: {}", metar.reportString);
+				return;
+			}
+			try {
+				DataBlock rec = updateLatest(metar);
+				if(batchEvents)
+					batch.add(rec);
+				else
+					eventHandler.publishEvent(new SensorDataEvent(latestRecordTime, MetarOutput.this, rec));
+			} catch (RuntimeException e) {
+				MetarSensor.log.error("Cannot publish report: {}", metar.reportString, e);
+			}
+		}
+	}
+
+
+	//  Archive backfill- reports come with their time already set
+	void publishMetar(Metar metar)
+	{
+		DataBlock rec = updateLatest(metar);
+		eventHandler.publishEvent(new SensorDataEvent(latestRecordTime, this, rec));
+	}
+
+
+	private synchronized DataBlock updateLatest(Metar metar)
+	{
+		latestUpdateTimes.put(metar.stationID, metar.timeUtc);
+		latestRecordTime = System.currentTimeMillis();
+		String stationUID = MetarSensor.STATION_UID_PREFIX + metar.stationID;
+		latestRecord = metarRecordToDataBlock(metar.stationID, metar);
+		latestRecords.put(stationUID, latestRecord);
+		return latestRecord;
 	}
 }
@@ -523,7 +523,8 @@ Example: 36023G33KT 360 degrees heading, 23 kts speed with gusts to 33 kts.
 		//  *Assumes* system clock is correct and always ahead of dateStr day/hour/minute fields
 		//  We have to get year and month somehow, as they are not provided in the Metar record format.
 		// For archive ingest, year and month must be provided by the caller using computeTimeUtc(year, month, dateStr)
-		LocalDateTime dtNow = LocalDateTime.now();
+		//  in UTC like the report, or the month changes over at local midnight
+		LocalDateTime dtNow = LocalDateTime.now(ZoneOffset.UTC);
 		int year = dtNow.get(ChronoField.YEAR);
 		int month = dtNow.get(ChronoField.MONTH_OF_YEAR);
 		int dayOfMonth = dtNow.get(ChronoField.DAY_OF_MONTH);
@@ -1,13 +1,13 @@
 package org.sensorhub.impl.sensor.station.metar;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
-import java.util.Map;
+import java.util.HashSet;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.sensorhub.api.common.SensorHubException;
 import org.sensorhub.api.data.IMultiSourceDataProducer;
@@ -15,11 +15,8 @@ import org.sensorhub.impl.sensor.AbstractSensorModule;
 import org.sensorhub.impl.sensor.station.Station;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.vast.sensorML.SMLHelper;
 
 import net.opengis.gml.v32.AbstractFeature;
-import net.opengis.gml.v32.Point;
-import net.opengis.gml.v32.impl.GMLFactory;
 import net.opengis.sensorml.v20.AbstractProcess;
 import net.opengis.sensorml.v20.PhysicalSystem;
 
@@ -30,30 +27,26 @@ public class MetarSensor extends AbstractSensorModule<MetarConfig> implements IM
 	static final String SENSOR_UID_PREFIX = "urn:osh:sensor:metar:";
 	static final String STATION_UID_PREFIX = SENSOR_UID_PREFIX + "station:";
 
-	Set<String> foiIDs;
-	Map<String, PhysicalSystem> stationFois;
-	Map<String, PhysicalSystem> stationDesc;
+	//  FOIs and descriptions of the stations served, created on demand
+	MetarFeatureCache features;
 	MetarOutput metarInterface;
 	private MetarStationMap map;
+	//  stations served, and their IDs when not all stations of the map are
+	Collection<Station> stations;
+	Set<String> stationFilter;
 	
-	//   For Emwin operation- deprecate these
-	private DirectoryWatcher watcher;
-	private Thread watcherThread;
+	//   For Emwin operation
+	private EmwinIngester emwinIngester;
 	
 	boolean isRealtime = false;
 	
 	//  For aviationWeather operation
 	
+	//  For archive backfill
+	private MetarArchiveIngester archiveIngester;
+	
 	//  For realtime
 	
-	public MetarSensor()
-	{
-		this.foiIDs = new LinkedHashSet<String>();
-		this.stationFois = new LinkedHashMap<String, PhysicalSystem>();
-		this.stationDesc = new LinkedHashMap<String, PhysicalSystem>();
-	}
-
-
 	@Override
 	public void init() throws SensorHubException
 	{
@@ -63,16 +56,27 @@ public class MetarSensor extends AbstractSensorModule<MetarConfig> implements IM
 		this.uniqueID = SENSOR_UID_PREFIX + "network";
 		this.xmlID = "METAR_NETWORK";
 
+		// select stations before the output starts polling, so it only reads those
+		try {
+			map = MetarStationMap.getInstance(config.metarStationMapPath);
+		} catch (IOException e) {
+			throw new SensorHubException("IO Exception trying to load metarStationMap", e);
+		}
+		selectStations();
+		features = new MetarFeatureCache(stations);
+
 		this.metarInterface = new MetarOutput(this);        
 		addOutput(metarInterface, false);
 		metarInterface.init();
 		
-		if(config.aviationWeatherUrl != null) {
+		if(config.aviationWeatherUrl != null || config.emwinRoot != null) {
 			isRealtime = true;
 		} else if(config.archiveServerUrl != null) {
 			isRealtime = false;
+			if(config.archiveStartDate == null)
+				throw new SensorHubException("MetarSensor.init() failed. Must specify archiveStartDate with archiveServerUrl");
 		} else {
-			throw new SensorHubException("MetarSensor.init() failed. Must specify either aviationWeatherUrl or archiveServerUrl");
+			throw new SensorHubException("MetarSensor.init() failed. Must specify aviationWeatherUrl, emwinRoot or archiveServerUrl");
 		}
 		
 	}
@@ -88,7 +92,6 @@ public class MetarSensor extends AbstractSensorModule<MetarConfig> implements IM
 
 			// append href to all stations composing the network
 			//			for (String stationID: config.stationIDs)
-			Collection<Station> stations = map.getStations();
 			for (Station station: stations)
 			{
 				String name = "station" + station.getId();
@@ -102,60 +105,103 @@ public class MetarSensor extends AbstractSensorModule<MetarConfig> implements IM
 	@Override
 	public void start() throws SensorHubException
 	{
-		SMLHelper smlFac = new SMLHelper();
-		GMLFactory gmlFac = new GMLFactory(true);
+		updateSensorDescription();
 
-		map = null;
-		try {
-			map = MetarStationMap.getInstance(config.metarStationMapPath);
-		} catch (IOException e) {
-			throw new SensorHubException("IO Exception trying to load metarStationMap");
+		// Emwin Mode
+		if(config.emwinRoot != null) {
+			emwinIngester = new EmwinIngester(config.emwinRoot, new MetarHandler() {
+				@Override
+				public void newMetar(Metar metar) {
+					try {
+						metar.timeUtc = MetarParserNew.computeTimeUtc(metar.dateString);
+					} catch (RuntimeException e) {
+						log.debug("Bad date in EMWIN report: {}", metar.reportString);
+						return;
+					}
+					metarInterface.publishMetar(metar);
+				}
+			});
+			emwinIngester.setStationFilter(stationFilter);
+			try {
+				emwinIngester.start();
+			} catch (IOException e) {
+				throw new SensorHubException("Cannot watch EMWIN directory " + config.emwinRoot, e);
+			}
 		}
-		// generate station FOIs and full descriptions
-		Collection<Station> stations = map.getStations();
-		for (Station station: stations)
-		{
-			String stationId = station.getId();
-			String uid = STATION_UID_PREFIX + stationId;
-			String description = "METAR weather station: " + stationId;
-
-			// generate small SensorML for FOI (in this case the system is the FOI)
-			PhysicalSystem foi = smlFac.newPhysicalSystem();
-			foi.setId(station.getId());
-			foi.setUniqueIdentifier(uid);
-//			System.err.println("MetarSensor station/uid: " + station + "/" + uid);
-			foi.setName(station.getName());
-			foi.setDescription(description);
-
-			Point stationLoc = gmlFac.newPoint();
-			stationLoc.setPos(new double[] {station.getLat(), station.getLon(), station.getElevation()});
-			foi.setLocation(stationLoc);
-			stationFois.put(uid, foi);
-			foiIDs.add(uid);
-
-			// TODO generate full SensorML for sensor description
-			PhysicalSystem sensorDesc = smlFac.newPhysicalSystem();
-			sensorDesc.setId("STATION_" + stationId);
-			sensorDesc.setUniqueIdentifier(uid);
-			sensorDesc.setName(station.getName());
-			sensorDesc.setDescription(description);
-			stationDesc.put(uid, sensorDesc);
+
+		if(!isRealtime) {
+			archiveIngester = new MetarArchiveIngester(config, new MetarHandler() {
+				@Override
+				public void newMetar(Metar metar) {
+					metarInterface.publishMetar(metar);
+				}
+			});
+			archiveIngester.setStationFilter(stationFilter);
+			archiveIngester.start();
 		}
 
-		// Emwin Mode
-//		assert Files.exists(Paths.get(config.emwinRoot));
-//		try {
-//			watcher = new DirectoryWatcher(Paths.get(config.emwinRoot), StandardWatchEventKinds.ENTRY_CREATE);
-//			watcher.addListener(metarInterface);
-//			watcherThread = new Thread(watcher);
-//			watcherThread.start();
-//		} catch (IOException e) {
-//			// TODO Auto-generated catch block
-//			e.printStackTrace();
-//		}
-		updateSensorDescription();
+		metarInterface.start();
 	}
 	
+	/**
+	 * Select the stations of the map that pass the station, country and bounding box filters
+	 * of the configuration- all of them if none is set
+	 */
+	private void selectStations() throws SensorHubException
+	{
+		boolean hasIds = config.stationIds != null && !config.stationIds.isEmpty();
+		boolean hasCountries = config.countryCodes != null && !config.countryCodes.isEmpty();
+		int bboxFields = (config.bboxMinLat != null ? 1 : 0) + (config.bboxMinLon != null ? 1 : 0) +
+				(config.bboxMaxLat != null ? 1 : 0) + (config.bboxMaxLon != null ? 1 : 0);
+		if(bboxFields != 0 && bboxFields != 4)
+			throw new SensorHubException("MetarSensor.init() failed. Bounding box needs bboxMinLat, bboxMinLon, bboxMaxLat and bboxMaxLon");
+
+		if(!hasIds && !hasCountries && bboxFields == 0) {
+			stations = map.getStations();
+			stationFilter = null;
+			return;
+		}
+
+		// start from the smallest set the map can give without a scan
+		Set<String> ids = new HashSet<>();
+		if(hasIds) {
+			for(String id: config.stationIds)
+				ids.add(id.trim().toUpperCase());
+		}
+		Collection<Station> candidates;
+		if(bboxFields == 4) {
+			candidates = map.getStations(config.bboxMinLat, config.bboxMinLon, config.bboxMaxLat, config.bboxMaxLon);
+		} else if(hasIds) {
+			candidates = new ArrayList<>();
+			for(String id: ids) {
+				Station s = map.getStation(id);
+				if(s != null)
+					candidates.add(s);
+				else
+					log.warn("Station {} is not in the station map", id);
+			}
+		} else {
+			candidates = map.getStations();
+		}
+
+		Set<String> countries = new HashSet<>();
+		if(hasCountries) {
+			for(String c: config.countryCodes)
+				countries.add(c.trim().toUpperCase());
+		}
+		TreeMap<String, Station> selected = new TreeMap<>();
+		for(Station s: candidates) {
+			if(hasIds && !ids.contains(s.getId()))
+				continue;
+			if(hasCountries && (s.getCountryCode() == null || !countries.contains(s.getCountryCode().toUpperCase())))
+				continue;
+			selected.put(s.getId(), s);
+		}
+		stations = Collections.unmodifiableCollection(selected.values());
+		stationFilter = Collections.unmodifiableSet(new HashSet<>(selected.keySet()));
+		log.info("Serving {} of {} METAR stations", stations.size(), map.size());
+	}
+
 	public Station getStation(String stationId) {
 		return map.getStation(stationId);
 	}
@@ -163,6 +209,14 @@ public class MetarSensor extends AbstractSensorModule<MetarConfig> implements IM
 	@Override
 	public void stop() throws SensorHubException
 	{
+		if(emwinIngester != null) {
+			emwinIngester.stop();
+			emwinIngester = null;
+		}
+		if(archiveIngester != null) {
+			archiveIngester.stop();
+			archiveIngester = null;
+		}
 		metarInterface.stop();
 	}
 
@@ -184,7 +238,7 @@ public class MetarSensor extends AbstractSensorModule<MetarConfig> implements IM
 	@Override
 	public Collection<String> getEntityIDs()
 	{
-		return Collections.unmodifiableCollection(stationFois.keySet());
+		return features.getUids();
 	}
 
 
@@ -198,7 +252,7 @@ public class MetarSensor extends AbstractSensorModule<MetarConfig> implements IM
 	@Override
 	public AbstractProcess getCurrentDescription(String entityID)
 	{
-		return stationDesc.get(entityID);
+		return features.getDescription(entityID);
 	}
 
 
@@ -212,21 +266,21 @@ public class MetarSensor extends AbstractSensorModule<MetarConfig> implements IM
 	@Override
 	public AbstractFeature getCurrentFeatureOfInterest(String entityID)
 	{
-		return stationFois.get(entityID);
+		return features.getFoi(entityID);
 	}
 
 
 	@Override
 	public Collection<? extends AbstractFeature> getFeaturesOfInterest()
 	{
-		return Collections.unmodifiableCollection(stationFois.values());
+		return features.getFois();
 	}
 
 
 	@Override
 	public Collection<String> getFeaturesOfInterestIDs()
 	{
-		return Collections.unmodifiableCollection(foiIDs);
+		return features.getUids();
 	}
 
 	@Override
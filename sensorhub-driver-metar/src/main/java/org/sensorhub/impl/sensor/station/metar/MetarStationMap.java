@@ -1,10 +1,24 @@
 package org.sensorhub.impl.sensor.station.metar;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.sensorhub.impl.sensor.station.Station;
 
@@ -12,7 +26,14 @@ import com.opencsv.CSVReader;
 
 /**
  * <p>Title: MetarStationMap.java</p>
- * <p>Description: </p>
+ * <p>Description: Registry of METAR stations, built once when loaded and not modified
+ *   after.  Stations are held in an array sorted by upper case ID, looked up by binary
+ *   search, and indexed on a grid of 2 degree cells for bounding box and nearest station
+ *   queries, so neither scans all stations.
+ *
+ *   The registry is read from the stations CSV file, or from the binary form written by
+ *   writeBinary(), which loads several times faster.  The format is told by the first
+ *   bytes of the file.  Without a path, the CSV bundled with the driver is used.</p>
  *
  * @author tcook
  * @date Sep 26, 2016
@@ -20,39 +41,93 @@ import com.opencsv.CSVReader;
 public class MetarStationMap {
 	private static final String MAP_FILE_PATH = "metarStations.csv";
 //	private static final String MAP_FILE_PATH = "stationsAll.txt";
-	private HashMap<String, Station> map;
-	private static MetarStationMap instance = null;
-	
-	private MetarStationMap(String mapPath) throws IOException {
-		loadCsvMap(mapPath);
-	}
-	
-	public static MetarStationMap getInstance(String mapPath) throws IOException {
-		if(instance == null)
-			instance = new MetarStationMap(mapPath);
-		
+	static final int BINARY_MAGIC = 0x4D534D32;  // MSM2
+	static final double CELL_SIZE = 2.0;
+	static final int NUM_LAT_CELLS = (int)(180 / CELL_SIZE);
+	static final int NUM_LON_CELLS = (int)(360 / CELL_SIZE);
+	static final double EARTH_RADIUS_KM = 6371.0;
+
+	private static final Map<String, MetarStationMap> instances = new HashMap<>();
+
+	private final String [] ids;
+	private final Station [] stations;
+	//  stations of grid cell c are cellStations[cellStart[c], cellStart[c+1])
+	private final int [] cellStart;
+	private final int [] cellStations;
+	private final List<Station> stationList;
+
+	/**
+	 * @param stationList stations in file order- the last of stations with the same ID is kept
+	 */
+	private MetarStationMap(List<Station> stationList) {
+		TreeMap<String, Station> sorted = new TreeMap<>();
+		for(Station s: stationList) {
+			s.setId(s.getId().trim().toUpperCase());
+			sorted.put(s.getId(), s);
+		}
+		ids = sorted.keySet().toArray(new String[sorted.size()]);
+		stations = sorted.values().toArray(new Station[sorted.size()]);
+		this.stationList = Collections.unmodifiableList(Arrays.asList(stations));
+
+		//  counting sort of the stations by cell
+		int numCells = NUM_LAT_CELLS * NUM_LON_CELLS;
+		cellStart = new int[numCells + 1];
+		int [] cells = new int[stations.length];
+		for(int i=0; i<stations.length; i++) {
+			cells[i] = cell(latCell(stations[i].getLat()), lonCell(stations[i].getLon()));
+			cellStart[cells[i] + 1]++;
+		}
+		for(int c=0; c<numCells; c++)
+			cellStart[c + 1] += cellStart[c];
+		cellStations = new int[stations.length];
+		int [] next = Arrays.copyOf(cellStart, numCells);
+		for(int i=0; i<stations.length; i++)
+			cellStations[next[cells[i]]++] = i;
+	}
+
+	/**
+	 * @return registry of mapPath, loaded on first use and shared after
+	 */
+	public static synchronized MetarStationMap getInstance(String mapPath) throws IOException {
+		MetarStationMap instance = instances.get(mapPath);
+		if(instance == null) {
+			instance = load(mapPath);
+			instances.put(mapPath, instance);
+		}
 		return instance;
 	}
-	
-	private void loadGilbertMap(String mapPath) throws IOException {
-		try (BufferedReader reader = new BufferedReader(new FileReader(mapPath))) {
-			
+
+	/**
+	 * @param mapPath CSV or binary registry file, or null for the bundled stations
+	 */
+	public static MetarStationMap load(String mapPath) throws IOException {
+		long t0 = System.currentTimeMillis();
+		InputStream in = (mapPath != null) ? new FileInputStream(mapPath) : MetarStationMap.class.getResourceAsStream("/" + MAP_FILE_PATH);
+		if(in == null)
+			throw new IOException("Missing station map resource: " + MAP_FILE_PATH);
+		try(BufferedInputStream is = new BufferedInputStream(in)) {
+			is.mark(4);
+			DataInputStream dis = new DataInputStream(is);
+			boolean binary = dis.readInt() == BINARY_MAGIC;
+			if(!binary)
+				is.reset();
+			MetarStationMap map = binary ? loadBinary(dis) : loadCsv(is);
+			MetarSensor.log.debug("Loaded {} METAR stations from {} in {} ms", map.size(),
+					(mapPath != null) ? mapPath : MAP_FILE_PATH, System.currentTimeMillis() - t0);
+			return map;
 		}
 	}
-	
-	private void loadCsvMap(String mapPath) throws IOException {
-		System.err.println("MMap file: " + mapPath);
-		map = new HashMap<>();
-		
-		CSVReader reader = new CSVReader(new FileReader(mapPath));
+
+	private static MetarStationMap loadCsv(InputStream is) throws IOException {
+		List<Station> list = new ArrayList<>();
+		CSVReader reader = new CSVReader(new InputStreamReader(is, StandardCharsets.ISO_8859_1));
 		try {
 			String [] line;
 			reader.readNext(); // skip hdr line
 			while ((line = reader.readNext()) != null ) {
 				String id = line[1];
-//				System.err.println(id);
 				if(id.trim().length() < 4) {
-					System.err.println("Skipping stn: " + id);
+					MetarSensor.log.debug("Skipping stn: {}", id);
 					continue;
 				}
 				String name = line[2];
@@ -65,31 +140,191 @@ public class MetarStationMap {
 					el = Double.parseDouble(line[5]);
 
 				Station s = new Station();
-				s.setId(id.toUpperCase());
+				s.setId(id);
 				s.setName(name);
 				s.setLat(lat);
 				s.setLon(lon);
 				s.setElevation(el);
-				map.put(id, s);
-
+				if(line.length > 11 && !line[11].trim().isEmpty())
+					s.setCountryCode(line[11].trim());
+				list.add(s);
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
+		} catch (RuntimeException e) {
+			throw new IOException("Bad station map line " + (list.size() + 2), e);
 		} finally {
 			reader.close();
 		}
+		return new MetarStationMap(list);
+	}
+
+	private static MetarStationMap loadBinary(DataInputStream dis) throws IOException {
+		int n = dis.readInt();
+		List<Station> list = new ArrayList<>(n);
+		for(int i=0; i<n; i++) {
+			Station s = new Station();
+			s.setId(dis.readUTF());
+			s.setName(dis.readUTF());
+			s.setLat(dis.readDouble());
+			s.setLon(dis.readDouble());
+			s.setElevation(dis.readDouble());
+			String country = dis.readUTF();
+			s.setCountryCode(country.isEmpty() ? null : country);
+			list.add(s);
+		}
+		return new MetarStationMap(list);
+	}
+
+	/**
+	 * Write the registry in the binary form read by load()
+	 */
+	public void writeBinary(OutputStream out) throws IOException {
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+		dos.writeInt(BINARY_MAGIC);
+		dos.writeInt(stations.length);
+		for(Station s: stations) {
+			dos.writeUTF(s.getId());
+			dos.writeUTF((s.getName() != null) ? s.getName() : "");
+			dos.writeDouble(s.getLat());
+			dos.writeDouble(s.getLon());
+			dos.writeDouble(s.getElevation());
+			dos.writeUTF((s.getCountryCode() != null) ? s.getCountryCode() : "");
+		}
+		dos.flush();
 	}
 
 	public Station getStation(String id) {
-		return map.get(id.toUpperCase());
+		int i = Arrays.binarySearch(ids, id.trim().toUpperCase());
+		return (i >= 0) ? stations[i] : null;
 	}
-	
+
 	public Collection<Station> getStations() {
-		return map.values();
+		return stationList;
 	}
-	
+
+	public int size() {
+		return stations.length;
+	}
+
+	/**
+	 * @return stations in the box, in no particular order.  Boxes crossing the antimeridian
+	 * have minLon > maxLon
+	 */
+	public List<Station> getStations(double minLat, double minLon, double maxLat, double maxLon) {
+		List<Station> result = new ArrayList<>();
+		boolean wraps = minLon > maxLon;
+		int la0 = latCell(minLat), la1 = latCell(maxLat);
+		int lo0 = lonCell(minLon), lo1 = lonCell(maxLon);
+		int numLon = (wraps || lo1 < lo0) ? lo1 + NUM_LON_CELLS - lo0 : lo1 - lo0;
+		if(maxLon - minLon >= 360 || numLon >= NUM_LON_CELLS)
+			numLon = NUM_LON_CELLS - 1;
+		for(int la=la0; la<=la1; la++) {
+			for(int k=0; k<=numLon; k++) {
+				int c = cell(la, (lo0 + k) % NUM_LON_CELLS);
+				for(int j=cellStart[c]; j<cellStart[c + 1]; j++) {
+					Station s = stations[cellStations[j]];
+					double lat = s.getLat(), lon = s.getLon();
+					if(lat < minLat || lat > maxLat)
+						continue;
+					if(wraps ? (lon >= minLon || lon <= maxLon) : (lon >= minLon && lon <= maxLon))
+						result.add(s);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return station closest to lat, lon (great circle distance), null if there are none
+	 */
+	public Station getNearestStation(double lat, double lon) {
+		//  search rings of cells around the point until a station is found
+		int la = latCell(lat), lo = lonCell(lon);
+		Station best = null;
+		double bestDist = Double.MAX_VALUE;
+		for(int r=0; best == null && r <= Math.max(NUM_LAT_CELLS, NUM_LON_CELLS / 2); r++) {
+			for(int dla=-r; dla<=r; dla++) {
+				if(la + dla < 0 || la + dla >= NUM_LAT_CELLS)
+					continue;
+				int step = (Math.abs(dla) == r) ? 1 : 2 * r;
+				for(int dlo=-r; dlo<=r; dlo+=step) {
+					int c = cell(la + dla, Math.floorMod(lo + dlo, NUM_LON_CELLS));
+					for(int j=cellStart[c]; j<cellStart[c + 1]; j++) {
+						Station s = stations[cellStations[j]];
+						double d = distanceKm(lat, lon, s.getLat(), s.getLon());
+						if(d < bestDist) {
+							bestDist = d;
+							best = s;
+						}
+					}
+				}
+			}
+		}
+		if(best == null)
+			return null;
+
+		//  cells are not square on the sphere- a closer station can sit outside the rings
+		//  searched, so check the bounding box of the distance found
+		double dLat = Math.toDegrees(bestDist / EARTH_RADIUS_KM);
+		double minLat = lat - dLat, maxLat = lat + dLat;
+		double minLon = -180, maxLon = 180;
+		if(minLat > -90 && maxLat < 90) {
+			double dLon = Math.toDegrees(Math.asin(Math.min(1.0, Math.sin(bestDist / EARTH_RADIUS_KM) / Math.cos(Math.toRadians(lat)))));
+			if(dLon < 180) {
+				minLon = normalizeLon(lon - dLon);
+				maxLon = normalizeLon(lon + dLon);
+			}
+		}
+		for(Station s: getStations(Math.max(minLat, -90), minLon, Math.min(maxLat, 90), maxLon)) {
+			double d = distanceKm(lat, lon, s.getLat(), s.getLon());
+			if(d < bestDist) {
+				bestDist = d;
+				best = s;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return great circle distance in km
+	 */
+	public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+		double dLat = Math.toRadians(lat2 - lat1);
+		double dLon = Math.toRadians(lon2 - lon1);
+		double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+				Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+		return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0, Math.sqrt(a)));
+	}
+
+	private static double normalizeLon(double lon) {
+		return ((lon + 180) % 360 + 360) % 360 - 180;
+	}
+
+	private static int latCell(double lat) {
+		int c = (int)Math.floor((lat + 90) / CELL_SIZE);
+		return Math.max(0, Math.min(NUM_LAT_CELLS - 1, c));
+	}
+
+	private static int lonCell(double lon) {
+		return Math.floorMod((int)Math.floor((normalizeLon(lon) + 180) / CELL_SIZE), NUM_LON_CELLS);
+	}
+
+	private static int cell(int latCell, int lonCell) {
+		return latCell * NUM_LON_CELLS + lonCell;
+	}
+
+	/**
+	 * Look up a station, or with -bin, convert a CSV registry to the binary form
+	 */
 	public static void main(String[] args) throws IOException {
-		MetarStationMap metarMap = MetarStationMap.getInstance("C:/Users/tcook/root/workOsh/osh-sensors-weather/sensorhub-driver-metar/src/main/resources/metarStations.csv");
+		if(args.length == 3 && args[0].equals("-bin")) {
+			MetarStationMap metarMap = MetarStationMap.load(args[1]);
+			try(OutputStream os = new FileOutputStream(args[2])) {
+				metarMap.writeBinary(os);
+			}
+			System.err.println("Wrote " + metarMap.size() + " stations to " + args[2]);
+			return;
+		}
+		MetarStationMap metarMap = MetarStationMap.getInstance(args.length > 0 ? args[0] : null);
 
 		System.err.println(metarMap.getStation("KEVW"));
 	}
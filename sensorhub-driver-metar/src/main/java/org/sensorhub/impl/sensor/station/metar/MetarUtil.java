@@ -29,7 +29,13 @@ public class MetarUtil
 	}
 
 	public static List<String> cleanFile(Path p, boolean isMarta) throws IOException {
-		List<String> lines = getLinesFromFile(p.toString());
+		return cleanLines(getLinesFromFile(p.toString()), isMarta);
+	}
+
+	/**
+	 * Join multi-line reports and drop headers, blank lines and NIL reports, as for files
+	 */
+	public static List<String> cleanLines(List<String> lines, boolean isMarta) {
 		List<String> linesOut = new ArrayList<>();
 		boolean multiLine = false;
 		StringBuilder multiLineBuffer = new StringBuilder(); 
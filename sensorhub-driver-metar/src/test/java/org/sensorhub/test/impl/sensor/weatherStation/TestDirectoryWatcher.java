@@ -0,0 +1,131 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+The Initial Developer is Sensia Software LLC. Portions created by the Initial
+Developer are Copyright (C) 2014 the Initial Developer. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.impl.sensor.weatherStation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.impl.sensor.station.metar.DirectoryWatcher;
+import org.sensorhub.impl.sensor.station.metar.FileListener;
+
+
+/**
+ * <p>
+ * Files must be delivered once written, and again when a name is reused.
+ * </p>
+ */
+public class TestDirectoryWatcher implements FileListener
+{
+    static final long BATCH_DELAY = 200;
+    static final long TIMEOUT = 10000;
+
+    Path dir;
+    DirectoryWatcher watcher;
+    Thread watcherThread;
+    List<String> delivered = new ArrayList<>();
+
+
+    @Before
+    public void init() throws Exception
+    {
+        dir = Files.createTempDirectory("watcher");
+        watcher = new DirectoryWatcher(dir, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watcher.setBatchDelay(BATCH_DELAY);
+        watcher.addListener(this);
+        watcherThread = new Thread(watcher);
+        watcherThread.start();
+    }
+
+
+    @Override
+    public void newFile(Path p) throws IOException
+    {
+        synchronized (delivered)
+        {
+            delivered.add(p.getFileName() + ":" + Files.size(p));
+            delivered.notifyAll();
+        }
+    }
+
+
+    void waitForFiles(int count) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + TIMEOUT;
+        synchronized (delivered)
+        {
+            while (delivered.size() < count && System.currentTimeMillis() < end)
+                delivered.wait(100);
+        }
+    }
+
+
+    @Test
+    public void testFileWrittenSlowly() throws Exception
+    {
+        // writes spaced by less than the batch delay
+        try (OutputStream os = Files.newOutputStream(dir.resolve("slow.txt")))
+        {
+            for (int i = 0; i < 10; i++)
+            {
+                os.write(new byte[100]);
+                os.flush();
+                Thread.sleep(BATCH_DELAY / 4);
+            }
+        }
+        waitForFiles(1);
+        Thread.sleep(3 * BATCH_DELAY);
+        assertEquals("[slow.txt:1000]", delivered.toString());
+    }
+
+
+    @Test
+    public void testNameReused() throws Exception
+    {
+        Path file = dir.resolve("reused.txt");
+        Files.write(file, new byte[10]);
+        waitForFiles(1);
+        Files.delete(file);
+        Files.write(file, new byte[20]);
+        waitForFiles(2);
+        Thread.sleep(3 * BATCH_DELAY);
+        assertEquals("[reused.txt:10, reused.txt:20]", delivered.toString());
+    }
+
+
+    @After
+    public void cleanup() throws Exception
+    {
+        watcher.stop();
+        watcherThread.join(TIMEOUT);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir))
+        {
+            for (Path p: files)
+                Files.delete(p);
+        }
+        Files.delete(dir);
+    }
+}
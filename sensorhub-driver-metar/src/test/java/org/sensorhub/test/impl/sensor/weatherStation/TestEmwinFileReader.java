@@ -0,0 +1,159 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+The Initial Developer is Sensia Software LLC. Portions created by the Initial
+Developer are Copyright (C) 2014 the Initial Developer. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.impl.sensor.weatherStation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.impl.sensor.station.metar.EmwinFileReader;
+import org.sensorhub.impl.sensor.station.metar.Metar;
+import org.sensorhub.impl.sensor.station.metar.MetarHandler;
+
+
+/**
+ * <p>
+ * EmwinFileReader on a file of two METAR bulletins as received from EMWIN, with CR CR LF
+ * line ends, SOH/ETX framing, sequence numbers, WMO headings and AWIPS IDs.  Reports
+ * split over several lines are joined with single spaces, NIL reports are dropped and
+ * the last report of the file isn't terminated.
+ * </p>
+ */
+public class TestEmwinFileReader implements MetarHandler
+{
+    static final String NL = "\r\r\n";
+    static final String FILE =
+        "\u0001" + NL +
+        "123 " + NL +
+        "SAUS70 KWBC 121900" + NL +
+        "MTRNYC" + NL +
+        "METAR" + NL +
+        "KJFK 121851Z 18012G20KT 10SM FEW050 SCT250 26/18 A2995 RMK AO2" + NL +
+        "     SLP142 T02610183=" + NL +
+        "KORD 121851Z 27015G25KT 10SM BKN035 OVC250 M02/M08 A3012=" + NL +
+        "KLGA 121851Z NIL=" + NL +
+        NL + "\u0003" +
+        "\u0001" + NL +
+        "456 " + NL +
+        "SAUS80 KWBC 121905" + NL +
+        "MTRDEN" + NL +
+        "SPECI KDEN 121903Z 23013KT 210V250 3SM -TSRA BR BKN030CB 18/14 A3001" + NL +
+        "     RMK AO2 P0012=" + NL +
+        "KBOS 121854Z 02022G31KT 1/2SM +SN FZFG VV004 M03/M04 A2958" + NL;
+
+    //  the METAR line of the collective starts its first report
+    static final List<String> EXPECTED = Arrays.asList(
+        "METAR KJFK 121851Z 18012G20KT 10SM FEW050 SCT250 26/18 A2995 RMK AO2 SLP142 T02610183",
+        "KORD 121851Z 27015G25KT 10SM BKN035 OVC250 M02/M08 A3012",
+        "SPECI KDEN 121903Z 23013KT 210V250 3SM -TSRA BR BKN030CB 18/14 A3001 RMK AO2 P0012",
+        "KBOS 121854Z 02022G31KT 1/2SM +SN FZFG VV004 M03/M04 A2958");
+
+    EmwinFileReader reader;
+    Path file;
+    List<Metar> metars = new ArrayList<>();
+
+
+    @Before
+    public void init() throws Exception
+    {
+        reader = new EmwinFileReader();
+        file = Files.createTempFile("emwin", ".txt");
+    }
+
+
+    @Override
+    public void newMetar(Metar metar)
+    {
+        metars.add(metar);
+    }
+
+
+    List<String> read(String content) throws Exception
+    {
+        Files.write(file, content.getBytes(StandardCharsets.US_ASCII));
+        metars.clear();
+        int cnt = reader.read(file, this);
+        assertEquals(metars.size(), cnt);
+        List<String> reports = new ArrayList<>();
+        for (Metar metar: metars)
+            reports.add(metar.reportString);
+        return reports;
+    }
+
+
+    @Test
+    public void testBulletins() throws Exception
+    {
+        assertEquals(EXPECTED, read(FILE));
+        assertEquals("KJFK", metars.get(0).stationID);
+        assertEquals("KDEN", metars.get(2).stationID);
+        assertEquals(true, metars.get(2).isSpeci);
+    }
+
+
+    @Test
+    public void testHeadersOnly() throws Exception
+    {
+        assertEquals(0, read("\u0001" + NL + "789 " + NL + "SAUS70 KWBC 121900" + NL + "MTRNYC" + NL + NL + "\u0003").size());
+        assertEquals(0, read("").size());
+    }
+
+
+    @Test
+    public void testStationFilter() throws Exception
+    {
+        reader.setStationFilter(new HashSet<>(Arrays.asList("KORD", "KBOS")));
+        assertEquals(Arrays.asList(EXPECTED.get(1), EXPECTED.get(3)), read(FILE));
+    }
+
+
+    @Test
+    public void testBufferReuse() throws Exception
+    {
+        // a shorter file read into the buffer of the previous one
+        assertEquals(EXPECTED, read(FILE));
+        String single = "SAUS70 KWBC 121900" + NL + "MTRNYC" + NL + EXPECTED.get(1) + "=" + NL;
+        assertEquals(Arrays.asList(EXPECTED.get(1)), read(single));
+
+        // then files larger than the buffer, and large enough to be mapped
+        String terminated = FILE.replace("A2958" + NL, "A2958=" + NL);
+        for (int copies: new int [] {100, 500})
+        {
+            StringBuilder large = new StringBuilder();
+            for (int i = 0; i < copies; i++)
+                large.append(terminated);
+            List<String> reports = read(large.toString());
+            assertEquals(copies * EXPECTED.size(), reports.size());
+            assertEquals(EXPECTED, reports.subList(reports.size() - EXPECTED.size(), reports.size()));
+        }
+    }
+
+
+    @After
+    public void cleanup() throws Exception
+    {
+        Files.deleteIfExists(file);
+    }
+}
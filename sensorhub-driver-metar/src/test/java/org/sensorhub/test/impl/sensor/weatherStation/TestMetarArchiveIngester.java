@@ -0,0 +1,202 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+The Initial Developer is Sensia Software LLC. Portions created by the Initial
+Developer are Copyright (C) 2014 the Initial Developer. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.impl.sensor.weatherStation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.impl.sensor.station.metar.Metar;
+import org.sensorhub.impl.sensor.station.metar.MetarArchiveIngester;
+import org.sensorhub.impl.sensor.station.metar.MetarConfig;
+import org.sensorhub.impl.sensor.station.metar.MetarHandler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * <p>
+ * Resuming an archive backfill from its checkpoint.  The file of a day holds late reports
+ * of the previous day: those published before the restart must not be published again,
+ * and those never published must not be lost.
+ * </p>
+ */
+public class TestMetarArchiveIngester implements MetarHandler
+{
+    static final String LATE_1 = "KJFK 012351Z 18010KT 10SM FEW050 24/18 A2996";
+    static final String LATE_2 = "KORD 022351Z 27012KT 10SM BKN035 M01/M07 A3010";
+    static final Map<String, String []> DAY_FILES = new HashMap<>();
+    static
+    {
+        DAY_FILES.put("/archive/20170401.txt", new String [] {
+            "KJFK 010051Z 18012KT 10SM FEW050 26/18 A2995",
+            "KORD 011851Z 27015KT 10SM BKN035 M02/M08 A3012",
+        });
+        DAY_FILES.put("/archive/20170402.txt", new String [] {
+            LATE_1,
+            "KJFK 020051Z 19008KT 10SM SCT250 22/17 A2999",
+            "KORD 021851Z 28011KT 10SM OVC030 M03/M09 A3015",
+        });
+        DAY_FILES.put("/archive/20170403.txt", new String [] {
+            LATE_2,
+            "KJFK 030051Z 20006KT 10SM CLR 21/16 A3001",
+        });
+    }
+
+    HttpServer server;
+    Path checkpointFile;
+    List<String> reports = new ArrayList<>();
+
+
+    @Before
+    public void init() throws Exception
+    {
+        checkpointFile = Files.createTempFile("metarArchive", ".properties");
+        Files.delete(checkpointFile);
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/archive/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                String [] lines = DAY_FILES.get(exchange.getRequestURI().getPath());
+                if (lines == null)
+                {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                StringBuilder file = new StringBuilder();
+                for (String line: lines)
+                    file.append(line).append('\n');
+                byte [] data = file.toString().getBytes(StandardCharsets.US_ASCII);
+                exchange.sendResponseHeaders(200, data.length);
+                try (OutputStream os = exchange.getResponseBody())
+                {
+                    os.write(data);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+
+    @Override
+    public void newMetar(Metar metar)
+    {
+        reports.add(metar.reportString);
+    }
+
+
+    void runBackfill(String stopDate)
+    {
+        MetarConfig config = new MetarConfig();
+        config.archiveServerUrl = "http://localhost:" + server.getAddress().getPort();
+        config.archiveServerPath = "/archive/{yyyy}{MM}{dd}.txt";
+        config.archiveStartDate = "2017-04-01";
+        config.archiveStopDate = stopDate;
+        config.archiveCheckpointFile = checkpointFile.toString();
+        new MetarArchiveIngester(config, this).run();
+    }
+
+
+    List<String> getReports(String day)
+    {
+        List<String> dayReports = new ArrayList<>();
+        for (String report: reports)
+            if (report.substring(5, 7).equals(day))
+                dayReports.add(report);
+        return dayReports;
+    }
+
+
+    @Test
+    public void testResumeAfterDay() throws Exception
+    {
+        // stopped once the file of the 2nd was read and the 1st published
+        Properties props = new Properties();
+        props.setProperty("lastDay", "2017-04-01");
+        props.setProperty("publishedBefore", Long.toString(LocalDate.parse("2017-04-02").atStartOfDay(ZoneOffset.UTC).toEpochSecond()));
+        try (Writer w = Files.newBufferedWriter(checkpointFile, StandardCharsets.UTF_8))
+        {
+            props.store(w, null);
+        }
+
+        runBackfill("2017-04-03");
+        assertEquals("Late report of the 1st published again", 0, getReports("01").size());
+        List<String> expected = new ArrayList<>();
+        expected.addAll(Arrays.asList(DAY_FILES.get("/archive/20170402.txt")).subList(1, 3));
+        expected.addAll(Arrays.asList(DAY_FILES.get("/archive/20170403.txt")));
+        assertEquals(expected, reports);
+    }
+
+
+    @Test
+    public void testResumeAfterComplete() throws Exception
+    {
+        runBackfill("2017-04-02");
+        assertEquals(5, reports.size());
+        assertEquals(LATE_1, reports.get(2));
+
+        // the late report of the 2nd is only in the file of the 3rd
+        reports.clear();
+        runBackfill("2017-04-03");
+        assertEquals(Arrays.asList(LATE_2, DAY_FILES.get("/archive/20170403.txt")[1]), reports);
+    }
+
+
+    @Test
+    public void testNoDuplicates() throws Exception
+    {
+        for (String stop: new String [] {"2017-04-01", "2017-04-02", "2017-04-03"})
+            runBackfill(stop);
+        List<String> expected = new ArrayList<>();
+        for (String [] lines: DAY_FILES.values())
+            expected.addAll(Arrays.asList(lines));
+        assertEquals(expected.size(), reports.size());
+        assertEquals(expected.size(), new HashSet<>(reports).size());
+    }
+
+
+    @After
+    public void cleanup() throws Exception
+    {
+        if (server != null)
+            server.stop(0);
+        Files.deleteIfExists(checkpointFile);
+    }
+}
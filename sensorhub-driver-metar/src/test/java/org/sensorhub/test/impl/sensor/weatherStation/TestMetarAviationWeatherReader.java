@@ -0,0 +1,267 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+The Initial Developer is Sensia Software LLC. Portions created by the Initial
+Developer are Copyright (C) 2014 the Initial Developer. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.impl.sensor.weatherStation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.impl.sensor.station.metar.Metar;
+import org.sensorhub.impl.sensor.station.metar.MetarAviationWeatherReader;
+import org.sensorhub.impl.sensor.station.metar.MetarHandler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * <p>
+ * Conditional download of metars.cache.csv from a local HTTP server.  A download cut
+ * midway must not be taken as read: the next poll has to get the file again, and all the
+ * reports it holds.  Gzip content, from a .gz file or Content-Encoding, gives the same
+ * reports as the plain file.
+ * </p>
+ */
+public class TestMetarAviationWeatherReader implements MetarHandler
+{
+    static final String ETAG = "\"5f3a-1\"";
+    static final String [] REPORTS = {
+        "KJFK 121851Z 18012G20KT 10SM FEW050 SCT250 26/18 A2995 RMK AO2 SLP142 T02610183",
+        "KORD 121851Z 27015G25KT 10SM BKN035 OVC250 M02/M08 A3012 RMK AO2 SLP204 T10221078",
+        "KDEN 121853Z 23013KT 210V250 3SM -TSRA BR BKN030CB 18/14 A3001 RMK AO2 SLP982",
+        "KSEA 121853Z VRB03KT 1 1/2SM -RA BR OVC008 11/10 A2978 RMK AO2 SLP088",
+        "EGLL 121850Z 24012KT 9999 FEW030 15/08 Q1018",
+    };
+
+    HttpServer server;
+    byte [] file;
+    byte [] gzipFile;
+    volatile int cutAfter = -1;  // bytes sent before the connection is dropped, -1 for all
+    volatile int numRequests;
+    volatile int numNotModified;
+    List<Metar> metars = new ArrayList<>();
+
+
+    @Before
+    public void init() throws Exception
+    {
+        StringBuilder csv = new StringBuilder();
+        csv.append("No errors\nNo warnings\n5 ms\ndata source=metars\n").append(REPORTS.length).append(" results\n");
+        csv.append("raw_text,station_id,observation_time\n");
+        for (String report: REPORTS)
+            csv.append(report).append(',').append(report.substring(0, 4)).append(",2017-04-12T18:51:00Z\n");
+        file = csv.toString().getBytes(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(bos))
+        {
+            gz.write(file);
+        }
+        gzipFile = bos.toByteArray();
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/metars.cache.csv.gz", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                send(exchange, gzipFile, null);
+            }
+        });
+        server.createContext("/gzip/metars.cache.csv", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                boolean acceptGzip = String.valueOf(exchange.getRequestHeaders().getFirst("Accept-Encoding")).contains("gzip");
+                send(exchange, acceptGzip ? gzipFile : file, acceptGzip ? "gzip" : null);
+            }
+        });
+        server.createContext("/metars.cache.csv", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                numRequests++;
+                if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+                {
+                    numNotModified++;
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.getResponseHeaders().add("ETag", ETAG);
+                exchange.sendResponseHeaders(200, file.length);
+                try (OutputStream os = exchange.getResponseBody())
+                {
+                    os.write(file, 0, (cutAfter >= 0) ? cutAfter : file.length);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+
+    static void send(HttpExchange exchange, byte [] data, String encoding) throws IOException
+    {
+        if (encoding != null)
+            exchange.getResponseHeaders().add("Content-Encoding", encoding);
+        exchange.sendResponseHeaders(200, data.length);
+        try (OutputStream os = exchange.getResponseBody())
+        {
+            os.write(data);
+        }
+        exchange.close();
+    }
+
+
+    String getUrl()
+    {
+        return getUrl("/metars.cache.csv");
+    }
+
+
+    String getUrl(String path)
+    {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+
+
+    static List<String> getReports(List<Metar> metars)
+    {
+        List<String> reports = new ArrayList<>();
+        for (Metar metar: metars)
+            reports.add(metar.reportString + " " + metar.stationID + " " + metar.getTemperature() + " " + metar.pressure);
+        return reports;
+    }
+
+
+    @Override
+    public void newMetar(Metar metar)
+    {
+        metars.add(metar);
+    }
+
+
+    @Test
+    public void testNotModified() throws Exception
+    {
+        MetarAviationWeatherReader reader = new MetarAviationWeatherReader(getUrl());
+        assertEquals(REPORTS.length, reader.read(this));
+        assertEquals(0, reader.read(this));
+        assertEquals(1, numNotModified);
+        assertEquals(REPORTS.length, metars.size());
+    }
+
+
+    @Test
+    public void testCutDownload() throws Exception
+    {
+        MetarAviationWeatherReader reader = new MetarAviationWeatherReader(getUrl());
+
+        // connection dropped in the middle of the fourth report
+        String text = new String(file, StandardCharsets.US_ASCII);
+        cutAfter = text.indexOf(REPORTS[3]) + 20;
+        try
+        {
+            reader.read(this);
+            fail("Cut download not reported");
+        }
+        catch (IOException e)
+        {
+        }
+        assertEquals(3, metars.size());
+
+        // the file must be downloaded again, not answered with 304
+        cutAfter = -1;
+        metars.clear();
+        reader.read(this);
+        assertEquals(0, numNotModified);
+        List<String> stations = new ArrayList<>();
+        for (Metar metar: metars)
+            stations.add(metar.stationID);
+        for (String report: REPORTS)
+            assertTrue(report, stations.contains(report.substring(0, 4)));
+
+        // now complete
+        metars.clear();
+        assertEquals(0, reader.read(this));
+        assertEquals(1, numNotModified);
+        assertEquals(3, numRequests);
+    }
+
+
+    @Test
+    public void testGzip() throws Exception
+    {
+        List<String> expected = getReports(new MetarAviationWeatherReader(getUrl()).read());
+        assertEquals(REPORTS.length, expected.size());
+        assertEquals(expected, getReports(new MetarAviationWeatherReader(getUrl("/metars.cache.csv.gz")).read()));
+        assertEquals(expected, getReports(new MetarAviationWeatherReader(getUrl("/gzip/metars.cache.csv")).read()));
+    }
+
+
+    @Test
+    public void testUnchangedReports() throws Exception
+    {
+        MetarAviationWeatherReader reader = new MetarAviationWeatherReader(getUrl("/metars.cache.csv.gz"));
+        assertEquals(REPORTS.length, reader.read().size());
+        // no ETag: the file is read again, but all its reports were seen
+        assertEquals(0, reader.read().size());
+    }
+
+
+    @Test
+    public void testCutGzip() throws Exception
+    {
+        // gzip stream cut before its trailer
+        final byte [] cut = Arrays.copyOf(gzipFile, gzipFile.length - 6);
+        server.createContext("/cut/metars.cache.csv.gz", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                send(exchange, cut, null);
+            }
+        });
+        try
+        {
+            new MetarAviationWeatherReader(getUrl("/cut/metars.cache.csv.gz")).read(this);
+            fail("Cut gzip stream not reported");
+        }
+        catch (IOException e)
+        {
+        }
+    }
+
+
+    @After
+    public void cleanup()
+    {
+        if (server != null)
+            server.stop(0);
+    }
+}
@@ -0,0 +1,207 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+The Initial Developer is Sensia Software LLC. Portions created by the Initial
+Developer are Copyright (C) 2014 the Initial Developer. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.impl.sensor.weatherStation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.impl.sensor.station.metar.Metar;
+import org.sensorhub.impl.sensor.station.metar.MetarBulkParser;
+import org.sensorhub.impl.sensor.station.metar.MetarCursorParser;
+import org.sensorhub.impl.sensor.station.metar.MetarHandler;
+
+
+/**
+ * <p>
+ * MetarBulkParser against a single MetarCursorParser run over the same reports: same
+ * Metars, in input order, delivered on the calling thread.
+ * </p>
+ */
+public class TestMetarBulkParser
+{
+    static final String [] STATIONS = {"KJFK", "KORD", "KDEN", "KSEA", "EGLL", "LFPG", "CYYZ", "SBGR"};
+    static final String [] REPORTS = {
+        "KJFK 121851Z 18012G20KT 10SM FEW050 SCT250 26/18 A2995 RMK AO2 SLP142 T02610183",
+        "METAR KORD 051751Z 27015G25KT 10SM BKN035 OVC250 M02/M08 A3012 RMK AO2 PK WND 28032/1720 SLP204 T10221078",
+        "SPECI KDEN 101830Z 23013KT 210V250 3SM -TSRA BR BKN030CB 18/14 A3001 RMK AO2 SLP982 P0012 T01780139",
+        "KSEA 220053Z VRB03KT 1 1/2SM -RA BR OVC008 11/10 A2978 RMK AO2 SLP088 P0004 T01060100",
+        "KBOS 031454Z COR 02022G31KT 1/2SM +SN FZFG VV004 M03/M04 A2958 RMK AO2 SLP013 P0009 T10281044",
+        "KLAX 121853Z 25010KT 10SM R25L/2400FT FEW020 21/14 A2992 RMK AO2 SLP500 T02110139",
+        "EGLL 151150Z 24012KT 9999 FEW030 15/08 Q1018",
+        "LFPG 151200Z 05008KT 0800 R27/0600U FG VV002 08/08 Q1025",
+        "SPECI SBGR 121800Z 14006KT CAVOK 25/14 Q1016",
+    };
+
+    ForkJoinPool pool;
+    List<String> reports = new ArrayList<>();
+
+
+    @Before
+    public void init()
+    {
+        pool = new ForkJoinPool(4);
+
+        // REPORTS under other stations and times, with bad lines
+        Random random = new Random(3);
+        for (int i = 0; i < 20000; i++)
+        {
+            if (random.nextInt(50) == 0)
+            {
+                reports.add(random.nextBoolean() ? "" : "NIL REPORT " + i);
+                continue;
+            }
+            String report = REPORTS[random.nextInt(REPORTS.length)];
+            String [] tokens = report.split(" ");
+            int idx = (tokens[0].equals("METAR") || tokens[0].equals("SPECI")) ? 1 : 0;
+            tokens[idx] = STATIONS[random.nextInt(STATIONS.length)];
+            tokens[idx + 1] = String.format("%02d%02d%02dZ", 1 + random.nextInt(28), random.nextInt(24), random.nextInt(60));
+            StringBuilder sb = new StringBuilder();
+            for (String t: tokens)
+                sb.append(sb.length() > 0 ? " " : "").append(t);
+            reports.add(sb.toString());
+        }
+    }
+
+
+    List<Metar> parseSequential(Set<String> filter)
+    {
+        MetarCursorParser parser = new MetarCursorParser();
+        parser.setStationFilter(filter);
+        List<Metar> metars = new ArrayList<>();
+        for (String report: reports)
+        {
+            try
+            {
+                if (parser.parse(report))
+                    metars.add(parser.toMetar());
+            }
+            catch (RuntimeException e)
+            {
+            }
+        }
+        return metars;
+    }
+
+
+    //  decoded fields, as text so NaNs compare equal
+    static String toString(Metar m)
+    {
+        return m.reportString + "|" + m.stationID + "|" + m.dateString + "|" + m.isSpeci + "|" + m.windDirection + "|"
+                + m.getWindSpeed() + "|" + m.windGust + "|" + m.getVisibilityKilometers() + "|" + m.getPresentWeathers() + "|"
+                + m.getSkyConditions() + "|" + m.getRunwayVisualRanges() + "|" + m.getTemperature() + "|" + m.getDewPoint() + "|"
+                + m.altimeter + "|" + m.pressure + "|" + m.hourlyPrecipInches;
+    }
+
+
+    static void assertSameMetars(List<Metar> expected, List<Metar> actual)
+    {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertEquals(toString(expected.get(i)), toString(actual.get(i)));
+    }
+
+
+    @Test
+    public void testSameAsSequential() throws Exception
+    {
+        List<Metar> expected = parseSequential(null);
+        assertTrue(expected.size() > reports.size() * 9 / 10);
+        for (int chunkSize: new int[] {1, 7, 2048, 100000})
+            assertSameMetars(expected, new MetarBulkParser(pool, chunkSize).parse(reports));
+    }
+
+
+    @Test
+    public void testHandlerOnCallingThread() throws Exception
+    {
+        final Thread caller = Thread.currentThread();
+        final List<Metar> metars = new ArrayList<>();
+        int cnt = new MetarBulkParser(pool, 13).parse(reports.iterator(), new MetarHandler() {
+            @Override
+            public void newMetar(Metar metar)
+            {
+                assertSame(caller, Thread.currentThread());
+                metars.add(metar);
+            }
+        });
+        assertEquals(metars.size(), cnt);
+        assertSameMetars(parseSequential(null), metars);
+    }
+
+
+    @Test
+    public void testStationFilter() throws Exception
+    {
+        Set<String> filter = new HashSet<>(Arrays.asList("KDEN", "EGLL"));
+        MetarBulkParser bulkParser = new MetarBulkParser(pool, 100);
+        bulkParser.setStationFilter(filter);
+        List<Metar> metars = bulkParser.parse(reports);
+        assertSameMetars(parseSequential(filter), metars);
+        for (Metar metar: metars)
+            assertTrue(metar.stationID, filter.contains(metar.stationID));
+
+        // parsers of the pool threads don't keep the filter of a previous run
+        assertSameMetars(parseSequential(null), new MetarBulkParser(pool, 100).parse(reports));
+    }
+
+
+    @Test
+    public void testRandomTokens() throws Exception
+    {
+        // groups cut anywhere, RVR groups ending right after '/' or 'V' included
+        List<String> tokens = new ArrayList<>();
+        for (String report: REPORTS)
+        {
+            for (String t: report.split(" "))
+            {
+                for (int i = 1; i <= t.length(); i++)
+                    tokens.add(t.substring(0, i));
+            }
+        }
+        tokens.addAll(Arrays.asList("R26L/", "R08/0400V", "R01/", "R/", "/", "V", "M", "SLP", "A", "Q", "T", "RMK"));
+
+        Random random = new Random(17);
+        MetarCursorParser parser = new MetarCursorParser();
+        for (int i = 0; i < 100000; i++)
+        {
+            StringBuilder sb = new StringBuilder();
+            int n = 1 + random.nextInt(15);
+            for (int j = 0; j < n; j++)
+                sb.append(j > 0 ? " " : "").append(tokens.get(random.nextInt(tokens.size())));
+            if (parser.parse(sb))
+                parser.toMetar();
+        }
+    }
+
+
+    @After
+    public void cleanup()
+    {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,269 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+The Initial Developer is Sensia Software LLC. Portions created by the Initial
+Developer are Copyright (C) 2014 the Initial Developer. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.impl.sensor.weatherStation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.sensorhub.impl.sensor.station.metar.Metar;
+import org.sensorhub.impl.sensor.station.metar.MetarCursorParser;
+import org.sensorhub.impl.sensor.station.metar.MetarParserNew;
+import org.sensorhub.impl.sensor.station.metar.RunwayVisualRange;
+
+
+/**
+ * <p>
+ * MetarCursorParser against MetarParserNew, on reports as sent by US and international
+ * stations.  Both parsers must give the same Metar for the groups MetarParserNew supports.
+ * </p>
+ */
+public class TestMetarCursorParser
+{
+    static final double EPS = 1e-9;
+
+    //  both parsers fully support these reports
+    static final String [] REPORTS = {
+        "KJFK 121851Z 18012G20KT 10SM FEW050 SCT250 26/18 A2995 RMK AO2 SLP142 T02610183",
+        "METAR KORD 051751Z 27015G25KT 10SM BKN035 OVC250 M02/M08 A3012 RMK AO2 PK WND 28032/1720 SLP204 T10221078",
+        "SPECI KDEN 101830Z 23013KT 210V250 3SM -TSRA BR BKN030CB 18/14 A3001 RMK AO2 SLP982 P0012 T01780139",
+        "KSEA 220053Z VRB03KT 1 1/2SM -RA BR OVC008 11/10 A2978 RMK AO2 SLP088 P0004 T01060100",
+        "KBOS 031454Z COR 02022G31KT 1/2SM +SN FZFG VV004 M03/M04 A2958 RMK AO2 SLP013 P0009 T10281044",
+        "KMIA 121853Z 09010KT 10SM SCT025TCU 31/24 A3004 RMK AO2 SLP172 T03110239",
+        "KDFW 231353Z 17014KT 10SM CLR 24/19 A2992 RMK AO2 SLP999 T02440189",
+        "KLAX 121853Z 25010KT 10SM FEW020 21/14 A2992 RMK AO2 SLP500 T02110139",
+        "KABQ 121852Z 33016G24KT 290V360 10SM FEW090 SCT200 19/M04 A3008 RMK AO2 PK WND 32030/52 SLP087",
+        "KDCA 121852Z AUTO 00000KT 10SM CLR 20/10 A3000 RMK AO2 SLP155",
+        "METAR CYYZ 121900Z 31010KT 15SM FEW040 SCT100 22/09 A2994 RMK CU2AC3 SLP141",
+        "EGLL 151150Z 24012KT 9999 FEW030 15/08 Q1018",
+        "LFPG 151200Z 05008KT 0800 FG VV002 08/08 Q1025",
+        "SPECI SBGR 121800Z 14006KT CAVOK 25/14 Q1016",
+        "METAR UUEE 151200Z 20010KT 6000 -SHSN BKN015CB M05/M07 Q1002",
+    };
+
+    //  sea level pressure remarks, SLPppp in 10ths of hPa: 9xx is 99x.x, others 10xx.x
+    static final Object [][] SLP = {
+        {"SLP982", 998.2},
+        {"SLP999", 999.9},
+        {"SLP900", 990.0},
+        {"SLP000", 1000.0},
+        {"SLP142", 1014.2},
+        {"SLP426", 1042.6},
+        {"SLP500", 1050.0},
+        {"SLP899", 1089.9},
+    };
+
+    //  runway visual range groups, in feet (US) or meters with trend (international)
+    static final String [] RVR = {
+        "R26L/2400FT",
+        "R08/0400V0800FT",
+        "R01/3500VP6000FT",
+        "R28R/M0600FT",
+        "R27/0600U",
+        "R09/M0050N",
+        "R18C/P1500",
+        "R06/0550D",
+        "R24/1000V1500U",
+    };
+
+    //  runway state groups (international), not visual ranges
+    static final String [] RUNWAY_STATE = {
+        "R25L/290050",
+        "R24/190195",
+        "R88/CLRD70",
+    };
+
+    MetarCursorParser parser = new MetarCursorParser();
+
+
+    Metar parseCursor(String report)
+    {
+        assertTrue(report, parser.parse(report));
+        return parser.toMetar();
+    }
+
+
+    static void assertDoubleEquals(String msg, Double expected, Double actual)
+    {
+        if (expected == null || actual == null)
+            assertEquals(msg, expected, actual);
+        else if (Double.isNaN(expected))
+            assertTrue(msg + ": expected NaN, got " + actual, Double.isNaN(actual));
+        else
+            assertEquals(msg, expected, actual, 1e-6);
+    }
+
+
+    static void assertSameMetar(String report, Metar expected, Metar actual)
+    {
+        assertEquals(report, expected.stationID, actual.stationID);
+        assertEquals(report, expected.dateString, actual.dateString);
+        assertEquals(report, expected.isSpeci, actual.isSpeci);
+        assertEquals(report, expected.isCorrection, actual.isCorrection);
+        assertEquals(report, expected.windDirection, actual.windDirection);
+        assertEquals(report, expected.windDirectionIsVariable, actual.windDirectionIsVariable);
+        assertEquals(report, expected.windDirectionMin, actual.windDirectionMin);
+        assertEquals(report, expected.windDirectionMax, actual.windDirectionMax);
+        assertEquals(report, expected.windDirectionGust, actual.windDirectionGust);
+        assertDoubleEquals(report + " wind", expected.getWindSpeed(), actual.getWindSpeed());
+        assertDoubleEquals(report + " gust", expected.windGust, actual.windGust);
+        assertDoubleEquals(report + " visibility", expected.getVisibilityKilometers(), actual.getVisibilityKilometers());
+        assertEquals(report, expected.isCavok, actual.isCavok);
+        assertEquals(report, expected.visibilityLessThan, actual.visibilityLessThan);
+        assertEquals(report, expected.getPresentWeathers(), actual.getPresentWeathers());
+        assertEquals(report, expected.getSkyConditions(), actual.getSkyConditions());
+        assertDoubleEquals(report + " temperature", expected.getTemperature(), actual.getTemperature());
+        assertDoubleEquals(report + " dew point", expected.getDewPoint(), actual.getDewPoint());
+        assertDoubleEquals(report + " altimeter", expected.altimeter, actual.altimeter);
+        assertDoubleEquals(report + " pressure", expected.pressure, actual.pressure);
+        assertDoubleEquals(report + " precip", expected.hourlyPrecipInches, actual.hourlyPrecipInches);
+    }
+
+
+    @Test
+    public void testReports() throws Exception
+    {
+        MetarParserNew reference = new MetarParserNew();
+        for (String report: REPORTS)
+            assertSameMetar(report, reference.parseMetar(report), parseCursor(report));
+    }
+
+
+    @Test
+    public void testReportPrefix() throws Exception
+    {
+        MetarParserNew reference = new MetarParserNew();
+        String body = "KJFK 121851Z 18012G20KT 10SM FEW050 26/18 A2995 RMK AO2 SLP142";
+        for (String prefix: new String[] {"", "METAR ", "SPECI "})
+        {
+            String report = prefix + body;
+            Metar metar = parseCursor(report);
+            assertSameMetar(report, reference.parseMetar(report), metar);
+            assertEquals("KJFK", metar.stationID);
+            assertEquals("121851Z", metar.dateString);
+            assertEquals(prefix.startsWith("SPECI"), metar.isSpeci);
+        }
+    }
+
+
+    @Test
+    public void testSeaLevelPressure() throws Exception
+    {
+        MetarParserNew reference = new MetarParserNew();
+        for (Object [] slp: SLP)
+        {
+            String report = "KJFK 121851Z 18012KT 10SM FEW050 26/18 A2995 RMK AO2 " + slp[0];
+            Metar metar = parseCursor(report);
+            assertEquals(report, (Double)slp[1], metar.pressure, EPS);
+            assertEquals(report, (Double)slp[1], parser.seaLevelPressureHpa, EPS);
+            assertDoubleEquals(report, reference.parseMetar(report).pressure, metar.pressure);
+        }
+    }
+
+
+    @Test
+    public void testVariableWind() throws Exception
+    {
+        Metar metar = parseCursor("KDEN 101830Z 23013KT 210V250 3SM BKN030 18/14 A3001");
+        assertEquals(230, (int)metar.windDirection);
+        assertTrue(metar.windDirectionIsVariable);
+        assertEquals(210, (int)metar.windDirectionMin);
+        assertEquals(250, (int)metar.windDirectionMax);
+
+        metar = parseCursor("KSEA 220053Z VRB03KT 10SM OVC008 11/10 A2978");
+        assertTrue(metar.windDirectionIsVariable);
+        assertEquals(3.0, metar.getWindSpeed(), EPS);
+        assertEquals(null, metar.windDirectionMin);
+
+        // also matching MetarParserNew on the variable direction group alone
+        Metar expected = new Metar();
+        MetarParserNew.parseVariableWindDir(expected, "290V360");
+        metar = parseCursor("KABQ 121852Z 33016G24KT 290V360 10SM FEW090 19/M04 A3008");
+        assertEquals(expected.windDirectionMin, metar.windDirectionMin);
+        assertEquals(expected.windDirectionMax, metar.windDirectionMax);
+        assertEquals(24.0, metar.windGust, EPS);
+    }
+
+
+    @Test
+    public void testRunwayVisualRange() throws Exception
+    {
+        MetarParserNew reference = new MetarParserNew();
+        for (String rvr: RVR)
+        {
+            // MetarParserNew skips the group following a runway group, so the rest of the
+            // report is compared without it
+            String report = "KSFO 121856Z 28012KT 1/4SM " + rvr + " FG VV001 12/12 A2990";
+            Metar metar = parseCursor(report);
+            assertEquals(report, 1, metar.runwayVisualRanges.size());
+            assertEquals(report, MetarParserNew.parseRunwayVis(rvr).toString(), metar.runwayVisualRanges.get(0).toString());
+            Metar expected = reference.parseMetar(report.replace(rvr + " ", ""));
+            metar.runwayVisualRanges.clear();
+            assertSameMetar(report, expected, metar);
+        }
+
+        // several groups, one per runway
+        StringBuilder report = new StringBuilder("EGLL 151150Z 24012KT 0600");
+        List<RunwayVisualRange> expected = new ArrayList<>();
+        for (String rvr: new String[] {"R27L/0550U", "R27R/M0050N", "R09L/0400V0800", "R09R/P1500"})
+        {
+            report.append(' ').append(rvr);
+            expected.add(MetarParserNew.parseRunwayVis(rvr));
+        }
+        report.append(" FG VV001 08/08 Q1025");
+        Metar metar = parseCursor(report.toString());
+        assertEquals(expected.toString(), metar.runwayVisualRanges.toString());
+    }
+
+
+    @Test
+    public void testRunwayState() throws Exception
+    {
+        MetarParserNew reference = new MetarParserNew();
+        for (String state: RUNWAY_STATE)
+        {
+            String body = "EDDF 121850Z 24010KT 9999 FEW030 15/08 Q1018";
+            String report = body.replace("9999", "9999 " + state);
+            Metar metar = parseCursor(report);
+            assertTrue(report, metar.runwayVisualRanges.isEmpty());
+            assertSameMetar(report, reference.parseMetar(body), metar);
+        }
+
+        // next to a visual range
+        Metar metar = parseCursor("EDDF 121850Z 24010KT 2000 R25L/1200N R25L/290050 BR FEW030 15/08 Q1018");
+        assertEquals(1, metar.runwayVisualRanges.size());
+        assertEquals(MetarParserNew.parseRunwayVis("R25L/1200N").toString(), metar.runwayVisualRanges.get(0).toString());
+    }
+
+
+    @Test
+    public void testReuse() throws Exception
+    {
+        // a parser reused for a shorter report must not keep values of the previous one
+        parseCursor(REPORTS[2]);
+        Metar metar = parseCursor("EGLL 151150Z 24012KT 9999 FEW030 15/08 Q1018");
+        assertFalse(metar.isSpeci);
+        assertFalse(metar.windDirectionIsVariable);
+        assertEquals(null, metar.windDirectionMin);
+        assertTrue(metar.getPresentWeathers().isEmpty());
+        assertTrue(Double.isNaN(metar.hourlyPrecipInches));
+        assertEquals(1018.0, metar.pressure, EPS);
+    }
+}
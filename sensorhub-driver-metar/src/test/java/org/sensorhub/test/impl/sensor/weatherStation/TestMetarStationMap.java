@@ -0,0 +1,184 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+The Initial Developer is Sensia Software LLC. Portions created by the Initial
+Developer are Copyright (C) 2014 the Initial Developer. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.impl.sensor.weatherStation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.impl.sensor.station.Station;
+import org.sensorhub.impl.sensor.station.metar.MetarStationMap;
+
+
+/**
+ * <p>
+ * Grid queries of MetarStationMap against a scan of all stations of the bundled map:
+ * bounding boxes, antimeridian crossing included, and nearest station.
+ * </p>
+ */
+public class TestMetarStationMap
+{
+    MetarStationMap map;
+    List<Station> allStations;
+
+
+    @Before
+    public void init() throws Exception
+    {
+        map = MetarStationMap.load(null);
+        allStations = new ArrayList<>(map.getStations());
+        assertTrue(allStations.size() > 1000);
+    }
+
+
+    Set<Station> scanBox(double minLat, double minLon, double maxLat, double maxLon)
+    {
+        Set<Station> result = new HashSet<>();
+        boolean wraps = minLon > maxLon;
+        for (Station s: allStations)
+        {
+            double lat = s.getLat(), lon = s.getLon();
+            if (lat < minLat || lat > maxLat)
+                continue;
+            if (wraps ? (lon >= minLon || lon <= maxLon) : (lon >= minLon && lon <= maxLon))
+                result.add(s);
+        }
+        return result;
+    }
+
+
+    void checkBox(double minLat, double minLon, double maxLat, double maxLon)
+    {
+        String msg = minLat + "," + minLon + " to " + maxLat + "," + maxLon;
+        List<Station> result = map.getStations(minLat, minLon, maxLat, maxLon);
+        assertEquals(msg, result.size(), new HashSet<>(result).size());
+        assertEquals(msg, scanBox(minLat, minLon, maxLat, maxLon), new HashSet<>(result));
+    }
+
+
+    @Test
+    public void testBoundingBoxes() throws Exception
+    {
+        Random random = new Random(5);
+        for (int i = 0; i < 2000; i++)
+        {
+            double lat1 = random.nextDouble() * 180.0 - 90.0;
+            double lat2 = Math.min(90.0, lat1 + random.nextDouble() * 30.0);
+            double lon1 = random.nextDouble() * 360.0 - 180.0;
+            double lon2 = lon1 + random.nextDouble() * 60.0;
+            if (lon2 > 180.0)
+                lon2 -= 360.0;  // crosses the antimeridian
+            checkBox(lat1, lon1, lat2, lon2);
+        }
+
+        // edges, cell boundaries and whole world
+        checkBox(-90.0, -180.0, 90.0, 180.0);
+        checkBox(30.0, 170.0, 70.0, -170.0);
+        checkBox(50.0, 179.9, 60.0, -179.9);
+        checkBox(38.0, -78.0, 40.0, -76.0);
+        checkBox(0.0, 0.0, 0.0, 0.0);
+        for (int i = 0; i < 200; i++)
+        {
+            Station s = allStations.get(random.nextInt(allStations.size()));
+            checkBox(s.getLat(), s.getLon(), s.getLat(), s.getLon());
+        }
+    }
+
+
+    @Test
+    public void testNearestStation() throws Exception
+    {
+        Random random = new Random(9);
+        List<double[]> points = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            points.add(new double[] {random.nextDouble() * 180.0 - 90.0, random.nextDouble() * 360.0 - 180.0});
+        for (int i = 0; i < 500; i++)
+        {
+            Station s = allStations.get(random.nextInt(allStations.size()));
+            points.add(new double[] {s.getLat() + random.nextGaussian() * 0.5, s.getLon() + random.nextGaussian() * 0.5});
+        }
+        points.add(new double[] {90.0, 0.0});
+        points.add(new double[] {-90.0, 0.0});
+        points.add(new double[] {52.0, 179.99});
+        points.add(new double[] {52.0, -179.99});
+
+        for (double [] p: points)
+        {
+            double lat = Math.max(-90.0, Math.min(90.0, p[0]));
+            double lon = p[1];
+            double best = Double.POSITIVE_INFINITY;
+            for (Station s: allStations)
+                best = Math.min(best, MetarStationMap.distanceKm(lat, lon, s.getLat(), s.getLon()));
+            Station nearest = map.getNearestStation(lat, lon);
+            // stations at the same distance can be returned in any order
+            assertEquals(lat + "," + lon, best, MetarStationMap.distanceKm(lat, lon, nearest.getLat(), nearest.getLon()), 1e-9);
+        }
+    }
+
+
+    @Test
+    public void testGetStation() throws Exception
+    {
+        for (Station s: allStations)
+        {
+            assertSame(s, map.getStation(s.getId()));
+            assertSame(s, map.getStation(s.getId().toLowerCase()));
+        }
+        assertNull(map.getStation("ZZZZZZ"));
+    }
+
+
+    @Test
+    public void testBinaryMap() throws Exception
+    {
+        File f = File.createTempFile("stations", ".bin");
+        try
+        {
+            try (OutputStream os = new FileOutputStream(f))
+            {
+                map.writeBinary(os);
+            }
+            MetarStationMap binMap = MetarStationMap.load(f.getPath());
+            assertEquals(map.size(), binMap.size());
+            for (Station s: allStations)
+            {
+                Station b = binMap.getStation(s.getId());
+                assertEquals(s.getName(), b.getName());
+                assertEquals(s.getLat(), b.getLat(), 0.0);
+                assertEquals(s.getLon(), b.getLon(), 0.0);
+                assertEquals(s.getElevation(), b.getElevation(), 0.0);
+                assertEquals(s.getCountryCode(), b.getCountryCode());
+            }
+            assertEquals(map.getStations(20.0, -130.0, 50.0, -60.0).size(), binMap.getStations(20.0, -130.0, 50.0, -60.0).size());
+        }
+        finally
+        {
+            f.delete();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.sensorhub.impl.sensor.nexrad;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.sensorhub.test.impl.sensor.nexrad.Level2ChunkGenerator;
+
+/**
+ * <p>Title: Level2Samples.java</p>
+ * <p>Description: Locates the input files used by the benchmarks.  Recorded chunks 
+ *   with radials (names ending in -I or -E, -S chunks only hold metadata) and archive 
+ *   volumes (.88d, _V06, .ar2v) are picked up from the folder given by -Dnexrad.samples, 
+ *   or src/jmh/resources/samples by default.
+ *   When no recorded chunk is present a synthetic one is generated with a fixed seed.
+ * </p>
+ */
+public class Level2Samples
+{
+	public static final String SAMPLES_PROPERTY = "nexrad.samples";
+	public static final String DEFAULT_SAMPLES_FOLDER = "src/jmh/resources/samples";
+
+	public static Path getSamplesFolder() {
+		return Paths.get(System.getProperty(SAMPLES_PROPERTY, DEFAULT_SAMPLES_FOLDER));
+	}
+
+	public static List<File> listChunks() {
+		List<File> chunks = new ArrayList<>();
+		for(File f: listSamples()) {
+			String name = f.getName();
+			if(name.endsWith("-I") || name.endsWith("-E"))
+				chunks.add(f);
+		}
+		return chunks;
+	}
+
+	public static List<File> listArchives() {
+		List<File> archives = new ArrayList<>();
+		for(File f: listSamples()) {
+			String name = f.getName();
+			if(name.endsWith(".88d") || name.endsWith("_V06") || name.endsWith(".ar2v"))
+				archives.add(f);
+		}
+		return archives;
+	}
+
+	/**
+	 * @return the first recorded intermediate chunk, or a synthetic one written to a temp folder
+	 */
+	public static File getChunk() throws IOException {
+		List<File> chunks = listChunks();
+		if(!chunks.isEmpty())
+			return chunks.get(0);
+		Path tmp = Files.createTempDirectory("nexradJmh");
+		File f = new Level2ChunkGenerator().writeChunk(tmp, 669, 11, 'I').toFile();
+		f.deleteOnExit();
+		tmp.toFile().deleteOnExit();
+		return f;
+	}
+
+	/**
+	 * @return the first archive volume, or null if none has been dropped in the samples folder
+	 */
+	public static File getArchive() {
+		List<File> archives = listArchives();
+		return archives.isEmpty() ? null : archives.get(0);
+	}
+
+	private static List<File> listSamples() {
+		File [] files = getSamplesFolder().toFile().listFiles();
+		if(files == null)
+			return Collections.emptyList();
+		List<File> samples = new ArrayList<>();
+		for(File f: files) {
+			if(f.isFile())
+				samples.add(f);
+		}
+		Collections.sort(samples);
+		return samples;
+	}
+}
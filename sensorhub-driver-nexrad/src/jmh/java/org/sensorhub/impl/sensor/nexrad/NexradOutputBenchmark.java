@@ -0,0 +1,60 @@
+package org.sensorhub.impl.sensor.nexrad;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmLevel2Reader;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+
+/**
+ * <p>Title: NexradOutputBenchmark.java</p>
+ * <p>Description: DataBlock construction done by NexradOutput.sendRadials() for one chunk 
+ *   worth of radials, without event publication.  Radials are decoded once in setup 
+ *   so the float conversion is cached and only the DataBlock build is measured.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class NexradOutputBenchmark
+{
+	NexradOutput output;
+	List<LdmRadial> radials;
+
+	@Setup
+	public void setup() throws Exception {
+		byte [] chunk = Files.readAllBytes(Level2Samples.getChunk().toPath());
+		radials = new LdmLevel2Reader().readMessage31(new ByteArrayInputStream(chunk));
+		output = new NexradOutput(new NexradSensor());
+		output.init();
+	}
+
+	//  the output starts a (non daemon) listener check timer, which would keep the fork alive
+	@TearDown
+	public void tearDown() {
+		output.cleanup();
+	}
+
+	@Benchmark
+	public void createDataBlocks(Blackhole bh) {
+		for(LdmRadial radial: radials)
+			bh.consume(output.createDataBlock(radial));
+	}
+}
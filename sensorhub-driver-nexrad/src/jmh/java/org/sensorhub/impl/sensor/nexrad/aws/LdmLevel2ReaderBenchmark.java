@@ -0,0 +1,77 @@
+package org.sensorhub.impl.sensor.nexrad.aws;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sensorhub.impl.sensor.nexrad.Level2Samples;
+import org.sensorhub.impl.sensor.nexrad.RadialFilter;
+
+/**
+ * <p>Title: LdmLevel2ReaderBenchmark.java</p>
+ * <p>Description: Decoding of one realtime chunk with LdmLevel2Reader.readMessage31.  
+ *   The chunk is held in memory so only bzip2 decompression and block parsing are measured.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LdmLevel2ReaderBenchmark
+{
+	byte [] chunk;
+	RadialFilter rangeFilter;
+
+	@Setup
+	public void setup() throws IOException {
+		File f = Level2Samples.getChunk();
+		chunk = Files.readAllBytes(f.toPath());
+		rangeFilter = new RadialFilter();
+		rangeFilter.maxRangeMeters = 100000.0f;
+	}
+
+	@Benchmark
+	public List<LdmRadial> readMessage31() throws IOException {
+		LdmLevel2Reader reader = new LdmLevel2Reader();
+		return reader.readMessage31(new ByteArrayInputStream(chunk));
+	}
+
+	@Benchmark
+	public int readMessage31AndDecode() throws IOException {
+		LdmLevel2Reader reader = new LdmLevel2Reader();
+		List<LdmRadial> radials = reader.readMessage31(new ByteArrayInputStream(chunk));
+		int cnt = 0;
+		for(LdmRadial radial: radials) {
+			for(MomentDataBlock block: radial.momentData.values())
+				cnt += block.getData().length;
+		}
+		return cnt;
+	}
+
+	@Benchmark
+	public int readMessage31WithMaxRange() throws IOException {
+		LdmLevel2Reader reader = new LdmLevel2Reader(rangeFilter);
+		List<LdmRadial> radials = reader.readMessage31(new ByteArrayInputStream(chunk));
+		int cnt = 0;
+		for(LdmRadial radial: radials) {
+			for(MomentDataBlock block: radial.momentData.values())
+				cnt += block.getData().length;
+		}
+		return cnt;
+	}
+}
@@ -0,0 +1,53 @@
+package org.sensorhub.impl.sensor.nexrad.aws;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Title: MomentDataBlockBenchmark.java</p>
+ * <p>Description: Conversion of raw 8 bit gates to scaled floats by MomentDataBlock.getData().
+ *   A fresh block is created per call since getData() caches its result.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MomentDataBlockBenchmark
+{
+	@Param({"1192", "1832"})
+	int numGates;
+
+	byte [] gates;
+
+	@Setup
+	public void setup() {
+		gates = new byte[numGates];
+		new Random(42L).nextBytes(gates);
+	}
+
+	@Benchmark
+	public float [] getData() {
+		MomentDataBlock block = new MomentDataBlock("REF");
+		block.numGates = (short)numGates;
+		block.scale = 2.0f;
+		block.offset = 66.0f;
+		block.gateSizeBits = 8;
+		block.bdata = gates;
+		return block.getData();
+	}
+}
@@ -0,0 +1,57 @@
+package org.sensorhub.impl.sensor.nexrad.products;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sensorhub.impl.sensor.nexrad.Level2Samples;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmLevel2Reader;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+
+/**
+ * <p>Title: VelocityDealiaserBenchmark.java</p>
+ * <p>Description: Dealiasing of the velocity of one chunk.  The chunk is decoded once 
+ *   in setup, and VEL is decoded to floats up front so only the unfolding is measured.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class VelocityDealiaserBenchmark
+{
+	List<LdmRadial> radials;
+
+	@Setup
+	public void setup() throws IOException {
+		File f = Level2Samples.getChunk();
+		byte [] chunk = Files.readAllBytes(f.toPath());
+		radials = new LdmLevel2Reader().readMessage31(new ByteArrayInputStream(chunk));
+		for(LdmRadial radial: radials) {
+			if(radial.momentData.containsKey("VEL"))
+				radial.momentData.get("VEL").getData();
+		}
+	}
+
+	@Benchmark
+	public List<LdmRadial> dealias() {
+		VelocityDealiaser dealiaser = new VelocityDealiaser();
+		dealiaser.dealias(radials);
+		return radials;
+	}
+}
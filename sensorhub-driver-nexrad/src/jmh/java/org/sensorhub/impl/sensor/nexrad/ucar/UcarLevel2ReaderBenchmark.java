@@ -0,0 +1,53 @@
+package org.sensorhub.impl.sensor.nexrad.ucar;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sensorhub.impl.sensor.nexrad.Level2Samples;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+
+/**
+ * <p>Title: UcarLevel2ReaderBenchmark.java</p>
+ * <p>Description: Full volume read of an uncompressed archive file through NetCDF. 
+ *   Needs an archive volume in the samples folder (see Level2Samples).
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class UcarLevel2ReaderBenchmark
+{
+	File archive;
+
+	@Setup
+	public void setup() {
+		archive = Level2Samples.getArchive();
+		if(archive == null)
+			throw new IllegalStateException("No archive volume found in " + Level2Samples.getSamplesFolder());
+	}
+
+	@Benchmark
+	public List<LdmRadial> read() throws IOException {
+		UcarLevel2Reader reader = new UcarLevel2Reader(archive);
+		try {
+			return reader.read();
+		} finally {
+			reader.netCdf.close();
+		}
+	}
+}
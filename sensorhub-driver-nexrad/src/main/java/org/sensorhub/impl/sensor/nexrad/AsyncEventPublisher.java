@@ -0,0 +1,196 @@
+package org.sensorhub.impl.sensor.nexrad;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.sensorhub.api.sensor.SensorDataEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: AsyncEventPublisher.java</p>
+ * <p>Description: Bounded queue between the threads decoding radials and the event
+ *   handler of an output, so a slow subscriber doesn't stall decoding.  A single thread
+ *   publishes the queued events in order.  What happens when the queue is full depends
+ *   on the policy:
+ *
+ *   BLOCK - the decoding thread waits for room, nothing is lost
+ *   DROP_OLDEST - the oldest queued event is dropped
+ *   COALESCE - queued events of the same key (site) from an older group (sweep) are
+ *     dropped, so subscribers catch up on the latest sweep.  The oldest event is dropped
+ *     if there are none
+ *
+ *   Events dropped and coalesced are counted.
+ * </p>
+ */
+public class AsyncEventPublisher
+{
+	static final Logger logger = LoggerFactory.getLogger(AsyncEventPublisher.class);
+
+	public enum Policy { BLOCK, DROP_OLDEST, COALESCE }
+
+	public interface EventSink {
+		public void publish(SensorDataEvent event);
+	}
+
+	static class Entry {
+		SensorDataEvent event;
+		String key;
+		long group;
+	}
+
+	String name;
+	int capacity;
+	Policy policy;
+	EventSink sink;
+	ArrayDeque<Entry> queue = new ArrayDeque<>();
+	ReentrantLock lock = new ReentrantLock();
+	Condition notEmpty = lock.newCondition();
+	Condition notFull = lock.newCondition();
+	AtomicLong numPublished = new AtomicLong();
+	AtomicLong numDropped = new AtomicLong();
+	AtomicLong numCoalesced = new AtomicLong();
+	volatile boolean running;
+	Thread thread;
+
+	public AsyncEventPublisher(String name, int capacity, Policy policy, EventSink sink) {
+		this.name = name;
+		this.capacity = Math.max(1, capacity);
+		this.policy = (policy != null) ? policy : Policy.BLOCK;
+		this.sink = sink;
+	}
+
+	public synchronized void start() {
+		if(thread != null)
+			return;
+		running = true;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				publishLoop();
+			}
+		}, name + "-Publisher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop publishing.  Events still queued are discarded
+	 */
+	public synchronized void stop() {
+		running = false;
+		if(thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+		lock.lock();
+		try {
+			queue.clear();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param key events coalesced together share a key (e.g. site id)
+	 * @param group events of a key in an older group (e.g. sweep) are dropped first when
+	 * the queue is full, with the COALESCE policy
+	 */
+	public void publish(SensorDataEvent event, String key, long group) throws InterruptedException {
+		Entry entry = new Entry();
+		entry.event = event;
+		entry.key = key;
+		entry.group = group;
+
+		lock.lock();
+		try {
+			while(queue.size() >= capacity && running) {
+				if(policy == Policy.BLOCK) {
+					notFull.await();
+					continue;
+				}
+				if(policy == Policy.COALESCE && coalesce(key, group) > 0)
+					continue;
+				queue.pollFirst();
+				if(numDropped.incrementAndGet() % 1000 == 1)
+					logger.warn("{}: subscribers too slow, {} events dropped so far", name, numDropped.get());
+			}
+			if(!running)
+				return;
+			queue.addLast(entry);
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of events removed.  Called with the lock held
+	 */
+	private int coalesce(String key, long group) {
+		int cnt = 0;
+		for(Iterator<Entry> it = queue.iterator(); it.hasNext(); ) {
+			Entry e = it.next();
+			if(e.group < group && e.key != null && e.key.equals(key)) {
+				it.remove();
+				cnt++;
+			}
+		}
+		numCoalesced.addAndGet(cnt);
+		return cnt;
+	}
+
+	void publishLoop() {
+		while(running) {
+			Entry entry;
+			lock.lock();
+			try {
+				while(queue.isEmpty() && running)
+					notEmpty.await();
+				entry = queue.pollFirst();
+				notFull.signal();
+			} catch (InterruptedException e) {
+				break;
+			} finally {
+				lock.unlock();
+			}
+			if(entry == null)
+				continue;
+			try {
+				sink.publish(entry.event);
+				numPublished.incrementAndGet();
+			} catch (RuntimeException e) {
+				logger.error("{}: error publishing event", name, e);
+			}
+		}
+	}
+
+	public int getQueueSize() {
+		lock.lock();
+		try {
+			return queue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	public long getNumPublished() {
+		return numPublished.get();
+	}
+
+	public long getNumDropped() {
+		return numDropped.get();
+	}
+
+	public long getNumCoalesced() {
+		return numCoalesced.get();
+	}
+}
@@ -0,0 +1,259 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
+
+ ******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.sensor.nexrad;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.sensorhub.api.data.IMultiSourceDataInterface;
+import org.sensorhub.api.sensor.SensorDataEvent;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+import org.sensorhub.impl.sensor.nexrad.products.CellListener;
+import org.sensorhub.impl.sensor.nexrad.products.StormCell;
+import org.sensorhub.impl.sensor.nexrad.products.StormCellTracker;
+import org.sensorhub.impl.sensor.nexrad.products.SweepAssembler;
+import org.vast.data.DataRecordImpl;
+import org.vast.data.QuantityImpl;
+import org.vast.data.SWEFactory;
+import org.vast.data.TimeImpl;
+import org.vast.swe.SWEConstants;
+import org.vast.swe.SWEHelper;
+
+import net.opengis.swe.v20.Count;
+import net.opengis.swe.v20.DataArray;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.DataEncoding;
+import net.opengis.swe.v20.DataRecord;
+import net.opengis.swe.v20.DataType;
+import net.opengis.swe.v20.Quantity;
+import net.opengis.swe.v20.Time;
+
+/**
+ * <p>Title: NexradCellTrackOutput.java</p>
+ * <p>Description: Storm cells found by StormCellTracker in the lowest tilt of each volume.  
+ *   One record per site and volume, listing the cells with their track id, position, 
+ *   max reflectivity, area and motion.  Speed and direction are NaN for cells seen in a 
+ *   single volume so far.
+ * </p>
+ */
+public class NexradCellTrackOutput extends NexradSensorOutput implements IMultiSourceDataInterface, RadialListener
+{
+	DataRecord cellStruct;
+	DataEncoding encoding;
+	Map<String, SweepAssembler> assemblers = new ConcurrentHashMap<>();
+	Map<String, DataBlock> latestRecords = new ConcurrentHashMap<>();
+
+	public NexradCellTrackOutput(NexradSensor parentSensor)
+	{
+		super(parentSensor);
+	}
+
+
+	@Override
+	public String getName()
+	{
+		return "NexradCells";
+	}
+
+
+	protected void init()
+	{
+		SWEFactory fac = new SWEFactory();
+
+		cellStruct = new DataRecordImpl(4);
+		cellStruct.setName(getName());
+		cellStruct.setDefinition("http://sensorml.com/ont/swe/propertyx/StormCells");
+
+		// 0
+		Time time = new TimeImpl();
+		time.getUom().setHref(Time.ISO_TIME_UNIT);
+		time.setDefinition(SWEConstants.DEF_SAMPLING_TIME);
+		cellStruct.addComponent("time", time);
+
+		// 1
+		cellStruct.addComponent("siteId", fac.newText());
+		cellStruct.getFieldList().getProperty(1).setRole(ENTITY_ID_URI);
+
+		// 2
+		Count numCells = fac.newCount(DataType.INT);
+		numCells.setDefinition("http://sensorml.com/ont/swe/property/NumberOfSamples");
+		numCells.setId("NUM_STORM_CELLS");
+		cellStruct.addComponent("numCells", numCells);
+
+		// 3
+		DataRecord cell = new DataRecordImpl(9);
+		cell.addComponent("cellId", fac.newText());
+		cell.addComponent("lat", newQuantity("http://sensorml.com/ont/swe/property/Latitude", "deg"));
+		cell.addComponent("lon", newQuantity("http://sensorml.com/ont/swe/property/Longitude", "deg"));
+		cell.addComponent("maxReflectivity", newQuantity("http://sensorml.com/ont/swe/propertyx/Reflectivity", "db"));
+		cell.addComponent("area", newQuantity("http://sensorml.com/ont/swe/property/Area", "km2"));
+		cell.addComponent("speed", newQuantity("http://sensorml.com/ont/swe/property/Speed", "m/s"));
+		cell.addComponent("direction", newQuantity("http://sensorml.com/ont/swe/property/Direction", "deg"));
+		Count numVolumes = fac.newCount(DataType.INT);
+		numVolumes.setDefinition("http://sensorml.com/ont/swe/propertyx/NumberOfVolumes");
+		cell.addComponent("numVolumes", numVolumes);
+
+		DataArray cells = fac.newDataArray();
+		cells.setElementType("cell", cell);
+		cells.setElementCount(numCells);
+		cellStruct.addComponent("cells", cells);
+
+		encoding = SWEHelper.getDefaultBinaryEncoding(cellStruct);
+
+		initPublisher();
+	}
+
+
+	protected void start()
+	{
+		if(publisher != null)
+			publisher.start();
+	}
+
+
+	protected void stop()
+	{
+		if(publisher != null)
+			publisher.stop();
+	}
+
+
+	private Quantity newQuantity(String def, String uom)
+	{
+		Quantity q = new QuantityImpl(DataType.FLOAT);
+		q.setDefinition(def);
+		q.getUom().setCode(uom);
+		return q;
+	}
+
+
+	@Override
+	public void radialsReceived(String site, List<LdmRadial> radials)
+	{
+		getAssembler(site).addRadials(radials);
+	}
+
+
+	int getNumListeners()
+	{
+		return eventHandler.getNumListeners();
+	}
+
+
+	@Override
+	public void siteRemoved(String site)
+	{
+		assemblers.remove(site);
+		latestRecords.remove(NexradSensor.SITE_UID_PREFIX + site);
+	}
+
+
+	private SweepAssembler getAssembler(String site)
+	{
+		SweepAssembler assembler = assemblers.get(site);
+		if(assembler != null)
+			return assembler;
+
+		NexradConfig config = nexradSensor.getConfiguration();
+		StormCellTracker tracker = new StormCellTracker(NexradUtil.getSite(site), config.cellThresholdDbz,
+				config.cellMinGates, config.cellMaxSpeed);
+		tracker.addListener(new CellListener() {
+			@Override
+			public void cellsUpdated(String siteId, long time, List<StormCell> cells) {
+				publish(siteId, time, cells);
+			}
+		});
+		assembler = new SweepAssembler(site);
+		assembler.addListener(tracker);
+		assemblers.put(site, assembler);
+		return assembler;
+	}
+
+
+	synchronized void publish(String siteId, long time, List<StormCell> cells)
+	{
+		DataArray cellArr = (DataArray)cellStruct.getComponent(3);
+		cellArr.updateSize(cells.size());
+
+		DataBlock block = cellStruct.createDataBlock();
+		int idx = 0;
+		block.setDoubleValue(idx++, time / 1000.);
+		block.setStringValue(idx++, siteId);
+		block.setIntValue(idx++, cells.size());
+		for(StormCell cell: cells) {
+			block.setStringValue(idx++, cell.id);
+			block.setDoubleValue(idx++, cell.lat);
+			block.setDoubleValue(idx++, cell.lon);
+			block.setFloatValue(idx++, cell.maxDbz);
+			block.setFloatValue(idx++, cell.areaKm2);
+			block.setDoubleValue(idx++, cell.getSpeed());
+			block.setDoubleValue(idx++, cell.getDirection());
+			block.setIntValue(idx++, cell.numVolumes);
+		}
+
+		latestRecord = block;
+		latestRecords.put(NexradSensor.SITE_UID_PREFIX + siteId, block);
+		latestRecordTime = System.currentTimeMillis();
+		SensorDataEvent event = new SensorDataEvent(latestRecordTime, NexradCellTrackOutput.this, block);
+		publishEvent(event, siteId);
+	}
+
+
+	@Override
+	public double getAverageSamplingPeriod()
+	{
+		return 300.0;  // one record per volume
+	}
+
+
+	@Override
+	public DataComponent getRecordDescription()
+	{
+		return cellStruct;
+	}
+
+
+	@Override
+	public DataEncoding getRecommendedEncoding()
+	{
+		return encoding;
+	}
+
+
+	@Override
+	public Collection<String> getEntityIDs()
+	{
+		return parentSensor.getEntityIDs();
+	}
+
+
+	@Override
+	public Map<String, DataBlock> getLatestRecords()
+	{
+		return Collections.unmodifiableMap(latestRecords);
+	}
+
+
+	@Override
+	public DataBlock getLatestRecord(String entityID)
+	{
+		nexradSensor.touchSite(entityID);
+		return latestRecords.get(entityID);
+	}
+}
@@ -39,18 +39,100 @@ public class NexradConfig extends SensorConfig
 	public int numThreads;
 	public String queueName = "NexradQueue_SensorHub_001";  // default name
 	public long queueIdleTimeMinutes = 240;
+	@DisplayInfo(desc="Stop fetching chunks of a site after this many minutes without subscribers or requests for its data. 0 to always fetch all sites")
+	public long siteIdleTimeMinutes = 0;
 	public int queueFileLimit = 8;  // number of files in the disk queue to accumulate before forcing older files out 
 	
+	@DisplayInfo(desc="Threads for S3/SQS requests when the JVM has no virtual threads (Java 21+)")
+	public int maxIoThreads = 32;
+	
+	@DisplayInfo(desc="Max number of concurrent requests to a single AWS host (also the HTTP connection pool size)")
+	public int maxConnectionsPerHost = 50;
+	
+	//  AWS endpoints and credentials- defaults target the public AWS services
+	@DisplayInfo(desc="Named profile in ~/.aws/credentials. The default profile is used if not set")
+	public String awsProfile;
+	
+	@DisplayInfo(desc="Send unsigned S3 requests. The Nexrad buckets are public so no account is needed to read them")
+	public boolean anonymousS3Access = false;
+	
+	public String sqsRegion = "us-west-2";
+	public String snsRegion = "us-east-1";  // region of the NewNEXRADLevel2Object topic
+	
+	@DisplayInfo(desc="S3 endpoint URL to use instead of AWS (e.g. a local S3 compatible server)")
+	public String s3Endpoint;
+	
+	@DisplayInfo(desc="SQS endpoint URL to use instead of AWS")
+	public String sqsEndpoint;
+	
+	@DisplayInfo(desc="SNS endpoint URL to use instead of AWS")
+	public String snsEndpoint;
+	
+	//  Local stand-in for S3/SQS/SNS, for offline and load testing of the realtime path
+	@DisplayInfo(desc="Folder of recorded chunks (<site>/<site>_<volume>_<chunk>, as spooled in rootFolder) to serve instead of AWS")
+	public String replayFolder;
+	
+	@DisplayInfo(desc="Replay rate relative to real time (4 = four times faster). 0 or less replays as fast as possible")
+	public double replaySpeedFactor = 1.0;
+	
+	@DisplayInfo(desc="Restart the recording from the beginning once all chunks have been sent")
+	public boolean replayLoop = false;
+	
 	//  Archive AWS controls
 	public String archiveStartTime;
 	public String archiveStopTime;
 	
+	@DisplayInfo(desc="Read chunks and archive volumes through memory mapped files. Archive volumes are then kept in rootFolder for reruns, otherwise they are decoded as they are downloaded")
+	public boolean mappedReader = false;
+	
+	@DisplayInfo(desc="Only publish radials matching these criteria (elevation, azimuth sector, range, site)")
+	public RadialFilter radialFilter;
+	
+	//  Event publication
+	@DisplayInfo(desc="Max number of events waiting to be sent to subscribers by each output, sent from a separate thread when > 0. 0 (default) to send them from the decoding threads")
+	public int publishQueueSize = 0;
+	
+	@DisplayInfo(desc="What to do when subscribers fall behind and a publish queue is full: BLOCK decoding, DROP_OLDEST events, or COALESCE to the latest sweep of each site")
+	public AsyncEventPublisher.Policy publishPolicy = AsyncEventPublisher.Policy.BLOCK;
+	
+	@DisplayInfo(desc="Add the dealiased radial velocity to the radials published by NexradData")
+	public boolean dealiasVelocity = false;
+	
+	//  Derived products (composite reflectivity, echo tops, VIL)
+	@DisplayInfo(desc="Compute volume products and publish them on the NexradProducts output")
+	public boolean computeProducts = false;
+	
+	@DisplayInfo(desc="Number of azimuth bins of the product grid")
+	public int productNumAzimuths = 360;
+	
+	@DisplayInfo(desc="Ground range resolution of the product grid, in meters")
+	public float productRangeBinMeters = 1000.0f;
+	
+	@DisplayInfo(desc="Max ground range of the product grid, in meters")
+	public float productMaxRangeMeters = 230000.0f;
+	
+	//  Storm cell identification and tracking on the lowest tilt
+	@DisplayInfo(desc="Track storm cells and publish them on the NexradCells output")
+	public boolean trackCells = false;
+	
+	@DisplayInfo(desc="Min reflectivity of the gates of a storm cell, in dBZ")
+	public float cellThresholdDbz = 40.0f;
+	
+	@DisplayInfo(desc="Min number of gates of a storm cell")
+	public int cellMinGates = 20;
+	
+	@DisplayInfo(desc="Max speed of a storm cell in m/s, used to match cells from one volume to the next")
+	public double cellMaxSpeed = 40.0;
+	
+	//  History
+	@DisplayInfo(desc="Folder where sweeps are stored for history queries. Not stored if null")
+	public String sweepStoreFolder;
+	
 	public NexradSite site;  // 
 	
 	public NexradSite getSite(String siteId) {
 		try {
-			site = NexradTable.getInstance().getSite(siteId);
-			return site;
+			return NexradTable.getInstance().getSite(siteId);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -0,0 +1,56 @@
+package org.sensorhub.impl.sensor.nexrad;
+
+import org.sensorhub.impl.sensor.weather.FeatureCache;
+import org.vast.sensorML.SMLHelper;
+
+import net.opengis.gml.v32.Point;
+import net.opengis.gml.v32.impl.GMLFactory;
+import net.opengis.sensorml.v20.PhysicalSystem;
+
+/**
+ * <p>
+ * FOIs and SensorML descriptions of the sites served, created the first time they are
+ * asked for.  Sites can be added and removed while running.
+ * </p>
+ */
+public class NexradFeatureCache extends FeatureCache<NexradSite>
+{
+	/**
+	 * @param siteId ID the site is configured with, which names its entity
+	 * @return UID of the site
+	 */
+	public String addSite(String siteId, NexradSite site) {
+		String uid = NexradSensor.SITE_UID_PREFIX + siteId;
+		put(uid, site);
+		return uid;
+	}
+
+	public void removeSite(String siteId) {
+		remove(NexradSensor.SITE_UID_PREFIX + siteId);
+	}
+
+	@Override
+	protected PhysicalSystem newFoi(String uid, NexradSite site) {
+		String siteId = uid.substring(NexradSensor.SITE_UID_PREFIX.length());
+		PhysicalSystem foi = new SMLHelper().newPhysicalSystem();
+		foi.setId(siteId);
+		foi.setUniqueIdentifier(uid);
+		foi.setName(siteId);
+		foi.setDescription("Nexrad site " + siteId);
+		Point stationLoc = new GMLFactory(true).newPoint();
+		stationLoc.setPos(new double [] {site.lat, site.lon, site.elevation});
+		foi.setLocation(stationLoc);
+		return foi;
+	}
+
+	@Override
+	protected PhysicalSystem newDescription(String uid, NexradSite site) {
+		String siteId = uid.substring(NexradSensor.SITE_UID_PREFIX.length());
+		PhysicalSystem sensorDesc = new SMLHelper().newPhysicalSystem();
+		sensorDesc.setId("SITE_" + siteId);
+		sensorDesc.setUniqueIdentifier(uid);
+		sensorDesc.setName(siteId);
+		sensorDesc.setDescription("Nexrad site " + siteId);
+		return sensorDesc;
+	}
+}
@@ -16,22 +16,25 @@ package org.sensorhub.impl.sensor.nexrad;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Timer;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import org.sensorhub.api.data.IMultiSourceDataInterface;
 import org.sensorhub.api.sensor.SensorDataEvent;
-import org.sensorhub.impl.sensor.AbstractSensorOutput;
 import org.sensorhub.impl.sensor.nexrad.aws.AwsNexradUtil;
 import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
 import org.sensorhub.impl.sensor.nexrad.aws.MomentDataBlock;
 import org.sensorhub.impl.sensor.nexrad.aws.sqs.ChunkPathQueue;
+import org.sensorhub.impl.sensor.nexrad.products.SweepAssembler;
+import org.sensorhub.impl.sensor.nexrad.products.VelocityDealiaser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vast.data.DataBlockMixed;
@@ -63,29 +66,35 @@ import net.opengis.swe.v20.Time;
  *  TODO - verify that rangeToCenterOfFirstGate and gateSize are constants; how do we specify UOM for a count
  */
 
-public class NexradOutput extends AbstractSensorOutput<NexradSensor> implements IMultiSourceDataInterface
+public class NexradOutput extends NexradSensorOutput implements IMultiSourceDataInterface
 {
 	private static final Logger logger = LoggerFactory.getLogger(NexradOutput.class);
 	DataRecord nexradStruct;
 	DataEncoding encoding;
-	boolean sendData;
+	volatile boolean sendData;
 	Timer timer;	
+	Timer queueTimer;
 	InputStream is;
 	int numListeners;
-	NexradSensor nexradSensor;
 	//	LdmFilesProvider ldmFilesProvider;
 	ChunkPathQueue chunkQueue;
-    Map<String, DataBlock> latestRecords = new LinkedHashMap<String, DataBlock>();
+    Map<String, DataBlock> latestRecords = new ConcurrentHashMap<String, DataBlock>();
+	Map<String, GetRadialsThread> siteThreads = new ConcurrentHashMap<>();
+	List<RadialListener> radialListeners = new CopyOnWriteArrayList<>();
+	boolean dealiasVelocity;
+	//  applies to the radials published by this output only
+	volatile RadialFilter radialFilter;
 
 	//  Listener Check needed to know if anyone is receiving events to know when to delete the AWS queue
 	static final long LISTENER_CHECK_INTERVAL = TimeUnit.MINUTES.toMillis(1); 
+	//  max wait for the thread of a removed site to end
+	static final long SITE_STOP_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
 
 
 	public NexradOutput(NexradSensor parentSensor)
 	{
 		super(parentSensor);
-		nexradSensor = parentSensor;
-		Timer queueTimer = new Timer();  
+		queueTimer = new Timer();  
 		queueTimer.scheduleAtFixedRate(new CheckNumListeners(), 0, LISTENER_CHECK_INTERVAL); //delay in milliseconds
 	}
 
@@ -212,25 +221,41 @@ public class NexradOutput extends AbstractSensorOutput<NexradSensor> implements
 		swData.setElementCount(numSwGates); 
 		nexradStruct.addComponent("SpectrumWidth", swData);
 
+		// 16 - same gates as Velocity
+		NexradConfig config = nexradSensor.getConfiguration();
+		dealiasVelocity = (config != null && config.dealiasVelocity);
+		if(dealiasVelocity) {
+			Quantity dvelQuant = fac.newQuantity(DataType.FLOAT);
+			dvelQuant.setDefinition("http://sensorml.com/ont/swe/propertyx/DealiasedVelocity");
+			dvelQuant.getUom().setCode("m/s");
+			DataArray dvelData = fac.newDataArray();
+			dvelData.setElementType("DealiasedVelocity", dvelQuant);
+			dvelData.setElementCount(numVelGates); 
+			nexradStruct.addComponent("DealiasedVelocity", dvelData);
+		}
+
 		encoding = SWEHelper.getDefaultBinaryEncoding(nexradStruct);
 		//		encoding = fac.newTextEncoding();
+
+		initPublisher();
 	}
 
 	RadialProvider radialProvider;
 	protected void start(RadialProvider provider)
 	{
 		this.radialProvider = provider;
+		NexradConfig config = nexradSensor.getConfiguration();
+		setRadialFilter(config.radialFilter);
 
 		if (sendData)
 			return;
 
 		sendData = true;
+		if(publisher != null)
+			publisher.start();
 
-		NexradConfig config = nexradSensor.getConfiguration();
-		for(String site: config.siteIds) {
-			Thread t = new GetRadialsThread(site);
-			t.start();
-		}
+		for(String site: nexradSensor.getSiteIds())
+			startSite(site);
 
 		// start sending of radials
 		//		Thread t = new Thread(new Runnable()
@@ -255,121 +280,124 @@ public class NexradOutput extends AbstractSensorOutput<NexradSensor> implements
 		//		t.start();
 	}
 
+	/**
+	 * Change the radials published by this output.  The filter is shared by all subscribers
+	 * of the output and doesn't change the configuration.  Radial listeners (products, cell 
+	 * tracking, sweep store) and the dealiaser keep receiving complete sweeps
+	 * @param filter null to publish all radials
+	 */
+	public void setRadialFilter(RadialFilter filter)
+	{
+		radialFilter = (filter != null && !filter.isEmpty()) ? filter : null;
+		updateReaderFilter();
+	}
+
+	//  the readers can skip rejected radials and gates without decoding them, but only when 
+	//  nothing else needs the complete radials.  Otherwise filtering is done in sendRadials
+	private void updateReaderFilter()
+	{
+		if(radialProvider != null)
+			radialProvider.setRadialFilter((radialListeners.isEmpty() && !dealiasVelocity) ? radialFilter : null);
+	}
+
+	/**
+	 * Start reading the radials of a site, if the output is started and the site isn't read yet
+	 */
+	protected void startSite(String site)
+	{
+		if(!sendData || siteThreads.containsKey(site))
+			return;
+		GetRadialsThread t = new GetRadialsThread(site);
+		if(siteThreads.putIfAbsent(site, t) == null)
+			t.start();
+	}
+
+	/**
+	 * Stop reading the radials of a site.  Waits for the reading thread to end, so radial 
+	 * listeners get no more radials of the site once notified of its removal
+	 */
+	protected void stopSite(String site)
+	{
+		GetRadialsThread t = siteThreads.remove(site);
+		if(t != null) {
+			t.running = false;
+			t.interrupt();
+			try {
+				t.join(SITE_STOP_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if(t.isAlive())
+				logger.warn("Radials thread of {} still running after {} ms", site, SITE_STOP_TIMEOUT);
+		}
+		latestRecords.remove(NexradSensor.SITE_UID_PREFIX + site);
+		for(RadialListener listener: radialListeners)
+			listener.siteRemoved(site);
+	}
+
+	/**
+	 * Register a processing stage to receive the radials read for each site
+	 */
+	public void addRadialListener(RadialListener listener)
+	{
+		radialListeners.add(listener);
+		updateReaderFilter();
+	}
+
 	class GetRadialsThread extends Thread {
 		String site;
+		VelocityDealiaser dealiaser;
+		volatile boolean running = true;
+		//  incremented at each new elevation, so queued radials of older sweeps can be coalesced
+		long sweepNum;
+		int elevationNum = -1;
 
 		public GetRadialsThread(String site) {
+			super("NexradRadials-" + site);
 			this.site = site;
+			if(dealiasVelocity)
+				dealiaser = new VelocityDealiaser();
 		}
 
 		@Override
 		public void run() {
-			while (sendData)
+			while (sendData && running)
 			{
 				try {
 					List<LdmRadial> radials = radialProvider.getNextRadials(site);
-					if(radials == null)
+					if(radials == null || !running)
 						continue;
 					//					System.err.println("Read " + radials.size() + " radials");
-					sendRadials(radials);
+					if(dealiaser != null)
+						dealiaser.dealias(radials);
+					sendRadials(radials, this);
+					for(RadialListener listener: radialListeners)
+						listener.radialsReceived(site, radials);
 				} catch (IOException e) {
 					e.printStackTrace();
 					continue;
+				} catch (InterruptedException e) {
+					break;
 				}
 			}
+			siteThreads.remove(site, this);
 		}
 	}
 
-	private void sendRadials(List<LdmRadial> radials) throws IOException
+	private void sendRadials(List<LdmRadial> radials, GetRadialsThread source) throws IOException, InterruptedException
 	{
-		int i=0;
+		RadialFilter filter = radialFilter;
 		for(LdmRadial radial: radials) {
-			// build and publish datablock
-			DataArray refArr = (DataArray)nexradStruct.getComponent(13);
-			DataArray velArr = (DataArray)nexradStruct.getComponent(14);
-			DataArray swArr = (DataArray)nexradStruct.getComponent(15);
-			//
-			//			
-			MomentDataBlock refMomentData = radial.momentData.get("REF");
-			MomentDataBlock velMomentData = radial.momentData.get("VEL");
-			MomentDataBlock swMomentData = radial.momentData.get("SW");
-			//
-			if(refMomentData == null) {
-				refArr.updateSize(1);
-			} else {
-				refArr.updateSize(refMomentData.numGates);
+			if(filter != null && !filter.accept(radial.dataHeader))
+				continue;
+			int status = radial.dataHeader.radialStatus;
+			if(radial.dataHeader.elevationNum != source.elevationNum || status == SweepAssembler.START_OF_ELEVATION 
+					|| status == SweepAssembler.START_OF_VOLUME) {
+				source.elevationNum = radial.dataHeader.elevationNum;
+				source.sweepNum++;
 			}
 
-			if(velMomentData == null) {
-				velArr.updateSize(1);
-			} else {
-				velArr.updateSize(velMomentData.numGates);
-			}
-
-			if(swMomentData == null) {
-				swArr.updateSize(1);
-			} else {
-				swArr.updateSize(swMomentData.numGates);
-			}
-			DataBlock nexradBlock = nexradStruct.createDataBlock();
-			//
-			long days = radial.dataHeader.daysSince1970;
-			long ms = radial.dataHeader.msSinceMidnight;
-			double utcTime = (double)(AwsNexradUtil.toJulianTime(days, ms)/1000.);
-			long utcTimeMs = AwsNexradUtil.toJulianTime(days, ms);
-			nexradBlock.setDoubleValue(0, utcTime);
-			nexradBlock.setStringValue(1, radial.dataHeader.siteId);
-			nexradBlock.setDoubleValue(2, radial.dataHeader.elevationAngle);
-			nexradBlock.setDoubleValue(3, radial.dataHeader.azimuthAngle);
-			//
-			float [] f = new float[1];
-			if(refMomentData != null) {
-				//				System.err.println(refMomentData.numGates);
-				nexradBlock.setShortValue(4, refMomentData.rangeToCenterOfFirstGate);
-				nexradBlock.setShortValue(5, refMomentData.rangeSampleInterval);
-				nexradBlock.setIntValue(6, refMomentData.numGates);
-			} else {
-				nexradBlock.setShortValue(4, (short)0);
-				nexradBlock.setShortValue(5, (short)0);
-				nexradBlock.setIntValue(6, 1);
-			}
-			if(velMomentData != null) {
-				nexradBlock.setShortValue(7, velMomentData.rangeToCenterOfFirstGate);
-				nexradBlock.setShortValue(8, velMomentData.rangeSampleInterval);
-				nexradBlock.setIntValue(9, velMomentData.numGates);
-			} else {
-				nexradBlock.setShortValue(7, (short)0);
-				nexradBlock.setShortValue(8, (short)0);
-				nexradBlock.setIntValue(9, 1);
-			}
-			if(swMomentData != null) {
-				nexradBlock.setShortValue(10, swMomentData.rangeToCenterOfFirstGate);
-				nexradBlock.setShortValue(11, swMomentData.rangeSampleInterval);
-				nexradBlock.setIntValue(12, swMomentData.numGates);
-			} else {
-				nexradBlock.setShortValue(10, (short)0);
-				nexradBlock.setShortValue(11, (short)0);
-				nexradBlock.setIntValue(12, 1);
-			}
-
-			if(refMomentData != null) {
-				//				float [] d = refMomentData.getData();
-				//				for(float ff: d)  System.err.println(ff);
-				((DataBlockMixed)nexradBlock).getUnderlyingObject()[13].setUnderlyingObject(refMomentData.getData());
-			} else {
-				((DataBlockMixed)nexradBlock).getUnderlyingObject()[13].setUnderlyingObject(f);
-			}
-			if(velMomentData != null) {
-				((DataBlockMixed)nexradBlock).getUnderlyingObject()[14].setUnderlyingObject(velMomentData.getData());
-			} else {
-				((DataBlockMixed)nexradBlock).getUnderlyingObject()[14].setUnderlyingObject(f);
-			}
-
-			if(swMomentData != null) {
-				((DataBlockMixed)nexradBlock).getUnderlyingObject()[15].setUnderlyingObject(swMomentData.getData());
-			} else {
-				((DataBlockMixed)nexradBlock).getUnderlyingObject()[15].setUnderlyingObject(f);
-			}
+			DataBlock nexradBlock = createDataBlock(radial, filter);
 
 			//System.out.printf("r,v,s: %d,%d,%d\n", refMomentData.numGates, velMomentData.numGates, swMomentData.numGates);
 			String siteUID = NexradSensor.SITE_UID_PREFIX + radial.dataHeader.siteId;
@@ -377,13 +405,140 @@ public class NexradOutput extends AbstractSensorOutput<NexradSensor> implements
 	        latestRecords.put(siteUID, latestRecord);
 			
 			latestRecordTime = System.currentTimeMillis();
-			eventHandler.publishEvent(new SensorDataEvent(latestRecordTime, NexradOutput.this, nexradBlock));
+			SensorDataEvent event = new SensorDataEvent(latestRecordTime, NexradOutput.this, nexradBlock);
+			publishEvent(event, radial.dataHeader.siteId, source.sweepNum);
 		}
 
 	}
 
+	/**
+	 * Build the DataBlock for a single radial.  Kept separate from sendRadials() so the 
+	 * DataBlock construction cost can be measured on its own (see src/jmh)
+	 */
+	DataBlock createDataBlock(LdmRadial radial)
+	{
+		return createDataBlock(radial, radialFilter);
+	}
+
+	/**
+	 * @param filter max range of the filter is applied to the moments, without changing the radial
+	 */
+	DataBlock createDataBlock(LdmRadial radial, RadialFilter filter)
+	{
+		// build and publish datablock
+		DataArray refArr = (DataArray)nexradStruct.getComponent(13);
+		DataArray velArr = (DataArray)nexradStruct.getComponent(14);
+		DataArray swArr = (DataArray)nexradStruct.getComponent(15);
+		//
+		//			
+		MomentDataBlock refMomentData = radial.momentData.get("REF");
+		MomentDataBlock velMomentData = radial.momentData.get("VEL");
+		MomentDataBlock swMomentData = radial.momentData.get("SW");
+		int numRefGates = getNumGates(refMomentData, filter);
+		int numVelGates = getNumGates(velMomentData, filter);
+		int numSwGates = getNumGates(swMomentData, filter);
+		//
+		refArr.updateSize(numRefGates);
+		velArr.updateSize(numVelGates);
+		swArr.updateSize(numSwGates);
+		if(dealiasVelocity)
+			((DataArray)nexradStruct.getComponent(16)).updateSize(numVelGates);
+		DataBlock nexradBlock = nexradStruct.createDataBlock();
+		//
+		long days = radial.dataHeader.daysSince1970;
+		long ms = radial.dataHeader.msSinceMidnight;
+		double utcTime = (double)(AwsNexradUtil.toJulianTime(days, ms)/1000.);
+		nexradBlock.setDoubleValue(0, utcTime);
+		nexradBlock.setStringValue(1, radial.dataHeader.siteId);
+		nexradBlock.setDoubleValue(2, radial.dataHeader.elevationAngle);
+		nexradBlock.setDoubleValue(3, radial.dataHeader.azimuthAngle);
+		//
+		float [] f = new float[1];
+		if(refMomentData != null) {
+			//				System.err.println(refMomentData.numGates);
+			nexradBlock.setShortValue(4, refMomentData.rangeToCenterOfFirstGate);
+			nexradBlock.setShortValue(5, refMomentData.rangeSampleInterval);
+			nexradBlock.setIntValue(6, numRefGates);
+		} else {
+			nexradBlock.setShortValue(4, (short)0);
+			nexradBlock.setShortValue(5, (short)0);
+			nexradBlock.setIntValue(6, 1);
+		}
+		if(velMomentData != null) {
+			nexradBlock.setShortValue(7, velMomentData.rangeToCenterOfFirstGate);
+			nexradBlock.setShortValue(8, velMomentData.rangeSampleInterval);
+			nexradBlock.setIntValue(9, numVelGates);
+		} else {
+			nexradBlock.setShortValue(7, (short)0);
+			nexradBlock.setShortValue(8, (short)0);
+			nexradBlock.setIntValue(9, 1);
+		}
+		if(swMomentData != null) {
+			nexradBlock.setShortValue(10, swMomentData.rangeToCenterOfFirstGate);
+			nexradBlock.setShortValue(11, swMomentData.rangeSampleInterval);
+			nexradBlock.setIntValue(12, numSwGates);
+		} else {
+			nexradBlock.setShortValue(10, (short)0);
+			nexradBlock.setShortValue(11, (short)0);
+			nexradBlock.setIntValue(12, 1);
+		}
+
+		if(refMomentData != null) {
+			//				float [] d = refMomentData.getData();
+			//				for(float ff: d)  System.err.println(ff);
+			((DataBlockMixed)nexradBlock).getUnderlyingObject()[13].setUnderlyingObject(getData(refMomentData, numRefGates));
+		} else {
+			((DataBlockMixed)nexradBlock).getUnderlyingObject()[13].setUnderlyingObject(f);
+		}
+		if(velMomentData != null) {
+			((DataBlockMixed)nexradBlock).getUnderlyingObject()[14].setUnderlyingObject(getData(velMomentData, numVelGates));
+		} else {
+			((DataBlockMixed)nexradBlock).getUnderlyingObject()[14].setUnderlyingObject(f);
+		}
+
+		if(swMomentData != null) {
+			((DataBlockMixed)nexradBlock).getUnderlyingObject()[15].setUnderlyingObject(getData(swMomentData, numSwGates));
+		} else {
+			((DataBlockMixed)nexradBlock).getUnderlyingObject()[15].setUnderlyingObject(f);
+		}
+
+		if(dealiasVelocity) {
+			MomentDataBlock dvelMomentData = radial.momentData.get(VelocityDealiaser.MOMENT_NAME);
+			if(dvelMomentData != null && velMomentData != null && dvelMomentData.numGates == velMomentData.numGates) {
+				((DataBlockMixed)nexradBlock).getUnderlyingObject()[16].setUnderlyingObject(getData(dvelMomentData, numVelGates));
+			} else {
+				// keep the size tied to numVelGates
+				float [] nan = new float[numVelGates];
+				Arrays.fill(nan, Float.NaN);
+				((DataBlockMixed)nexradBlock).getUnderlyingObject()[16].setUnderlyingObject(nan);
+			}
+		}
+
+		return nexradBlock;
+	}
+
+	//  1 for missing moments, as the arrays can't be empty
+	private static int getNumGates(MomentDataBlock moment, RadialFilter filter)
+	{
+		if(moment == null)
+			return 1;
+		if(filter == null)
+			return moment.numGates;
+		return Math.max(1, filter.getNumGates(moment.numGates, moment.rangeToCenterOfFirstGate, moment.rangeSampleInterval));
+	}
+
+	//  gates beyond max range are dropped from a copy, the moment is shared with radial listeners
+	private static float [] getData(MomentDataBlock moment, int numGates)
+	{
+		float [] data = moment.getData();
+		return (data.length != numGates) ? Arrays.copyOf(data, numGates) : data;
+	}
+
 	protected void stop()
 	{
+		sendData = false;
+		if(publisher != null)
+			publisher.stop();
 		if (timer != null)
 		{
 			timer.cancel();
@@ -391,6 +546,14 @@ public class NexradOutput extends AbstractSensorOutput<NexradSensor> implements
 		}
 	}
 
+	/**
+	 * Stop the listener check started by the constructor
+	 */
+	protected void cleanup()
+	{
+		queueTimer.cancel();
+	}
+
 
 	@Override
 	public double getAverageSamplingPeriod()
@@ -434,7 +597,8 @@ public class NexradOutput extends AbstractSensorOutput<NexradSensor> implements
 	class CheckNumListeners extends TimerTask {
 		@Override
 		public void run() {
-			int numListeners = eventHandler.getNumListeners();
+			// outputs computed from the radials need them too
+			int numListeners = eventHandler.getNumListeners() + nexradSensor.getNumProductListeners();
 			logger.debug("CheckNumListeners = {}",numListeners);
 			if (numListeners > 0) { 
 				try {
@@ -443,7 +607,7 @@ public class NexradOutput extends AbstractSensorOutput<NexradSensor> implements
 					//  What should happen in this case? We can't proceed 
 					e.printStackTrace();
 				}
-				noListeners = true;
+				noListeners = false;
 			}else {
 				if(!noListeners) { 
 					nexradSensor.setQueueIdle();
@@ -473,6 +637,7 @@ public class NexradOutput extends AbstractSensorOutput<NexradSensor> implements
     @Override
     public DataBlock getLatestRecord(String entityID)
     {
+        nexradSensor.touchSite(entityID);
         return latestRecords.get(entityID);
     }
 }
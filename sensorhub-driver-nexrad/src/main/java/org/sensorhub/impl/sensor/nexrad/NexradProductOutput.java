@@ -0,0 +1,292 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
+
+ ******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.sensor.nexrad;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.sensorhub.api.data.IMultiSourceDataInterface;
+import org.sensorhub.api.sensor.SensorDataEvent;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+import org.sensorhub.impl.sensor.nexrad.products.ProductListener;
+import org.sensorhub.impl.sensor.nexrad.products.SweepAssembler;
+import org.sensorhub.impl.sensor.nexrad.products.VolumeProductEngine;
+import org.sensorhub.impl.sensor.nexrad.products.VolumeProductEngine.VolumeProducts;
+import org.vast.data.DataBlockMixed;
+import org.vast.data.DataRecordImpl;
+import org.vast.data.QuantityImpl;
+import org.vast.data.SWEFactory;
+import org.vast.data.TimeImpl;
+import org.vast.swe.SWEConstants;
+import org.vast.swe.SWEHelper;
+
+import net.opengis.swe.v20.Count;
+import net.opengis.swe.v20.DataArray;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.DataEncoding;
+import net.opengis.swe.v20.DataRecord;
+import net.opengis.swe.v20.DataType;
+import net.opengis.swe.v20.Quantity;
+import net.opengis.swe.v20.Time;
+
+/**
+ * <p>Title: NexradProductOutput.java</p>
+ * <p>Description: Composite reflectivity, echo tops and VIL of each site, computed by
+ *   VolumeProductEngine from the radials read by NexradOutput.  A record is published
+ *   after each tilt, with volumeComplete set on the last one of the volume.
+ *
+ *   Product grids are polar, flattened azimuth major:
+ *   		value[azimuthBin * numRangeBins + rangeBin]
+ *   NaN where there is no echo (composite, echo tops).
+ * </p>
+ */
+public class NexradProductOutput extends NexradSensorOutput implements IMultiSourceDataInterface, RadialListener
+{
+	DataRecord productStruct;
+	DataEncoding encoding;
+	Map<String, SweepAssembler> assemblers = new ConcurrentHashMap<>();
+	Map<String, DataBlock> latestRecords = new ConcurrentHashMap<>();
+
+	public NexradProductOutput(NexradSensor parentSensor)
+	{
+		super(parentSensor);
+	}
+
+
+	@Override
+	public String getName()
+	{
+		return "NexradProducts";
+	}
+
+
+	protected void init()
+	{
+		SWEFactory fac = new SWEFactory();
+
+		productStruct = new DataRecordImpl(12);
+		productStruct.setName(getName());
+		productStruct.setDefinition("http://sensorml.com/ont/swe/propertyx/NexradVolumeProducts");
+
+		// 0
+		Time time = new TimeImpl();
+		time.getUom().setHref(Time.ISO_TIME_UNIT);
+		time.setDefinition(SWEConstants.DEF_SAMPLING_TIME);
+		productStruct.addComponent("time", time);
+
+		// 1
+		productStruct.addComponent("siteId", fac.newText());
+		productStruct.getFieldList().getProperty(1).setRole(ENTITY_ID_URI);
+
+		// 2
+		Count vcp = fac.newCount(DataType.INT);
+		vcp.setDefinition("http://sensorml.com/ont/swe/propertyx/VolumeCoveragePattern");
+		productStruct.addComponent("vcp", vcp);
+
+		// 3
+		Count numTilts = fac.newCount(DataType.INT);
+		numTilts.setDefinition("http://sensorml.com/ont/swe/propertyx/NumberOfTilts");
+		productStruct.addComponent("numTilts", numTilts);
+
+		// 4
+		Quantity el = new QuantityImpl();
+		el.getUom().setCode("deg");
+		el.setDefinition("http://sensorml.com/ont/swe/property/ElevationAngle");
+		productStruct.addComponent("lastElevation", el);
+
+		// 5
+		productStruct.addComponent("volumeComplete", fac.newBoolean());
+
+		// 6
+		Count numAz = fac.newCount(DataType.INT);
+		numAz.setDefinition("http://sensorml.com/ont/swe/property/NumberOfSamples");
+		productStruct.addComponent("numAzimuths", numAz);
+
+		// 7
+		Count numRange = fac.newCount(DataType.INT);
+		numRange.setDefinition("http://sensorml.com/ont/swe/property/NumberOfSamples");
+		productStruct.addComponent("numRangeBins", numRange);
+
+		// 8
+		Quantity binSize = new QuantityImpl(DataType.FLOAT);
+		binSize.setDefinition("http://sensorml.com/ont/swe/property/RangeSampleSpacing.html");
+		binSize.getUom().setCode("m");
+		productStruct.addComponent("rangeBinSize", binSize);
+
+		// 9
+		Count numCells = fac.newCount(DataType.INT);
+		numCells.setDefinition("http://sensorml.com/ont/swe/property/NumberOfSamples");
+		numCells.setId("NUM_CELLS");
+		productStruct.addComponent("numCells", numCells);
+
+		// 10, 11, 12
+		addGrid(fac, numCells, "CompositeReflectivity", "http://sensorml.com/ont/swe/propertyx/CompositeReflectivity", "db");
+		addGrid(fac, numCells, "EchoTops", "http://sensorml.com/ont/swe/propertyx/EchoTops", "m");
+		addGrid(fac, numCells, "VIL", "http://sensorml.com/ont/swe/propertyx/VerticallyIntegratedLiquid", "kg/m2");
+
+		encoding = SWEHelper.getDefaultBinaryEncoding(productStruct);
+
+		initPublisher();
+	}
+
+
+	protected void start()
+	{
+		if(publisher != null)
+			publisher.start();
+	}
+
+
+	protected void stop()
+	{
+		if(publisher != null)
+			publisher.stop();
+	}
+
+
+	private void addGrid(SWEFactory fac, Count numCells, String name, String def, String uom)
+	{
+		Quantity q = fac.newQuantity(DataType.FLOAT);
+		q.setDefinition(def);
+		q.getUom().setCode(uom);
+		DataArray arr = fac.newDataArray();
+		arr.setElementType(name, q);
+		arr.setElementCount(numCells);
+		productStruct.addComponent(name, arr);
+	}
+
+
+	@Override
+	public void radialsReceived(String site, List<LdmRadial> radials)
+	{
+		getAssembler(site).addRadials(radials);
+	}
+
+
+	int getNumListeners()
+	{
+		return eventHandler.getNumListeners();
+	}
+
+
+	@Override
+	public void siteRemoved(String site)
+	{
+		assemblers.remove(site);
+		latestRecords.remove(NexradSensor.SITE_UID_PREFIX + site);
+	}
+
+
+	private SweepAssembler getAssembler(String site)
+	{
+		SweepAssembler assembler = assemblers.get(site);
+		if(assembler != null)
+			return assembler;
+
+		NexradConfig config = nexradSensor.getConfiguration();
+		VolumeProductEngine engine = new VolumeProductEngine(NexradUtil.getSite(site), config.productNumAzimuths,
+				config.productRangeBinMeters, config.productMaxRangeMeters);
+		engine.addListener(new ProductListener() {
+			@Override
+			public void productsUpdated(VolumeProducts products) {
+				publish(products);
+			}
+		});
+		assembler = new SweepAssembler(site);
+		assembler.addListener(engine);
+		assemblers.put(site, assembler);
+		return assembler;
+	}
+
+
+	synchronized void publish(VolumeProducts products)
+	{
+		DataArray compArr = (DataArray)productStruct.getComponent(10);
+		DataArray etArr = (DataArray)productStruct.getComponent(11);
+		DataArray vilArr = (DataArray)productStruct.getComponent(12);
+		int numCells = products.compositeReflectivity.length;
+		compArr.updateSize(numCells);
+		etArr.updateSize(numCells);
+		vilArr.updateSize(numCells);
+
+		DataBlock block = productStruct.createDataBlock();
+		block.setDoubleValue(0, products.time / 1000.);
+		block.setStringValue(1, products.siteId);
+		block.setIntValue(2, products.vcp);
+		block.setIntValue(3, products.numTilts);
+		block.setDoubleValue(4, products.elevationAngle);
+		block.setBooleanValue(5, products.volumeComplete);
+		block.setIntValue(6, products.numAzimuths);
+		block.setIntValue(7, products.numRangeBins);
+		block.setFloatValue(8, products.rangeBinMeters);
+		block.setIntValue(9, numCells);
+		((DataBlockMixed)block).getUnderlyingObject()[10].setUnderlyingObject(products.compositeReflectivity);
+		((DataBlockMixed)block).getUnderlyingObject()[11].setUnderlyingObject(products.echoTops);
+		((DataBlockMixed)block).getUnderlyingObject()[12].setUnderlyingObject(products.vil);
+
+		latestRecord = block;
+		latestRecords.put(NexradSensor.SITE_UID_PREFIX + products.siteId, block);
+		latestRecordTime = System.currentTimeMillis();
+		SensorDataEvent event = new SensorDataEvent(latestRecordTime, NexradProductOutput.this, block);
+		publishEvent(event, products.siteId);
+	}
+
+
+	@Override
+	public double getAverageSamplingPeriod()
+	{
+		return 30.0;  // roughly one tilt every 20-40 seconds per site
+	}
+
+
+	@Override
+	public DataComponent getRecordDescription()
+	{
+		return productStruct;
+	}
+
+
+	@Override
+	public DataEncoding getRecommendedEncoding()
+	{
+		return encoding;
+	}
+
+
+	@Override
+	public Collection<String> getEntityIDs()
+	{
+		return parentSensor.getEntityIDs();
+	}
+
+
+	@Override
+	public Map<String, DataBlock> getLatestRecords()
+	{
+		return Collections.unmodifiableMap(latestRecords);
+	}
+
+
+	@Override
+	public DataBlock getLatestRecord(String entityID)
+	{
+		nexradSensor.touchSite(entityID);
+		return latestRecords.get(entityID);
+	}
+}
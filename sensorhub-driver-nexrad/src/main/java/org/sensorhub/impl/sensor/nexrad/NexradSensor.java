@@ -15,30 +15,28 @@ Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
 package org.sensorhub.impl.sensor.nexrad;
 
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.List;
 import java.util.TimerTask;
 import java.util.concurrent.TimeUnit;
 
 import org.sensorhub.api.common.SensorHubException;
+import org.sensorhub.api.data.FoiEvent;
 import org.sensorhub.api.data.IMultiSourceDataProducer;
 import org.sensorhub.impl.sensor.AbstractSensorModule;
 import org.sensorhub.impl.sensor.nexrad.aws.NexradSqsService;
 import org.sensorhub.impl.sensor.nexrad.aws.sqs.ChunkQueueManager;
 import org.sensorhub.impl.sensor.nexrad.aws.sqs.RealtimeRadialProvider;
+import org.sensorhub.impl.sensor.nexrad.store.SweepArchiver;
+import org.sensorhub.impl.sensor.nexrad.store.SweepStore;
 import org.sensorhub.impl.sensor.nexrad.ucar.ArchiveRadialProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.vast.sensorML.SMLHelper;
 
 import net.opengis.gml.v32.AbstractFeature;
-import net.opengis.gml.v32.Point;
-import net.opengis.gml.v32.impl.GMLFactory;
 import net.opengis.sensorml.v20.AbstractProcess;
 import net.opengis.sensorml.v20.PhysicalSystem;
 
@@ -55,20 +53,21 @@ public class NexradSensor extends AbstractSensorModule<NexradConfig> implements
 	static final String SITE_UID_PREFIX = "urn:test:sensors:weather:nexrad";
 
 	NexradOutput dataInterface;
+	NexradProductOutput productInterface;
+	NexradCellTrackOutput cellInterface;
+	SweepStore sweepStore;
 	RadialProvider radialProvider;  // either Realtime or archive AWS source
 	boolean isRealtime;
 
-	Set<String> foiIDs;
-	Map<String, PhysicalSystem> siteFois;
-	Map<String, PhysicalSystem> siteDescs;
+	//  FOIs and descriptions of the sites served, created on demand
+	NexradFeatureCache features = new NexradFeatureCache();
 
 	NexradSqsService nexradSqs;
+	//  null unless siteIdleTimeMinutes is set
+	SiteActivityTracker siteActivity;
 
 	public NexradSensor() throws SensorHubException
 	{
-		this.foiIDs = new LinkedHashSet<String>();
-		this.siteFois = new LinkedHashMap<String, PhysicalSystem>();
-		this.siteDescs = new LinkedHashMap<String, PhysicalSystem>();
 	}
 
 	ChunkQueueManager chunkQueueManager;
@@ -76,8 +75,8 @@ public class NexradSensor extends AbstractSensorModule<NexradConfig> implements
 	public void setQueueActive() throws IOException {
 		if(!isRealtime) 
 			return;
-		nexradSqs.setQueueActive();
 		nexradSqs.setNumThreads(config.numThreads);
+		nexradSqs.setQueueActive();
 		//		nexradSqs.setChunkQueue(chunkQueue);  // 
 		//		chunkQueue.setS3client(nexradSqs.getS3client());  //
 		//		nexradSqs.start();
@@ -103,13 +102,30 @@ public class NexradSensor extends AbstractSensorModule<NexradConfig> implements
 		} else {
 			try {
 				isRealtime = true;
-				nexradSqs = new NexradSqsService(config.queueName, config.siteIds);
+				if(config.replayFolder != null && config.replayFolder.equals(config.rootFolder))
+					throw new SensorHubException("replayFolder must differ from rootFolder, as received chunks are written to rootFolder");
+				nexradSqs = new NexradSqsService(config);
 				nexradSqs.setQueueIdleTimeMillis(TimeUnit.MINUTES.toMillis(config.queueIdleTimeMinutes));
 				chunkQueueManager = new ChunkQueueManager(this);
 				//  DECOUPLE ME!!!
 				nexradSqs.setChunkQueueManager(chunkQueueManager);
-				chunkQueueManager.setS3Client(nexradSqs.getS3client());
+				chunkQueueManager.setChunkStore(nexradSqs.getChunkStore());
+				chunkQueueManager.setIoExecutor(nexradSqs.getIoExecutor());
 				radialProvider = new RealtimeRadialProvider(this, chunkQueueManager);
+				if(config.siteIdleTimeMinutes > 0) {
+					siteActivity = new SiteActivityTracker(TimeUnit.MINUTES.toMillis(config.siteIdleTimeMinutes));
+					siteActivity.addListener(new SiteActivityTracker.Listener() {
+						@Override
+						public void siteActivated(String site) {
+							chunkQueueManager.setSiteActive(site, true);
+						}
+
+						@Override
+						public void siteIdle(String site) {
+							chunkQueueManager.setSiteActive(site, false);
+						}
+					});
+				}
 				setQueueActive();
 			} catch (IOException e) {
 				throw new SensorHubException("Could not instantiate NexradSqsService", e);
@@ -118,6 +134,29 @@ public class NexradSensor extends AbstractSensorModule<NexradConfig> implements
 		dataInterface = new NexradOutput(this);
 		addOutput(dataInterface, false);
 		dataInterface.init();	
+
+		if(config.computeProducts) {
+			productInterface = new NexradProductOutput(this);
+			addOutput(productInterface, false);
+			productInterface.init();
+			dataInterface.addRadialListener(productInterface);
+		}
+
+		if(config.trackCells) {
+			cellInterface = new NexradCellTrackOutput(this);
+			addOutput(cellInterface, false);
+			cellInterface.init();
+			dataInterface.addRadialListener(cellInterface);
+		}
+
+		if(config.sweepStoreFolder != null) {
+			try {
+				sweepStore = new SweepStore(Paths.get(config.sweepStoreFolder));
+			} catch (IOException e) {
+				throw new SensorHubException("Could not create sweep store in " + config.sweepStoreFolder, e);
+			}
+			dataInterface.addRadialListener(new SweepArchiver(sweepStore));
+		}
 	}
 
 
@@ -134,7 +173,7 @@ public class NexradSensor extends AbstractSensorModule<NexradConfig> implements
 
 
 			// append href to all stations composing the network
-			for (String siteId: config.siteIds)
+			for (String siteId: getSiteIds())
 			{
 				String name = "site_" + siteId;
 				String href = SITE_UID_PREFIX + siteId;
@@ -146,46 +185,168 @@ public class NexradSensor extends AbstractSensorModule<NexradConfig> implements
 	@Override
 	public void start() throws SensorHubException
 	{
-		SMLHelper smlFac = new SMLHelper();
-		GMLFactory gmlFac = new GMLFactory(true);
+		// FOIs and full descriptions are generated when first requested
+		for (String siteId: getSiteIds())
+			addSiteFoi(siteId);
+
+		if(productInterface != null)
+			productInterface.start();
+		if(cellInterface != null)
+			cellInterface.start();
+		dataInterface.start(radialProvider); 
+		if(siteActivity != null)
+			siteActivity.start(getSiteIds());
+	}
 
-		// generate station FOIs and full descriptions
-		for (String siteId: config.siteIds)
-		{
-			String uid = SITE_UID_PREFIX + siteId;
-			String name = siteId;
-			String description = "Nexrad site " + siteId;
-
-			// generate small SensorML for FOI (in this case the system is the FOI)
-			PhysicalSystem foi = smlFac.newPhysicalSystem();
-			foi.setId(siteId);
-			foi.setUniqueIdentifier(uid);
-			foi.setName(name);
-			foi.setDescription(description);
-			Point stationLoc = gmlFac.newPoint();
-			NexradSite site = config.getSite(siteId);
-			stationLoc.setPos(new double [] {site.lat, site.lon, site.elevation});
-			foi.setLocation(stationLoc);
-			siteFois.put(uid, foi);
-			foiIDs.add(uid);
-
-			// TODO generate full SensorML for sensor description
-			PhysicalSystem sensorDesc = smlFac.newPhysicalSystem();
-			sensorDesc.setId("SITE_" + siteId);
-			sensorDesc.setUniqueIdentifier(uid);
-			sensorDesc.setName(name);
-			sensorDesc.setDescription(description);
-			siteDescs.put(uid, sensorDesc);
-		}
 
-		dataInterface.start(radialProvider); 
+	private void addSiteFoi(String siteId) throws SensorHubException
+	{
+		NexradSite site = config.getSite(siteId);
+		if(site == null)
+			throw new SensorHubException("Unknown Nexrad site: " + siteId);
+		features.addSite(siteId, site);
+	}
+
+
+	/**
+	 * Start acquiring data from a site, without restarting the sensor.  In realtime mode, 
+	 * chunks of the site are kept from the next notification received
+	 */
+	public synchronized void addSite(String siteId) throws SensorHubException
+	{
+		if(config.siteIds.contains(siteId))
+			return;
+		if(!isRealtime)
+			throw new SensorHubException("Sites can only be added in realtime mode");
+		if(config.getSite(siteId) == null)
+			throw new SensorHubException("Unknown Nexrad site: " + siteId);
+
+		chunkQueueManager.addSite(siteId);
+		nexradSqs.addSite(siteId);
+		config.siteIds.add(siteId);
+		addSiteFoi(siteId);
+		dataInterface.startSite(siteId);
+		if(siteActivity != null)
+			siteActivity.touch(siteId);
+
+		long now = System.currentTimeMillis();
+		eventHandler.publishEvent(new FoiEvent(now, this, features.getFoi(SITE_UID_PREFIX + siteId), now / 1000.0));
+		notifyNewDescription(now);
+		logger.info("Added site {}", siteId);
+	}
+
+
+	/**
+	 * Stop acquiring data from a site, without restarting the sensor.  Chunks of the site 
+	 * already queued are dropped
+	 */
+	public synchronized void removeSite(String siteId) throws SensorHubException
+	{
+		if(!config.siteIds.contains(siteId))
+			return;
+		if(!isRealtime)
+			throw new SensorHubException("Sites can only be removed in realtime mode");
+
+		nexradSqs.removeSite(siteId);
+		dataInterface.stopSite(siteId);
+		chunkQueueManager.removeSite(siteId);
+		config.siteIds.remove(siteId);
+		if(siteActivity != null)
+			siteActivity.remove(siteId);
+
+		features.removeSite(siteId);
+		notifyNewDescription(System.currentTimeMillis());
+		logger.info("Removed site {}", siteId);
+	}
+
+
+	/**
+	 * Declare interest in the data of all sites, for a listener registered on an output, 
+	 * so they keep being fetched when siteIdleTimeMinutes is set.  Each call must be 
+	 * matched by unsubscribeAllSites
+	 */
+	void subscribeAllSites()
+	{
+		if(siteActivity != null)
+			siteActivity.subscribeAll();
+	}
+
+
+	void unsubscribeAllSites()
+	{
+		if(siteActivity != null)
+			siteActivity.unsubscribeAll();
+	}
+
+
+	/**
+	 * Record a request for the data of a site (site id or entity id).  Idle sites are 
+	 * reactivated and resume with the next chunk received
+	 */
+	public void touchSite(String siteId)
+	{
+		if(siteActivity != null)
+			siteActivity.touch(toSiteId(siteId));
+	}
+
+
+	private static String toSiteId(String id)
+	{
+		return id.startsWith(SITE_UID_PREFIX) ? id.substring(SITE_UID_PREFIX.length()) : id;
+	}
+
+
+	/**
+	 * @return number of listeners of the outputs computed from the radials (products, cells)
+	 */
+	int getNumProductListeners()
+	{
+		int num = 0;
+		if(productInterface != null)
+			num += productInterface.getNumListeners();
+		if(cellInterface != null)
+			num += cellInterface.getNumListeners();
+		return num;
+	}
+
+
+	/**
+	 * @return demand for each site, null if siteIdleTimeMinutes is not set
+	 */
+	public SiteActivityTracker getSiteActivity()
+	{
+		return siteActivity;
+	}
+
+
+	/**
+	 * @return store of the sweeps received, null if sweepStoreFolder is not set
+	 */
+	public SweepStore getSweepStore()
+	{
+		return sweepStore;
+	}
+
+
+	/**
+	 * @return copy of the sites currently configured
+	 */
+	public synchronized List<String> getSiteIds()
+	{
+		return new ArrayList<>(config.siteIds);
 	}
 
 
 	@Override
 	public void stop() throws SensorHubException
 	{
+		if(siteActivity != null)
+			siteActivity.stop();
 		dataInterface.stop();
+		if(productInterface != null)
+			productInterface.stop();
+		if(cellInterface != null)
+			cellInterface.stop();
 		if(isRealtime)
 			nexradSqs.stop();
 	}
@@ -194,7 +355,10 @@ public class NexradSensor extends AbstractSensorModule<NexradConfig> implements
 	@Override
 	public void cleanup() throws SensorHubException
 	{
-
+		if(dataInterface != null)
+			dataInterface.cleanup();
+		if(isRealtime)
+			nexradSqs.shutdown();
 	}
 
 
@@ -207,13 +371,13 @@ public class NexradSensor extends AbstractSensorModule<NexradConfig> implements
 
 	@Override
 	public Collection<String> getEntityIDs() {
-		return Collections.unmodifiableCollection(siteFois.keySet());
+		return features.getUids();
 	}
 
 
 	@Override
 	public AbstractProcess getCurrentDescription(String entityID) {
-		return siteDescs.get(entityID);
+		return features.getDescription(entityID);
 	}
 
 
@@ -225,19 +389,19 @@ public class NexradSensor extends AbstractSensorModule<NexradConfig> implements
 
 	@Override
 	public AbstractFeature getCurrentFeatureOfInterest(String entityID) {
-		return siteFois.get(entityID);
+		return features.getFoi(entityID);
 	}
 
 
 	@Override
 	public Collection<? extends AbstractFeature> getFeaturesOfInterest() {
-		return Collections.unmodifiableCollection(siteFois.values());
+		return features.getFois();
 	}
 
 
 	@Override
 	public Collection<String> getFeaturesOfInterestIDs() {
-		return Collections.unmodifiableCollection(foiIDs);
+		return features.getUids();
 	}
 
 	@Override
@@ -0,0 +1,115 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
+
+ ******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.sensor.nexrad;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sensorhub.api.common.IEventListener;
+import org.sensorhub.api.sensor.SensorDataEvent;
+import org.sensorhub.impl.sensor.AbstractSensorOutput;
+
+/**
+ * <p>Title: NexradSensorOutput.java</p>
+ * <p>Description: Base of the NexradSensor outputs.  Listeners of an output receive the
+ *   data of all sites, so while an output has listeners no site is left idle.  Events are
+ *   published from the processing threads, or through an AsyncEventPublisher when 
+ *   publishQueueSize is set.
+ * </p>
+ */
+public abstract class NexradSensorOutput extends AbstractSensorOutput<NexradSensor>
+{
+	NexradSensor nexradSensor;
+	Set<IEventListener> subscribers = ConcurrentHashMap.newKeySet();
+	AsyncEventPublisher publisher;
+	AtomicLong numEvents = new AtomicLong();
+
+	public NexradSensorOutput(NexradSensor parentSensor)
+	{
+		super(parentSensor);
+		nexradSensor = parentSensor;
+	}
+
+
+	@Override
+	public void registerListener(IEventListener listener)
+	{
+		super.registerListener(listener);
+		if(subscribers.add(listener))
+			nexradSensor.subscribeAllSites();
+	}
+
+
+	@Override
+	public void unregisterListener(IEventListener listener)
+	{
+		super.unregisterListener(listener);
+		if(subscribers.remove(listener))
+			nexradSensor.unsubscribeAllSites();
+	}
+
+
+	/**
+	 * Create the publish queue if the configuration has one.  Called from init()
+	 */
+	void initPublisher()
+	{
+		NexradConfig config = nexradSensor.getConfiguration();
+		if(config == null || config.publishQueueSize <= 0)
+			return;
+		publisher = new AsyncEventPublisher(getName(), config.publishQueueSize, config.publishPolicy, new AsyncEventPublisher.EventSink() {
+			@Override
+			public void publish(SensorDataEvent event) {
+				eventHandler.publishEvent(event);
+			}
+		});
+	}
+
+
+	/**
+	 * @return queue between processing and subscribers, with its counters. Null if events 
+	 * are published from the processing threads
+	 */
+	public AsyncEventPublisher getPublisher()
+	{
+		return publisher;
+	}
+
+
+	/**
+	 * @param site events of a site in an older group are dropped first when coalescing
+	 */
+	void publishEvent(SensorDataEvent event, String site, long group) throws InterruptedException
+	{
+		if(publisher != null)
+			publisher.publish(event, site, group);
+		else
+			eventHandler.publishEvent(event);
+	}
+
+
+	/**
+	 * Publish an event that supersedes the previous ones of the site when coalescing
+	 */
+	void publishEvent(SensorDataEvent event, String site)
+	{
+		try {
+			publishEvent(event, site, numEvents.incrementAndGet());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
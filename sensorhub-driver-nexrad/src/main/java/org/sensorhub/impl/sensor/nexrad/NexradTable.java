@@ -1,48 +1,90 @@
 package org.sensorhub.impl.sensor.nexrad;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.StringTokenizer;
 
 /**
  * <p>Title: NexradTable.java</p>
- * <p>Description:  </p>
+ * <p>Description:  Sites read from NexradLocations.txt.  The table is loaded once and never
+ *   modified after, so it can be shared between threads without locking.  Sites are 
+ *   indexed by 4 and 3 letter id, and by a lat/lon grid for the spatial queries 
+ *   (getSitesWithin, getNearestSites).
+ * </p>
  * @author Tony Cook
  * 
  */
 
-public class NexradTable extends HashMap<String, NexradSite>
+public class NexradTable
 {
-	private static final long serialVersionUID = 1L;
-	private static NexradTable instance = null;  // should make this immutable
+	private static volatile NexradTable instance = null;
+
+	//  Nominal range of the reflectivity products
+	public static final double COVERAGE_RANGE_METERS = 230000.0;
+	static final double GRID_CELL_DEG = 2.0;
+	static final int GRID_ROWS = (int)(180.0 / GRID_CELL_DEG);
+	static final int GRID_COLS = (int)(360.0 / GRID_CELL_DEG);
+
+	private final Map<String, NexradSite> sites;
+	private final Map<String, NexradSite> sitesBy3LetterId;
+	private final NexradSite [][] grid = new NexradSite[GRID_ROWS * GRID_COLS][];
 
 	protected NexradTable() throws IOException {
-		super();
-		buildTable();
+		Map<String, NexradSite> table = new LinkedHashMap<>();
+		buildTable(table);
+		sites = Collections.unmodifiableMap(table);
+
+		Map<String, NexradSite> by3 = new HashMap<>();
+		Map<Integer, List<NexradSite>> cells = new HashMap<>();
+		for(NexradSite site: table.values()) {
+			String id3 = site.id.substring(1);
+			//  no id3 is shared today, but CONUS (K) sites win if it ever happens
+			NexradSite prev = by3.get(id3);
+			if(prev == null || (site.id.charAt(0) == 'K' && prev.id.charAt(0) != 'K'))
+				by3.put(id3, site);
+			int cell = getCell(getRow(site.lat), getCol(site.lon));
+			if(!cells.containsKey(cell))
+				cells.put(cell, new ArrayList<NexradSite>());
+			cells.get(cell).add(site);
+		}
+		sitesBy3LetterId = by3;
+		for(Map.Entry<Integer, List<NexradSite>> e: cells.entrySet())
+			grid[e.getKey()] = e.getValue().toArray(new NexradSite[0]);
 	}
 
 	public static NexradTable getInstance() throws IOException {
-		if(instance == null) {
-			instance = new NexradTable();
+		NexradTable table = instance;
+		if(table == null) {
+			synchronized(NexradTable.class) {
+				if(instance == null)
+					instance = new NexradTable();
+				table = instance;
+			}
 		}
-		return instance;
+		return table;
 	}
 
-	private void buildTable() throws IOException {
+	private void buildTable(Map<String, NexradSite> table) throws IOException {
 		ClassLoader classLoader = getClass().getClassLoader();
 		URL url = classLoader.getResource("NexradLocations.txt");
 		if(url == null)
 			throw new IOException("NexradTable.buildTable().  NexradLocations.txt file not found in classpath");
-		BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream()));
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))) {
+			readSites(reader, table);
+		}
+	}
+
+	private void readSites(BufferedReader reader, Map<String, NexradSite> table) throws IOException {
 		boolean feof = false;
 		//  skip two header lines
 		String inline = reader.readLine();
@@ -75,42 +117,112 @@ public class NexradTable extends HashMap<String, NexradSite>
 			site.lat = lat;
 			site.lon = lon;
 			site.elevation = altMeters;
-			this.put(site.id, site);
+			table.put(site.id, site);
 		}
 	}
 
-	/** Should return a copy of the table so that the internal table is not modified!! **/ 
+	/** Copy, so callers can't modify the table **/ 
 	public Collection<NexradSite> getAllSites() {
-		Collection <NexradSite> values =  instance.values();
-		return new ArrayList<NexradSite>(values);
+		return new ArrayList<NexradSite>(sites.values());
 	}
 	
-	/** Should return a copy of the keys so that the internal table is not modified!! **/ 
+	/** Copy, so callers can't modify the table **/ 
 	public Collection<String> getAllSiteIds() {
-		Set<String> set= instance.keySet();
-		return new ArrayList<String>(set);
-	}
-	
-	private NexradSite getSiteFrom3LetterId(String id3) {
-		for(Map.Entry entry: instance.entrySet()) {
-			String id4 = (String)entry.getKey();
-			if(id4.endsWith(id3))
-				return (NexradSite)entry.getValue();
-		}
-		
-		return null;
+		return new ArrayList<String>(sites.keySet());
 	}
 	
+	/**
+	 * @param id 4 letter id, or 3 letter id without the leading K/P/T (case insensitive)
+	 * @return site, null if unknown
+	 */
 	public NexradSite getSite(String id) {
+		if(id == null)
+			return null;
+		id = id.toUpperCase();
 		if(id.length() == 4) 
-			return get(id.toUpperCase());
+			return sites.get(id);
 		
 		if(id.length() == 3)
-			return getSiteFrom3LetterId(id.toUpperCase());
+			return sitesBy3LetterId.get(id);
 		
 		return null;	
 	}
 	
+	/**
+	 * @return sites covering a point with their COVERAGE_RANGE_METERS, nearest first
+	 */
+	public List<NexradSite> getSitesCovering(double lat, double lon) {
+		return getSitesWithin(lat, lon, COVERAGE_RANGE_METERS);
+	}
+	
+	/**
+	 * @return sites within rangeMeters of a point, nearest first
+	 */
+	public List<NexradSite> getSitesWithin(final double lat, final double lon, double rangeMeters) {
+		List<NexradSite> result = new ArrayList<>();
+		double dLat = Math.toDegrees(rangeMeters / NexradUtil.EARTH_RADIUS_METERS);
+		int minRow = getRow(Math.max(-90.0, lat - dLat));
+		int maxRow = getRow(Math.min(90.0, lat + dLat));
+		//  widest longitude span is at the latitude furthest from the equator
+		double cosLat = Math.cos(Math.toRadians(Math.min(90.0, Math.abs(lat) + dLat)));
+		double dLon = (cosLat > 1.0e-6) ? dLat / cosLat : 360.0;
+		int minCol = (dLon >= 180.0) ? 0 : getCol(lon - dLon);
+		int numCols = (dLon >= 180.0) ? GRID_COLS : Math.min(GRID_COLS, (int)Math.ceil(2.0 * dLon / GRID_CELL_DEG) + 1);
+
+		for(int row=minRow; row<=maxRow; row++) {
+			for(int i=0; i<numCols; i++) {
+				NexradSite [] cell = grid[getCell(row, (minCol + i) % GRID_COLS)];
+				if(cell == null)
+					continue;
+				for(NexradSite site: cell) {
+					if(NexradUtil.getDistance(lat, lon, site.lat, site.lon) <= rangeMeters)
+						result.add(site);
+				}
+			}
+		}
+		sortByDistance(result, lat, lon);
+		return result;
+	}
+	
+	/**
+	 * @return the numSites sites nearest to a point, nearest first
+	 */
+	public List<NexradSite> getNearestSites(double lat, double lon, int numSites) {
+		numSites = Math.min(numSites, sites.size());
+		if(numSites <= 0)
+			return new ArrayList<>();
+		//  widen the search until enough sites are found- the grid keeps each pass cheap
+		double range = COVERAGE_RANGE_METERS;
+		List<NexradSite> result = getSitesWithin(lat, lon, range);
+		while(result.size() < numSites) {
+			range *= 2.0;
+			result = getSitesWithin(lat, lon, range);
+		}
+		return new ArrayList<>(result.subList(0, numSites));
+	}
+	
+	private static void sortByDistance(List<NexradSite> list, final double lat, final double lon) {
+		Collections.sort(list, new Comparator<NexradSite>() {
+			@Override
+			public int compare(NexradSite s1, NexradSite s2) {
+				return Double.compare(NexradUtil.getDistance(lat, lon, s1.lat, s1.lon), NexradUtil.getDistance(lat, lon, s2.lat, s2.lon));
+			}
+		});
+	}
+	
+	private static int getRow(double lat) {
+		return Math.max(0, Math.min(GRID_ROWS - 1, (int)Math.floor((lat + 90.0) / GRID_CELL_DEG)));
+	}
+	
+	private static int getCol(double lon) {
+		double l = ((lon + 180.0) % 360.0 + 360.0) % 360.0;
+		return Math.min(GRID_COLS - 1, (int)Math.floor(l / GRID_CELL_DEG));
+	}
+	
+	private static int getCell(int row, int col) {
+		return row * GRID_COLS + col;
+	}
+	
 	
 	public static void main(String[] args) throws Exception  {
 //		NexradTable.outputCsv();
@@ -19,37 +19,30 @@ import java.util.concurrent.TimeUnit;
 
 public class NexradUtil
 {	
-	private static NexradTable nexradTable;
-
 	private NexradUtil() {
 	}
 
+	/**
+	 * @param id 4 letter id, or 3 letter id without the leading K/P/T
+	 */
 	public static NexradSite getSite(String id){
-		if(!ensureTable())
-			return null;
-		if(id.length() == 3) {
-			id = "K" + id;  // Hawaii radars start with P, so this is really a bad assumption.  Could just force clients to use 4 character id
-		}
-		return nexradTable.getSite(id);
+		NexradTable table = getTable();
+		return (table != null) ? table.getSite(id) : null;
 	}
 
 	public static Collection <NexradSite> getAllSites() {
-		if(!ensureTable())
-			return null;
-		return nexradTable.getAllSites();
+		NexradTable table = getTable();
+		return (table != null) ? table.getAllSites() : null;
 	}
 
-	private static boolean ensureTable() {
+	private static NexradTable getTable() {
 		try {
-			if(nexradTable == null)
-				nexradTable = NexradTable.getInstance();
+			return NexradTable.getInstance();
 		} catch (IOException e) {
 			e.printStackTrace();
 			System.err.println("NexradUtil.getSite():  NexradTable could not be instantiated- see stack trace.");
-			return false;
+			return null;
 		}
-
-		return true;
 	}
 
 	//  A more reliable way to get startTime than what UcarUtil provides.  Specifically, 
@@ -198,6 +191,56 @@ public class NexradUtil
 		return ((scandate-1) * TimeUnit.DAYS.toMillis(1)) + (scantime * 1000);
 	}
 
+	//  Standard refraction model: beam travels over an earth of 4/3 its actual radius
+	public static final double EARTH_RADIUS_METERS = 6371000.0;
+	public static final double EFFECTIVE_EARTH_RADIUS_METERS = EARTH_RADIUS_METERS * 4.0 / 3.0;
+
+	/**
+	 * @param rangeMeters slant range along the beam
+	 * @param elevationDeg elevation angle of the beam
+	 * @return height of the beam center above the radar, in meters
+	 */
+	public static double getBeamHeight(double rangeMeters, double elevationDeg) {
+		double ke = EFFECTIVE_EARTH_RADIUS_METERS;
+		double sinEl = Math.sin(Math.toRadians(elevationDeg));
+		return Math.sqrt(rangeMeters * rangeMeters + ke * ke + 2.0 * rangeMeters * ke * sinEl) - ke;
+	}
+
+	/**
+	 * @return distance along the ground from the radar to the point under the beam, in meters
+	 */
+	public static double getGroundRange(double rangeMeters, double elevationDeg) {
+		double ke = EFFECTIVE_EARTH_RADIUS_METERS;
+		double cosEl = Math.cos(Math.toRadians(elevationDeg));
+		double h = getBeamHeight(rangeMeters, elevationDeg);
+		return ke * Math.asin(rangeMeters * cosEl / (ke + h));
+	}
+
+	/**
+	 * @param azimuthDeg bearing from the origin, clockwise from north
+	 * @param groundRangeMeters distance along the ground
+	 * @return {lat, lon} in degrees of the point at that bearing and distance
+	 */
+	public static double [] getLatLon(double lat, double lon, double azimuthDeg, double groundRangeMeters) {
+		double lat1 = Math.toRadians(lat);
+		double az = Math.toRadians(azimuthDeg);
+		double d = groundRangeMeters / EARTH_RADIUS_METERS;
+		double lat2 = Math.asin(Math.sin(lat1) * Math.cos(d) + Math.cos(lat1) * Math.sin(d) * Math.cos(az));
+		double lon2 = Math.toRadians(lon) + Math.atan2(Math.sin(az) * Math.sin(d) * Math.cos(lat1), Math.cos(d) - Math.sin(lat1) * Math.sin(lat2));
+		return new double[] {Math.toDegrees(lat2), (Math.toDegrees(lon2) + 540.0) % 360.0 - 180.0};
+	}
+
+	/**
+	 * @return great circle distance between two points, in meters
+	 */
+	public static double getDistance(double lat1, double lon1, double lat2, double lon2) {
+		double dLat = Math.toRadians(lat2 - lat1);
+		double dLon = Math.toRadians(lon2 - lon1);
+		double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) 
+				+ Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+		return 2.0 * EARTH_RADIUS_METERS * Math.asin(Math.min(1.0, Math.sqrt(a)));
+	}
+
 	public static void main(String[] args) throws Exception {
 		String nidsPath = "C:/Users/tcook/root/AnythingWx/noaaport/radar/n0qgrk_20140509_1757.nids";
 		long time = NexradUtil.getNidsScanTime(new File(nidsPath));
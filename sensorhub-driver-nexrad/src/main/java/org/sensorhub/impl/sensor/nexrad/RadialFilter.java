@@ -0,0 +1,81 @@
+package org.sensorhub.impl.sensor.nexrad;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sensorhub.api.config.DisplayInfo;
+import org.sensorhub.impl.sensor.nexrad.aws.DataHeader;
+
+/**
+ * <p>Title: RadialFilter.java</p>
+ * <p>Description: Selects the radials published by NexradOutput.  Tests only use
+ *   DataHeader fields, so readers can apply the filter right after the data header and
+ *   skip the moment blocks of rejected radials without decoding them.  NexradOutput
+ *   only pushes the filter down to the readers when no radial listener or dealiaser
+ *   needs the complete sweeps- otherwise it filters the radials it publishes.
+ *
+ *   Unset criteria accept everything.
+ * </p>
+ */
+public class RadialFilter
+{
+	@DisplayInfo(desc="Sites to keep. All sites if empty")
+	public List<String> siteIds = new ArrayList<>();
+
+	@DisplayInfo(desc="Elevation numbers (cut index in the VCP, starting at 1) to keep. All if empty")
+	public List<Integer> elevationNumbers = new ArrayList<>();
+
+	@DisplayInfo(desc="Min elevation angle in degrees")
+	public Float minElevationAngle;
+
+	@DisplayInfo(desc="Max elevation angle in degrees")
+	public Float maxElevationAngle;
+
+	@DisplayInfo(desc="Start of the azimuth sector in degrees, clockwise from north. Sectors may wrap through north (e.g. 300 to 60)")
+	public Float startAzimuth;
+
+	@DisplayInfo(desc="End of the azimuth sector in degrees")
+	public Float stopAzimuth;
+
+	@DisplayInfo(desc="Gates beyond this range (meters) are dropped")
+	public Float maxRangeMeters;
+
+	public RadialFilter() {
+	}
+
+	public boolean accept(DataHeader hdr) {
+		if(!siteIds.isEmpty() && hdr.siteId != null && !siteIds.contains(hdr.siteId))
+			return false;
+		if(!elevationNumbers.isEmpty() && !elevationNumbers.contains(hdr.elevationNum))
+			return false;
+		if(minElevationAngle != null && hdr.elevationAngle < minElevationAngle)
+			return false;
+		if(maxElevationAngle != null && hdr.elevationAngle > maxElevationAngle)
+			return false;
+		if(startAzimuth != null && stopAzimuth != null && !inSector(hdr.azimuthAngle))
+			return false;
+		return true;
+	}
+
+	boolean inSector(float azimuth) {
+		if(startAzimuth <= stopAzimuth)
+			return azimuth >= startAzimuth && azimuth <= stopAzimuth;
+		// sector wraps through north
+		return azimuth >= startAzimuth || azimuth <= stopAzimuth;
+	}
+
+	/**
+	 * @return number of gates of a moment to keep given maxRangeMeters
+	 */
+	public int getNumGates(int numGates, int rangeToCenterOfFirstGate, int rangeSampleInterval) {
+		if(maxRangeMeters == null || rangeSampleInterval <= 0)
+			return numGates;
+		int keep = (int)Math.floor((maxRangeMeters - rangeToCenterOfFirstGate) / rangeSampleInterval) + 1;
+		return Math.max(0, Math.min(numGates, keep));
+	}
+
+	public boolean isEmpty() {
+		return siteIds.isEmpty() && elevationNumbers.isEmpty() && minElevationAngle == null && maxElevationAngle == null
+				&& (startAzimuth == null || stopAzimuth == null) && maxRangeMeters == null;
+	}
+}
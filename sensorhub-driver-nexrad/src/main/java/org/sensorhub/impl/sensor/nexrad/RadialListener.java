@@ -0,0 +1,25 @@
+package org.sensorhub.impl.sensor.nexrad;
+
+import java.util.List;
+
+import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+
+/**
+ * <p>Title: RadialListener.java</p>
+ * <p>Description: Receives the radials of each chunk read by NexradOutput, after they 
+ *   have been published.  Used by the processing stages (products, cell tracking) 
+ *   that work on whole sweeps rather than on single radials.
+ *   
+ *   Called from the reading thread of the site, so implementations should not block.
+ * </p>
+ */
+public interface RadialListener {
+
+	public void radialsReceived(String site, List<LdmRadial> radials);
+
+	/**
+	 * Called when a site is removed from the sensor, to release its state
+	 */
+	public default void siteRemoved(String site) {
+	}
+}
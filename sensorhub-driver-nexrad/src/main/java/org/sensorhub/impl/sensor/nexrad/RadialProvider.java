@@ -24,4 +24,10 @@ public interface RadialProvider {
 
 	public List<LdmRadial>  getNextRadials(String site) throws IOException;
 
+	/**
+	 * Radials rejected by filter are dropped by the reader, before their moments are decoded.
+	 * null to keep everything
+	 */
+	public void setRadialFilter(RadialFilter filter);
+
 }
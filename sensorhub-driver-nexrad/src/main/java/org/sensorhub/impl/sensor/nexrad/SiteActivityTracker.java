@@ -0,0 +1,154 @@
+package org.sensorhub.impl.sensor.nexrad;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: SiteActivityTracker.java</p>
+ * <p>Description: Keeps track of the demand for each site, so only the sites someone is
+ *   interested in are fetched and decoded.  A site is active for idleTimeMillis after the 
+ *   last request for its data (touch, e.g. a getLatestRecord for the site).  Listeners of 
+ *   the outputs receive the data of every site, so no site goes idle while there are 
+ *   subscribers to all sites (subscribeAll/unsubscribeAll).
+ *
+ *   Listeners are called when a site becomes active or idle.  Activation is immediate,
+ *   while idle sites are only detected by the periodic check.
+ * </p>
+ */
+public class SiteActivityTracker
+{
+	static final Logger logger = LoggerFactory.getLogger(SiteActivityTracker.class);
+
+	public interface Listener {
+		public void siteActivated(String site);
+
+		public void siteIdle(String site);
+	}
+
+	long idleTimeMillis;
+	AtomicInteger allSitesSubscribers = new AtomicInteger();
+	Map<String, Long> lastRequestTime = new ConcurrentHashMap<>();
+	Set<String> activeSites = ConcurrentHashMap.newKeySet();
+	List<Listener> listeners = new CopyOnWriteArrayList<>();
+	Timer timer;
+
+	public SiteActivityTracker(long idleTimeMillis) {
+		this.idleTimeMillis = idleTimeMillis;
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Start checking for idle sites.  Sites given are considered requested now, so they
+	 * stay active for at least idleTimeMillis
+	 */
+	public void start(Collection<String> sites) {
+		for(String site: sites)
+			touch(site);
+		if(timer == null) {
+			timer = new Timer("NexradSiteActivity", true);
+			long period = Math.max(1000L, idleTimeMillis / 4);
+			timer.scheduleAtFixedRate(new CheckIdleSites(), period, period);
+		}
+	}
+
+	public void stop() {
+		if(timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+	}
+
+	/**
+	 * Record a request for the data of a site, activating it if needed
+	 */
+	public void touch(String site) {
+		lastRequestTime.put(site, System.currentTimeMillis());
+		activate(site);
+	}
+
+	/**
+	 * Subscribe to the data of all sites, including sites added later.  Idle sites are
+	 * activated
+	 */
+	public void subscribeAll() {
+		allSitesSubscribers.incrementAndGet();
+		for(String site: lastRequestTime.keySet())
+			activate(site);
+	}
+
+	/**
+	 * Sites stay active for idleTimeMillis after the last subscriber to all sites is gone
+	 */
+	public void unsubscribeAll() {
+		int count = allSitesSubscribers.decrementAndGet();
+		if(count < 0)
+			allSitesSubscribers.compareAndSet(count, 0);
+		long now = System.currentTimeMillis();
+		for(String site: activeSites)
+			lastRequestTime.put(site, now);
+	}
+
+	/**
+	 * Forget a site removed from the sensor
+	 */
+	public void remove(String site) {
+		lastRequestTime.remove(site);
+		activeSites.remove(site);
+	}
+
+	public boolean isActive(String site) {
+		return activeSites.contains(site);
+	}
+
+	public Collection<String> getActiveSites() {
+		return new ArrayList<>(activeSites);
+	}
+
+	private void activate(String site) {
+		if(activeSites.add(site)) {
+			logger.debug("Site {} active", site);
+			for(Listener listener: listeners)
+				listener.siteActivated(site);
+		}
+	}
+
+	/**
+	 * Make the sites not requested since now - idleTimeMillis idle.
+	 * Run periodically once started
+	 */
+	public void checkIdleSites(long now) {
+		if(allSitesSubscribers.get() > 0)
+			return;
+		for(String site: activeSites) {
+			Long last = lastRequestTime.get(site);
+			if(last != null && now - last <= idleTimeMillis)
+				continue;
+			if(activeSites.remove(site)) {
+				logger.debug("Site {} idle", site);
+				for(Listener listener: listeners)
+					listener.siteIdle(site);
+			}
+		}
+	}
+
+	class CheckIdleSites extends TimerTask {
+		@Override
+		public void run() {
+			checkIdleSites(System.currentTimeMillis());
+		}
+	}
+}
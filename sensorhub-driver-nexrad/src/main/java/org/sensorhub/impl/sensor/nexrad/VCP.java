@@ -18,9 +18,9 @@ public enum VCP {
 	vcp212("212", 14),
 	vcp21("21", 9),
 	vcp121("121", 9),
-	vcp221("121", 9),
+	vcp221("221", 9),
 	vcp31("31", 5),
-	vcp32("31", 5),
+	vcp32("32", 5),
 	;
 	
 	private final String name;
@@ -32,6 +32,18 @@ public enum VCP {
     	this.numElevations = numElevations;
     }
     
+    public String getName() {
+    	return name;
+    }
+    
+    /**
+     * @return number of distinct elevation angles. Split cuts scan some angles twice, 
+     * so this is less than the number of cuts in the volume for those VCPs
+     */
+    public int getNumElevations() {
+    	return numElevations;
+    }
+    
     public boolean hasSplitCuts() {
     	switch(this) {
 		case vcp11:
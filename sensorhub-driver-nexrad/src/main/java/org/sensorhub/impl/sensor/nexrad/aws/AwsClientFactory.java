@@ -0,0 +1,107 @@
+package org.sensorhub.impl.sensor.nexrad.aws;
+
+import org.sensorhub.impl.sensor.nexrad.NexradConfig;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AnonymousAWSCredentials;
+import com.amazonaws.auth.profile.ProfileCredentialsProvider;
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.S3ClientOptions;
+import com.amazonaws.services.sns.AmazonSNSClient;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+
+/**
+ * <p>Title: AwsClientFactory.java</p>
+ * <p>Description: Creates the S3, SQS and SNS clients used by the Nexrad module from
+ *   the endpoint and credential settings of NexradConfig.  Endpoints that are not 
+ *   configured resolve to the public AWS services, so a default config behaves as before.
+ * </p>
+ */
+public class AwsClientFactory
+{
+	NexradConfig config;
+
+	public AwsClientFactory(NexradConfig config) {
+		this.config = config;
+	}
+
+	public AWSCredentialsProvider getCredentialsProvider() {
+		if(config.awsProfile != null)
+			return new ProfileCredentialsProvider(config.awsProfile);
+		return new ProfileCredentialsProvider();
+	}
+
+	/**
+	 * Load credentials now rather than on the first request, so a missing profile
+	 * is reported when the module starts
+	 */
+	public void checkCredentials() {
+		try {
+			getCredentialsProvider().getCredentials();
+		} catch (Exception e) {
+			throw new AmazonClientException(
+					"Cannot load the credentials from the credential profiles file. " +
+							"Please make sure that your credentials file is at the correct " +
+							"location (~/.aws/credentials), and is in valid format.",
+							e);
+		}
+	}
+
+	/**
+	 * Size the connection pool to the number of requests IoExecutor lets through per host
+	 */
+	public ClientConfiguration getClientConfiguration() {
+		return new ClientConfiguration().withMaxConnections(config.maxConnectionsPerHost);
+	}
+
+	public AmazonS3Client createS3Client() {
+		AmazonS3Client s3;
+		if(config.anonymousS3Access)
+			s3 = new AmazonS3Client(new AnonymousAWSCredentials(), getClientConfiguration());
+		else
+			s3 = new AmazonS3Client(getCredentialsProvider(), getClientConfiguration());
+		if(config.s3Endpoint != null) {
+			s3.setEndpoint(config.s3Endpoint);
+			//  local S3 servers usually can't resolve bucket.host style addresses
+			s3.setS3ClientOptions(new S3ClientOptions().withPathStyleAccess(true));
+		}
+		return s3;
+	}
+
+	public AmazonSQSClient createSqsClient() {
+		AmazonSQSClient sqs = new AmazonSQSClient(getCredentialsProvider(), getClientConfiguration());
+		if(config.sqsEndpoint != null)
+			sqs.setEndpoint(config.sqsEndpoint);
+		else
+			sqs.setRegion(Region.getRegion(Regions.fromName(config.sqsRegion)));
+		return sqs;
+	}
+
+	/**
+	 * @return host S3 requests are sent to, used to key the per-host request limit
+	 */
+	public String getS3Host(String bucketName) {
+		if(config.s3Endpoint != null)
+			return IoExecutor.getHost(config.s3Endpoint);
+		return bucketName + ".s3.amazonaws.com";
+	}
+
+	public String getSqsHost() {
+		if(config.sqsEndpoint != null)
+			return IoExecutor.getHost(config.sqsEndpoint);
+		return "sqs." + config.sqsRegion + ".amazonaws.com";
+	}
+
+	public AmazonSNSClient createSnsClient() {
+		AmazonSNSClient sns = new AmazonSNSClient(getCredentialsProvider(), getClientConfiguration());
+		if(config.snsEndpoint != null)
+			sns.setEndpoint(config.snsEndpoint);
+		else
+			sns.setRegion(Region.getRegion(Regions.fromName(config.snsRegion)));
+		return sns;
+	}
+}
@@ -6,6 +6,7 @@ import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -13,6 +14,8 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 
+import org.sensorhub.impl.sensor.nexrad.NexradConfig;
+
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.profile.ProfileCredentialsProvider;
 import com.amazonaws.services.s3.AmazonS3Client;
@@ -100,9 +103,17 @@ public class AwsNexradUtil {
 		return s3client.getObject(new GetObjectRequest(bucketName, chunkPath));
 	}
 
+	public static AmazonS3Client createS3Client(NexradConfig config) {
+		return new AwsClientFactory(config).createS3Client();
+	}
+
 	public static void dumpChunkToFile(S3Object chunk, Path pout) throws IOException {
 		S3ObjectInputStream s3is = chunk.getObjectContent();
-		BufferedInputStream is = new BufferedInputStream(s3is, 8192);
+		dumpChunkToFile(s3is, pout);
+	}
+
+	public static void dumpChunkToFile(InputStream in, Path pout) throws IOException {
+		BufferedInputStream is = new BufferedInputStream(in, 8192);
 		try(BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(pout.toFile()))) {
 			byte [] b = new byte[8192];
 			while(true) {
@@ -173,6 +184,21 @@ public class AwsNexradUtil {
 		return matches;
 	}
 
+	/**
+	 * @return content of an archive volume object, gunzipped on the fly if it is compressed
+	 * (volumes before mid 2016 are stored as .gz).  Nothing is written to disk
+	 */
+	public static InputStream getVolumeStream(S3Object obj) throws IOException {
+		InputStream is = new BufferedInputStream(obj.getObjectContent(), 65536);
+		is.mark(2);
+		int b0 = is.read();
+		int b1 = is.read();
+		is.reset();
+		if(b0 == 0x1f && b1 == 0x8b)
+			return new BufferedInputStream(new GZIPInputStream(is, 65536), 65536);
+		return is;
+	}
+
 	public static String gunzipFile(String compressedFile, String decompressedFile) throws IOException {
 		byte[] buffer = new byte[8096];
 		try {
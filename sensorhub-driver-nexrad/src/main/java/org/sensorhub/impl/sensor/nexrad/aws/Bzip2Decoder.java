@@ -0,0 +1,405 @@
+package org.sensorhub.impl.sensor.nexrad.aws;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * <p>Title: Bzip2Decoder.java</p>
+ * <p>Description: Bzip2 decompressor whose state (Huffman tables, BWT array, output buffer)
+ *   is allocated once and reused for every record, unlike BZip2CompressorInputStream which
+ *   allocates several MB of tables per stream.  Level II chunks are one bzip2 stream each,
+ *   so decoding a chunk allocates nothing once the decoder has warmed up.
+ *
+ *   Decodes a whole stream (or concatenated streams) from a buffer at once.  Block CRCs are
+ *   checked.  Not thread safe- take one from the shared pool with acquire() and give it
+ *   back with release() once the decoded record has been parsed.
+ * </p>
+ */
+public class Bzip2Decoder
+{
+	static final int BLOCK_MAGIC_HI = 0x314159;
+	static final int BLOCK_MAGIC_LO = 0x265359;
+	static final int EOS_MAGIC_HI = 0x177245;
+	static final int EOS_MAGIC_LO = 0x385090;
+	static final int RUNA = 0;
+	static final int RUNB = 1;
+	static final int MAX_GROUPS = 6;
+	static final int GROUP_SIZE = 50;
+	static final int MAX_ALPHA_SIZE = 258;
+	static final int MAX_CODE_LEN = 20;
+	static final int MAX_SELECTORS = 18002;
+	static final int [] CRC_TABLE = new int[256];
+
+	static {
+		for(int i=0; i<256; i++) {
+			int c = i << 24;
+			for(int j=0; j<8; j++)
+				c = (c < 0) ? (c << 1) ^ 0x04c11db7 : c << 1;
+			CRC_TABLE[i] = c;
+		}
+	}
+
+	//  Idle decoders, shared by all the reading threads.  A decoder holds a few MB (BWT
+	//  array, output buffer), so only as many as can decode at once are kept rather than
+	//  one per site thread.  Decoders released when the pool is full are left to the GC
+	static final int MAX_POOLED = Runtime.getRuntime().availableProcessors();
+	private static final BlockingQueue<Bzip2Decoder> POOL = new ArrayBlockingQueue<>(MAX_POOLED);
+
+	//  input bits
+	ByteBuffer src;
+	long bitBuf;
+	int bitCount;
+
+	//  block state, reused
+	int [] tt = new int[0];
+	byte [] seqToUnseq = new byte[256];
+	byte [] selectorMtf = new byte[MAX_SELECTORS];
+	byte [] selector = new byte[MAX_SELECTORS];
+	byte [] groupMtf = new byte[MAX_GROUPS];
+	byte [][] codeLen = new byte[MAX_GROUPS][MAX_ALPHA_SIZE];
+	int [][] limit = new int[MAX_GROUPS][MAX_CODE_LEN + 2];
+	int [][] base = new int[MAX_GROUPS][MAX_CODE_LEN + 2];
+	int [][] perm = new int[MAX_GROUPS][MAX_ALPHA_SIZE];
+	int [] minLens = new int[MAX_GROUPS];
+	byte [] mtf = new byte[256];
+	int [] unzftab = new int[256];
+	int [] cftab = new int[257];
+
+	//  output
+	byte [] out = new byte[1 << 20];
+	int outLen;
+
+	/**
+	 * @return an idle decoder from the shared pool, or a new one if none is idle
+	 */
+	public static Bzip2Decoder acquire() {
+		Bzip2Decoder decoder = POOL.poll();
+		return (decoder != null) ? decoder : new Bzip2Decoder();
+	}
+
+	/**
+	 * Return a decoder obtained from acquire().  Buffers returned by its decode methods
+	 * must not be used afterwards
+	 */
+	public static void release(Bzip2Decoder decoder) {
+		if(decoder != null)
+			POOL.offer(decoder);
+	}
+
+	public static boolean isBzip2(ByteBuffer buf) {
+		int p = buf.position();
+		return buf.remaining() >= 4 && buf.get(p) == 'B' && buf.get(p + 1) == 'Z' && buf.get(p + 2) == 'h';
+	}
+
+	/**
+	 * @param compressed from its position to its limit.  Position is left after the stream
+	 * @return decompressed bytes, in a buffer owned by the decoder and only valid until the
+	 * next call
+	 */
+	public ByteBuffer decode(ByteBuffer compressed) throws IOException {
+		src = compressed;
+		bitBuf = 0;
+		bitCount = 0;
+		outLen = 0;
+		try {
+			do {
+				readStream();
+				//  streams start on a byte boundary
+				bitCount -= bitCount % 8;
+			} while(bitCount == 0 && isBzip2(src));
+		} finally {
+			src = null;
+		}
+		return ByteBuffer.wrap(out, 0, outLen);
+	}
+
+	public ByteBuffer decode(byte [] compressed, int off, int len) throws IOException {
+		return decode(ByteBuffer.wrap(compressed, off, len));
+	}
+
+	private void readStream() throws IOException {
+		if(readBits(8) != 'B' || readBits(8) != 'Z' || readBits(8) != 'h')
+			throw new IOException("Not a bzip2 stream");
+		int level = readBits(8) - '0';
+		if(level < 1 || level > 9)
+			throw new IOException("Bad bzip2 block size: " + level);
+		int blockSizeMax = level * 100000;
+		if(tt.length < blockSizeMax)
+			tt = new int[blockSizeMax];
+
+		int combinedCrc = 0;
+		while(true) {
+			int hi = readBits(24);
+			int lo = readBits(24);
+			if(hi == BLOCK_MAGIC_HI && lo == BLOCK_MAGIC_LO) {
+				int expectedCrc = readBits(16) << 16 | readBits(16);
+				int crc = readBlock(blockSizeMax);
+				if(crc != expectedCrc)
+					throw new IOException("Bzip2 block CRC error");
+				combinedCrc = (combinedCrc << 1 | combinedCrc >>> 31) ^ crc;
+			} else if(hi == EOS_MAGIC_HI && lo == EOS_MAGIC_LO) {
+				int expectedCrc = readBits(16) << 16 | readBits(16);
+				if(combinedCrc != expectedCrc)
+					throw new IOException("Bzip2 stream CRC error");
+				return;
+			} else {
+				throw new IOException("Bad bzip2 block header");
+			}
+		}
+	}
+
+	/**
+	 * @return CRC of the block output
+	 */
+	private int readBlock(int blockSizeMax) throws IOException {
+		if(readBits(1) != 0)
+			throw new IOException("Randomised bzip2 blocks are not supported");
+		int origPtr = readBits(24);
+
+		//  symbols in use
+		int nInUse = 0;
+		int used16 = readBits(16);
+		for(int i=0; i<16; i++) {
+			if((used16 & (0x8000 >>> i)) != 0) {
+				int bits = readBits(16);
+				for(int j=0; j<16; j++) {
+					if((bits & (0x8000 >>> j)) != 0)
+						seqToUnseq[nInUse++] = (byte)(i * 16 + j);
+				}
+			}
+		}
+		if(nInUse == 0)
+			throw new IOException("Bzip2 block uses no symbols");
+		int alphaSize = nInUse + 2;
+
+		//  Huffman group selectors
+		int nGroups = readBits(3);
+		if(nGroups < 2 || nGroups > MAX_GROUPS)
+			throw new IOException("Bad number of Huffman groups: " + nGroups);
+		int nSelectors = readBits(15);
+		if(nSelectors < 1)
+			throw new IOException("Bad number of selectors");
+		for(int i=0; i<nSelectors; i++) {
+			int j = 0;
+			while(readBits(1) == 1) {
+				if(++j >= nGroups)
+					throw new IOException("Bad selector");
+			}
+			//  as in bzip2 1.0.8, selectors beyond the max are read but never used
+			if(i < MAX_SELECTORS)
+				selectorMtf[i] = (byte)j;
+		}
+		nSelectors = Math.min(nSelectors, MAX_SELECTORS);
+		byte [] pos = groupMtf;
+		for(int i=0; i<MAX_GROUPS; i++)
+			pos[i] = (byte)i;
+		for(int i=0; i<nSelectors; i++) {
+			int v = selectorMtf[i];
+			byte tmp = pos[v];
+			for(; v > 0; v--)
+				pos[v] = pos[v - 1];
+			pos[0] = tmp;
+			selector[i] = tmp;
+		}
+
+		//  code lengths, delta coded
+		for(int t=0; t<nGroups; t++) {
+			int curr = readBits(5);
+			for(int i=0; i<alphaSize; i++) {
+				while(true) {
+					if(curr < 1 || curr > MAX_CODE_LEN)
+						throw new IOException("Bad Huffman code length");
+					if(readBits(1) == 0)
+						break;
+					curr += (readBits(1) == 0) ? 1 : -1;
+				}
+				codeLen[t][i] = (byte)curr;
+			}
+			createDecodeTables(t, alphaSize);
+		}
+
+		//  Huffman + MTF + RUNA/RUNB decoding into tt
+		for(int i=0; i<256; i++) {
+			mtf[i] = (byte)i;
+			unzftab[i] = 0;
+		}
+		int eob = nInUse + 1;
+		int nblock = 0;
+		int groupNo = -1;
+		int groupPos = 0;
+		int [] gLimit = null, gBase = null, gPerm = null;
+		int gMinLen = 0;
+
+		int runLength = 0;
+		int runWeight = 1;
+		int sym;
+		while(true) {
+			//  next symbol
+			if(groupPos == 0) {
+				if(++groupNo >= nSelectors)
+					throw new IOException("Bzip2 selectors exhausted");
+				groupPos = GROUP_SIZE;
+				int g = selector[groupNo];
+				gLimit = limit[g];
+				gBase = base[g];
+				gPerm = perm[g];
+				gMinLen = minLens[g];
+			}
+			groupPos--;
+			int zn = gMinLen;
+			int zvec = readBits(zn);
+			while(zvec > gLimit[zn]) {
+				if(++zn > MAX_CODE_LEN)
+					throw new IOException("Bad Huffman code");
+				zvec = (zvec << 1) | readBits(1);
+			}
+			int idx = zvec - gBase[zn];
+			if(idx < 0 || idx >= alphaSize)
+				throw new IOException("Bad Huffman code");
+			sym = gPerm[idx];
+
+			if(sym == eob)
+				break;
+
+			if(sym == RUNA || sym == RUNB) {
+				//  run of the front symbol, length in bijective base 2 over consecutive RUNA/RUNBs
+				if(runLength == 0)
+					runWeight = 1;
+				runLength += (sym == RUNA) ? runWeight : 2 * runWeight;
+				runWeight <<= 1;
+				if(runLength > blockSizeMax)
+					throw new IOException("Bzip2 run too long");
+				continue;
+			}
+			nblock = flushRun(nblock, runLength, blockSizeMax);
+			runLength = 0;
+
+			if(nblock >= blockSizeMax)
+				throw new IOException("Bzip2 block too long");
+			int nn = sym - 1;
+			byte uc = mtf[nn];
+			System.arraycopy(mtf, 0, mtf, 1, nn);
+			mtf[0] = uc;
+			int b = seqToUnseq[uc & 0xFF] & 0xFF;
+			unzftab[b]++;
+			tt[nblock++] = b;
+		}
+		nblock = flushRun(nblock, runLength, blockSizeMax);
+		if(origPtr < 0 || origPtr >= nblock)
+			throw new IOException("Bad bzip2 origPtr");
+
+		//  inverse BWT: tt[i] holds the byte in its low 8 bits and the next index above
+		cftab[0] = 0;
+		for(int i=0; i<256; i++)
+			cftab[i + 1] = cftab[i] + unzftab[i];
+		for(int i=0; i<nblock; i++) {
+			int uc = tt[i] & 0xFF;
+			tt[cftab[uc]] |= (i << 8);
+			cftab[uc]++;
+		}
+		return writeBlock(tt[origPtr] >>> 8, nblock);
+	}
+
+	private int flushRun(int nblock, int runLength, int blockSizeMax) throws IOException {
+		if(runLength == 0)
+			return nblock;
+		if(nblock + runLength > blockSizeMax)
+			throw new IOException("Bzip2 block too long");
+		int b = seqToUnseq[mtf[0] & 0xFF] & 0xFF;
+		unzftab[b] += runLength;
+		for(int i=0; i<runLength; i++)
+			tt[nblock++] = b;
+		return nblock;
+	}
+
+	/**
+	 * Undo the initial run length encoding (4 equal bytes followed by a repeat count)
+	 * @return CRC of the bytes written
+	 */
+	private int writeBlock(int tPos, int nblock) {
+		int crc = 0xFFFFFFFF;
+		int last = -1;
+		int run = 0;
+		for(int k=0; k<nblock; k++) {
+			tPos = tt[tPos];
+			int ch = tPos & 0xFF;
+			tPos >>>= 8;
+			if(run == 4) {
+				ensureOut(ch);
+				for(int i=0; i<ch; i++) {
+					out[outLen++] = (byte)last;
+					crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ last) & 0xFF];
+				}
+				run = 0;
+				continue;
+			}
+			if(ch == last) {
+				run++;
+			} else {
+				last = ch;
+				run = 1;
+			}
+			ensureOut(1);
+			out[outLen++] = (byte)ch;
+			crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ ch) & 0xFF];
+		}
+		return ~crc;
+	}
+
+	private void ensureOut(int n) {
+		if(outLen + n <= out.length)
+			return;
+		byte [] grown = new byte[Math.max(out.length * 2, outLen + n)];
+		System.arraycopy(out, 0, grown, 0, outLen);
+		out = grown;
+	}
+
+	private void createDecodeTables(int t, int alphaSize) {
+		byte [] length = codeLen[t];
+		int [] lim = limit[t];
+		int [] bas = base[t];
+		int [] prm = perm[t];
+		int minLen = 32, maxLen = 0;
+		for(int i=0; i<alphaSize; i++) {
+			maxLen = Math.max(maxLen, length[i]);
+			minLen = Math.min(minLen, length[i]);
+		}
+		int pp = 0;
+		for(int i=minLen; i<=maxLen; i++) {
+			for(int j=0; j<alphaSize; j++) {
+				if(length[j] == i)
+					prm[pp++] = j;
+			}
+		}
+		for(int i=0; i<MAX_CODE_LEN + 2; i++) {
+			bas[i] = 0;
+			lim[i] = Integer.MAX_VALUE;  // codes longer than maxLen never match
+		}
+		for(int i=0; i<alphaSize; i++)
+			bas[length[i] + 1]++;
+		for(int i=1; i<MAX_CODE_LEN + 2; i++)
+			bas[i] += bas[i - 1];
+		int vec = 0;
+		for(int i=minLen; i<=maxLen; i++) {
+			vec += bas[i + 1] - bas[i];
+			lim[i] = vec - 1;
+			vec <<= 1;
+		}
+		for(int i=minLen + 1; i<=maxLen; i++)
+			bas[i] = ((lim[i - 1] + 1) << 1) - bas[i];
+		minLens[t] = minLen;
+	}
+
+	private int readBits(int n) throws IOException {
+		while(bitCount < n) {
+			if(!src.hasRemaining())
+				throw new IOException("Truncated bzip2 stream");
+			bitBuf = (bitBuf << 8) | (src.get() & 0xFF);
+			bitCount += 8;
+		}
+		bitCount -= n;
+		return (int)(bitBuf >>> bitCount) & ((1 << n) - 1);
+	}
+}
@@ -0,0 +1,152 @@
+package org.sensorhub.impl.sensor.nexrad.aws;
+
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: IoExecutor.java</p>
+ * <p>Description: Runs the blocking network calls of the realtime path (S3 GETs, SQS
+ *   receive/delete).  Tasks run on virtual threads when the JVM provides them (Java 21+),
+ *   so hundreds of concurrent chunk fetches cost little more than their buffers.  Older
+ *   JVMs fall back to a bounded pool of daemon threads.
+ *
+ *   Either way, the number of requests in flight to any one host is capped, so a burst
+ *   of notifications can't exhaust the HTTP connection pool of the S3 client.
+ * </p>
+ */
+public class IoExecutor
+{
+	static final Logger logger = LoggerFactory.getLogger(IoExecutor.class);
+
+	ExecutorService executor;
+	boolean virtual;
+	int maxPerHost;
+	ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+	AtomicInteger threadCount = new AtomicInteger();
+
+	/**
+	 * @param maxThreads size of the fallback pool. Unused when virtual threads are available
+	 * @param maxPerHost max number of tasks running concurrently against a single host
+	 */
+	public IoExecutor(int maxThreads, int maxPerHost) {
+		this.maxPerHost = maxPerHost;
+		executor = newVirtualThreadExecutor();
+		virtual = (executor != null);
+		if(!virtual) {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("NexradIO"));
+			pool.allowCoreThreadTimeOut(true);
+			executor = pool;
+		}
+		logger.info("Nexrad I/O executor using {}", virtual ? "virtual threads" : maxThreads + " platform threads");
+	}
+
+	//  Looked up reflectively so the module still builds and runs on Java 8
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)m.invoke(null);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (Exception e) {
+			// e.g. preview feature not enabled on Java 19/20
+			logger.debug("Virtual threads not available", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Submit a task that talks to host. It waits for a permit of that host before running
+	 */
+	public <T> Future<T> submit(final String host, final Callable<T> task) {
+		final Semaphore permits = getPermits(host);
+		return executor.submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				permits.acquire();
+				try {
+					return task.call();
+				} finally {
+					permits.release();
+				}
+			}
+		});
+	}
+
+	public Future<?> submit(String host, final Runnable task) {
+		return submit(host, new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				task.run();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Run a long lived loop (e.g. a queue receiver).  Outside of virtual threads these get a
+	 * dedicated thread, so they don't hold on to the pool used for fetches
+	 */
+	public void executeLoop(Runnable loop, String name) {
+		if(virtual) {
+			executor.execute(loop);
+		} else {
+			new DaemonThreadFactory(name).newThread(loop).start();
+		}
+	}
+
+	private Semaphore getPermits(String host) {
+		Semaphore permits = hostPermits.get(host);
+		if(permits == null) {
+			hostPermits.putIfAbsent(host, new Semaphore(maxPerHost, true));
+			permits = hostPermits.get(host);
+		}
+		return permits;
+	}
+
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return host of an endpoint, accepting endpoints given without scheme ("localhost:4566")
+	 */
+	public static String getHost(String endpoint) {
+		String host = URI.create(endpoint.contains("://") ? endpoint : "http://" + endpoint).getHost();
+		return (host != null) ? host : endpoint;
+	}
+
+	class DaemonThreadFactory implements ThreadFactory {
+		String name;
+
+		DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, name + "-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -13,7 +13,8 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.io.IOUtils;
+import org.sensorhub.impl.sensor.nexrad.RadialFilter;
 import org.sensorhub.impl.sensor.nexrad.RadialProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,12 +30,24 @@ public class LdmLevel2Reader //implements RadialProvider
 {
 	byte [] b2 = new byte[2];
 	byte [] b4 = new byte[4];
+	//  decompressed record, reset for each chunk instead of wrapping a new stream
+	RecordInputStream recordStream = new RecordInputStream();
 	public static final int MESSAGE2_LENGTH = 2356;
+	public static final int DATA_HEADER_LENGTH = 68;
 	private static final Logger logger = LoggerFactory.getLogger(LdmLevel2Reader.class);
 
+	RadialFilter filter;
+	
 	public LdmLevel2Reader() {
 	}
 
+	/**
+	 * @param filter radials rejected by filter are skipped before their moments are read
+	 */
+	public LdmLevel2Reader(RadialFilter filter) {
+		this.filter = filter;
+	}
+
 	public List<LdmRadial> read(File f) throws FileNotFoundException, IOException {
 		String key = f.getName();
 		try(InputStream is = getInputStream(f)) {
@@ -90,26 +103,39 @@ public class LdmLevel2Reader //implements RadialProvider
 	}
 
 	public void readMessage2(InputStream is, int msgSize) throws IOException {
-		byte [] bfull = new byte[msgSize];
-		int ok = is.read(bfull);
-		//		System.err.println("Read bytes: " + bfull.length);	
-		byte[]bt = new byte[MESSAGE2_LENGTH];
-		is.read(bt);
+		IOUtils.skip(is, msgSize + MESSAGE2_LENGTH);
 	}
 
-	public List<LdmRadial> readMessage31(InputStream is) throws IOException {
-		int ok = is.read(b4);
-		int msgSize = java.nio.ByteBuffer.wrap(b4).getInt();
-		msgSize = Math.abs(msgSize);
+	/**
+	 * Decompress the next LDM record into recordStream.  The compressed bytes go through a
+	 * pooled array and a pooled Bzip2Decoder, so this doesn't allocate once warmed up.  The
+	 * decoder holds the record until the stream is closed
+	 */
+	private InputStream readRecord(InputStream is) throws IOException {
+		IOUtils.readFully(is, b4);
+		int recSize = Math.abs(java.nio.ByteBuffer.wrap(b4).getInt());
 
-		byte [] bfull = new byte[msgSize];
-		ok = is.read(bfull);
+		Level2BufferPool pool = Level2BufferPool.getShared();
+		byte [] compressed = pool.acquire(recSize);
+		Bzip2Decoder decoder = Bzip2Decoder.acquire();
+		try {
+			IOUtils.readFully(is, compressed, 0, recSize);
+			java.nio.ByteBuffer record = decoder.decode(compressed, 0, recSize);
+			recordStream.setBuffer(record.array(), record.limit(), decoder);
+		} catch (IOException | RuntimeException e) {
+			Bzip2Decoder.release(decoder);
+			throw e;
+		} finally {
+			pool.release(compressed);
+		}
+		return recordStream;
+	}
 
+	public List<LdmRadial> readMessage31(InputStream is) throws IOException {
 		List<LdmRadial> ldmRadials = new ArrayList<>();
 
-		ByteArrayInputStream bas = new ByteArrayInputStream(bfull);
 		int radCnt = 1;
-		try (BZip2CompressorInputStream bzis = new BZip2CompressorInputStream(bas) ) {
+		try (InputStream bzis = readRecord(is)) {
 			while(true) {
 
 				MessageHeader msgHdr = readMessageHeader(bzis);
@@ -121,9 +147,14 @@ public class LdmLevel2Reader //implements RadialProvider
 				case 31:
 					LdmRadial ldmRadial = new LdmRadial();
 					ldmRadial.dataHeader = readDataHeaderBlock(bzis);
+					if(filter != null && !filter.accept(ldmRadial.dataHeader)) {
+						//  radialLength covers the data header and all data blocks
+						IOUtils.skipFully(bzis, ldmRadial.dataHeader.radialLength - DATA_HEADER_LENGTH);
+						break;
+					}
 					ldmRadial.volumeDataBlock = readVolumeDataBlock(bzis);
 					readElevationDataBlock(bzis);
-					readRadialDataBlock(bzis);
+					ldmRadial.radialDataBlock = readRadialDataBlock(bzis);
 					// 
 					for(int i=0; i<ldmRadial.dataHeader.dataBlockCount - 3; i++) {
 						MomentDataBlock momentBlock = readMomentDataBlock(bzis);
@@ -146,11 +177,10 @@ public class LdmLevel2Reader //implements RadialProvider
 	public MessageHeader readMessageHeader(InputStream is) throws IOException {
 		MessageHeader hdr = new MessageHeader();
 
-		byte [] b12 = new  byte[12];
-		int ok = is.read(b12);  // skip 12 unused bytes
-		if(ok == -1)  return null;
+		//  skip 12 unused bytes
+		if(is.skip(12) < 12)  return null;
 
-		ok = is.read(b2);
+		int ok = is.read(b2);
 		hdr.messageSize = java.nio.ByteBuffer.wrap(b2).getShort();
 
 		hdr.rdaByte = is.read();  
@@ -282,18 +312,45 @@ public class LdmLevel2Reader //implements RadialProvider
 
 	public ElevationDataBlock readElevationDataBlock(InputStream is) throws IOException {
 		//  TODO - add if needed
-		byte [] b12 = new byte [12];
-		int ok = is.read(b12);
+		IOUtils.skipFully(is, 12);
 
 		return null;
 	}
 
-	public ElevationDataBlock readRadialDataBlock(InputStream is) throws IOException {
-		//  TODO - add if needed
-		byte [] b28 = new byte [28];
-		int ok = is.read(b28);
+	public RadialDataBlock readRadialDataBlock(InputStream is) throws IOException {
+		RadialDataBlock block = new RadialDataBlock();
 
-		return null;
+		int ok = is.read(b4);
+		block.dataName = new String(b4, StandardCharsets.UTF_8);
+
+		ok = is.read(b2);
+		block.blockSize = java.nio.ByteBuffer.wrap(b2).getShort();
+
+		ok = is.read(b2);
+		block.unambiguousRangeKm = java.nio.ByteBuffer.wrap(b2).getShort() / 10.0f;
+
+		ok = is.read(b4);
+		block.horizontalNoiseLevel = java.nio.ByteBuffer.wrap(b4).getFloat();
+
+		ok = is.read(b4);
+		block.verticalNoiseLevel = java.nio.ByteBuffer.wrap(b4).getFloat();
+
+		ok = is.read(b2);
+		block.nyquistVelocity = java.nio.ByteBuffer.wrap(b2).getShort() / 100.0f;
+
+		ok = is.read(b2);  // spare
+
+		ok = is.read(b4);
+		block.horizontalCalibrationConstant = java.nio.ByteBuffer.wrap(b4).getFloat();
+
+		ok = is.read(b4);
+		block.verticalCalibrationConstant = java.nio.ByteBuffer.wrap(b4).getFloat();
+
+		return block;
+	}
+
+	public void setFilter(RadialFilter filter) {
+		this.filter = filter;
 	}
 
 	public MomentDataBlock readMomentDataBlock(InputStream is) throws IOException {
@@ -301,9 +358,8 @@ public class LdmLevel2Reader //implements RadialProvider
 
 		block.blockType = (char)is.read();
 
-		byte [] b3 = new byte[3];
-		int ok = is.read(b3);
-		block.blockName = new String(b3, StandardCharsets.UTF_8);
+		int ok = is.read(b4, 0, 3);
+		block.blockName = new String(b4, 0, 3, StandardCharsets.UTF_8);
 
 		is.read(b4);  // Reserved bytes
 
@@ -333,8 +389,13 @@ public class LdmLevel2Reader //implements RadialProvider
 		block.offset = java.nio.ByteBuffer.wrap(b4).getFloat();
 
 		int gateSizeBytes = block.gateSizeBits / 8;
+		int numGates = block.numGates;
+		if(filter != null)
+			block.numGates = (short)filter.getNumGates(numGates, block.rangeToCenterOfFirstGate, block.rangeSampleInterval);
 		block.bdata = new byte[block.numGates * gateSizeBytes];
-		ok = is.read(block.bdata);
+		IOUtils.readFully(is, block.bdata);
+		//  gates beyond max range
+		IOUtils.skipFully(is, (numGates - block.numGates) * gateSizeBytes);
 
 		return block;
 	}
@@ -359,15 +420,11 @@ public class LdmLevel2Reader //implements RadialProvider
 	}
 
 	public void readMetadataRecord(InputStream is) throws IOException { 
-		int ok = is.read(b4);
-		int recSize = Math.abs(java.nio.ByteBuffer.wrap(b4).getInt());
-		byte[] bfull = new byte[recSize];
-		ok = is.read(bfull);
-		try (BZip2CompressorInputStream bzis = new BZip2CompressorInputStream(new ByteArrayInputStream(bfull));) {
+		try (InputStream bzis = readRecord(is)) {
 			int cnt = 0;
 			for(int i=0; i<134; i++){
-				byte [] bb = new byte[2432];
-				ok = bzis.read(bb);
+				if(IOUtils.skip(bzis, 2432) == 2432)
+					cnt++;
 			}
 			System.err.println(cnt + " compressed records read");
 			countBytes(bzis);
@@ -376,6 +433,34 @@ public class LdmLevel2Reader //implements RadialProvider
 		}
 	}
 
+	/**
+	 * ByteArrayInputStream that can be pointed at a new buffer, so one instance serves every
+	 * record a reader decodes.  Closing it gives the decoder owning the buffer back to the pool
+	 */
+	static class RecordInputStream extends ByteArrayInputStream {
+		static final byte [] EMPTY = new byte[0];
+		Bzip2Decoder decoder;
+
+		RecordInputStream() {
+			super(EMPTY);
+		}
+
+		void setBuffer(byte [] buf, int len, Bzip2Decoder decoder) {
+			this.buf = buf;
+			this.pos = 0;
+			this.mark = 0;
+			this.count = len;
+			this.decoder = decoder;
+		}
+
+		@Override
+		public void close() {
+			Bzip2Decoder.release(decoder);
+			decoder = null;
+			setBuffer(EMPTY, 0, null);
+		}
+	}
+
 	public void dumpChunkToFile(InputStream is, Path pout) throws IOException {
 		try(FileOutputStream os = new FileOutputStream(pout.toFile())) {
 			int cnt = 0;
@@ -17,6 +17,7 @@ public class LdmRadial //implements RadialProvider
 {	
 	public DataHeader dataHeader;
 	public VolumeDataBlock volumeDataBlock;
+	public RadialDataBlock radialDataBlock;
 	public long timeMsUtc;  // compute using daysSince70 and msSince midnight from dataHeader, but I am not really using it
 	public Map<String, MomentDataBlock> momentData = new HashMap<>();
 }
@@ -0,0 +1,110 @@
+package org.sensorhub.impl.sensor.nexrad.aws;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: Level2BufferPool.java</p>
+ * <p>Description: Pool of byte arrays for compressed Level II records, in power of two
+ *   size classes from 4 KB to 32 MB, shared by all the reading threads.  A thread decoding
+ *   chunks reuses arrays released by others instead of allocating one per record.  Arrays
+ *   larger than the biggest class are allocated and dropped as before.
+ *
+ *   The pool is bounded: a few arrays per class, and at most maxPooledBytes in total, so
+ *   memory held doesn't grow with the number of sites.  Arrays released beyond that are
+ *   left to the GC.
+ *
+ *   Arrays are not cleared and are usually larger than asked for- callers have to track
+ *   the length they use.  Thread safe.
+ * </p>
+ */
+public class Level2BufferPool
+{
+	static final int MIN_CLASS_BITS = 12;  // 4 KB
+	static final int MAX_CLASS_BITS = 25;  // 32 MB
+	static final int MAX_PER_CLASS = Runtime.getRuntime().availableProcessors();
+	static final long MAX_POOLED_BYTES = 64L << 20;
+
+	private static final Level2BufferPool SHARED = new Level2BufferPool(MAX_PER_CLASS, MAX_POOLED_BYTES);
+
+	ArrayBlockingQueue<byte[]> [] free;
+	long maxPooledBytes;
+	AtomicLong pooledBytes = new AtomicLong();
+	AtomicLong numAllocated = new AtomicLong();
+
+	/**
+	 * @param maxPerClass max number of arrays kept in each size class
+	 * @param maxPooledBytes max total size of the arrays kept
+	 */
+	@SuppressWarnings("unchecked")
+	public Level2BufferPool(int maxPerClass, long maxPooledBytes) {
+		this.maxPooledBytes = maxPooledBytes;
+		free = new ArrayBlockingQueue[MAX_CLASS_BITS - MIN_CLASS_BITS + 1];
+		for(int i=0; i<free.length; i++)
+			free[i] = new ArrayBlockingQueue<>(Math.max(1, maxPerClass));
+	}
+
+	/**
+	 * @return pool shared by the readers
+	 */
+	public static Level2BufferPool getShared() {
+		return SHARED;
+	}
+
+	/**
+	 * @return array of at least minSize bytes
+	 */
+	public byte [] acquire(int minSize) {
+		int cls = sizeClass(minSize);
+		if(cls < 0) {
+			numAllocated.incrementAndGet();
+			return new byte[minSize];
+		}
+		byte [] b = free[cls].poll();
+		if(b != null) {
+			pooledBytes.addAndGet(-b.length);
+			return b;
+		}
+		numAllocated.incrementAndGet();
+		return new byte[1 << (cls + MIN_CLASS_BITS)];
+	}
+
+	/**
+	 * Return an array obtained from acquire().  Arrays that don't match a size class, or
+	 * when the class or the pool is full, are left to the GC
+	 */
+	public void release(byte [] b) {
+		if(b == null)
+			return;
+		int cls = sizeClass(b.length);
+		if(cls < 0 || b.length != 1 << (cls + MIN_CLASS_BITS))
+			return;
+		// reserve the bytes first, so concurrent releases can't overshoot the cap
+		if(pooledBytes.addAndGet(b.length) > maxPooledBytes || !free[cls].offer(b))
+			pooledBytes.addAndGet(-b.length);
+	}
+
+	/**
+	 * @return arrays allocated by this pool, for checking that decoding reaches a steady state
+	 */
+	public long getNumAllocated() {
+		return numAllocated.get();
+	}
+
+	/**
+	 * @return total size of the arrays currently kept by the pool
+	 */
+	public long getPooledBytes() {
+		return pooledBytes.get();
+	}
+
+	/**
+	 * @return index of the smallest class holding size bytes, -1 if larger than all classes
+	 */
+	static int sizeClass(int size) {
+		if(size <= 1 << MIN_CLASS_BITS)
+			return 0;
+		int bits = 32 - Integer.numberOfLeadingZeros(size - 1);
+		return (bits > MAX_CLASS_BITS) ? -1 : bits - MIN_CLASS_BITS;
+	}
+}
@@ -0,0 +1,328 @@
+package org.sensorhub.impl.sensor.nexrad.aws;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.sensorhub.impl.sensor.nexrad.RadialFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: MappedLevel2Reader.java</p>
+ * <p>Description: Reads Level II files through a memory mapped buffer instead of streams.
+ *   Works on both the chunks spooled by the realtime path and uncompressed (gunzipped)
+ *   archive volumes: an optional AR2V volume header followed by LDM records, each a 4
+ *   byte control word and a bzip2 compressed block of messages.
+ *
+ *   Headers and data blocks are parsed in place from the buffer, using the block pointers
+ *   of the data header, so the only copies are the bzip2 output (into a buffer reused
+ *   from one record to the next) and the gates of the moments kept.  Records that are not
+ *   bzip2 compressed are parsed directly from the mapped file.
+ *
+ *   Rereading the same files (e.g. reprocessing an archive) is served from the page cache.
+ *   Volumes can also be decoded straight from a stream (read(InputStream)), one record
+ *   in memory at a time, when they are not worth keeping on disk.
+ *   Not thread safe- use one reader per thread.
+ * </p>
+ */
+public class MappedLevel2Reader
+{
+	private static final Logger logger = LoggerFactory.getLogger(MappedLevel2Reader.class);
+
+	public static final int VOLUME_HEADER_LENGTH = 24;
+	static final int CTM_LENGTH = 12;
+	static final int MESSAGE_HEADER_LENGTH = 16;
+	//  messages other than 31 use fixed size frames, CTM bytes included
+	static final int FIXED_FRAME_LENGTH = 2432;
+	static final int MAX_BLOCK_POINTERS = 9;
+
+	RadialFilter filter;
+	VolumeHeader volumeHeader;
+	byte [] streamBuffer = new byte[1 << 16];
+
+	public MappedLevel2Reader() {
+	}
+
+	/**
+	 * @param filter radials rejected by filter are skipped before their blocks are read
+	 */
+	public MappedLevel2Reader(RadialFilter filter) {
+		this.filter = filter;
+	}
+
+	public void setFilter(RadialFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * @return volume header of the last file or stream read, null if it had none (intermediate chunks)
+	 */
+	public VolumeHeader getVolumeHeader() {
+		return volumeHeader;
+	}
+
+	/**
+	 * @return radials of a chunk or archive volume, empty for chunks with only metadata
+	 */
+	public List<LdmRadial> read(File f) throws IOException {
+		MappedByteBuffer buf = map(f);
+		List<LdmRadial> radials = new ArrayList<>();
+		volumeHeader = null;
+		if(buf.remaining() >= VOLUME_HEADER_LENGTH && buf.get(0) == 'A' && buf.get(1) == 'R') {
+			volumeHeader = readVolumeHeader(buf);
+			if(volumeHeader.isLegacyFormat())
+				return radials;
+			buf.position(VOLUME_HEADER_LENGTH);
+		}
+
+		while(buf.remaining() > 4) {
+			int recordSize = Math.abs(buf.getInt());
+			if(recordSize == 0 || recordSize > buf.remaining()) {
+				logger.warn("Truncated record in {}", f.getName());
+				break;
+			}
+			ByteBuffer record = buf.slice();
+			record.limit(recordSize);
+			buf.position(buf.position() + recordSize);
+			readRecord(record, radials);
+		}
+		return radials;
+	}
+
+	/**
+	 * Decode a volume or chunk from a stream (e.g. an S3 object through GZIPInputStream), 
+	 * holding one LDM record in memory at a time.  Headers and blocks are parsed in place 
+	 * as for mapped files
+	 * @return radials read, empty if the volume has no message 31 (see getVolumeHeader)
+	 */
+	public List<LdmRadial> read(InputStream is) throws IOException {
+		List<LdmRadial> radials = new ArrayList<>();
+		volumeHeader = null;
+		byte [] word = new byte[4];
+		if(IOUtils.read(is, word) < 4)
+			return radials;
+		if(word[0] == 'A' && word[1] == 'R') {
+			byte [] hdr = new byte[VOLUME_HEADER_LENGTH];
+			System.arraycopy(word, 0, hdr, 0, 4);
+			IOUtils.readFully(is, hdr, 4, VOLUME_HEADER_LENGTH - 4);
+			volumeHeader = readVolumeHeader(ByteBuffer.wrap(hdr));
+			if(volumeHeader.isLegacyFormat())
+				return radials;
+			if(IOUtils.read(is, word) < 4)
+				return radials;
+		}
+
+		while(true) {
+			int recordSize = Math.abs(ByteBuffer.wrap(word).getInt());
+			if(recordSize == 0)
+				break;
+			if(streamBuffer.length < recordSize)
+				streamBuffer = new byte[recordSize];
+			IOUtils.readFully(is, streamBuffer, 0, recordSize);
+			ByteBuffer record = ByteBuffer.wrap(streamBuffer, 0, recordSize);
+			readRecord(record, radials);
+			if(IOUtils.read(is, word) < 4)
+				break;
+		}
+		return radials;
+	}
+
+	private static MappedByteBuffer map(File f) throws IOException {
+		//  spooled chunks may not be visible yet when the reader is notified
+		int tries = 0;
+		while(true) {
+			try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} catch (NoSuchFileException e) {
+				if(++tries >= 10)
+					throw e;
+				logger.debug(e.getMessage());
+				try {
+					Thread.sleep(100L);
+				} catch (InterruptedException e1) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Parse an LDM record, decompressing it with a pooled decoder if needed
+	 */
+	private void readRecord(ByteBuffer record, List<LdmRadial> radials) throws IOException {
+		if(!Bzip2Decoder.isBzip2(record)) {
+			readMessages(record, radials);
+			return;
+		}
+		Bzip2Decoder decoder = Bzip2Decoder.acquire();
+		try {
+			readMessages(decoder.decode(record), radials);
+		} finally {
+			Bzip2Decoder.release(decoder);
+		}
+	}
+
+	VolumeHeader readVolumeHeader(ByteBuffer buf) {
+		VolumeHeader hdr = new VolumeHeader();
+		hdr.archive2filename = getString(buf, 0, 12);
+		hdr.daysSince1970 = buf.getInt(12);
+		hdr.msSinceMidnight = buf.getInt(16);
+		hdr.siteId = getString(buf, 20, 4);
+		return hdr;
+	}
+
+	void readMessages(ByteBuffer buf, List<LdmRadial> radials) throws IOException {
+		int pos = buf.position();
+		int end = buf.limit();
+		while(pos + CTM_LENGTH + MESSAGE_HEADER_LENGTH <= end) {
+			int hdrPos = pos + CTM_LENGTH;
+			int messageSize = (buf.getShort(hdrPos) & 0xFFFF) * 2;  // halfwords, message header included
+			int messageType = buf.get(hdrPos + 3) & 0xFF;
+			if(messageType == 31) {
+				if(messageSize < MESSAGE_HEADER_LENGTH || hdrPos + messageSize > end)
+					throw new IOException("Bad message 31 size: " + messageSize);
+				LdmRadial radial = readRadial(buf, hdrPos + MESSAGE_HEADER_LENGTH);
+				if(radial != null)
+					radials.add(radial);
+				pos = hdrPos + messageSize;
+			} else if(messageSize == 0 && messageType == 0) {
+				break;  // padding at the end of the record
+			} else {
+				pos += FIXED_FRAME_LENGTH;
+			}
+		}
+	}
+
+	/**
+	 * @param pos offset of the data header block.  Block pointers are relative to it
+	 * @return radial, null if rejected by the filter
+	 */
+	LdmRadial readRadial(ByteBuffer buf, int pos) throws IOException {
+		LdmRadial radial = new LdmRadial();
+		DataHeader hdr = readDataHeader(buf, pos);
+		radial.dataHeader = hdr;
+		if(filter != null && !filter.accept(hdr))
+			return null;
+
+		int numBlocks = Math.min(hdr.dataBlockCount, MAX_BLOCK_POINTERS);
+		for(int i=0; i<numBlocks; i++) {
+			int ptr = buf.getInt(pos + 32 + 4 * i);
+			if(ptr <= 0)
+				continue;
+			int blockPos = pos + ptr;
+			char type = (char)buf.get(blockPos);
+			String name = getString(buf, blockPos + 1, 3);
+			if(type == 'D') {
+				MomentDataBlock moment = readMomentDataBlock(buf, blockPos);
+				radial.momentData.put(moment.blockName, moment);
+			} else if("VOL".equals(name)) {
+				radial.volumeDataBlock = readVolumeDataBlock(buf, blockPos);
+			} else if("RAD".equals(name)) {
+				radial.radialDataBlock = readRadialDataBlock(buf, blockPos);
+			}
+			//  RELV is not used
+		}
+		return radial;
+	}
+
+	DataHeader readDataHeader(ByteBuffer buf, int pos) {
+		DataHeader hdr = new DataHeader();
+		hdr.siteId = getString(buf, pos, 4);
+		hdr.msSinceMidnight = buf.getInt(pos + 4);
+		hdr.daysSince1970 = buf.getShort(pos + 8);
+		hdr.daysSince1970 += 1; // same as LdmLevel2Reader
+		hdr.azimuthNum = buf.getShort(pos + 10);
+		hdr.azimuthAngle = buf.getFloat(pos + 12);
+		hdr.compression = buf.get(pos + 16) & 0xFF;
+		hdr.radialLength = buf.getShort(pos + 18);
+		hdr.azimuthResolutionSpacing = buf.get(pos + 20) & 0xFF;
+		hdr.radialStatus = buf.get(pos + 21) & 0xFF;
+		hdr.elevationNum = buf.get(pos + 22) & 0xFF;
+		hdr.cutStatusNum = buf.get(pos + 23) & 0xFF;
+		hdr.elevationAngle = buf.getFloat(pos + 24);
+		hdr.radialSpotBlankingStatus = buf.get(pos + 28) & 0xFF;
+		hdr.azimuthIndexingMode = buf.get(pos + 29) & 0xFF;
+		hdr.dataBlockCount = buf.getShort(pos + 30);
+		hdr.volumeBlockPointer = buf.getInt(pos + 32);
+		hdr.elevationBlockPointer = buf.getInt(pos + 36);
+		hdr.radialBlockPointer = buf.getInt(pos + 40);
+		hdr.reflectivityBlockPointer = buf.getInt(pos + 44);
+		hdr.velocityBlockPointer = buf.getInt(pos + 48);
+		hdr.spectrumWidthBlockPointer = buf.getInt(pos + 52);
+		hdr.zdrBlockPointer = buf.getInt(pos + 56);
+		hdr.phiBlockPointer = buf.getInt(pos + 60);
+		hdr.rhoBlockPointer = buf.getInt(pos + 64);
+		return hdr;
+	}
+
+	VolumeDataBlock readVolumeDataBlock(ByteBuffer buf, int pos) {
+		VolumeDataBlock block = new VolumeDataBlock();
+		block.dataName = getString(buf, pos, 4);
+		block.blockSize = buf.getShort(pos + 4);
+		block.majorVersionNum = buf.get(pos + 6) & 0xFF;
+		block.minorVersionNum = buf.get(pos + 7) & 0xFF;
+		block.latitude = buf.getFloat(pos + 8);
+		block.longitude = buf.getFloat(pos + 12);
+		block.siteHeightAboveSeaLevelMeters = buf.getShort(pos + 16);
+		block.feedhornHeightAboveGroundMeters = buf.getShort(pos + 18);
+		block.volumeCoveragePattern = buf.getShort(pos + 40);
+		block.processingStatus = buf.getShort(pos + 42);
+		return block;
+	}
+
+	RadialDataBlock readRadialDataBlock(ByteBuffer buf, int pos) {
+		RadialDataBlock block = new RadialDataBlock();
+		block.dataName = getString(buf, pos, 4);
+		block.blockSize = buf.getShort(pos + 4);
+		block.unambiguousRangeKm = buf.getShort(pos + 6) / 10.0f;
+		block.horizontalNoiseLevel = buf.getFloat(pos + 8);
+		block.verticalNoiseLevel = buf.getFloat(pos + 12);
+		block.nyquistVelocity = buf.getShort(pos + 16) / 100.0f;
+		block.horizontalCalibrationConstant = buf.getFloat(pos + 20);
+		block.verticalCalibrationConstant = buf.getFloat(pos + 24);
+		return block;
+	}
+
+	MomentDataBlock readMomentDataBlock(ByteBuffer buf, int pos) throws IOException {
+		MomentDataBlock block = new MomentDataBlock();
+		block.blockType = (char)buf.get(pos);
+		block.blockName = getString(buf, pos + 1, 3);
+		block.numGates = buf.getShort(pos + 8);
+		block.rangeToCenterOfFirstGate = buf.getShort(pos + 10);
+		block.rangeSampleInterval = buf.getShort(pos + 12);
+		block.rangeFoldingThreshold = buf.getShort(pos + 14);
+		block.snrThreshold = buf.getShort(pos + 16);
+		block.controlFlags = buf.get(pos + 18) & 0xFF;
+		block.gateSizeBits = buf.get(pos + 19) & 0xFF;
+		block.scale = buf.getFloat(pos + 20);
+		block.offset = buf.getFloat(pos + 24);
+
+		if(filter != null)
+			block.numGates = (short)filter.getNumGates(block.numGates, block.rangeToCenterOfFirstGate, block.rangeSampleInterval);
+		int len = block.numGates * (block.gateSizeBits / 8);
+		if(len < 0 || pos + 28 + len > buf.limit())
+			throw new IOException("Bad " + block.blockName + " block: " + block.numGates + " gates");
+		block.bdata = new byte[len];
+		buf.position(pos + 28);
+		buf.get(block.bdata);
+		return block;
+	}
+
+	private static String getString(ByteBuffer buf, int pos, int len) {
+		byte [] b = new byte[len];
+		for(int i=0; i<len; i++)
+			b[i] = buf.get(pos + i);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+}
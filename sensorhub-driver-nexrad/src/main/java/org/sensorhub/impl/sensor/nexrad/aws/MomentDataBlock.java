@@ -42,11 +42,40 @@ public class MomentDataBlock {
 		return data;
 	}
 
+	/**
+	 * @return smallest decoded value of a valid gate.  Raw values 0 and 1 flag gates 
+	 * below the SNR threshold and range folded gates
+	 */
+	public float getMinValidValue() {
+		if(scale == 0.0f)
+			return Float.NEGATIVE_INFINITY;
+		return (2 - offset) / scale;
+	}
+
+	/**
+	 * @return gates as read from the message, gateSizeBits / 8 bytes per gate. Null if the 
+	 * block was filled with decoded values (setData)
+	 */
+	public byte [] getRawData() {
+		return bdata;
+	}
+
+	public void setRawData(byte [] bdata) {
+		this.bdata = bdata;
+	}
+
 	// So UcarReader can set data as float []
 	public void setData(float [] data) {
 		this.data = data;
 	}
 
+	/**
+	 * @return true if the block has gates, either raw or decoded
+	 */
+	public boolean hasData() {
+		return bdata != null || data != null;
+	}
+
 
 	public static short byte2short(byte[] data)
 	{
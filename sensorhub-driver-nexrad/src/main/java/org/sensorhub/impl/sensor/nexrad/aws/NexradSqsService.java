@@ -1,25 +1,28 @@
 package org.sensorhub.impl.sensor.nexrad.aws;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import org.sensorhub.impl.sensor.nexrad.NexradConfig;
+import org.sensorhub.impl.sensor.nexrad.aws.local.LocalChunkReplayService;
+import org.sensorhub.impl.sensor.nexrad.aws.local.LocalChunkStore;
 import org.sensorhub.impl.sensor.nexrad.aws.sqs.AwsSqsService;
-import org.sensorhub.impl.sensor.nexrad.aws.sqs.ChunkPathQueue;
+import org.sensorhub.impl.sensor.nexrad.aws.sqs.ChunkPathSource;
 import org.sensorhub.impl.sensor.nexrad.aws.sqs.ChunkQueueManager;
+import org.sensorhub.impl.sensor.nexrad.aws.sqs.ChunkStore;
 import org.sensorhub.impl.sensor.nexrad.aws.sqs.QueueFactory;
+import org.sensorhub.impl.sensor.nexrad.aws.sqs.S3ChunkStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.amazonaws.AmazonClientException;
-import com.amazonaws.services.s3.AmazonS3Client;
-
 /**
  * <p>Title: NexradSqsService.java</p>
  * <p>Description: </p>
@@ -33,17 +36,24 @@ public class NexradSqsService
 	private int numThreads = 4;  // config can and usually should override this
 	static final String topicArn = "arn:aws:sns:us-east-1:684042711724:NewNEXRADLevel2Object";
 	private String queueName;
-	private List<String> sites;
-	private AwsSqsService sqsService;
-	private ExecutorService execService;
+	//  sites whose chunks are kept, shared with the receivers
+	private Set<String> sites = ConcurrentHashMap.newKeySet();
+	private ChunkPathSource chunkSource;
+	//  runs receivers, S3 fetches and SQS calls- lives as long as this service
+	private IoExecutor ioExecutor;
 	// local queue of filenames on disk- NexradSensor creates and passes this in- a bit clumsy so revisit later
 //	ChunkPathQueue chunkQueue;  
 	ChunkQueueManager chunkQueueManager;
 
-	//  S3 Client needs to be created only once
-	private AmazonS3Client s3client;
-	//  We need to keep threads in order to dynamically add/remove sites once that is supported
+	//  Clients are created from config, so the module can target AWS or a local stand-in
+	private NexradConfig config;
+	private AwsClientFactory clientFactory;
+	private QueueFactory queueFactory;
+	private String queueUrl;
+	//  Chunk store needs to be created only once
+	private ChunkStore chunkStore;
 	List<ProcessMessageThread> messageThreads = new ArrayList<>();
+	CountDownLatch receiversDone;
 
 	//  Relocating queue control to this class, where it makes more sense
 	static final long QUEUE_CHECK_INTERVAL = TimeUnit.MINUTES.toMillis(1);
@@ -51,37 +61,63 @@ public class NexradSqsService
 	long idleTimeMillis;  // how long in milliseconds to allow queue to be idle (no requests) before disabling
 	boolean queueActive = false;
 
-	public NexradSqsService(String queueName, List<String> sites) throws IOException {
-		this.sites = sites;
-		this.queueName = queueName;
+	public NexradSqsService(NexradConfig config) throws IOException {
+		this.config = config;
+		this.sites.addAll(config.siteIds);
+		this.queueName = config.queueName;
+		this.clientFactory = new AwsClientFactory(config);
+		this.ioExecutor = new IoExecutor(config.maxIoThreads, config.maxConnectionsPerHost);
+
+		if(isReplay()) {
+			chunkStore = new LocalChunkStore(Paths.get(config.replayFolder));
+		} else {
+			// fail now if credentials are missing rather than on the first chunk
+			if(!config.anonymousS3Access)
+				clientFactory.checkCredentials();
+			chunkStore = new S3ChunkStore(clientFactory.createS3Client(), AwsNexradUtil.BUCKET_NAME, 
+					clientFactory.getS3Host(AwsNexradUtil.BUCKET_NAME));
+		}
+	}
 
-		createS3Client();
+	public boolean isReplay() {
+		return config.replayFolder != null;
 	}
 
-	private void createS3Client() {
-		try {
-			s3client = AwsNexradUtil.createS3Client();
-		} catch (Exception e) {
-			throw new AmazonClientException(
-					"Cannot load the credentials from the credential profiles file. " +
-							"Please make sure that your credentials file is at the correct " +
-							"location (~/.aws/credentials), and is in valid format.",
-							e);
+	private ChunkPathSource createChunkSource() throws IOException {
+		if(isReplay()) {
+			LocalChunkReplayService replay = new LocalChunkReplayService(Paths.get(config.replayFolder), sites, 
+					config.replaySpeedFactor, config.replayLoop);
+			replay.start();
+			return replay;
 		}
+
+		clientFactory.checkCredentials();
+		queueFactory = new QueueFactory(clientFactory);
+		queueUrl = queueFactory.createAndSubscribeQueue(topicArn, queueName);
+		AwsSqsService sqsService = new AwsSqsService(queueFactory.getSqs(), queueUrl);
+		sqsService.setIoExecutor(ioExecutor, clientFactory.getSqsHost());
+		return sqsService;
 	}
 
-	public void start() {
+	public void start() throws IOException {
 //		assert chunkQueue != null;
 		assert chunkQueueManager != null;
-		String queueUrl  = QueueFactory.createAndSubscribeQueue(topicArn, queueName);
-
-		execService = Executors.newFixedThreadPool(numThreads);
-		sqsService = new AwsSqsService(queueUrl);
+		chunkSource = createChunkSource();
 
+		receiversDone = new CountDownLatch(numThreads);
 		for(int i=0; i<numThreads; i++) {
-			ProcessMessageThread t = new ProcessMessageThread(sqsService, s3client, sites, chunkQueueManager);
+			final ProcessMessageThread t = new ProcessMessageThread(chunkSource, sites, chunkQueueManager);
 			messageThreads.add(t);
-			execService.execute(t);
+			ioExecutor.executeLoop(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						t.run();
+					} finally {
+						receiversDone.countDown();
+					}
+				}
+			}, "NexradSqsReceiver");
 		}
 		
 		Timer queueTimer = new Timer();  //
@@ -93,27 +129,35 @@ public class NexradSqsService
 			for(ProcessMessageThread t: messageThreads) {
 				t.setProcessing(false);
 			}
-			shutdownAndAwaitTermination(execService);
-			QueueFactory.deleteQueue(queueName);
+			messageThreads.clear();
+			awaitReceivers();
+			chunkSource.close();
+			if(queueFactory != null)
+				queueFactory.deleteQueue(queueUrl);
+			queueActive = false;
 		}
 	}
 	
-	void shutdownAndAwaitTermination(ExecutorService pool) {
-	    pool.shutdown(); // Disable new tasks from being submitted
-	    try {
-	        // Wait a while for existing tasks to terminate
-	        if (!pool.awaitTermination(10, TimeUnit.SECONDS)) {
-	            pool.shutdownNow(); // Cancel currently executing tasks
-	            // Wait a while for tasks to respond to being cancelled
-	            if (!pool.awaitTermination(10, TimeUnit.SECONDS))
-	                System.err.println("Pool did not terminate");
-	        }
-	    } catch (InterruptedException ie) {
-	        // (Re-)Cancel if current thread also interrupted
-	        pool.shutdownNow();
-	        // Preserve interrupt status
-	        Thread.currentThread().interrupt();
-	    }
+	void awaitReceivers() {
+		try {
+			if (!receiversDone.await(10, TimeUnit.SECONDS))
+				logger.warn("Receivers did not terminate");
+		} catch (InterruptedException ie) {
+			// Preserve interrupt status
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stop the queue and release the I/O threads. The service can't be restarted after this
+	 */
+	public void shutdown() {
+		stop();
+		ioExecutor.shutdown();
+	}
+
+	public IoExecutor getIoExecutor() {
+		return ioExecutor;
 	}
 
 	public void setQueueActive() throws IOException {
@@ -179,12 +223,24 @@ public class NexradSqsService
 		logger.debug("{} QueueIdleTimeMinutes: {}", idleTimeMillis);
 	}
 	
-	public AmazonS3Client getS3client() {
-		return s3client;
+	/**
+	 * Start keeping the chunks of a site.  Takes effect on the next message received
+	 */
+	public void addSite(String site) {
+		sites.add(site);
+	}
+
+	public void removeSite(String site) {
+		sites.remove(site);
+	}
+
+	public ChunkStore getChunkStore() {
+		return chunkStore;
 	}
 
 	public void setNumThreads(int numThreads) {
-		this.numThreads = numThreads;
+		if(numThreads > 0)
+			this.numThreads = numThreads;
 	}
 
 	public void setChunkQueueManager(ChunkQueueManager chunkQueueManager) {
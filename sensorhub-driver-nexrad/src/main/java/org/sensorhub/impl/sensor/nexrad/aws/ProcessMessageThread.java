@@ -1,14 +1,12 @@
 package org.sensorhub.impl.sensor.nexrad.aws;
 
+import java.util.Collection;
 import java.util.List;
 
-import org.sensorhub.impl.sensor.nexrad.aws.sqs.AwsSqsService;
 import org.sensorhub.impl.sensor.nexrad.aws.sqs.ChunkPathQueue;
+import org.sensorhub.impl.sensor.nexrad.aws.sqs.ChunkPathSource;
 import org.sensorhub.impl.sensor.nexrad.aws.sqs.ChunkQueueManager;
 
-import com.amazonaws.services.s3.AmazonS3Client;
-import com.amazonaws.services.sqs.model.Message;
-
 /**
  * <p>Title: MessageProcessingThread.java</p>
  * <p>Description: </p>
@@ -18,14 +16,15 @@ import com.amazonaws.services.sqs.model.Message;
  */
 public class ProcessMessageThread implements Runnable {
 
-	private AwsSqsService sqsService;
-	List<String> sitesToKeep;
+	private ChunkPathSource chunkSource;
+	//  shared by the receivers, and updated as sites are added or removed
+	Collection<String> sitesToKeep;
 	ChunkPathQueue chunkQueue;
 	ChunkQueueManager chunkQueueManager;
-	boolean processing = true;
+	volatile boolean processing = true;
 	
-	public ProcessMessageThread(AwsSqsService sqsService, AmazonS3Client client, List<String> sites, ChunkQueueManager chunkQueueManager) {
-		this.sqsService = sqsService;
+	public ProcessMessageThread(ChunkPathSource chunkSource, Collection<String> sites, ChunkQueueManager chunkQueueManager) {
+		this.chunkSource = chunkSource;
 		this.sitesToKeep = sites;
 		this.chunkQueueManager = chunkQueueManager;
 	}
@@ -33,18 +32,14 @@ public class ProcessMessageThread implements Runnable {
 	@Override
 	public void run() {
 		while(processing) {
-			List<Message> messages = this.sqsService.receiveMessages();
-			for(Message msg: messages) {
-				String body = msg.getBody();
-				String chunkPath = AwsNexradUtil.getChunkPath(body);
-				//				String time = AwsNexradUtil.getEventTime(body);
+			List<String> chunkPaths = this.chunkSource.receiveChunkPaths();
+			for(String chunkPath: chunkPaths) {
 				String site = chunkPath.substring(0, 4);
 //				System.err.println(chunkPath);
 				if(sitesToKeep.contains(site)) {
 					chunkQueueManager.addChunkPath(site, chunkPath);
 				}
 			}
-			sqsService.deleteMessages(messages);	
 		}
 	}
 
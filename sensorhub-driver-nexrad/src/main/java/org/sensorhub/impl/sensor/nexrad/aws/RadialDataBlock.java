@@ -8,5 +8,23 @@ package org.sensorhub.impl.sensor.nexrad.aws;
  * @date Mar 16, 2016
  */
 public class RadialDataBlock {
+	String dataName;  // RRAD always
+	short blockSize; // bytes
+	float unambiguousRangeKm;
+	float horizontalNoiseLevel;
+	float verticalNoiseLevel;
+	float nyquistVelocity;  // m/s
+	float horizontalCalibrationConstant;
+	float verticalCalibrationConstant;
 
+	/**
+	 * @return Nyquist velocity of the radial in m/s
+	 */
+	public float getNyquistVelocity() {
+		return nyquistVelocity;
+	}
+
+	public float getUnambiguousRangeKm() {
+		return unambiguousRangeKm;
+	}
 }
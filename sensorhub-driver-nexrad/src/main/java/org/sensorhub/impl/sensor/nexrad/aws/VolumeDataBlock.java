@@ -23,4 +23,8 @@ public class VolumeDataBlock {
 	float initialDifferentialPhase;
 	short volumeCoveragePattern;
 	short processingStatus;
+
+	public short getVolumeCoveragePattern() {
+		return volumeCoveragePattern;
+	}
 }
@@ -35,6 +35,13 @@ public class VolumeHeader {
 	public void setSiteId(String siteId) {
 		this.siteId = siteId;
 	}
+	/**
+	 * @return true for volumes written before message 31 (ARCHIVE2 and AR2V0001), which only
+	 * have uncompressed message 1 radials
+	 */
+	public boolean isLegacyFormat() {
+		return archive2filename == null || archive2filename.startsWith("ARCHIVE2") || archive2filename.startsWith("AR2V0001");
+	}
 	public Long getTimeMs() {
 		if(timeMs == null) {
 			timeMs = TimeUnit.DAYS.toMillis(daysSince1970 - 1) + msSinceMidnight;
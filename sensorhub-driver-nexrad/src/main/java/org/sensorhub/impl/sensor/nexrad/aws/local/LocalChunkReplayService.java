@@ -0,0 +1,209 @@
+package org.sensorhub.impl.sensor.nexrad.aws.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.sensorhub.impl.sensor.nexrad.aws.sqs.ChunkPathSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: LocalChunkReplayService.java</p>
+ * <p>Description: In-process stand-in for the SNS topic + SQS queue.  Scans a folder of 
+ *   recorded chunks (see LocalChunkStore for the layout) and emits their paths with the 
+ *   timing they had in real time, scaled by speedFactor.  
+ *   
+ *   Chunk names only carry the volume start time, so chunks of a volume are spread evenly 
+ *   between the start of their volume and the start of the next one.
+ * </p>
+ */
+public class LocalChunkReplayService implements ChunkPathSource, Runnable
+{
+	static final Logger logger = LoggerFactory.getLogger(LocalChunkReplayService.class);
+	static final int MAX_MESSAGES = 10;  // same limit as an SQS receive
+	static final long DEFAULT_VOLUME_DURATION = TimeUnit.MINUTES.toMillis(5);
+	static final DateTimeFormatter VOLUME_TIME_FORMAT = DateTimeFormat.forPattern("yyyyMMdd-HHmmss").withZone(DateTimeZone.UTC);
+
+	Path rootFolder;
+	Collection<String> sites;
+	double speedFactor;
+	boolean loop;
+	List<RecordedChunk> chunks;
+	BlockingQueue<String> pending = new LinkedBlockingQueue<>();
+	Thread replayThread;
+	volatile boolean running;
+	AtomicLong numSent = new AtomicLong();
+
+	/**
+	 * @param rootFolder folder holding one sub folder of recorded chunks per site
+	 * @param sites sites to replay. All recorded sites are replayed if null
+	 * @param speedFactor replay rate relative to real time. 0 or less means as fast as possible
+	 * @param loop restart from the beginning when the recording is exhausted
+	 */
+	public LocalChunkReplayService(Path rootFolder, Collection<String> sites, double speedFactor, boolean loop) {
+		this.rootFolder = rootFolder;
+		this.sites = sites;
+		this.speedFactor = speedFactor;
+		this.loop = loop;
+	}
+
+	public void start() throws IOException {
+		chunks = loadRecording();
+		if(chunks.isEmpty())
+			throw new IOException("No recorded chunks found in " + rootFolder);
+		logger.info("Replaying {} chunks from {} at {}x", chunks.size(), rootFolder, speedFactor);
+		running = true;
+		replayThread = new Thread(this, "NexradReplay");
+		replayThread.setDaemon(true);
+		replayThread.start();
+	}
+
+	@Override
+	public void run() {
+		try {
+			do {
+				long startTime = chunks.get(0).time;
+				long wallStart = System.currentTimeMillis();
+				for(RecordedChunk chunk: chunks) {
+					if(!running)
+						return;
+					if(speedFactor > 0) {
+						long due = wallStart + (long)((chunk.time - startTime) / speedFactor);
+						long wait = due - System.currentTimeMillis();
+						if(wait > 0)
+							Thread.sleep(wait);
+					}
+					pending.add(chunk.path);
+					numSent.incrementAndGet();
+				}
+			} while (loop && running);
+			logger.info("Replay complete. {} chunks sent", numSent.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public List<String> receiveChunkPaths() {
+		List<String> paths = new ArrayList<>(MAX_MESSAGES);
+		try {
+			String path = pending.poll(1, TimeUnit.SECONDS);
+			if(path == null)
+				return paths;
+			paths.add(path);
+			pending.drainTo(paths, MAX_MESSAGES - 1);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return paths;
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		if(replayThread != null)
+			replayThread.interrupt();
+	}
+
+	public long getNumSent() {
+		return numSent.get();
+	}
+
+	List<RecordedChunk> loadRecording() throws IOException {
+		File [] siteFolders = rootFolder.toFile().listFiles();
+		if(siteFolders == null)
+			throw new IOException("Replay folder does not exist or is not a directory: " + rootFolder);
+
+		List<RecordedChunk> chunks = new ArrayList<>();
+		for(File siteFolder: siteFolders) {
+			if(!siteFolder.isDirectory())
+				continue;
+			if(sites != null && !sites.contains(siteFolder.getName()))
+				continue;
+			chunks.addAll(loadSite(siteFolder));
+		}
+		Collections.sort(chunks, new Comparator<RecordedChunk>() {
+			@Override
+			public int compare(RecordedChunk c1, RecordedChunk c2) {
+				int cmp = Long.compare(c1.time, c2.time);
+				return (cmp != 0) ? cmp : c1.path.compareTo(c2.path);
+			}
+		});
+		return chunks;
+	}
+
+	private List<RecordedChunk> loadSite(File siteFolder) {
+		// group chunks by volume, ordered by volume start time
+		Map<Long, List<RecordedChunk>> volumes = new TreeMap<>();
+		File [] files = siteFolder.listFiles();
+		if(files == null)
+			return Collections.emptyList();
+		for(File f: files) {
+			RecordedChunk chunk = RecordedChunk.parse(f.getName());
+			if(chunk == null) {
+				logger.debug("Skipping {}", f);
+				continue;
+			}
+			List<RecordedChunk> volume = volumes.get(chunk.volumeTime);
+			if(volume == null) {
+				volume = new ArrayList<>();
+				volumes.put(chunk.volumeTime, volume);
+			}
+			volume.add(chunk);
+		}
+
+		List<RecordedChunk> chunks = new ArrayList<>();
+		List<Long> startTimes = new ArrayList<>(volumes.keySet());
+		for(int i=0; i<startTimes.size(); i++) {
+			long start = startTimes.get(i);
+			long duration = (i + 1 < startTimes.size()) ? startTimes.get(i + 1) - start : DEFAULT_VOLUME_DURATION;
+			List<RecordedChunk> volume = volumes.get(start);
+			int maxChunk = 1;
+			for(RecordedChunk c: volume)
+				maxChunk = Math.max(maxChunk, c.chunkNum);
+			for(RecordedChunk c: volume) {
+				c.time = start + duration * (c.chunkNum - 1) / maxChunk;
+				chunks.add(c);
+			}
+		}
+		return chunks;
+	}
+
+	static class RecordedChunk {
+		String path;
+		long volumeTime;
+		int chunkNum;
+		long time;
+
+		//  SITE_VOLUME_YYYYMMDD-HHMMSS-CHUNKNUM-CHUNKTYPE
+		static RecordedChunk parse(String filename) {
+			String [] sarr = filename.split("_");
+			if(sarr.length != 3 || sarr[0].length() != 4 || sarr[2].length() != 21)
+				return null;
+			try {
+				RecordedChunk chunk = new RecordedChunk();
+				chunk.path = sarr[0] + "/" + sarr[1] + "/" + sarr[2];
+				chunk.volumeTime = VOLUME_TIME_FORMAT.parseMillis(sarr[2].substring(0, 15));
+				chunk.chunkNum = Integer.parseInt(sarr[2].substring(16, 19));
+				return chunk;
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package org.sensorhub.impl.sensor.nexrad.aws.local;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.sensorhub.impl.sensor.nexrad.aws.sqs.ChunkStore;
+
+/**
+ * <p>Title: LocalChunkStore.java</p>
+ * <p>Description: ChunkStore serving recorded chunks from disk instead of S3.  
+ *   Files are laid out the way ChunkPathQueue spools them: 
+ *   		rootFolder/SITE/SITE_VOLUME_YYYYMMDD-HHMMSS-CHUNKNUM-CHUNKTYPE
+ *   so the rootFolder of a previous realtime run can be replayed directly.
+ * </p>
+ */
+public class LocalChunkStore implements ChunkStore {
+	Path rootFolder;
+
+	public LocalChunkStore(Path rootFolder) {
+		this.rootFolder = rootFolder;
+	}
+
+	@Override
+	public InputStream openChunk(String chunkPath) throws IOException {
+		return new BufferedInputStream(Files.newInputStream(getChunkFile(chunkPath)));
+	}
+
+	@Override
+	public String getHost() {
+		return "localhost";
+	}
+
+	public Path getChunkFile(String chunkPath) {
+		String site = chunkPath.substring(0, 4);
+		return Paths.get(rootFolder.toString(), site, chunkPath.replace('/', '_'));
+	}
+}
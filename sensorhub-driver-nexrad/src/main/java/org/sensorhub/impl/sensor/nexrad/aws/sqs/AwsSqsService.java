@@ -3,12 +3,10 @@ package org.sensorhub.impl.sensor.nexrad.aws.sqs;
 import java.util.ArrayList;
 import java.util.List;
 
-import com.amazonaws.auth.AWSCredentials;
-import com.amazonaws.auth.profile.ProfileCredentialsProvider;
-import com.amazonaws.regions.Region;
-import com.amazonaws.regions.Regions;
+import org.sensorhub.impl.sensor.nexrad.aws.AwsNexradUtil;
+import org.sensorhub.impl.sensor.nexrad.aws.IoExecutor;
+
 import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.AmazonSQSClient;
 import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
 import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
 import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
@@ -25,28 +23,51 @@ import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
  * @author T
  * @date Mar 2, 2016
  */
-public class AwsSqsService {
+public class AwsSqsService implements ChunkPathSource {
 
 	private AmazonSQS sqs;
-	AWSCredentials credentials;
 //	private static final String QUEUE_URL = 	"https://sqs.us-east-1.amazonaws.com/633354997535/NexradRealtimeQueue";
 	private String queueUrl; 
+	//  if set, deletes run there so receivers can go straight back to polling
+	private IoExecutor ioExecutor;
+	private String host;
 	
-	public AwsSqsService(String queueUrl) {
+	//  sqs client is created by AwsClientFactory so region/endpoint come from config
+	public AwsSqsService(AmazonSQS sqs, String queueUrl) {
+		this.sqs = sqs;
 		this.queueUrl = queueUrl;
+	}
+	
+	@Override
+	public List<String> receiveChunkPaths() {
+		List<Message> messages = receiveMessages();
+		List<String> paths = new ArrayList<>(messages.size());
+		for(Message msg: messages) {
+			paths.add(AwsNexradUtil.getChunkPath(msg.getBody()));
+		}
+		if(ioExecutor != null) {
+			final List<Message> toDelete = messages;
+			ioExecutor.submit(host, new Runnable() {
+				@Override
+				public void run() {
+					deleteMessages(toDelete);
+				}
+			});
+		} else {
+			deleteMessages(messages);
+		}
+		return paths;
+	}
 
-		//  create sqs client
-		credentials = new ProfileCredentialsProvider().getCredentials();
-		sqs = new AmazonSQSClient(credentials);
-//		AmazonSQSAsync sqsAsync = new AmazonSQSAsyncClient (credentials ) ;
-//		sqs  = new AmazonSQSBufferedAsyncClient(sqsAsync);
-		
-		Region usEast1 = Region.getRegion(Regions.US_EAST_1);
-		Region usWest2 = Region.getRegion(Regions.US_WEST_2);
-		sqs.setRegion(usEast1);
-		sqs.setEndpoint("sdb.amazonaws.com");
+	public void setIoExecutor(IoExecutor ioExecutor, String host) {
+		this.ioExecutor = ioExecutor;
+		this.host = host;
 	}
 	
+	@Override
+	public void close() {
+		shutdown();
+	}
 	
 	public List<Message> receiveMessages() {
 		ReceiveMessageRequest receiveMessageRequest = new ReceiveMessageRequest(queueUrl).
@@ -80,13 +101,7 @@ public class AwsSqsService {
 		}
 	}
 	
-	// Don't think we will need to call this
 	public void shutdown() {
 		sqs.shutdown();
 	}
-
-	//  Should only create these once and hand them out as needed 
-	public AWSCredentials getCredentials() {
-		return credentials;
-	}
 }
@@ -1,26 +1,32 @@
 package org.sensorhub.impl.sensor.nexrad.aws.sqs;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
 import org.sensorhub.impl.sensor.nexrad.RadialProvider;
 import org.sensorhub.impl.sensor.nexrad.aws.AwsNexradUtil;
+import org.sensorhub.impl.sensor.nexrad.aws.IoExecutor;
 import org.sensorhub.impl.sensor.nexrad.aws.LdmLevel2Reader;
 import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.amazonaws.services.s3.AmazonS3Client;
-import com.amazonaws.services.s3.model.S3Object;
-
 
 /**
  * <p>Title: MessageOrderQueue.java</p>
@@ -36,12 +42,19 @@ public class ChunkPathQueue
 
 	Logger logger = LoggerFactory.getLogger(ChunkPathQueue.class);
 	PriorityBlockingQueue<String> queue;
-	AmazonS3Client s3client;
+	ChunkStore chunkStore;
+	//  when set, chunks are downloaded as soon as they are queued rather than when they are read
+	IoExecutor ioExecutor;
+	ConcurrentMap<String, Future<Path>> downloads = new ConcurrentHashMap<>();
 	Path siteFolder; 
 	String site;
 	int vol, chunk;
 	char type;
-	boolean first = true;
+	volatile boolean first = true;
+	volatile boolean closed;
+	//  when idle, chunks only move the position in the volume, so reading resumes with 
+	//  the next chunk on activation
+	volatile boolean active = true;
 	static final int START_SIZE = 3;  // allow settable
 	static final int SIZE_LIMIT = 8;
 
@@ -53,10 +66,69 @@ public class ChunkPathQueue
 		queue = new PriorityBlockingQueue<>();
 	}
 
-	public void add(String chunkPath) {
+	public void add(final String chunkPath) {
+		if(closed)
+			return;
+		if(!active) {
+			setPosition(chunkPath);
+			return;
+		}
+		//  until the starting point is known, or for chunks already behind it, next() 
+		//  would skip the chunk- don't prefetch it
+		if(!first && !isBehind(chunkPath))
+			prefetch(chunkPath);
 		queue.add(chunkPath);
 	}
 
+	private void prefetch(final String chunkPath) {
+		if(ioExecutor == null || downloads.containsKey(chunkPath))
+			return;
+		FutureTask<Path> download = new FutureTask<>(new Callable<Path>() {
+			@Override
+			public Path call() throws IOException {
+				Path pout = download(chunkPath);
+				//  discarded while downloading
+				if(!downloads.containsKey(chunkPath))
+					Files.deleteIfExists(pout);
+				return pout;
+			}
+		});
+		//  notifications of a chunk can be received twice, by different threads
+		if(downloads.putIfAbsent(chunkPath, download) == null)
+			ioExecutor.submit(chunkStore.getHost(), download);
+	}
+
+	private Path getChunkFile(String chunkPath) {
+		return Paths.get(siteFolder.toString(), chunkPath.replaceAll("/", "_"));
+	}
+
+	private Path download(String chunkPath) throws IOException {
+		Path pout = getChunkFile(chunkPath);
+		boolean complete = false;
+		try(InputStream is = chunkStore.openChunk(chunkPath)) {
+			AwsNexradUtil.dumpChunkToFile(is, pout);
+			complete = true;
+		} finally {
+			if(!complete)
+				Files.deleteIfExists(pout);
+		}
+		return pout;
+	}
+
+	//  chunk skipped by next()- forget its download and delete what was written of it.  If the 
+	//  download is still running, it deletes its file when done
+	private void discard(String chunkPath) {
+		Future<Path> download = downloads.remove(chunkPath);
+		if(download != null) {
+			download.cancel(true);
+			try {
+				Files.deleteIfExists(getChunkFile(chunkPath));
+			} catch (IOException e) {
+				logger.debug("Cannot delete {}", chunkPath, e);
+			}
+		}
+	}
+
 	void dump(BlockingQueue queue) {
 		String [] sarr = (String[]) queue.toArray(new String [] {});
 		Arrays.sort(sarr);
@@ -66,7 +138,53 @@ public class ChunkPathQueue
 
 	}
 
-	boolean isNext(int v, int c, char t) {
+	//  chunk at or before the current position in the volume
+	private synchronized boolean isBehind(String chunkPath) {
+		String [] sarr = chunkPath.split("/");
+		int v = Integer.parseInt(sarr[1]);
+		int dashIdx = chunkPath.lastIndexOf('-');
+		int c = Integer.parseInt(chunkPath.substring(dashIdx - 3, dashIdx));
+		return v < vol || (v == vol && c <= chunk);
+	}
+
+	private synchronized void setPosition(String chunkPath) {
+		String [] sarr = chunkPath.split("/");
+		int v = Integer.parseInt(sarr[1]);
+		int dashIdx = chunkPath.lastIndexOf('-');
+		int c = Integer.parseInt(chunkPath.substring(dashIdx - 3, dashIdx));
+		//  notifications may come slightly out of order
+		if(!first && (v < vol || (v == vol && c <= chunk)))
+			return;
+		moveTo(v, c, chunkPath.charAt(chunkPath.length() - 1));
+	}
+
+	//  position updates from next() must not race with the receiver threads reading it
+	private synchronized void moveTo(int v, int c, char t) {
+		vol = v;
+		chunk = c;
+		type = t;
+		first = false;
+	}
+
+	/**
+	 * Idle queues don't download or queue chunks, but keep following the position in the 
+	 * volume so they can resume with the next chunk.  Chunks queued are dropped when 
+	 * becoming idle
+	 */
+	public void setActive(boolean active) {
+		this.active = active;
+		if(!active) {
+			queue.clear();
+			for(String chunkPath: downloads.keySet())
+				discard(chunkPath);
+		}
+	}
+
+	public boolean isActive() {
+		return active;
+	}
+
+	synchronized boolean isNext(int v, int c, char t) {
 		boolean isNext;
 		if(type == 'E') {
 			isNext = (v == vol + 1) && (c == 1);
@@ -84,24 +202,29 @@ public class ChunkPathQueue
 
 	// If a force take, need to ensure that any previous chunks that come in later are not added to the queue
 	private String next() throws InterruptedException {
-		boolean next = false;
-		while(!next) {
+		while(!closed) {
 			if(first) {
-				String f = queue.take();
+				String f = queue.poll(500L, TimeUnit.MILLISECONDS);
+				if(f == null)
+					continue;
 				String [] sarr = f.split("/");
-				vol = Integer.parseInt(sarr[1]);
 				int dashIdx = f.lastIndexOf('-');
 				assert (dashIdx > 10);
 				String s = f.substring(dashIdx - 3, dashIdx);
-				chunk = Integer.parseInt(s);
-				type = f.charAt(f.length() - 1);
-				first = false;
+				discard(f);
+				moveTo(Integer.parseInt(sarr[1]), Integer.parseInt(s), f.charAt(f.length() - 1));
+				for(String chunkPath: queue)
+					if(!isBehind(chunkPath))
+						prefetch(chunkPath);
 				continue;
 			}
 
 			String chunkName = queue.peek();
-			if(chunkName == null)
+			if(chunkName == null) {
+				//  don't spin while waiting for the next notification
+				Thread.sleep(100L);
 				continue;
+			}
 			String [] sarr = chunkName.split("/");
 			int v = Integer.parseInt(sarr[1]);
 			int dashIdx = chunkName.lastIndexOf('-');
@@ -116,9 +239,8 @@ public class ChunkPathQueue
 			} else if(queue.size() > SIZE_LIMIT) {
 				chunkName = queue.take(); 
 				logger.debug("Force take: {}" , chunkName);
-				chunk = c;
-				vol = v;
-				type = t;
+				discard(chunkName);
+				moveTo(v, c, t);
 			}
 			dump(queue);					
 			Thread.sleep(500L);
@@ -130,20 +252,33 @@ public class ChunkPathQueue
 
 	public Path nextFile() throws IOException
 	{
-		assert s3client != null;
+		assert chunkStore != null;
 		try
 		{
 //			System.err.println("*** Checking nextFile");
 			String nextFile = next();
-			S3Object chunk = AwsNexradUtil.getChunk(s3client, AwsNexradUtil.BUCKET_NAME, nextFile);
-			nextFile = nextFile.replaceAll("/", "_");
-
-			Path pout = Paths.get(siteFolder.toString(), nextFile);
-			//  If I thread writing of file, I will have to put in a mechanism to notify the listener (NexradOutput)
-			//  when the file writing is complete.  Right now, I don't think it is needed. 
-			AwsNexradUtil.dumpChunkToFile(chunk, pout);
-//			System.err.println("*** Dumped nextFile");
-			return pout;
+			if(nextFile == null)
+				return null;  // closed
+			Future<Path> download = downloads.get(nextFile);
+			if(download == null)
+				return download(nextFile);
+			//  prefetched- wait for the download to complete.  It stays in downloads until 
+			//  then, so it isn't deleted when done
+			Path p = download.get();
+			downloads.remove(nextFile, download);
+			return p;
+		}
+		catch (CancellationException e)
+		{
+			//  closed or made idle while waiting
+			return null;
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException)
+				throw (IOException)cause;
+			throw new IOException(cause);
 		}
 		catch (InterruptedException e)
 		{
@@ -151,7 +286,25 @@ public class ChunkPathQueue
 		}
 	}
 
-	public void setS3client(AmazonS3Client s3client) {
-		this.s3client = s3client;
+	/**
+	 * Stop queueing chunks of the site, and make a pending nextFile() return null
+	 */
+	public void close() {
+		closed = true;
+		queue.clear();
+		for(String chunkPath: downloads.keySet())
+			discard(chunkPath);
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	public void setChunkStore(ChunkStore chunkStore) {
+		this.chunkStore = chunkStore;
+	}
+
+	public void setIoExecutor(IoExecutor ioExecutor) {
+		this.ioExecutor = ioExecutor;
 	}
 }
@@ -0,0 +1,22 @@
+package org.sensorhub.impl.sensor.nexrad.aws.sqs;
+
+import java.util.List;
+
+/**
+ * <p>Title: ChunkPathSource.java</p>
+ * <p>Description: Source of notifications for new realtime chunks.  Paths are 
+ *   bucket keys of the form SITE/VOLUME/YYYYMMDD-HHMMSS-CHUNKNUM-CHUNKTYPE.  
+ *   Implemented by the SQS queue subscribed to the AWS topic and by the local 
+ *   replay stand-in.
+ * </p>
+ */
+public interface ChunkPathSource {
+
+	/**
+	 * Wait a short time for new chunk notifications
+	 * @return the chunk paths received, empty if none arrived
+	 */
+	public List<String> receiveChunkPaths();
+
+	public void close();
+}
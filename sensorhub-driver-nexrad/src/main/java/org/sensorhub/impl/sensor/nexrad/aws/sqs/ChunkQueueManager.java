@@ -4,55 +4,104 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.sensorhub.api.common.SensorHubException;
 import org.sensorhub.impl.sensor.nexrad.NexradConfig;
 import org.sensorhub.impl.sensor.nexrad.NexradSensor;
+import org.sensorhub.impl.sensor.nexrad.aws.IoExecutor;
 
-import com.amazonaws.services.s3.AmazonS3Client;
-
+/**
+ * <p>Title: ChunkQueueManager.java</p>
+ * <p>Description: One ChunkPathQueue per site.  Sites can be added and removed while 
+ *   chunks are being received- chunks of sites without a queue are dropped.
+ * </p>
+ */
 public class ChunkQueueManager {
-	Map<String, ChunkPathQueue> queueMap;
+	ConcurrentMap<String, ChunkPathQueue> queueMap = new ConcurrentHashMap<>();
+	Path rootPath;
+	ChunkStore chunkStore;
+	IoExecutor ioExecutor;
 
 	public ChunkQueueManager(NexradSensor sensor) throws SensorHubException {
 		initQueueMap(sensor);
 	}
 	
 	public void initQueueMap(NexradSensor sensor) throws SensorHubException {
+		NexradConfig config = sensor.getConfiguration();
+		rootPath = Paths.get(config.rootFolder); 
+		if(!Files.isDirectory(rootPath))
+			throw new SensorHubException("Configured rootFolder does not exist or is not a directory" + config.rootFolder);
+		
+		queueMap.clear();
+		for(String site: config.siteIds)
+			addSite(site);
+	}
+
+	/**
+	 * Create the queue of a site, if it doesn't exist yet
+	 */
+	public ChunkPathQueue addSite(String site) throws SensorHubException {
+		ChunkPathQueue queue = queueMap.get(site);
+		if(queue != null)
+			return queue;
 		try {
-			queueMap = new HashMap<>();
-			NexradConfig config = sensor.getConfiguration();
-			Path rootPath = Paths.get(config.rootFolder); 
-			if(!Files.isDirectory(rootPath))
-				throw new SensorHubException("Configured rootFolder does not exist or is not a directory" + config.rootFolder);
-			
-			for(String site: config.siteIds) {
-				ChunkPathQueue queue = new ChunkPathQueue(Paths.get(config.rootFolder), site);
-				queueMap.put(site, queue);
-//				nexradSqsService.setChunkQueue(queue);   
-//				queue.setS3client(sensor.getS3client());  
-
-			}
+			queue = new ChunkPathQueue(rootPath, site);
 		} catch (IOException e) {
 			throw new SensorHubException(e.getMessage(), e);
 		}
+		queue.setChunkStore(chunkStore);
+		queue.setIoExecutor(ioExecutor);
+		ChunkPathQueue existing = queueMap.putIfAbsent(site, queue);
+		return (existing != null) ? existing : queue;
+	}
+
+	/**
+	 * Remove the queue of a site.  Chunks already queued are dropped
+	 */
+	public void removeSite(String site) {
+		ChunkPathQueue queue = queueMap.remove(site);
+		if(queue != null)
+			queue.close();
+	}
+	
+	/**
+	 * Idle sites keep their queue but don't fetch chunks, see ChunkPathQueue.setActive
+	 */
+	public void setSiteActive(String site, boolean active) {
+		ChunkPathQueue queue = getChunkQueue(site);
+		if(queue != null)
+			queue.setActive(active);
 	}
 	
 	public void addChunkPath(String site, String path) {
 		ChunkPathQueue queue = getChunkQueue(site);
-		queue.add(path);
+		if(queue != null)
+			queue.add(path);
 	}
 	
+	/**
+	 * @return queue of the site, null if the site is not (or no longer) handled
+	 */
 	public ChunkPathQueue getChunkQueue(String site) {
 		return queueMap.get(site);
 	}
 
-	public void setS3Client(AmazonS3Client s3client) {
+	public void setChunkStore(ChunkStore chunkStore) {
+		this.chunkStore = chunkStore;
+		for(Map.Entry<String, ChunkPathQueue> entry: queueMap.entrySet()) {
+			ChunkPathQueue queue = entry.getValue();
+			queue.setChunkStore(chunkStore);
+		}
+	}
+
+	public void setIoExecutor(IoExecutor ioExecutor) {
+		this.ioExecutor = ioExecutor;
 		for(Map.Entry<String, ChunkPathQueue> entry: queueMap.entrySet()) {
 			ChunkPathQueue queue = entry.getValue();
-			queue.setS3client(s3client);
+			queue.setIoExecutor(ioExecutor);
 		}
 	}
 }
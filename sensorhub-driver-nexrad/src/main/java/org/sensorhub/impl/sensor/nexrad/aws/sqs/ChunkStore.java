@@ -0,0 +1,24 @@
+package org.sensorhub.impl.sensor.nexrad.aws.sqs;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <p>Title: ChunkStore.java</p>
+ * <p>Description: Access to the content of realtime chunks, by bucket key.  
+ *   Either the S3 chunks bucket or a folder of recorded chunks.
+ * </p>
+ */
+public interface ChunkStore {
+
+	/**
+	 * @param chunkPath key of the chunk, as received from a ChunkPathSource
+	 * @return stream on the chunk content. Caller is responsible for closing it
+	 */
+	public InputStream openChunk(String chunkPath) throws IOException;
+
+	/**
+	 * @return host serving the chunks, used to limit concurrent requests
+	 */
+	public String getHost();
+}
@@ -1,14 +1,11 @@
 package org.sensorhub.impl.sensor.nexrad.aws.sqs;
 
-import com.amazonaws.AmazonClientException;
-import com.amazonaws.auth.AWSCredentials;
-import com.amazonaws.auth.profile.ProfileCredentialsProvider;
-import com.amazonaws.regions.Region;
-import com.amazonaws.regions.Regions;
-import com.amazonaws.services.sns.AmazonSNSClient;
+import org.sensorhub.impl.sensor.nexrad.NexradConfig;
+import org.sensorhub.impl.sensor.nexrad.aws.AwsClientFactory;
+
+import com.amazonaws.services.sns.AmazonSNS;
 import com.amazonaws.services.sns.util.Topics;
 import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.AmazonSQSClient;
 import com.amazonaws.services.sqs.model.CreateQueueRequest;
 import com.amazonaws.services.sqs.model.DeleteQueueRequest;
 
@@ -21,36 +18,26 @@ import com.amazonaws.services.sqs.model.DeleteQueueRequest;
  */
 public class QueueFactory
 {
-	static AWSCredentials credentials;
-	static AmazonSQS sqs;
-	static AmazonSNSClient sns;
+	AmazonSQS sqs;
+	AmazonSNS sns;
 	
-	static {
-		credentials = null;
-		try {
-			credentials = new ProfileCredentialsProvider().getCredentials();
-		} catch (Exception e) {
-			throw new AmazonClientException(
-					"Cannot load the credentials from the credential profiles file. " +
-							"Please make sure that your credentials file is at the correct " +
-							"location (~/.aws/credentials), and is in valid format.",
-							e);
-		}
+	public QueueFactory(AmazonSQS sqs, AmazonSNS sns) {
+		this.sqs = sqs;
+		this.sns = sns;
+	}
 
-		sqs = new AmazonSQSClient(credentials);
-		sns = new AmazonSNSClient(credentials);
-		Region usWest2 = Region.getRegion(Regions.US_WEST_2);
-		sqs.setRegion(usWest2);
+	public QueueFactory(AwsClientFactory clientFactory) {
+		this(clientFactory.createSqsClient(), clientFactory.createSnsClient());
 	}
-	
 
 	public static void main(String[] args) {
-		listQueues();
+		QueueFactory factory = new QueueFactory(new AwsClientFactory(new NexradConfig()));
+		factory.listQueues();
 		
-	deleteQueue("https://sqs.us-west-2.amazonaws.com/384286541835/NexradQueue_SensorHub_00024");
+		factory.deleteQueue("https://sqs.us-west-2.amazonaws.com/384286541835/NexradQueue_SensorHub_00024");
 	}
 	
-	public static void listQueues() {
+	public void listQueues() {
 		System.out.println("Listing all queues in your account.\n");
 		for (String queueUrl : sqs.listQueues().getQueueUrls()) {
 		    System.out.println("  QueueUrl: " + queueUrl);
@@ -58,7 +45,7 @@ public class QueueFactory
 		System.out.println();
 	}
 	
-	public static String createAndSubscribeQueue(String topicArn, String queueName)  {
+	public String createAndSubscribeQueue(String topicArn, String queueName)  {
 		// Create a queue
 		CreateQueueRequest createQueueRequest = new CreateQueueRequest(queueName);
 		String myQueueUrl = sqs.createQueue(createQueueRequest).getQueueUrl();
@@ -68,7 +55,7 @@ public class QueueFactory
 		return myQueueUrl;
 	}
 
-	public static void deleteQueue(String queueUrl) {
+	public void deleteQueue(String queueUrl) {
 		if (sqs != null && queueUrl != null) {
 			try {
 				sqs.deleteQueue(new DeleteQueueRequest(queueUrl));
@@ -77,7 +64,10 @@ public class QueueFactory
 				// TODO Auto-generated catch block
 				e.printStackTrace();
 			}
-//			sqs.shutdown();
 		}
 	}
+
+	public AmazonSQS getSqs() {
+		return sqs;
+	}
 }
@@ -12,9 +12,11 @@ import java.util.Map;
 import org.sensorhub.api.common.SensorHubException;
 import org.sensorhub.impl.sensor.nexrad.NexradConfig;
 import org.sensorhub.impl.sensor.nexrad.NexradSensor;
+import org.sensorhub.impl.sensor.nexrad.RadialFilter;
 import org.sensorhub.impl.sensor.nexrad.RadialProvider;
 import org.sensorhub.impl.sensor.nexrad.aws.LdmLevel2Reader;
 import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+import org.sensorhub.impl.sensor.nexrad.aws.MappedLevel2Reader;
 import org.sensorhub.impl.sensor.nexrad.aws.NexradSqsService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +33,7 @@ public class RealtimeRadialProvider implements RadialProvider {
 	static final Logger logger = LoggerFactory.getLogger(RealtimeRadialProvider.class);
 
 	ChunkQueueManager chunkQueueManager;
+	volatile RadialFilter filter;
 	
 	public RealtimeRadialProvider(NexradSensor sensor, ChunkQueueManager chunkManager) throws SensorHubException {
 		this.sensor = sensor;
@@ -55,15 +58,27 @@ public class RealtimeRadialProvider implements RadialProvider {
 	/* (non-Javadoc)
 	 * @see org.sensorhub.impl.sensor.nexrad.RadialProvider#getNextRadials()
 	 */
+	@Override
+	public void setRadialFilter(RadialFilter filter) {
+		this.filter = filter;
+	}
+
 	@Override
 	public List<LdmRadial> getNextRadials(String site) throws IOException {
-		// This won't work for dynamically adding/removing sites- Need event interface
+		//  null once the site has been removed
 		ChunkPathQueue chunkQueue = chunkQueueManager.getChunkQueue(site);
+		if(chunkQueue == null)
+			return null;
 		try {
 			Path p = chunkQueue.nextFile();
+			if(p == null)
+				return null;
 			logger.debug("Reading File {}" , p.toString());
-			LdmLevel2Reader reader = new LdmLevel2Reader();
-			List<LdmRadial> radials = reader.read(p.toFile());
+			List<LdmRadial> radials;
+			if(sensor.getConfiguration().mappedReader)
+				radials = new MappedLevel2Reader(filter).read(p.toFile());
+			else
+				radials = new LdmLevel2Reader(filter).read(p.toFile());
 //			List<LdmRadial> radials = new ArrayList<>();
 			return radials;
 		} catch (IOException e) {
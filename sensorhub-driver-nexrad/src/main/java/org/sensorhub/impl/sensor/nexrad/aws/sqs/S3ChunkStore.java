@@ -0,0 +1,45 @@
+package org.sensorhub.impl.sensor.nexrad.aws.sqs;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.sensorhub.impl.sensor.nexrad.aws.AwsNexradUtil;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.S3Object;
+
+/**
+ * <p>Title: S3ChunkStore.java</p>
+ * <p>Description: ChunkStore reading chunks from an S3 bucket</p>
+ */
+public class S3ChunkStore implements ChunkStore {
+	AmazonS3Client s3client;
+	String bucketName;
+	String host;
+
+	public S3ChunkStore(AmazonS3Client s3client, String bucketName, String host) {
+		this.s3client = s3client;
+		this.bucketName = bucketName;
+		this.host = host;
+	}
+
+	@Override
+	public InputStream openChunk(String chunkPath) throws IOException {
+		try {
+			S3Object chunk = AwsNexradUtil.getChunk(s3client, bucketName, chunkPath);
+			return chunk.getObjectContent();
+		} catch (AmazonClientException e) {
+			throw new IOException("Could not get chunk " + chunkPath + " from bucket " + bucketName, e);
+		}
+	}
+
+	@Override
+	public String getHost() {
+		return host;
+	}
+
+	public AmazonS3Client getS3client() {
+		return s3client;
+	}
+}
@@ -0,0 +1,13 @@
+package org.sensorhub.impl.sensor.nexrad.products;
+
+import java.util.List;
+
+/**
+ * <p>Title: CellListener.java</p>
+ * <p>Description: Notified by StormCellTracker once per volume with the cells of the 
+ *   lowest tilt, possibly empty</p>
+ */
+public interface CellListener {
+
+	public void cellsUpdated(String siteId, long time, List<StormCell> cells);
+}
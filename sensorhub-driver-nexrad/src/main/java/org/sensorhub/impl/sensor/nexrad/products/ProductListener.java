@@ -0,0 +1,13 @@
+package org.sensorhub.impl.sensor.nexrad.products;
+
+import org.sensorhub.impl.sensor.nexrad.products.VolumeProductEngine.VolumeProducts;
+
+/**
+ * <p>Title: ProductListener.java</p>
+ * <p>Description: Notified by VolumeProductEngine after each tilt with the products 
+ *   of the volume so far</p>
+ */
+public interface ProductListener {
+
+	public void productsUpdated(VolumeProducts products);
+}
@@ -0,0 +1,68 @@
+package org.sensorhub.impl.sensor.nexrad.products;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sensorhub.impl.sensor.nexrad.VCP;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+
+/**
+ * <p>Title: RadialSweep.java</p>
+ * <p>Description: Radials of one elevation cut, as assembled by SweepAssembler</p>
+ */
+public class RadialSweep
+{
+	String siteId;
+	int elevationNum;
+	VCP vcp;
+	int vcpNumber;
+	boolean lastInVolume;
+	long volumeStartTime;  // ms since 1970 of the first radial of the volume
+	List<LdmRadial> radials = new ArrayList<>();
+
+	public String getSiteId() {
+		return siteId;
+	}
+
+	public int getElevationNum() {
+		return elevationNum;
+	}
+
+	/**
+	 * @return mean elevation angle of the radials, in degrees
+	 */
+	public float getElevationAngle() {
+		if(radials.isEmpty())
+			return 0.0f;
+		double sum = 0.0;
+		for(LdmRadial radial: radials)
+			sum += radial.dataHeader.elevationAngle;
+		return (float)(sum / radials.size());
+	}
+
+	/**
+	 * @return VCP of the volume, null if unknown
+	 */
+	public VCP getVcp() {
+		return vcp;
+	}
+
+	/**
+	 * @return VCP number from the volume data block, 0 if unknown
+	 */
+	public int getVcpNumber() {
+		return vcpNumber;
+	}
+
+	public boolean isLastInVolume() {
+		return lastInVolume;
+	}
+
+	public long getVolumeStartTime() {
+		return volumeStartTime;
+	}
+
+	public List<LdmRadial> getRadials() {
+		return radials;
+	}
+}
@@ -0,0 +1,52 @@
+package org.sensorhub.impl.sensor.nexrad.products;
+
+/**
+ * <p>Title: StormCell.java</p>
+ * <p>Description: A contiguous area of high reflectivity found by StormCellTracker in the 
+ *   lowest tilt of a volume, with its track so far.  Positions are the reflectivity 
+ *   weighted centroid of the cell.
+ * </p>
+ */
+public class StormCell
+{
+	public String id;  // kept as long as the cell is matched from one volume to the next
+	public long time;  // ms since 1970 of the sweep the cell was found in
+	public double lat;
+	public double lon;
+	//  position relative to the radar, meters east and north along the ground
+	public double x;
+	public double y;
+	public float maxDbz;
+	public float areaKm2;
+	public int numGates;
+	//  motion in m/s, NaN until the cell has been seen in two volumes
+	public double u = Double.NaN;
+	public double v = Double.NaN;
+	public int numVolumes = 1;  // number of volumes the cell has been tracked over
+
+	/**
+	 * @return speed in m/s, NaN if not known yet
+	 */
+	public double getSpeed() {
+		return Math.sqrt(u * u + v * v);
+	}
+
+	/**
+	 * @return direction the cell moves toward, in degrees clockwise from north. NaN if not known yet
+	 */
+	public double getDirection() {
+		if(Double.isNaN(u) || Double.isNaN(v))
+			return Double.NaN;
+		double dir = Math.toDegrees(Math.atan2(u, v));
+		return (dir < 0.0) ? dir + 360.0 : dir;
+	}
+
+	public boolean hasMotion() {
+		return !Double.isNaN(u) && !Double.isNaN(v);
+	}
+
+	public String toString() {
+		return String.format("%s %.3f,%.3f %.1f dBZ %.1f km2 %.1f m/s %.0f deg (%d volumes)",
+				id, lat, lon, maxDbz, areaKm2, getSpeed(), getDirection(), numVolumes);
+	}
+}
@@ -0,0 +1,305 @@
+package org.sensorhub.impl.sensor.nexrad.products;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.sensorhub.impl.sensor.nexrad.NexradSite;
+import org.sensorhub.impl.sensor.nexrad.NexradUtil;
+import org.sensorhub.impl.sensor.nexrad.aws.AwsNexradUtil;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+import org.sensorhub.impl.sensor.nexrad.aws.MomentDataBlock;
+
+/**
+ * <p>Title: StormCellTracker.java</p>
+ * <p>Description: Finds storm cells in the lowest tilt of each volume of one site and 
+ *   tracks them from volume to volume.
+ *   
+ *   - Identification: connected components (8-connectivity) of the gates at or above 
+ *     the reflectivity threshold, on the azimuth x gate grid of the sweep.  The grid 
+ *     wraps through north when the sweep covers the full circle.  Components with fewer 
+ *     than minGates gates are dropped as noise.
+ *   - Tracking: cells of the previous volume are moved by their motion vector to the 
+ *     time of the new sweep, then matched to the new cells closest first, within the 
+ *     distance a cell can travel at maxSpeed.  Matched cells keep their id and get a 
+ *     smoothed motion vector, others start a new track.
+ *   
+ *   Not thread safe- fed by the SweepAssembler of the site.
+ * </p>
+ */
+public class StormCellTracker implements SweepListener
+{
+	public static final float DEFAULT_THRESHOLD_DBZ = 40.0f;
+	static final long MAX_GAP_MILLIS = TimeUnit.MINUTES.toMillis(20);
+	static final double MIN_SEARCH_RADIUS_METERS = 5000.0;
+	//  weight of the latest displacement in the motion vector
+	static final double MOTION_SMOOTHING = 0.5;
+
+	NexradSite site;
+	float thresholdDbz;
+	int minGates;
+	double maxSpeed;
+
+	List<StormCell> tracks = new ArrayList<>();
+	long lastTime;
+	long volumeStartTime = -1L;
+	boolean cutDone;
+	int nextId = 1;
+	List<CellListener> listeners = new ArrayList<>();
+
+	//  work buffers of the gate grid, reused from one volume to the next
+	float [] dbz = new float[0];
+	int [] labels = new int[0];
+	int [] stack = new int[0];
+
+	/**
+	 * @param site location of the radar, used for the lat/lon of the cells
+	 * @param thresholdDbz min reflectivity of the gates of a cell
+	 * @param minGates min number of gates of a cell
+	 * @param maxSpeed max speed of a cell in m/s, which bounds the search for its next position
+	 */
+	public StormCellTracker(NexradSite site, float thresholdDbz, int minGates, double maxSpeed) {
+		this.site = site;
+		this.thresholdDbz = thresholdDbz;
+		this.minGates = minGates;
+		this.maxSpeed = maxSpeed;
+	}
+
+	public void addListener(CellListener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void sweepComplete(RadialSweep sweep) {
+		if(sweep.getVolumeStartTime() != volumeStartTime) {
+			volumeStartTime = sweep.getVolumeStartTime();
+			cutDone = false;
+		}
+
+		// only the first reflectivity cut of the volume (split cuts repeat it with velocity)
+		if(!cutDone && sweep.getElevationNum() == 1) {
+			List<StormCell> cells = findCells(sweep);
+			if(cells != null) {
+				cutDone = true;
+				LdmRadial first = sweep.getRadials().get(0);
+				long time = AwsNexradUtil.toJulianTime(first.dataHeader.daysSince1970, first.dataHeader.msSinceMidnight);
+				track(cells, time);
+				for(CellListener listener: listeners)
+					listener.cellsUpdated(sweep.getSiteId(), time, Collections.unmodifiableList(cells));
+			}
+		}
+
+		if(sweep.isLastInVolume())
+			cutDone = false;
+	}
+
+	/**
+	 * @return cells of the sweep, null if the sweep has no reflectivity
+	 */
+	List<StormCell> findCells(RadialSweep sweep) {
+		List<LdmRadial> radials = new ArrayList<>();
+		int cols = 0;
+		for(LdmRadial radial: sweep.getRadials()) {
+			MomentDataBlock ref = radial.momentData.get("REF");
+			if(ref == null || ref.numGates <= 0)
+				continue;
+			radials.add(radial);
+			cols = Math.max(cols, Math.min(ref.numGates, ref.getData().length));
+		}
+		if(radials.isEmpty())
+			return null;
+		Collections.sort(radials, new Comparator<LdmRadial>() {
+			@Override
+			public int compare(LdmRadial r1, LdmRadial r2) {
+				return Float.compare(r1.dataHeader.azimuthAngle, r2.dataHeader.azimuthAngle);
+			}
+		});
+
+		int rows = radials.size();
+		int size = rows * cols;
+		if(dbz.length < size) {
+			dbz = new float[size];
+			labels = new int[size];
+			stack = new int[size];
+		}
+		Arrays.fill(dbz, 0, size, Float.NaN);
+		Arrays.fill(labels, 0, size, 0);
+
+		// gate geometry is taken from the first radial, it doesn't change within a cut
+		MomentDataBlock ref0 = radials.get(0).momentData.get("REF");
+		float angle = sweep.getElevationAngle();
+		double [] ground = new double[cols];
+		for(int c=0; c<cols; c++)
+			ground[c] = NexradUtil.getGroundRange(ref0.rangeToCenterOfFirstGate + c * (double)ref0.rangeSampleInterval, angle);
+
+		double [] sinAz = new double[rows];
+		double [] cosAz = new double[rows];
+		for(int r=0; r<rows; r++) {
+			LdmRadial radial = radials.get(r);
+			double az = Math.toRadians(radial.dataHeader.azimuthAngle);
+			sinAz[r] = Math.sin(az);
+			cosAz[r] = Math.cos(az);
+			MomentDataBlock ref = radial.momentData.get("REF");
+			float [] data = ref.getData();
+			int numGates = Math.min(Math.min(ref.numGates, data.length), cols);
+			for(int c=0; c<numGates; c++) {
+				if(data[c] >= thresholdDbz)
+					dbz[r * cols + c] = data[c];
+			}
+		}
+
+		float firstAz = radials.get(0).dataHeader.azimuthAngle;
+		float lastAz = radials.get(rows - 1).dataHeader.azimuthAngle;
+		double spacing = (rows > 1) ? (lastAz - firstAz) / (rows - 1) : 1.0;
+		boolean wrap = rows > 2 && (360.0 - (lastAz - firstAz)) <= 2.0 * spacing;
+		double azWidth = Math.toRadians(wrap ? 360.0 / rows : spacing);
+
+		List<StormCell> cells = new ArrayList<>();
+		int label = 0;
+		for(int start=0; start<size; start++) {
+			if(Float.isNaN(dbz[start]) || labels[start] != 0)
+				continue;
+			label++;
+			labels[start] = label;
+			int top = 0;
+			stack[top++] = start;
+			int numGates = 0;
+			float maxDbz = Float.NEGATIVE_INFINITY;
+			double sumW = 0.0, sumX = 0.0, sumY = 0.0, area = 0.0;
+			while(top > 0) {
+				int idx = stack[--top];
+				int r = idx / cols;
+				int c = idx % cols;
+				float value = dbz[idx];
+				double w = Math.pow(10.0, value / 10.0);
+				sumW += w;
+				sumX += w * ground[c] * sinAz[r];
+				sumY += w * ground[c] * cosAz[r];
+				area += ground[c] * azWidth * ref0.rangeSampleInterval;
+				maxDbz = Math.max(maxDbz, value);
+				numGates++;
+
+				for(int dr=-1; dr<=1; dr++) {
+					int rr = r + dr;
+					if(rr < 0 || rr >= rows) {
+						if(!wrap)
+							continue;
+						rr = (rr + rows) % rows;
+					}
+					for(int dc=-1; dc<=1; dc++) {
+						int cc = c + dc;
+						if(cc < 0 || cc >= cols)
+							continue;
+						int n = rr * cols + cc;
+						if(!Float.isNaN(dbz[n]) && labels[n] == 0) {
+							labels[n] = label;
+							stack[top++] = n;
+						}
+					}
+				}
+			}
+
+			if(numGates < minGates)
+				continue;
+			StormCell cell = new StormCell();
+			cell.x = sumX / sumW;
+			cell.y = sumY / sumW;
+			cell.maxDbz = maxDbz;
+			cell.areaKm2 = (float)(area / 1.0e6);
+			cell.numGates = numGates;
+			if(site != null) {
+				double az = Math.toDegrees(Math.atan2(cell.x, cell.y));
+				double [] latLon = NexradUtil.getLatLon(site.lat, site.lon, az, Math.hypot(cell.x, cell.y));
+				cell.lat = latLon[0];
+				cell.lon = latLon[1];
+			} else {
+				cell.lat = cell.lon = Double.NaN;
+			}
+			cells.add(cell);
+		}
+		return cells;
+	}
+
+	void track(List<StormCell> cells, long time) {
+		double dt = (time - lastTime) / 1000.0;
+		boolean continued = !tracks.isEmpty() && lastTime > 0 && dt > 0.0 && time - lastTime <= MAX_GAP_MILLIS;
+		boolean [] matched = new boolean[cells.size()];
+
+		if(continued) {
+			double radius = Math.max(MIN_SEARCH_RADIUS_METERS, maxSpeed * dt);
+			List<Match> matches = new ArrayList<>();
+			for(int i=0; i<tracks.size(); i++) {
+				StormCell prev = tracks.get(i);
+				double px = prev.x, py = prev.y;
+				if(prev.hasMotion()) {
+					px += prev.u * dt;
+					py += prev.v * dt;
+				}
+				for(int j=0; j<cells.size(); j++) {
+					StormCell cell = cells.get(j);
+					double dist = Math.hypot(cell.x - px, cell.y - py);
+					if(dist <= radius)
+						matches.add(new Match(i, j, dist));
+				}
+			}
+			Collections.sort(matches);
+
+			boolean [] used = new boolean[tracks.size()];
+			for(Match m: matches) {
+				if(used[m.prev] || matched[m.cur])
+					continue;
+				used[m.prev] = matched[m.cur] = true;
+				continueTrack(tracks.get(m.prev), cells.get(m.cur), dt);
+			}
+		}
+
+		for(int j=0; j<cells.size(); j++) {
+			StormCell cell = cells.get(j);
+			cell.time = time;
+			if(!matched[j])
+				cell.id = site != null ? site.id + "-" + nextId++ : Integer.toString(nextId++);
+		}
+		tracks = cells;
+		lastTime = time;
+	}
+
+	private void continueTrack(StormCell prev, StormCell cell, double dt) {
+		cell.id = prev.id;
+		cell.numVolumes = prev.numVolumes + 1;
+		double u = (cell.x - prev.x) / dt;
+		double v = (cell.y - prev.y) / dt;
+		if(prev.hasMotion()) {
+			u = MOTION_SMOOTHING * u + (1.0 - MOTION_SMOOTHING) * prev.u;
+			v = MOTION_SMOOTHING * v + (1.0 - MOTION_SMOOTHING) * prev.v;
+		}
+		cell.u = u;
+		cell.v = v;
+	}
+
+	/**
+	 * @return cells of the last volume processed
+	 */
+	public List<StormCell> getCells() {
+		return Collections.unmodifiableList(tracks);
+	}
+
+	static class Match implements Comparable<Match> {
+		int prev;
+		int cur;
+		double distance;
+
+		Match(int prev, int cur, double distance) {
+			this.prev = prev;
+			this.cur = cur;
+			this.distance = distance;
+		}
+
+		@Override
+		public int compareTo(Match o) {
+			return Double.compare(distance, o.distance);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package org.sensorhub.impl.sensor.nexrad.products;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sensorhub.impl.sensor.nexrad.VCP;
+import org.sensorhub.impl.sensor.nexrad.aws.AwsNexradUtil;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+
+/**
+ * <p>Title: SweepAssembler.java</p>
+ * <p>Description: Groups the radials of one site into elevation cuts.  A cut is complete 
+ *   when a radial flags the end of the elevation or volume (radial status 2 or 4), or when 
+ *   a radial of another cut arrives, which covers chunks lost or skipped upstream.
+ *   
+ *   Not thread safe- use one instance per site, fed from the reading thread of that site.
+ * </p>
+ */
+public class SweepAssembler
+{
+	//  Message 31 radial status
+	public static final int START_OF_ELEVATION = 0;
+	public static final int INTERMEDIATE = 1;
+	public static final int END_OF_ELEVATION = 2;
+	public static final int START_OF_VOLUME = 3;
+	public static final int END_OF_VOLUME = 4;
+	public static final int START_OF_LAST_ELEVATION = 5;
+
+	String siteId;
+	RadialSweep current;
+	long volumeStartTime;
+	List<SweepListener> listeners = new ArrayList<>();
+
+	public SweepAssembler(String siteId) {
+		this.siteId = siteId;
+	}
+
+	public void addListener(SweepListener listener) {
+		listeners.add(listener);
+	}
+
+	public void addRadials(List<LdmRadial> radials) {
+		for(LdmRadial radial: radials)
+			addRadial(radial);
+	}
+
+	public void addRadial(LdmRadial radial) {
+		int status = radial.dataHeader.radialStatus;
+		if(status == START_OF_VOLUME) {
+			flush(true);
+			volumeStartTime = AwsNexradUtil.toJulianTime(radial.dataHeader.daysSince1970, radial.dataHeader.msSinceMidnight);
+		} else if(current != null && current.elevationNum != radial.dataHeader.elevationNum) {
+			//  missed the end of the previous cut
+			flush(radial.dataHeader.elevationNum < current.elevationNum);
+		}
+
+		if(current == null) {
+			current = new RadialSweep();
+			current.siteId = siteId;
+			current.elevationNum = radial.dataHeader.elevationNum;
+			current.volumeStartTime = volumeStartTime;
+			if(radial.volumeDataBlock != null) {
+				current.vcpNumber = radial.volumeDataBlock.getVolumeCoveragePattern();
+				current.vcp = VCP.getVCP(current.vcpNumber);
+			}
+		}
+		current.radials.add(radial);
+
+		if(status == END_OF_ELEVATION)
+			flush(false);
+		else if(status == END_OF_VOLUME)
+			flush(true);
+	}
+
+	private void flush(boolean lastInVolume) {
+		if(current == null)
+			return;
+		RadialSweep sweep = current;
+		sweep.lastInVolume = lastInVolume;
+		current = null;
+		for(SweepListener listener: listeners)
+			listener.sweepComplete(sweep);
+	}
+}
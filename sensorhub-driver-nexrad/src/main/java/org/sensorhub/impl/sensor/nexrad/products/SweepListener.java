@@ -0,0 +1,10 @@
+package org.sensorhub.impl.sensor.nexrad.products;
+
+/**
+ * <p>Title: SweepListener.java</p>
+ * <p>Description: Notified by SweepAssembler each time an elevation cut is complete</p>
+ */
+public interface SweepListener {
+
+	public void sweepComplete(RadialSweep sweep);
+}
@@ -0,0 +1,130 @@
+package org.sensorhub.impl.sensor.nexrad.products;
+
+import java.util.List;
+
+import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+import org.sensorhub.impl.sensor.nexrad.aws.MomentDataBlock;
+
+/**
+ * <p>Title: VelocityDealiaser.java</p>
+ * <p>Description: Unfolds the radial velocity of one site, radial by radial, as chunks
+ *   arrive.  Each gate is shifted by the multiple of twice the Nyquist velocity that
+ *   brings it closest to a reference velocity:
+ *
+ *   - the mean of the dealiased gates at the same range (+/- 1 gate) in the previous
+ *     radial of the sweep (azimuthal continuity)
+ *   - otherwise the last dealiased gate of the same radial, if within MAX_GATE_GAP gates
+ *   - otherwise the gate is kept as is
+ *
+ *   The first radial of a sweep only has radial continuity, starting from the gates
+ *   closest to the radar, which are assumed not to be aliased.
+ *
+ *   The corrected moment is added to the radial under MOMENT_NAME, with NaN for missing
+ *   gates.  The raw VEL moment is left untouched.
+ *
+ *   Not thread safe- use one instance per site, fed from the reading thread of that site.
+ * </p>
+ */
+public class VelocityDealiaser
+{
+	public static final String MOMENT_NAME = "DVL";
+	static final int MAX_GATE_GAP = 8;
+	//  radials further apart than this don't constrain each other
+	static final float MAX_AZIMUTH_GAP = 5.0f;
+
+	float [] prev = new float[0];
+	int prevGates;
+	int elevationNum = -1;
+	float prevAzimuth;
+
+	public void dealias(List<LdmRadial> radials) {
+		for(LdmRadial radial: radials)
+			dealias(radial);
+	}
+
+	/**
+	 * @return dealiased moment added to the radial, null if the radial has no velocity
+	 */
+	public MomentDataBlock dealias(LdmRadial radial) {
+		MomentDataBlock vel = radial.momentData.get("VEL");
+		if(vel == null || vel.numGates <= 0)
+			return null;
+
+		int status = radial.dataHeader.radialStatus;
+		float azimuth = radial.dataHeader.azimuthAngle;
+		float azGap = Math.abs(azimuth - prevAzimuth);
+		azGap = Math.min(azGap, 360.0f - azGap);
+		if(radial.dataHeader.elevationNum != elevationNum || status == SweepAssembler.START_OF_ELEVATION
+				|| status == SweepAssembler.START_OF_VOLUME || azGap > MAX_AZIMUTH_GAP) {
+			prevGates = 0;
+		}
+		elevationNum = radial.dataHeader.elevationNum;
+		prevAzimuth = azimuth;
+
+		float [] data = vel.getData();
+		int numGates = Math.min(vel.numGates, data.length);
+		float nyquist = (radial.radialDataBlock != null) ? radial.radialDataBlock.getNyquistVelocity() : 0.0f;
+		float [] out = new float[numGates];
+		unfold(data, numGates, vel.getMinValidValue(), nyquist, prev, prevGates, out);
+
+		MomentDataBlock dealiased = new MomentDataBlock(MOMENT_NAME);
+		dealiased.blockType = vel.blockType;
+		dealiased.numGates = (short)numGates;
+		dealiased.rangeToCenterOfFirstGate = vel.rangeToCenterOfFirstGate;
+		dealiased.rangeSampleInterval = vel.rangeSampleInterval;
+		dealiased.rangeFoldingThreshold = vel.rangeFoldingThreshold;
+		dealiased.snrThreshold = vel.snrThreshold;
+		dealiased.setData(out);
+		radial.momentData.put(MOMENT_NAME, dealiased);
+
+		// out is owned by the moment now, so keep a copy as the next reference
+		if(prev.length < numGates)
+			prev = new float[numGates];
+		System.arraycopy(out, 0, prev, 0, numGates);
+		prevGates = numGates;
+		return dealiased;
+	}
+
+	/**
+	 * @param data decoded velocities
+	 * @param minValid values below this (or NaN) are missing gates
+	 * @param nyquist Nyquist velocity in m/s. No unfolding if <= 0
+	 * @param prev dealiased velocities of the previous radial, NaN where missing
+	 * @param out dealiased velocities, NaN where missing
+	 */
+	static void unfold(float [] data, int numGates, float minValid, float nyquist, float [] prev, int prevGates, float [] out) {
+		float interval = 2.0f * nyquist;
+		float lastValid = Float.NaN;
+		int lastValidGate = Integer.MIN_VALUE / 2;
+
+		for(int i=0; i<numGates; i++) {
+			float v = data[i];
+			if(!(v >= minValid)) {
+				out[i] = Float.NaN;
+				continue;
+			}
+			if(interval > 0.0f) {
+				float ref = reference(prev, prevGates, i);
+				if(Float.isNaN(ref) && i - lastValidGate <= MAX_GATE_GAP)
+					ref = lastValid;
+				if(!Float.isNaN(ref))
+					v += interval * Math.round((ref - v) / interval);
+			}
+			out[i] = v;
+			lastValid = v;
+			lastValidGate = i;
+		}
+	}
+
+	private static float reference(float [] prev, int prevGates, int gate) {
+		float sum = 0.0f;
+		int cnt = 0;
+		for(int i=Math.max(0, gate - 1); i<=gate + 1 && i<prevGates; i++) {
+			if(!Float.isNaN(prev[i])) {
+				sum += prev[i];
+				cnt++;
+			}
+		}
+		return (cnt > 0) ? sum / cnt : Float.NaN;
+	}
+}
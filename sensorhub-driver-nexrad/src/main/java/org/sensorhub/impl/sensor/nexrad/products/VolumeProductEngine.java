@@ -0,0 +1,261 @@
+package org.sensorhub.impl.sensor.nexrad.products;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.sensorhub.impl.sensor.nexrad.NexradSite;
+import org.sensorhub.impl.sensor.nexrad.NexradUtil;
+import org.sensorhub.impl.sensor.nexrad.aws.AwsNexradUtil;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+import org.sensorhub.impl.sensor.nexrad.aws.MomentDataBlock;
+
+/**
+ * <p>Title: VolumeProductEngine.java</p>
+ * <p>Description: Computes composite reflectivity, echo tops and vertically integrated
+ *   liquid (VIL) of one site on a polar grid (azimuth x ground range).  Products are
+ *   updated as each elevation cut completes, so listeners get a partial volume after
+ *   every tilt and the final products when the volume ends.
+ *
+ *   - Composite reflectivity: max dBZ in the column
+ *   - Echo tops: highest beam height (meters MSL) with reflectivity >= 18 dBZ
+ *   - VIL: sum over the layers between consecutive tilts of 3.44e-6 * Zavg^(4/7) * dh (kg/m2),
+ *          with Z in mm6/m3 capped at 56 dBZ to limit hail contamination
+ *
+ *   Beam heights use the 4/3 earth radius model.  Cuts repeated at the same angle
+ *   (split cuts) update the existing layer rather than adding a new one.  Cuts below the 
+ *   highest angle integrated so far (low tilts rescanned mid-volume by SAILS and 
+ *   MESO-SAILS) are skipped, since the layers above them are already counted.
+ * </p>
+ */
+public class VolumeProductEngine implements SweepListener
+{
+	public static final float ECHO_TOP_DBZ = 18.0f;
+	public static final float VIL_MAX_DBZ = 56.0f;
+	static final double VIL_COEFF = 3.44e-6;
+	static final float SAME_TILT_DEGREES = 0.2f;
+
+	NexradSite site;
+	int numAzimuths;
+	int numRangeBins;
+	float rangeBinMeters;
+	int numCells;
+
+	//  column products, indexed [azimuthBin * numRangeBins + rangeBin]
+	float [] composite;
+	float [] echoTop;
+	float [] vil;
+	//  top of the column integrated so far, per cell
+	float [] prevZ;
+	float [] prevHeight;
+	//  max dBZ of the current tilt per cell, NaN if the tilt has no echo there
+	float [] tiltDbz;
+	boolean [] tiltCovered;
+
+	int numTilts;
+	float lastAngle = Float.NaN;
+	float maxAngle = Float.NaN;
+	List<ProductListener> listeners = new ArrayList<>();
+
+	/**
+	 * @param site used for the height of the radar above sea level
+	 * @param numAzimuths number of azimuth bins (360 for 1 degree)
+	 * @param rangeBinMeters size of the ground range bins
+	 * @param maxRangeMeters max ground range of the grid
+	 */
+	public VolumeProductEngine(NexradSite site, int numAzimuths, float rangeBinMeters, float maxRangeMeters) {
+		this.site = site;
+		this.numAzimuths = numAzimuths;
+		this.rangeBinMeters = rangeBinMeters;
+		this.numRangeBins = (int)Math.ceil(maxRangeMeters / rangeBinMeters);
+		this.numCells = numAzimuths * numRangeBins;
+		composite = new float[numCells];
+		echoTop = new float[numCells];
+		vil = new float[numCells];
+		prevZ = new float[numCells];
+		prevHeight = new float[numCells];
+		tiltDbz = new float[numCells];
+		tiltCovered = new boolean[numCells];
+		reset();
+	}
+
+	public void addListener(ProductListener listener) {
+		listeners.add(listener);
+	}
+
+	void reset() {
+		Arrays.fill(composite, Float.NaN);
+		Arrays.fill(echoTop, Float.NaN);
+		Arrays.fill(vil, 0.0f);
+		Arrays.fill(prevHeight, Float.NaN);
+		numTilts = 0;
+		lastAngle = Float.NaN;
+		maxAngle = Float.NaN;
+	}
+
+	@Override
+	public void sweepComplete(RadialSweep sweep) {
+		float angle = sweep.getElevationAngle();
+		boolean sameLayer = !Float.isNaN(lastAngle) && Math.abs(angle - lastAngle) < SAME_TILT_DEGREES;
+		//  the VCP elevation table isn't available (see VCP), so order is checked on the angles
+		boolean repeated = !sameLayer && !Float.isNaN(maxAngle) && angle <= maxAngle;
+		boolean integrated = false;
+		if(!repeated && projectTilt(sweep, angle)) {
+			integrateTilt(angle, sameLayer);
+			if(!sameLayer)
+				numTilts++;
+			lastAngle = angle;
+			maxAngle = Float.isNaN(maxAngle) ? angle : Math.max(maxAngle, angle);
+			integrated = true;
+		}
+
+		if(numTilts > 0 && (integrated || sweep.isLastInVolume())) {
+			VolumeProducts products = new VolumeProducts(this, sweep, angle);
+			for(ProductListener listener: listeners)
+				listener.productsUpdated(products);
+		}
+		if(sweep.isLastInVolume())
+			reset();
+	}
+
+	/**
+	 * Max reflectivity of the tilt per cell
+	 * @return false if the sweep has no reflectivity
+	 */
+	boolean projectTilt(RadialSweep sweep, float angle) {
+		Arrays.fill(tiltDbz, Float.NaN);
+		Arrays.fill(tiltCovered, false);
+		float azBinSize = 360.0f / numAzimuths;
+		boolean hasRef = false;
+		int [] gateBins = null;
+		int binsFirstGate = -1, binsInterval = -1;
+
+		for(LdmRadial radial: sweep.getRadials()) {
+			MomentDataBlock ref = radial.momentData.get("REF");
+			if(ref == null || ref.numGates <= 0)
+				continue;
+			hasRef = true;
+			// gate -> range bin only changes with the moment geometry
+			if(gateBins == null || gateBins.length < ref.numGates || binsFirstGate != ref.rangeToCenterOfFirstGate || binsInterval != ref.rangeSampleInterval) {
+				binsFirstGate = ref.rangeToCenterOfFirstGate;
+				binsInterval = ref.rangeSampleInterval;
+				gateBins = new int[ref.numGates];
+				for(int i=0; i<gateBins.length; i++) {
+					double ground = NexradUtil.getGroundRange(binsFirstGate + i * (double)binsInterval, angle);
+					gateBins[i] = (int)(ground / rangeBinMeters);
+				}
+			}
+
+			int azBin = (int)(radial.dataHeader.azimuthAngle / azBinSize);
+			if(azBin < 0 || azBin >= numAzimuths)
+				azBin = ((azBin % numAzimuths) + numAzimuths) % numAzimuths;
+			int rowStart = azBin * numRangeBins;
+			// raw values 0 and 1 are below threshold and range folded
+			float minValid = (ref.scale != 0.0f) ? (2 - ref.offset) / ref.scale : Float.NEGATIVE_INFINITY;
+			float [] data = ref.getData();
+			int numGates = Math.min(ref.numGates, data.length);
+			for(int i=0; i<numGates; i++) {
+				int rBin = gateBins[i];
+				if(rBin >= numRangeBins)
+					break;
+				int cell = rowStart + rBin;
+				tiltCovered[cell] = true;
+				float dbz = data[i];
+				if(!(dbz >= minValid))
+					continue;
+				if(Float.isNaN(tiltDbz[cell]) || dbz > tiltDbz[cell])
+					tiltDbz[cell] = dbz;
+			}
+		}
+		return hasRef;
+	}
+
+	void integrateTilt(float angle, boolean sameLayer) {
+		double siteHeight = (site != null) ? site.elevation : 0.0;
+		float [] heights = new float[numRangeBins];
+		for(int r=0; r<numRangeBins; r++) {
+			// ground range is close enough to slant range for the height at these angles
+			heights[r] = (float)NexradUtil.getBeamHeight((r + 0.5) * rangeBinMeters, angle);
+		}
+
+		for(int cell=0; cell<numCells; cell++) {
+			if(!tiltCovered[cell])
+				continue;
+			float h = heights[cell % numRangeBins];
+			float dbz = tiltDbz[cell];
+			float z = 0.0f;
+			if(!Float.isNaN(dbz)) {
+				if(Float.isNaN(composite[cell]) || dbz > composite[cell])
+					composite[cell] = dbz;
+				if(dbz >= ECHO_TOP_DBZ) {
+					float top = (float)(h + siteHeight);
+					if(Float.isNaN(echoTop[cell]) || top > echoTop[cell])
+						echoTop[cell] = top;
+				}
+				z = (float)Math.pow(10.0, Math.min(dbz, VIL_MAX_DBZ) / 10.0);
+			}
+
+			if(sameLayer && !Float.isNaN(prevHeight[cell])) {
+				prevZ[cell] = Math.max(prevZ[cell], z);
+				continue;
+			}
+			if(!Float.isNaN(prevHeight[cell]) && h > prevHeight[cell]) {
+				double zAvg = (prevZ[cell] + z) / 2.0;
+				if(zAvg > 0.0)
+					vil[cell] += (float)(VIL_COEFF * Math.pow(zAvg, 4.0 / 7.0) * (h - prevHeight[cell]));
+			}
+			prevZ[cell] = z;
+			prevHeight[cell] = h;
+		}
+	}
+
+	public int getNumAzimuths() {
+		return numAzimuths;
+	}
+
+	public int getNumRangeBins() {
+		return numRangeBins;
+	}
+
+	public float getRangeBinMeters() {
+		return rangeBinMeters;
+	}
+
+	/**
+	 * Snapshot of the products after a tilt
+	 */
+	public static class VolumeProducts {
+		public final String siteId;
+		public final long volumeStartTime;
+		public final long time;  // time of the last radial of the tilt
+		public final int vcp;
+		public final int numTilts;
+		public final float elevationAngle;
+		public final boolean volumeComplete;
+		public final int numAzimuths;
+		public final int numRangeBins;
+		public final float rangeBinMeters;
+		public final float [] compositeReflectivity;
+		public final float [] echoTops;
+		public final float [] vil;
+
+		VolumeProducts(VolumeProductEngine engine, RadialSweep sweep, float elevationAngle) {
+			this.siteId = sweep.getSiteId();
+			this.volumeStartTime = sweep.getVolumeStartTime();
+			List<LdmRadial> radials = sweep.getRadials();
+			LdmRadial last = radials.get(radials.size() - 1);
+			this.time = AwsNexradUtil.toJulianTime(last.dataHeader.daysSince1970, last.dataHeader.msSinceMidnight);
+			this.vcp = sweep.getVcpNumber();
+			this.numTilts = engine.numTilts;
+			this.elevationAngle = elevationAngle;
+			this.volumeComplete = sweep.isLastInVolume();
+			this.numAzimuths = engine.numAzimuths;
+			this.numRangeBins = engine.numRangeBins;
+			this.rangeBinMeters = engine.rangeBinMeters;
+			// copies, since the engine keeps updating its grids
+			this.compositeReflectivity = engine.composite.clone();
+			this.echoTops = engine.echoTop.clone();
+			this.vil = engine.vil.clone();
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package org.sensorhub.impl.sensor.nexrad.store;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sensorhub.impl.sensor.nexrad.aws.DataHeader;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+import org.sensorhub.impl.sensor.nexrad.aws.MomentDataBlock;
+
+/**
+ * <p>Title: StoredSweep.java</p>
+ * <p>Description: Sweep read back from a SweepStore, kept in columns: one array per radial
+ *   attribute, and the gates of each moment packed in a single array.  Only the moments
+ *   asked for when reading are decoded.
+ * </p>
+ */
+public class StoredSweep
+{
+	String siteId;
+	int vcp;
+	int elevationNum;
+	float elevationAngle;
+	long volumeStartTime;
+	long [] times;
+	float [] azimuths;
+	float [] elevations;
+	byte [] status;
+	Map<String, Moment> moments = new LinkedHashMap<>();
+
+	/**
+	 * Gates of one moment for all the radials of the sweep
+	 */
+	public static class Moment {
+		String name;
+		float scale;
+		float offset;
+		short firstGate;
+		short gateInterval;
+		int gateSizeBits;
+		short [] numGates;  // per radial, 0 if the radial doesn't have the moment
+		int [] gateOffsets;  // per radial, in bytes into gates
+		byte [] gates;
+
+		public String getName() {
+			return name;
+		}
+
+		public int getNumGates(int radial) {
+			return numGates[radial];
+		}
+
+		/**
+		 * @return true if the moment was stored as decoded values rather than raw gates
+		 */
+		public boolean isDecoded() {
+			return gateSizeBits == SweepStore.FLOAT_GATE_BITS;
+		}
+
+		/**
+		 * @return raw gate values of a radial, as in the Level II message.  Big endian
+		 * floats for decoded moments
+		 */
+		public byte [] getRawGates(int radial) {
+			int len = numGates[radial] * (gateSizeBits / 8);
+			byte [] raw = new byte[len];
+			System.arraycopy(gates, gateOffsets[radial], raw, 0, len);
+			return raw;
+		}
+
+		/**
+		 * @return decoded values of a radial
+		 */
+		public float [] getValues(int radial) {
+			int n = numGates[radial];
+			float [] values = new float[n];
+			int off = gateOffsets[radial];
+			if(isDecoded()) {
+				ByteBuffer.wrap(gates, off, n * 4).asFloatBuffer().get(values);
+			} else if(gateSizeBits == 16) {
+				ByteBuffer buf = ByteBuffer.wrap(gates, off, n * 2);
+				for(int i=0; i<n; i++)
+					values[i] = ((buf.getShort() & 0xFFFF) - offset) / scale;
+			} else {
+				for(int i=0; i<n; i++)
+					values[i] = ((gates[off + i] & 0xFF) - offset) / scale;
+			}
+			return values;
+		}
+
+		MomentDataBlock toMomentDataBlock(int radial) {
+			MomentDataBlock block = new MomentDataBlock(name);
+			block.blockType = 'D';
+			block.numGates = numGates[radial];
+			block.rangeToCenterOfFirstGate = firstGate;
+			block.rangeSampleInterval = gateInterval;
+			block.scale = scale;
+			block.offset = offset;
+			if(isDecoded()) {
+				block.setData(getValues(radial));
+			} else {
+				block.gateSizeBits = gateSizeBits;
+				block.setRawData(getRawGates(radial));
+			}
+			return block;
+		}
+	}
+
+	public String getSiteId() {
+		return siteId;
+	}
+
+	public int getVcp() {
+		return vcp;
+	}
+
+	public int getElevationNum() {
+		return elevationNum;
+	}
+
+	public float getElevationAngle() {
+		return elevationAngle;
+	}
+
+	public long getVolumeStartTime() {
+		return volumeStartTime;
+	}
+
+	public int getNumRadials() {
+		return times.length;
+	}
+
+	public long [] getTimes() {
+		return times;
+	}
+
+	public float [] getAzimuths() {
+		return azimuths;
+	}
+
+	public float [] getElevations() {
+		return elevations;
+	}
+
+	/**
+	 * @return moment decoded from the store, null if it wasn't requested or isn't in the sweep
+	 */
+	public Moment getMoment(String name) {
+		return moments.get(name);
+	}
+
+	/**
+	 * @return radials rebuilt with the moments read, so stored sweeps can go through the
+	 * same processing as realtime ones
+	 */
+	public List<LdmRadial> toRadials() {
+		List<LdmRadial> radials = new ArrayList<>(times.length);
+		for(int i=0; i<times.length; i++) {
+			LdmRadial radial = new LdmRadial();
+			DataHeader hdr = new DataHeader();
+			hdr.siteId = siteId;
+			hdr.daysSince1970 = (short)(times[i] / 86400000L);
+			hdr.msSinceMidnight = (int)(times[i] % 86400000L);
+			hdr.azimuthAngle = azimuths[i];
+			hdr.elevationAngle = elevations[i];
+			hdr.elevationNum = elevationNum;
+			hdr.radialStatus = status[i];
+			hdr.azimuthNum = (short)(i + 1);
+			radial.dataHeader = hdr;
+			radial.timeMsUtc = times[i];
+			for(Moment m: moments.values()) {
+				if(m.numGates[i] > 0)
+					radial.momentData.put(m.name, m.toMomentDataBlock(i));
+			}
+			radials.add(radial);
+		}
+		return radials;
+	}
+}
@@ -0,0 +1,64 @@
+package org.sensorhub.impl.sensor.nexrad.store;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.sensorhub.impl.sensor.nexrad.RadialListener;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+import org.sensorhub.impl.sensor.nexrad.products.RadialSweep;
+import org.sensorhub.impl.sensor.nexrad.products.SweepAssembler;
+import org.sensorhub.impl.sensor.nexrad.products.SweepListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: SweepArchiver.java</p>
+ * <p>Description: Writes the sweeps read by NexradOutput to a SweepStore, as each 
+ *   elevation cut completes</p>
+ */
+public class SweepArchiver implements RadialListener
+{
+	static final Logger logger = LoggerFactory.getLogger(SweepArchiver.class);
+
+	SweepStore store;
+	Map<String, SweepAssembler> assemblers = new ConcurrentHashMap<>();
+
+	public SweepArchiver(SweepStore store) {
+		this.store = store;
+	}
+
+	@Override
+	public void radialsReceived(String site, List<LdmRadial> radials) {
+		getAssembler(site).addRadials(radials);
+	}
+
+	@Override
+	public void siteRemoved(String site) {
+		assemblers.remove(site);
+	}
+
+	private SweepAssembler getAssembler(String site) {
+		SweepAssembler assembler = assemblers.get(site);
+		if(assembler != null)
+			return assembler;
+		assembler = new SweepAssembler(site);
+		assembler.addListener(new SweepListener() {
+			@Override
+			public void sweepComplete(RadialSweep sweep) {
+				try {
+					store.write(sweep);
+				} catch (IOException e) {
+					logger.error("Could not store sweep {} of {}", sweep.getElevationNum(), sweep.getSiteId(), e);
+				}
+			}
+		});
+		assemblers.put(site, assembler);
+		return assembler;
+	}
+
+	public SweepStore getStore() {
+		return store;
+	}
+}
@@ -0,0 +1,83 @@
+package org.sensorhub.impl.sensor.nexrad.store;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * <p>Title: SweepIndexEntry.java</p>
+ * <p>Description: Entry of the sparse index of a SweepStore day file, one per sweep.
+ *   Entries have a fixed size so index files can be read in one go and appended to
+ *   without rewriting.
+ * </p>
+ */
+public class SweepIndexEntry
+{
+	static final int SIZE = 48;
+
+	String siteId;
+	Path dataFile;
+	long startTime;  // ms since 1970 of the first radial
+	long endTime;  // ms since 1970 of the last radial
+	int elevationNum;
+	float elevationAngle;
+	int vcp;
+	int numRadials;
+	long offset;  // of the block in the data file
+	int length;
+
+	void write(ByteBuffer buf) {
+		buf.putLong(startTime);
+		buf.putLong(endTime);
+		buf.putInt(elevationNum);
+		buf.putFloat(elevationAngle);
+		buf.putInt(vcp);
+		buf.putInt(numRadials);
+		buf.putLong(offset);
+		buf.putInt(length);
+		buf.putInt(0);  // reserved
+	}
+
+	static SweepIndexEntry read(ByteBuffer buf, String siteId, Path dataFile) {
+		SweepIndexEntry entry = new SweepIndexEntry();
+		entry.siteId = siteId;
+		entry.dataFile = dataFile;
+		entry.startTime = buf.getLong();
+		entry.endTime = buf.getLong();
+		entry.elevationNum = buf.getInt();
+		entry.elevationAngle = buf.getFloat();
+		entry.vcp = buf.getInt();
+		entry.numRadials = buf.getInt();
+		entry.offset = buf.getLong();
+		entry.length = buf.getInt();
+		buf.getInt();
+		return entry;
+	}
+
+	public String getSiteId() {
+		return siteId;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public long getEndTime() {
+		return endTime;
+	}
+
+	public int getElevationNum() {
+		return elevationNum;
+	}
+
+	public float getElevationAngle() {
+		return elevationAngle;
+	}
+
+	public int getVcp() {
+		return vcp;
+	}
+
+	public int getNumRadials() {
+		return numRadials;
+	}
+}
@@ -0,0 +1,505 @@
+package org.sensorhub.impl.sensor.nexrad.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.sensorhub.impl.sensor.nexrad.aws.AwsNexradUtil;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+import org.sensorhub.impl.sensor.nexrad.aws.MomentDataBlock;
+import org.sensorhub.impl.sensor.nexrad.products.RadialSweep;
+
+/**
+ * <p>Title: SweepStore.java</p>
+ * <p>Description: On disk store of Nexrad sweeps, for history queries.
+ *
+ *   Layout: rootFolder/SITE/yyyyMMdd.swp holds the sweeps of a site starting that day
+ *   (UTC), appended as they complete.  rootFolder/SITE/yyyyMMdd.idx is its sparse index:
+ *   one fixed size entry per sweep with time range, elevation and block location, so a
+ *   (site, time, elevation) query reads the index and then only the matching blocks.
+ *
+ *   Each sweep block is columnar: radial times, azimuths, elevations and status, then one
+ *   column per moment with the gate counts and the raw gate bytes of all the radials.
+ *   Columns are deflated separately, so reading one moment doesn't inflate the others.
+ *   Raw gates take 1 byte instead of 4 for decoded floats, and compress well since most
+ *   gates are below threshold.  Moments only available as decoded values (archive
+ *   volumes read through netCdf) are stored as floats, flagged by FLOAT_GATE_BITS.
+ *   Data files are memory mapped for reading.
+ *
+ *   Writes of a site must come from a single thread (the reading thread of the site).
+ * </p>
+ */
+public class SweepStore
+{
+	static final int MAGIC = 0x53575031;  // SWP1
+	//  gate size of moments stored as decoded floats.  Raw Level II gates are 8 or 16 bits
+	static final int FLOAT_GATE_BITS = 32;
+	static final String DATA_EXT = ".swp";
+	static final String INDEX_EXT = ".idx";
+	static final String TIME = "time";
+	static final String AZIMUTH = "azimuth";
+	static final String ELEVATION = "elevation";
+	static final String STATUS = "status";
+	//  keeps day names to 8 digits
+	static final long MAX_TIME = 253402300799999L;  // 9999-12-31T23:59:59.999Z
+	static final DateTimeFormatter DAY_FORMAT = DateTimeFormat.forPattern("yyyyMMdd").withZone(DateTimeZone.UTC);
+
+	Path rootFolder;
+	int compressionLevel = Deflater.BEST_SPEED;
+	//  index of each day file, reloaded when the file has grown
+	Map<Path, CachedIndex> indexCache = new ConcurrentHashMap<>();
+
+	static class CachedIndex {
+		long fileSize;
+		List<SweepIndexEntry> entries;
+	}
+
+	public SweepStore(Path rootFolder) throws IOException {
+		this.rootFolder = rootFolder;
+		Files.createDirectories(rootFolder);
+		repairIndexes();
+	}
+
+	//  drop partial entries left by a crash while writing the index, which would shift all 
+	//  the entries appended after them
+	private void repairIndexes() throws IOException {
+		try(DirectoryStream<Path> sites = Files.newDirectoryStream(rootFolder)) {
+			for(Path siteFolder: sites) {
+				if(!Files.isDirectory(siteFolder))
+					continue;
+				try(DirectoryStream<Path> indexes = Files.newDirectoryStream(siteFolder, "*" + INDEX_EXT)) {
+					for(Path indexFile: indexes) {
+						try(FileChannel index = FileChannel.open(indexFile, StandardOpenOption.WRITE)) {
+							truncateIndex(index);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return size of the complete entries, the index is truncated to it
+	 */
+	private static long truncateIndex(FileChannel index) throws IOException {
+		long size = index.size();
+		long end = size - size % SweepIndexEntry.SIZE;
+		if(end != size)
+			index.truncate(end);
+		return end;
+	}
+
+	public void write(RadialSweep sweep) throws IOException {
+		List<LdmRadial> radials = sweep.getRadials();
+		if(radials.isEmpty())
+			return;
+		int n = radials.size();
+		long [] times = new long[n];
+		for(int i=0; i<n; i++)
+			times[i] = AwsNexradUtil.toJulianTime(radials.get(i).dataHeader.daysSince1970, radials.get(i).dataHeader.msSinceMidnight);
+
+		// columns are built first, as the block header gives their sizes
+		Map<String, byte[]> columns = new LinkedHashMap<>();
+		ByteBuffer buf = ByteBuffer.allocate(n * 4);
+		for(int i=0; i<n; i++)
+			buf.putInt((int)(times[i] - times[0]));
+		columns.put(TIME, buf.array());
+		buf = ByteBuffer.allocate(n * 4);
+		for(LdmRadial radial: radials)
+			buf.putFloat(radial.dataHeader.azimuthAngle);
+		columns.put(AZIMUTH, buf.array());
+		buf = ByteBuffer.allocate(n * 4);
+		for(LdmRadial radial: radials)
+			buf.putFloat(radial.dataHeader.elevationAngle);
+		columns.put(ELEVATION, buf.array());
+		byte [] status = new byte[n];
+		for(int i=0; i<n; i++)
+			status[i] = (byte)radials.get(i).dataHeader.radialStatus;
+		columns.put(STATUS, status);
+
+		//  the first radial with a moment decides how it is stored, raw or decoded
+		List<MomentDataBlock> templates = new ArrayList<>();
+		for(LdmRadial radial: radials) {
+			for(MomentDataBlock m: radial.momentData.values()) {
+				if(m.hasData() && !containsMoment(templates, m.blockName))
+					templates.add(m);
+			}
+		}
+		for(MomentDataBlock template: templates)
+			columns.put(template.blockName, momentColumn(radials, template.blockName, template.getRawData() == null, template.gateSizeBits / 8));
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream os = new DataOutputStream(bos);
+		os.writeInt(MAGIC);
+		os.write(pad4(sweep.getSiteId()));
+		os.writeInt(sweep.getVcpNumber());
+		os.writeInt(sweep.getElevationNum());
+		os.writeFloat(sweep.getElevationAngle());
+		os.writeLong(sweep.getVolumeStartTime());
+		os.writeLong(times[0]);
+		os.writeInt(n);
+		os.writeInt(columns.size());
+		List<byte[]> compressed = new ArrayList<>();
+		for(Map.Entry<String, byte[]> col: columns.entrySet()) {
+			byte [] z = deflate(col.getValue());
+			compressed.add(z);
+			os.writeUTF(col.getKey());
+			MomentDataBlock m = findMoment(templates, col.getKey());
+			os.writeBoolean(m != null);
+			if(m != null) {
+				os.writeFloat(m.scale);
+				os.writeFloat(m.offset);
+				os.writeShort(m.rangeToCenterOfFirstGate);
+				os.writeShort(m.rangeSampleInterval);
+				os.writeByte((m.getRawData() != null) ? m.gateSizeBits : FLOAT_GATE_BITS);
+			}
+			os.writeInt(col.getValue().length);
+			os.writeInt(z.length);
+		}
+		for(byte [] z: compressed)
+			os.write(z);
+		os.flush();
+		byte [] block = bos.toByteArray();
+
+		SweepIndexEntry entry = new SweepIndexEntry();
+		entry.startTime = times[0];
+		entry.endTime = times[n - 1];
+		entry.elevationNum = sweep.getElevationNum();
+		entry.elevationAngle = sweep.getElevationAngle();
+		entry.vcp = sweep.getVcpNumber();
+		entry.numRadials = n;
+		entry.length = block.length;
+		append(sweep.getSiteId(), DAY_FORMAT.print(times[0]), block, entry);
+	}
+
+	private void append(String siteId, String day, byte [] block, SweepIndexEntry entry) throws IOException {
+		Path siteFolder = rootFolder.resolve(siteId);
+		Files.createDirectories(siteFolder);
+		Path dataFile = siteFolder.resolve(day + DATA_EXT);
+		Path indexFile = siteFolder.resolve(day + INDEX_EXT);
+		try(FileChannel data = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			entry.offset = data.size();
+			data.position(entry.offset);
+			writeFully(data, ByteBuffer.wrap(block));
+		}
+		// the index entry goes last, so readers never see an entry without its block
+		ByteBuffer buf = ByteBuffer.allocate(SweepIndexEntry.SIZE);
+		entry.write(buf);
+		buf.flip();
+		try(FileChannel index = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			index.position(truncateIndex(index));
+			writeFully(index, buf);
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+		while(buf.hasRemaining())
+			channel.write(buf);
+	}
+
+	/**
+	 * @param decoded true to store the decoded values, as floats, instead of the raw gates
+	 */
+	private static byte [] momentColumn(List<LdmRadial> radials, String name, boolean decoded, int gateBytes) {
+		if(decoded)
+			gateBytes = FLOAT_GATE_BITS / 8;
+		short [] numGates = new short[radials.size()];
+		int total = 0;
+		for(int i=0; i<numGates.length; i++) {
+			numGates[i] = getNumGates(radials.get(i).momentData.get(name), decoded);
+			total += numGates[i] * gateBytes;
+		}
+		ByteBuffer buf = ByteBuffer.allocate(radials.size() * 2 + total);
+		for(short n: numGates)
+			buf.putShort(n);
+		for(int i=0; i<numGates.length; i++) {
+			if(numGates[i] == 0)
+				continue;
+			MomentDataBlock m = radials.get(i).momentData.get(name);
+			if(decoded) {
+				buf.asFloatBuffer().put(m.getData(), 0, numGates[i]);
+				buf.position(buf.position() + numGates[i] * gateBytes);
+			} else {
+				buf.put(m.getRawData(), 0, numGates[i] * gateBytes);
+			}
+		}
+		return buf.array();
+	}
+
+	//  0 if the radial doesn't have the moment in the form stored
+	private static short getNumGates(MomentDataBlock m, boolean decoded) {
+		if(m == null)
+			return 0;
+		if(!decoded)
+			return (m.getRawData() != null) ? m.numGates : 0;
+		if(m.getRawData() != null || !m.hasData())
+			return 0;
+		// decoded arrays aren't always cut to numGates
+		return (short)Math.min(m.numGates, m.getData().length);
+	}
+
+	private static boolean containsMoment(List<MomentDataBlock> moments, String name) {
+		return findMoment(moments, name) != null;
+	}
+
+	private static MomentDataBlock findMoment(List<MomentDataBlock> moments, String name) {
+		for(MomentDataBlock m: moments) {
+			if(m.blockName.equals(name))
+				return m;
+		}
+		return null;
+	}
+
+	private static byte [] pad4(String siteId) {
+		byte [] b = new byte[] {' ', ' ', ' ', ' '};
+		byte [] id = siteId.getBytes(StandardCharsets.US_ASCII);
+		System.arraycopy(id, 0, b, 0, Math.min(4, id.length));
+		return b;
+	}
+
+	private byte [] deflate(byte [] raw) {
+		Deflater deflater = new Deflater(compressionLevel);
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+			ByteArrayOutputStream bos = new ByteArrayOutputStream(raw.length / 2 + 64);
+			byte [] buf = new byte[8192];
+			while(!deflater.finished()) {
+				int len = deflater.deflate(buf);
+				bos.write(buf, 0, len);
+			}
+			return bos.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * @return index entries of the sweeps of a site starting in [startTime, endTime],
+	 * in time order
+	 * @param elevationNum cut to return, or 0 for all
+	 */
+	public List<SweepIndexEntry> query(String siteId, long startTime, long endTime, int elevationNum) throws IOException {
+		List<SweepIndexEntry> result = new ArrayList<>();
+		Path siteFolder = rootFolder.resolve(siteId);
+		if(!Files.isDirectory(siteFolder))
+			return result;
+		// day files sort by name, so only list the folder and skip those out of range
+		String firstDay = DAY_FORMAT.print(Math.max(startTime, 0L));
+		String lastDay = DAY_FORMAT.print(Math.min(endTime, MAX_TIME));
+		List<String> days = new ArrayList<>();
+		try(DirectoryStream<Path> dir = Files.newDirectoryStream(siteFolder, "*" + INDEX_EXT)) {
+			for(Path indexFile: dir) {
+				String name = indexFile.getFileName().toString();
+				String day = name.substring(0, name.length() - INDEX_EXT.length());
+				if(day.compareTo(firstDay) >= 0 && day.compareTo(lastDay) <= 0)
+					days.add(day);
+			}
+		}
+		Collections.sort(days);
+		for(String name: days) {
+			for(SweepIndexEntry entry: getIndex(siteId, siteFolder.resolve(name + INDEX_EXT), siteFolder.resolve(name + DATA_EXT))) {
+				if(entry.startTime < startTime || entry.startTime > endTime)
+					continue;
+				if(elevationNum > 0 && entry.elevationNum != elevationNum)
+					continue;
+				result.add(entry);
+			}
+		}
+		return result;
+	}
+
+	private List<SweepIndexEntry> getIndex(String siteId, Path indexFile, Path dataFile) throws IOException {
+		if(!Files.exists(indexFile))
+			return Collections.emptyList();
+		long size = Files.size(indexFile);
+		CachedIndex cached = indexCache.get(indexFile);
+		if(cached != null && cached.fileSize == size)
+			return cached.entries;
+
+		// ignore an entry being written
+		int numEntries = (int)(size / SweepIndexEntry.SIZE);
+		ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+		List<SweepIndexEntry> entries = new ArrayList<>(numEntries);
+		for(int i=0; i<numEntries; i++)
+			entries.add(SweepIndexEntry.read(buf, siteId, dataFile));
+		cached = new CachedIndex();
+		cached.fileSize = (long)numEntries * SweepIndexEntry.SIZE;
+		cached.entries = Collections.unmodifiableList(entries);
+		indexCache.put(indexFile, cached);
+		return cached.entries;
+	}
+
+	/**
+	 * Read a sweep, decoding only some moments
+	 * @param momentNames moments to decode (e.g. "REF"), or null for all
+	 */
+	public StoredSweep read(SweepIndexEntry entry, Collection<String> momentNames) throws IOException {
+		MappedByteBuffer block;
+		try(FileChannel channel = FileChannel.open(entry.dataFile, StandardOpenOption.READ)) {
+			block = channel.map(FileChannel.MapMode.READ_ONLY, entry.offset, entry.length);
+		}
+
+		if(block.getInt() != MAGIC)
+			throw new IOException("Not a sweep block at " + entry.offset + " of " + entry.dataFile);
+		byte [] site = new byte[4];
+		block.get(site);
+		StoredSweep sweep = new StoredSweep();
+		sweep.siteId = new String(site, StandardCharsets.US_ASCII).trim();
+		sweep.vcp = block.getInt();
+		sweep.elevationNum = block.getInt();
+		sweep.elevationAngle = block.getFloat();
+		sweep.volumeStartTime = block.getLong();
+		long startTime = block.getLong();
+		int n = block.getInt();
+		int numColumns = block.getInt();
+
+		List<ColumnHeader> headers = new ArrayList<>(numColumns);
+		for(int c=0; c<numColumns; c++)
+			headers.add(ColumnHeader.read(block));
+		int dataStart = block.position();
+
+		int pos = dataStart;
+		for(ColumnHeader col: headers) {
+			int colStart = pos;
+			pos += col.compressedLength;
+			boolean isMoment = col.moment != null;
+			if(isMoment && momentNames != null && !momentNames.contains(col.name))
+				continue;
+			ByteBuffer raw = ByteBuffer.wrap(inflate(block, colStart, col.compressedLength, col.rawLength));
+			switch(col.name) {
+			case TIME:
+				sweep.times = new long[n];
+				for(int i=0; i<n; i++)
+					sweep.times[i] = startTime + raw.getInt();
+				break;
+			case AZIMUTH:
+				sweep.azimuths = new float[n];
+				raw.asFloatBuffer().get(sweep.azimuths);
+				break;
+			case ELEVATION:
+				sweep.elevations = new float[n];
+				raw.asFloatBuffer().get(sweep.elevations);
+				break;
+			case STATUS:
+				sweep.status = raw.array();
+				break;
+			default:
+				if(isMoment) {
+					StoredSweep.Moment m = col.moment;
+					m.numGates = new short[n];
+					m.gateOffsets = new int[n];
+					int gateBytes = m.gateSizeBits / 8;
+					int off = 0;
+					for(int i=0; i<n; i++) {
+						m.numGates[i] = raw.getShort();
+						m.gateOffsets[i] = off;
+						off += m.numGates[i] * gateBytes;
+					}
+					m.gates = new byte[off];
+					raw.get(m.gates);
+					sweep.moments.put(m.name, m);
+				}
+			}
+		}
+		return sweep;
+	}
+
+	private static byte [] inflate(ByteBuffer block, int offset, int length, int rawLength) throws IOException {
+		// Inflater only takes arrays before Java 11
+		byte [] z = new byte[length];
+		ByteBuffer src = block.duplicate();
+		src.position(offset);
+		src.get(z);
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(z);
+			byte [] raw = new byte[rawLength];
+			int len = 0;
+			while(len < rawLength && !inflater.finished()) {
+				int cnt = inflater.inflate(raw, len, rawLength - len);
+				if(cnt == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new IOException("Truncated column");
+				len += cnt;
+			}
+			return raw;
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * @return sweeps of a site starting in [startTime, endTime]
+	 * @param elevationNum cut to return, or 0 for all
+	 * @param momentNames moments to decode, or null for all
+	 */
+	public List<StoredSweep> readSweeps(String siteId, long startTime, long endTime, int elevationNum, Collection<String> momentNames) throws IOException {
+		List<StoredSweep> sweeps = new ArrayList<>();
+		for(SweepIndexEntry entry: query(siteId, startTime, endTime, elevationNum))
+			sweeps.add(read(entry, momentNames));
+		return sweeps;
+	}
+
+	public Path getRootFolder() {
+		return rootFolder;
+	}
+
+	/**
+	 * @param level Deflater level, from BEST_SPEED (default) to BEST_COMPRESSION
+	 */
+	public void setCompressionLevel(int level) {
+		this.compressionLevel = level;
+	}
+
+	static class ColumnHeader {
+		String name;
+		StoredSweep.Moment moment;  // null for radial attributes
+		int rawLength;
+		int compressedLength;
+
+		static ColumnHeader read(ByteBuffer buf) {
+			ColumnHeader col = new ColumnHeader();
+			int len = buf.getShort() & 0xFFFF;
+			byte [] name = new byte[len];
+			buf.get(name);
+			col.name = new String(name, StandardCharsets.UTF_8);
+			if(buf.get() != 0) {
+				StoredSweep.Moment m = new StoredSweep.Moment();
+				m.name = col.name;
+				m.scale = buf.getFloat();
+				m.offset = buf.getFloat();
+				m.firstGate = buf.getShort();
+				m.gateInterval = buf.getShort();
+				m.gateSizeBits = buf.get() & 0xFF;
+				col.moment = m;
+			}
+			col.rawLength = buf.getInt();
+			col.compressedLength = buf.getInt();
+			return col;
+		}
+	}
+
+}
@@ -2,17 +2,22 @@ package org.sensorhub.impl.sensor.nexrad.ucar;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 
 import org.apache.commons.io.FileUtils;
 import org.sensorhub.api.common.SensorHubException;
 import org.sensorhub.impl.sensor.nexrad.NexradConfig;
+import org.sensorhub.impl.sensor.nexrad.RadialFilter;
 import org.sensorhub.impl.sensor.nexrad.RadialProvider;
 import org.sensorhub.impl.sensor.nexrad.aws.AwsNexradUtil;
 import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+import org.sensorhub.impl.sensor.nexrad.aws.MappedLevel2Reader;
+import org.sensorhub.impl.sensor.nexrad.aws.VolumeHeader;
 
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.S3Object;
@@ -33,6 +38,8 @@ public class ArchiveRadialProvider implements RadialProvider {
 	Path rootFolder;
 	String site;
 	int volumeIndex = 0;
+	RadialFilter filter;
+	boolean mappedReader;
 
 	public ArchiveRadialProvider(NexradConfig config) throws SensorHubException {
 		try {
@@ -45,32 +52,53 @@ public class ArchiveRadialProvider implements RadialProvider {
 		} catch (IOException e) {
 			throw new SensorHubException(e.getMessage(), e);
 		}
-		s3client = AwsNexradUtil.createS3Client();
+		mappedReader = config.mappedReader;
+		s3client = AwsNexradUtil.createS3Client(config);
 		summaries = AwsNexradUtil.listFiles(s3client, site, config.archiveStartTime, config.archiveStopTime);
 	}
 
+	/**
+	 * @return decompressed volume in rootFolder/site, downloaded if not there yet.  Only
+	 * the decompressed copy is written
+	 */
 	public File getFile(S3ObjectSummary s) throws IOException {
+		Path fout = getCachePath(s);
+		if(isCached(fout))
+			return fout.toFile();
+
+		S3Object obj = AwsNexradUtil.getChunk(s3client, AwsNexradUtil.ARCHIVE_BUCKET_NAME, s.getKey());
+		try(InputStream is = AwsNexradUtil.getVolumeStream(obj)) {
+			return writeFile(is, fout);
+		}
+	}
+
+	private Path getCachePath(S3ObjectSummary s) {
 		String key = s.getKey();
-		S3Object obj = AwsNexradUtil.getChunk(s3client, AwsNexradUtil.ARCHIVE_BUCKET_NAME, key);
 		int lastSlash = key.lastIndexOf("/");
 		assert lastSlash != -1;
 		String filename = key.substring(lastSlash + 1);
-		Path pout = Paths.get(rootFolder.toString(), site);
-		Path fout = Paths.get(pout.toString(), filename);
-		String gzFilename;
 		if(filename.endsWith(".gz"))
-			gzFilename = filename.replaceAll(".gz", ".88d");
-		else 
-			gzFilename = filename + ".88d";
-		Path gzOut = Paths.get(pout.toString(), gzFilename);
+			filename = filename.substring(0, filename.length() - 3);
+		return Paths.get(rootFolder.toString(), site, filename + ".88d");
+	}
+
+	private static boolean isCached(Path fout) throws IOException {
+		return Files.exists(fout) && Files.size(fout) > 0;
+	}
+
+	/**
+	 * Write the volume through a .part file, so an interrupted download is never taken 
+	 * for a cached volume
+	 */
+	private static File writeFile(InputStream is, Path fout) throws IOException {
+		Path tmp = Paths.get(fout.toString() + ".part");
 		try {
-			AwsNexradUtil.dumpChunkToFile(obj, fout);
-			String fileLocation = AwsNexradUtil.gunzipFile(fout.toString(), gzOut.toString());
-			return new File(fileLocation);
-		} catch (IOException e) {
-			throw new IOException(e);
+			AwsNexradUtil.dumpChunkToFile(is, tmp);
+			Files.move(tmp, fout, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tmp);
 		}
-
+		return fout.toFile();
 	}
 
 	/* (non-Javadoc)
@@ -90,13 +118,55 @@ public class ArchiveRadialProvider implements RadialProvider {
 		if(volumeIndex >= summaries.size())
 			return null;  // no more data
 		S3ObjectSummary s = summaries.get(volumeIndex++);
-		File file = getFile(s);
+		MappedLevel2Reader ldmReader = new MappedLevel2Reader(filter);
+		Path cached = getCachePath(s);
+		if(mappedReader || isCached(cached)) {
+			//  volumes are kept in rootFolder, so reruns map them from disk or page cache
+			File file = getFile(s);
+			List<LdmRadial> radials = ldmReader.read(file);
+			return isLegacy(ldmReader.getVolumeHeader()) ? readNetcdf(file) : radials;
+		}
+
+		//  S3 stream -> gunzip -> decoder, nothing written to disk
+		S3Object obj = AwsNexradUtil.getChunk(s3client, AwsNexradUtil.ARCHIVE_BUCKET_NAME, s.getKey());
+		File file;
+		try(InputStream is = AwsNexradUtil.getVolumeStream(obj)) {
+			//  the reader stops after the volume header of a legacy volume
+			is.mark(MappedLevel2Reader.VOLUME_HEADER_LENGTH);
+			List<LdmRadial> radials = ldmReader.read(is);
+			if(!isLegacy(ldmReader.getVolumeHeader()))
+				return radials;
+
+			//  message 1 volumes are left to the NetCDF reader, which needs a file.  The 
+			//  volume is replayed from the mark into rootFolder, where reruns will find it
+			is.reset();
+			file = writeFile(is, cached);
+		}
+		return readNetcdf(file);
+	}
+
+	private static boolean isLegacy(VolumeHeader hdr) {
+		return hdr != null && hdr.isLegacyFormat();
+	}
+
+	private List<LdmRadial> readNetcdf(File file) throws IOException {
 		UcarLevel2Reader reader = new UcarLevel2Reader(file);
-		return reader.read();
+		try {
+			reader.setSiteId(site);
+			reader.setFilter(filter);
+			return reader.read();
+		} finally {
+			reader.close();
+		}
 	}
 	
 	public List<LdmRadial> getNextRadials(String site) throws IOException {
 		return null;
 	}
 
+	@Override
+	public void setRadialFilter(RadialFilter filter) {
+		this.filter = filter;
+	}
+
 }
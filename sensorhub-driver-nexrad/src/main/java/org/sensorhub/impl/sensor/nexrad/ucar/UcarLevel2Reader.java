@@ -3,8 +3,10 @@ package org.sensorhub.impl.sensor.nexrad.ucar;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import org.sensorhub.impl.sensor.nexrad.RadialFilter;
 import org.sensorhub.impl.sensor.nexrad.RadialProvider;
 import org.sensorhub.impl.sensor.nexrad.VCP;
 import org.sensorhub.impl.sensor.nexrad.aws.DataHeader;
@@ -25,6 +27,8 @@ import ucar.nc2.dataset.NetcdfDataset;
 public class UcarLevel2Reader
 {
 	NetcdfDataset netCdf;
+	String siteId;
+	RadialFilter filter;
 	
 	public UcarLevel2Reader() {
 	}
@@ -137,13 +141,17 @@ public class UcarLevel2Reader
 				radial.dataHeader.msSinceMidnight = timeR[i][j];
 				radial.dataHeader.azimuthAngle = azimuthV[i][j];
 				radial.dataHeader.elevationAngle = elevationV[i][j];
+				radial.dataHeader.siteId = siteId;
+				radial.dataHeader.elevationNum = i + 1;
+				if(filter != null && !filter.accept(radial.dataHeader))
+					continue;
 				
 				MomentDataBlock refBlock = new MomentDataBlock("REF");
 				int elevation = (hasSplitCuts && hiRes) ? i*2 : i; 
 				refBlock.numGates = (short)numGatesR[elevation];
 				refBlock.rangeToCenterOfFirstGate = (short)distanceR[0];
 				refBlock.rangeSampleInterval = getRangeSampleInterval(distanceR);
-				refBlock.setData(ref[elevation][j]);
+				refBlock.setData(truncate(refBlock, ref[elevation][j]));
 				float []  data = refBlock.getData();
 				radial.momentData.put(refBlock.blockName, refBlock);
 
@@ -151,7 +159,7 @@ public class UcarLevel2Reader
 				velBlock.numGates = (short)numGatesV[i];
 				velBlock.rangeToCenterOfFirstGate = (short)distanceV[0];
 				velBlock.rangeSampleInterval = getRangeSampleInterval(distanceV);
-				velBlock.setData(vel[i][j]);
+				velBlock.setData(truncate(velBlock, vel[i][j]));
 //				if(j%100  == 0)  System.err.println(elevationV[i][j]);
 				radial.momentData.put(velBlock.blockName, velBlock);
 
@@ -160,7 +168,7 @@ public class UcarLevel2Reader
 				swBlock.numGates = (short)numGatesV[i];
 				swBlock.rangeToCenterOfFirstGate = (short)distanceV[0];
 				swBlock.rangeSampleInterval = velBlock.rangeSampleInterval;
-				swBlock.setData(sw[i][j]);
+				swBlock.setData(truncate(swBlock, sw[i][j]));
 				radial.momentData.put(swBlock.blockName, swBlock);
 				radials.add(radial);
 			}
@@ -168,6 +176,22 @@ public class UcarLevel2Reader
 		return radials;
 	}
 	
+	//  apply max range of the filter to data read through netCdf
+	private float [] truncate(MomentDataBlock block, float [] data) {
+		if(filter == null)
+			return data;
+		block.numGates = (short)filter.getNumGates(block.numGates, block.rangeToCenterOfFirstGate, block.rangeSampleInterval);
+		return (block.numGates < data.length) ? Arrays.copyOf(data, block.numGates) : data;
+	}
+
+	public void setSiteId(String siteId) {
+		this.siteId = siteId;
+	}
+
+	public void setFilter(RadialFilter filter) {
+		this.filter = filter;
+	}
+
 	public List<LdmRadial> read() throws IOException {
 		List<LdmRadial> rads = new ArrayList<>();
 		if(UcarUtil.hasSuperRes(netCdf)) {
@@ -180,6 +204,11 @@ public class UcarLevel2Reader
 		return rads;
 	}
 	
+	public void close() throws IOException {
+		if(netCdf != null)
+			netCdf.close();
+	}
+	
 	private short getDaysSince1970() {
 		short days = UcarUtil.getDaysSince1970(netCdf);
 		return days;
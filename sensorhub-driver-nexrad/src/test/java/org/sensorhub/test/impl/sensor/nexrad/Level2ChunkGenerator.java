@@ -0,0 +1,221 @@
+package org.sensorhub.test.impl.sensor.nexrad;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+/**
+ * <p>Title: Level2ChunkGenerator.java</p>
+ * <p>Description: Writes synthetic realtime Level II chunks (one bzip2 compressed
+ *   LDM record of Message 31 radials) in the layout expected by LdmLevel2Reader.  
+ *   Output is fully determined by the seed so benchmark numbers are reproducible 
+ *   without shipping radar data in the repo.  Shared by the JMH benchmarks and by
+ *   TestNexrad, which uses it to record synthetic volumes for replay.
+ * </p>
+ */
+public class Level2ChunkGenerator
+{
+	public static final int NUM_REF_GATES = 1832;
+	public static final int NUM_DOPPLER_GATES = 1192;
+	static final int DATA_HEADER_LENGTH = 68;
+	static final int VOLUME_BLOCK_LENGTH = 44;
+	static final int ELEVATION_BLOCK_LENGTH = 12;
+	static final int RADIAL_BLOCK_LENGTH = 28;
+	static final int MOMENT_HEADER_LENGTH = 28;
+
+	String siteId = "KHTX";
+	int numRadials = 120;
+	float elevationAngle = 0.5f;
+	int elevationNum = 1;
+	float startAzimuth = 0.0f;
+	float azimuthSpacing = 0.5f;
+	long seed = 42L;
+
+	public Level2ChunkGenerator() {
+	}
+
+	public Level2ChunkGenerator(String siteId, int numRadials, long seed) {
+		this.siteId = siteId;
+		this.numRadials = numRadials;
+		this.seed = seed;
+	}
+
+	public Level2ChunkGenerator setElevation(int elevationNum, float elevationAngle) {
+		this.elevationNum = elevationNum;
+		this.elevationAngle = elevationAngle;
+		return this;
+	}
+
+	public Level2ChunkGenerator setStartAzimuth(float startAzimuth) {
+		this.startAzimuth = startAzimuth;
+		return this;
+	}
+
+	/**
+	 * @return chunk bytes: 4 byte control word followed by the bzip2 compressed messages
+	 */
+	public byte [] createChunk() throws IOException {
+		ByteArrayOutputStream raw = new ByteArrayOutputStream();
+		DataOutputStream os = new DataOutputStream(raw);
+		Random random = new Random(seed);
+		for(int i=0; i<numRadials; i++) {
+			float az = (startAzimuth + i * azimuthSpacing) % 360.0f;
+			writeMessage31(os, i, az, random);
+		}
+		os.flush();
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try(BZip2CompressorOutputStream bzos = new BZip2CompressorOutputStream(compressed)) {
+			bzos.write(raw.toByteArray());
+		}
+		byte [] bz = compressed.toByteArray();
+
+		ByteArrayOutputStream chunk = new ByteArrayOutputStream(bz.length + 4);
+		DataOutputStream cos = new DataOutputStream(chunk);
+		cos.writeInt(-bz.length);  // negative control word marks the last record of the chunk
+		cos.write(bz);
+		cos.flush();
+		return chunk.toByteArray();
+	}
+
+	public Path writeChunk(Path folder, int volumeNum, int chunkNum, char chunkType) throws IOException {
+		return writeChunk(folder, volumeNum, "20170228-033456", chunkNum, chunkType);
+	}
+
+	/**
+	 * @param volumeTime volume start time, as yyyyMMdd-HHmmss
+	 */
+	public Path writeChunk(Path folder, int volumeNum, String volumeTime, int chunkNum, char chunkType) throws IOException {
+		String name = String.format("%s_%d_%s-%03d-%c", siteId, volumeNum, volumeTime, chunkNum, chunkType);
+		Path p = Paths.get(folder.toString(), name);
+		Files.write(p, createChunk());
+		return p;
+	}
+
+	private static int radialLength() {
+		return DATA_HEADER_LENGTH + VOLUME_BLOCK_LENGTH + ELEVATION_BLOCK_LENGTH + RADIAL_BLOCK_LENGTH 
+				+ MOMENT_HEADER_LENGTH + NUM_REF_GATES + 2 * (MOMENT_HEADER_LENGTH + NUM_DOPPLER_GATES);
+	}
+
+	private void writeMessage31(DataOutputStream os, int radialNum, float azimuth, Random random) throws IOException {
+		int radialLength = radialLength();
+		int msSinceMidnight = 12896000 + radialNum * 42;
+		short days = 17224;
+
+		// CTM bytes
+		os.write(new byte[12]);
+		// Message header
+		os.writeShort((16 + radialLength) / 2);
+		os.writeByte(0);
+		os.writeByte(31);
+		os.writeShort(radialNum);
+		os.writeShort(days);
+		os.writeInt(msSinceMidnight);
+		os.writeShort(1);
+		os.writeShort(1);
+
+		// Data header block
+		int volPtr = DATA_HEADER_LENGTH;
+		int elvPtr = volPtr + VOLUME_BLOCK_LENGTH;
+		int radPtr = elvPtr + ELEVATION_BLOCK_LENGTH;
+		int refPtr = radPtr + RADIAL_BLOCK_LENGTH;
+		int velPtr = refPtr + MOMENT_HEADER_LENGTH + NUM_REF_GATES;
+		int swPtr = velPtr + MOMENT_HEADER_LENGTH + NUM_DOPPLER_GATES;
+		os.write(siteId.getBytes(StandardCharsets.UTF_8), 0, 4);
+		os.writeInt(msSinceMidnight);
+		os.writeShort(days);
+		os.writeShort(radialNum + 1);
+		os.writeFloat(azimuth);
+		os.writeByte(0);  // compression
+		os.writeByte(0);  // spare
+		os.writeShort(radialLength);
+		os.writeByte(1);  // 0.5 deg azimuth spacing
+		os.writeByte(radialNum == 0 ? 0 : (radialNum == numRadials - 1 ? 2 : 1));
+		os.writeByte(elevationNum);
+		os.writeByte(1);
+		os.writeFloat(elevationAngle);
+		os.writeByte(0);
+		os.writeByte(0);
+		os.writeShort(6);  // VOL, ELV, RAD + 3 moments
+		os.writeInt(volPtr);
+		os.writeInt(elvPtr);
+		os.writeInt(radPtr);
+		os.writeInt(refPtr);
+		os.writeInt(velPtr);
+		os.writeInt(swPtr);
+		os.writeInt(0);
+		os.writeInt(0);
+		os.writeInt(0);
+
+		// Volume data block
+		os.write("RVOL".getBytes(StandardCharsets.UTF_8));
+		os.writeShort(VOLUME_BLOCK_LENGTH);
+		os.writeByte(1);
+		os.writeByte(0);
+		os.writeFloat(34.93f);
+		os.writeFloat(-86.08f);
+		os.writeShort(537);
+		os.writeShort(20);
+		for(int i=0; i<5; i++)
+			os.writeFloat(0.0f);
+		os.writeShort(212);
+		os.writeShort(0);
+
+		// Elevation data block
+		os.write("RELV".getBytes(StandardCharsets.UTF_8));
+		os.writeShort(ELEVATION_BLOCK_LENGTH);
+		os.writeShort(0);
+		os.writeFloat(0.0f);
+
+		// Radial data block
+		os.write("RRAD".getBytes(StandardCharsets.UTF_8));
+		os.writeShort(RADIAL_BLOCK_LENGTH);
+		os.writeShort(4660);   // unambiguous range, 0.1 km
+		os.writeFloat(-80.0f);
+		os.writeFloat(-80.0f);
+		os.writeShort(2650);   // nyquist velocity, 0.01 m/s
+		os.writeShort(0);
+		os.writeFloat(0.0f);
+		os.writeFloat(0.0f);
+
+		writeMoment(os, "REF", NUM_REF_GATES, 2125, 250, 2.0f, 66.0f, random);
+		writeMoment(os, "VEL", NUM_DOPPLER_GATES, 2125, 250, 2.0f, 129.0f, random);
+		writeMoment(os, "SW ", NUM_DOPPLER_GATES, 2125, 250, 2.0f, 129.0f, random);
+	}
+
+	private static void writeMoment(DataOutputStream os, String name, int numGates, int firstGate, int interval, 
+			float scale, float offset, Random random) throws IOException {
+		os.writeByte('D');
+		os.write(name.getBytes(StandardCharsets.UTF_8), 0, 3);
+		os.writeInt(0);
+		os.writeShort(numGates);
+		os.writeShort(firstGate);
+		os.writeShort(interval);
+		os.writeShort(100);
+		os.writeShort(16);
+		os.writeByte(0);
+		os.writeByte(8);
+		os.writeFloat(scale);
+		os.writeFloat(offset);
+		// mostly below threshold with patches of echo, roughly like a real sweep 
+		for(int i=0; i<numGates; i++) {
+			if(random.nextInt(4) == 0)
+				os.writeByte(2 + random.nextInt(250));
+			else
+				os.writeByte(0);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Path folder = Paths.get(args.length > 0 ? args[0] : ".");
+		Path p = new Level2ChunkGenerator().writeChunk(folder, 669, 11, 'I');
+		System.err.println("Wrote " + p);
+	}
+}
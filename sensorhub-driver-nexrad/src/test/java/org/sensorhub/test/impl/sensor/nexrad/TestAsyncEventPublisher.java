@@ -0,0 +1,207 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+The Initial Developer is Sensia Software LLC. Portions created by the Initial
+Developer are Copyright (C) 2014 the Initial Developer. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.impl.sensor.nexrad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.sensorhub.api.sensor.SensorDataEvent;
+import org.sensorhub.impl.sensor.nexrad.AsyncEventPublisher;
+import org.sensorhub.impl.sensor.nexrad.AsyncEventPublisher.Policy;
+
+import net.opengis.swe.v20.DataBlock;
+
+
+/**
+ * <p>
+ * Queue policies of AsyncEventPublisher.  The sink holds the first event until released,
+ * so the queue fills up behind it: BLOCK makes the publishing thread wait, DROP_OLDEST
+ * drops the head of the queue, and COALESCE keeps the latest event of each site.
+ * </p>
+ */
+public class TestAsyncEventPublisher implements AsyncEventPublisher.EventSink
+{
+	static final long TIMEOUT = 5000L;
+
+	AsyncEventPublisher publisher;
+	List<SensorDataEvent> published = new ArrayList<>();
+	CountDownLatch firstReceived = new CountDownLatch(1);
+	CountDownLatch release = new CountDownLatch(1);
+
+
+	@Override
+	public void publish(SensorDataEvent event)
+	{
+		firstReceived.countDown();
+		try {
+			release.await();
+		} catch (InterruptedException e) {
+			return;
+		}
+		synchronized(published) {
+			published.add(event);
+			published.notifyAll();
+		}
+	}
+
+
+	static SensorDataEvent newEvent(long time)
+	{
+		return new SensorDataEvent(time, null, (DataBlock)null);
+	}
+
+
+	//  first event taken by the publishing thread and held by the sink
+	SensorDataEvent startHeld(int capacity, Policy policy) throws InterruptedException
+	{
+		publisher = new AsyncEventPublisher("test", capacity, policy, this);
+		publisher.start();
+		SensorDataEvent first = newEvent(0);
+		publisher.publish(first, "KHTX", 0);
+		assertTrue(firstReceived.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		return first;
+	}
+
+
+	List<SensorDataEvent> releaseAndWait(int count) throws InterruptedException
+	{
+		release.countDown();
+		long end = System.currentTimeMillis() + TIMEOUT;
+		synchronized(published) {
+			while(published.size() < count && System.currentTimeMillis() < end)
+				published.wait(100L);
+			return new ArrayList<>(published);
+		}
+	}
+
+
+	@Test
+	public void testBlock() throws Exception
+	{
+		SensorDataEvent e0 = startHeld(2, Policy.BLOCK);
+		final SensorDataEvent e1 = newEvent(1), e2 = newEvent(2), e3 = newEvent(3);
+		publisher.publish(e1, "KHTX", 1);
+		publisher.publish(e2, "KHTX", 2);
+		assertEquals(2, publisher.getQueueSize());
+
+		final CountDownLatch published3 = new CountDownLatch(1);
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					publisher.publish(e3, "KHTX", 3);
+					published3.countDown();
+				} catch (InterruptedException e) {
+				}
+			}
+		});
+		t.start();
+		assertEquals("Publish didn't wait for room in the queue", 1, published3.getCount());
+		Thread.sleep(200L);
+		assertEquals("Publish didn't wait for room in the queue", 1, published3.getCount());
+		assertEquals(2, publisher.getQueueSize());
+
+		List<SensorDataEvent> events = releaseAndWait(4);
+		assertTrue(published3.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertEquals(Arrays.asList(e0, e1, e2, e3), events);
+		assertEquals(0, publisher.getNumDropped());
+		assertEquals(0, publisher.getNumCoalesced());
+	}
+
+
+	@Test
+	public void testDropOldest() throws Exception
+	{
+		SensorDataEvent e0 = startHeld(3, Policy.DROP_OLDEST);
+		List<SensorDataEvent> sent = new ArrayList<>();
+		for(int i = 1; i <= 5; i++) {
+			SensorDataEvent e = newEvent(i);
+			sent.add(e);
+			publisher.publish(e, "KHTX", i);
+		}
+		assertEquals(3, publisher.getQueueSize());
+		assertEquals(2, publisher.getNumDropped());
+
+		//  events 1 and 2 dropped to make room for 4 and 5
+		List<SensorDataEvent> events = releaseAndWait(4);
+		assertEquals(Arrays.asList(e0, sent.get(2), sent.get(3), sent.get(4)), events);
+		assertEquals(2, publisher.getNumDropped());
+		assertEquals(0, publisher.getNumCoalesced());
+	}
+
+
+	@Test
+	public void testCoalesce() throws Exception
+	{
+		SensorDataEvent e0 = startHeld(3, Policy.COALESCE);
+		SensorDataEvent a1 = newEvent(1), b1 = newEvent(2), a2 = newEvent(3);
+		publisher.publish(a1, "KHTX", 1);
+		publisher.publish(b1, "KFWS", 1);
+		publisher.publish(a2, "KHTX", 2);
+
+		//  full: the older events of the site make room
+		SensorDataEvent a3 = newEvent(4);
+		publisher.publish(a3, "KHTX", 3);
+		assertEquals(2, publisher.getNumCoalesced());
+		assertEquals(2, publisher.getQueueSize());
+
+		SensorDataEvent b2 = newEvent(5), a4 = newEvent(6), b3 = newEvent(7);
+		publisher.publish(b2, "KFWS", 2);
+		publisher.publish(a4, "KHTX", 4);
+		publisher.publish(b3, "KFWS", 3);
+		assertEquals(5, publisher.getNumCoalesced());
+		assertEquals(2, publisher.getQueueSize());
+
+		//  only the latest event of each site is left
+		List<SensorDataEvent> events = releaseAndWait(3);
+		assertEquals(Arrays.asList(e0, a4, b3), events);
+		assertEquals(0, publisher.getNumDropped());
+	}
+
+
+	@Test
+	public void testDropWithoutOlderEvents() throws Exception
+	{
+		//  nothing to coalesce, the oldest event is dropped
+		SensorDataEvent e0 = startHeld(2, Policy.COALESCE);
+		SensorDataEvent a1 = newEvent(1), b1 = newEvent(2), c1 = newEvent(3);
+		publisher.publish(a1, "KHTX", 1);
+		publisher.publish(b1, "KFWS", 1);
+		publisher.publish(c1, "KLWX", 1);
+		assertEquals(1, publisher.getNumDropped());
+
+		List<SensorDataEvent> events = releaseAndWait(3);
+		assertEquals(Arrays.asList(e0, b1, c1), events);
+		assertEquals(0, publisher.getNumCoalesced());
+	}
+
+
+	@After
+	public void cleanup()
+	{
+		release.countDown();
+		if(publisher != null)
+			publisher.stop();
+	}
+}
@@ -0,0 +1,304 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+The Initial Developer is Sensia Software LLC. Portions created by the Initial
+Developer are Copyright (C) 2014 the Initial Developer. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.impl.sensor.nexrad;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.sensorhub.impl.sensor.nexrad.aws.Bzip2Decoder;
+import org.sensorhub.impl.sensor.nexrad.aws.Level2BufferPool;
+
+
+/**
+ * <p>
+ * Bzip2Decoder against commons-compress: random data, generated Level II chunks and, if
+ * any, recorded chunks found in the folder given by -Dnexrad.samples (as for the JMH
+ * benchmarks).  Corrupted streams must be rejected with an IOException.
+ * </p>
+ */
+public class TestBzip2Decoder
+{
+	static final String SAMPLES_PROPERTY = "nexrad.samples";
+	static final String DEFAULT_SAMPLES_FOLDER = "src/jmh/resources/samples";
+
+	static byte [] compress(byte [] data, int blockSize) throws IOException
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try(BZip2CompressorOutputStream os = new BZip2CompressorOutputStream(bos, blockSize)) {
+			os.write(data);
+		}
+		return bos.toByteArray();
+	}
+
+
+	static byte [] decompress(byte [] compressed) throws IOException
+	{
+		try(BZip2CompressorInputStream is = new BZip2CompressorInputStream(new ByteArrayInputStream(compressed), true)) {
+			return IOUtils.toByteArray(is);
+		}
+	}
+
+
+	static byte [] decode(byte [] compressed) throws IOException
+	{
+		Bzip2Decoder decoder = Bzip2Decoder.acquire();
+		try {
+			ByteBuffer buf = decoder.decode(compressed, 0, compressed.length);
+			return Arrays.copyOfRange(buf.array(), buf.position(), buf.limit());
+		} finally {
+			Bzip2Decoder.release(decoder);
+		}
+	}
+
+
+	static void checkRoundTrip(String msg, byte [] data, int blockSize) throws IOException
+	{
+		byte [] compressed = compress(data, blockSize);
+		byte [] expected = decompress(compressed);
+		assertArrayEquals(msg, data, expected);
+		assertArrayEquals(msg, expected, decode(compressed));
+	}
+
+
+	//  few symbols in long runs, as in Level II gates below threshold
+	static byte [] createRuns(Random random, int size, int numSymbols, int maxRun)
+	{
+		byte [] data = new byte[size];
+		int i = 0;
+		while(i < size) {
+			byte b = (byte)random.nextInt(numSymbols);
+			int run = 1 + random.nextInt(maxRun);
+			for(int j=0; j<run && i<size; j++)
+				data[i++] = b;
+		}
+		return data;
+	}
+
+
+	@Test
+	public void testRandomData() throws Exception
+	{
+		Random random = new Random(42);
+		for(int size: new int[] {1, 2, 100, 4096, 65537, 250000}) {
+			byte [] data = new byte[size];
+			random.nextBytes(data);
+			checkRoundTrip("random " + size, data, 9);
+		}
+	}
+
+
+	@Test
+	public void testRuns() throws Exception
+	{
+		Random random = new Random(7);
+		for(int numSymbols: new int[] {1, 2, 3, 17, 256}) {
+			for(int maxRun: new int[] {1, 4, 300, 100000})
+				checkRoundTrip(numSymbols + " symbols, runs up to " + maxRun, createRuns(random, 200000, numSymbols, maxRun), 9);
+		}
+	}
+
+
+	@Test
+	public void testMultipleBlocks() throws Exception
+	{
+		Random random = new Random(3);
+		byte [] data = createRuns(random, 1000000, 40, 20);
+		checkRoundTrip("100k blocks", data, 1);
+		checkRoundTrip("900k blocks", data, 9);
+	}
+
+
+	@Test
+	public void testEmpty() throws Exception
+	{
+		checkRoundTrip("empty", new byte[0], 9);
+	}
+
+
+	@Test
+	public void testConcatenatedStreams() throws Exception
+	{
+		Random random = new Random(11);
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		for(int i=0; i<3; i++) {
+			byte [] part = createRuns(random, 50000, 10, 8);
+			data.write(part);
+			compressed.write(compress(part, 9));
+		}
+		assertArrayEquals(data.toByteArray(), decompress(compressed.toByteArray()));
+		assertArrayEquals(data.toByteArray(), decode(compressed.toByteArray()));
+	}
+
+
+	@Test
+	public void testGeneratedChunks() throws Exception
+	{
+		for(int seed=0; seed<4; seed++) {
+			byte [] chunk = new Level2ChunkGenerator("KHTX", 120, seed).createChunk();
+			for(byte [] record: getRecords(chunk, 0))
+				assertArrayEquals("seed " + seed, decompress(record), decode(record));
+		}
+	}
+
+
+	@Test
+	public void testRecordedChunks() throws Exception
+	{
+		File [] files = new File(System.getProperty(SAMPLES_PROPERTY, DEFAULT_SAMPLES_FOLDER)).listFiles();
+		if(files == null)
+			return;
+		for(File f: files) {
+			String name = f.getName();
+			int offset;
+			if(name.endsWith("-S") || name.endsWith("-I") || name.endsWith("-E"))
+				offset = 0;
+			else if(name.endsWith("_V06") || name.endsWith(".ar2v"))
+				offset = 24;  // volume header
+			else
+				continue;
+			for(byte [] record: getRecords(Files.readAllBytes(f.toPath()), offset))
+				assertArrayEquals(name, decompress(record), decode(record));
+		}
+	}
+
+
+	//  bzip2 records of a chunk or volume: 4 byte control word followed by the record
+	static List<byte[]> getRecords(byte [] data, int offset)
+	{
+		List<byte[]> records = new ArrayList<>();
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		buf.position(offset);
+		while(buf.remaining() > 4) {
+			int size = Math.abs(buf.getInt());
+			if(size == 0 || size > buf.remaining())
+				break;
+			byte [] record = new byte[size];
+			buf.get(record);
+			if(record.length > 3 && record[0] == 'B' && record[1] == 'Z' && record[2] == 'h')
+				records.add(record);
+		}
+		return records;
+	}
+
+
+	@Test
+	public void testCorruptedBlockCrc() throws Exception
+	{
+		byte [] data = createRuns(new Random(5), 100000, 30, 10);
+		byte [] compressed = compress(data, 9);
+		// "BZh9", block magic (6 bytes), then the block CRC
+		compressed[10] ^= 0x01;
+		try {
+			decode(compressed);
+			fail("Corrupted CRC not detected");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("CRC"));
+		}
+	}
+
+
+	@Test
+	public void testCorruptedData() throws Exception
+	{
+		Random random = new Random(13);
+		byte [] data = createRuns(random, 20000, 30, 10);
+		byte [] compressed = compress(data, 9);
+		for(int i=0; i<2000; i++) {
+			byte [] corrupted = compressed.clone();
+			int pos = 4 + random.nextInt(corrupted.length - 4);
+			corrupted[pos] ^= (byte)(1 << random.nextInt(8));
+			try {
+				byte [] decoded = decode(corrupted);
+				// only a flip in the stream padding bits can go unnoticed
+				assertArrayEquals("Corruption at " + pos + " not detected", data, decoded);
+			} catch (IOException e) {
+				// expected, anything else is a decoder bug
+			}
+		}
+
+		// a decoder that failed is still usable
+		assertArrayEquals(data, decode(compressed));
+	}
+
+
+	@Test
+	public void testDecoderPool() throws Exception
+	{
+		// a decoder in use is never handed out again
+		Bzip2Decoder decoder = Bzip2Decoder.acquire();
+		for(int i=0; i<10; i++) {
+			Bzip2Decoder other = Bzip2Decoder.acquire();
+			assertNotSame(decoder, other);
+			Bzip2Decoder.release(other);
+		}
+		Bzip2Decoder.release(decoder);
+	}
+
+
+	@Test
+	public void testBufferPoolBounded() throws Exception
+	{
+		Level2BufferPool pool = new Level2BufferPool(2, 64 * 1024);
+		List<byte[]> arrays = new ArrayList<>();
+		for(int i=0; i<8; i++)
+			arrays.add(pool.acquire(5000));
+		assertEquals(8, pool.getNumAllocated());
+		assertEquals(8192, arrays.get(0).length);
+		for(byte [] b: arrays)
+			pool.release(b);
+
+		// only maxPerClass arrays are kept, and reused
+		assertEquals(2 * 8192, pool.getPooledBytes());
+		byte [] b1 = pool.acquire(5000);
+		byte [] b2 = pool.acquire(8000);
+		assertEquals(8, pool.getNumAllocated());
+		assertEquals(0, pool.getPooledBytes());
+		assertTrue(arrays.contains(b1) && arrays.contains(b2));
+
+		// nor more than maxPooledBytes
+		byte [] b3 = pool.acquire(40000);
+		byte [] b4 = pool.acquire(20000);
+		pool.release(b3);
+		assertEquals(65536, pool.getPooledBytes());
+		pool.release(b4);
+		pool.release(b1);
+		assertEquals(65536, pool.getPooledBytes());
+
+		// arrays not from the pool are dropped
+		pool.acquire(40000);
+		pool.release(new byte[5000]);
+		assertEquals(0, pool.getPooledBytes());
+	}
+}
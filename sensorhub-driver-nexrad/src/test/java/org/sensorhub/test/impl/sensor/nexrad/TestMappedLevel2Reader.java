@@ -0,0 +1,228 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+The Initial Developer is Sensia Software LLC. Portions created by the Initial
+Developer are Copyright (C) 2014 the Initial Developer. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.impl.sensor.nexrad;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.impl.sensor.nexrad.RadialFilter;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmLevel2Reader;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+import org.sensorhub.impl.sensor.nexrad.aws.MappedLevel2Reader;
+import org.sensorhub.impl.sensor.nexrad.aws.MomentDataBlock;
+
+
+/**
+ * <p>
+ * MappedLevel2Reader against LdmLevel2Reader on generated chunks and archive volumes:
+ * same radials, headers, blocks and gates, from files and from streams, with and without
+ * a RadialFilter.
+ * </p>
+ */
+public class TestMappedLevel2Reader
+{
+	Path folder;
+
+
+	@Before
+	public void init() throws Exception
+	{
+		folder = Files.createTempDirectory("level2");
+	}
+
+
+	//  public and package fields of the block, recursively for nested blocks
+	static void assertSameFields(String msg, Object expected, Object actual) throws Exception
+	{
+		if(expected == null || actual == null) {
+			assertEquals(msg, expected, actual);
+			return;
+		}
+		assertEquals(msg, expected.getClass(), actual.getClass());
+		for(Field f: expected.getClass().getDeclaredFields()) {
+			if(Modifier.isStatic(f.getModifiers()) || Modifier.isPrivate(f.getModifiers()))
+				continue;
+			f.setAccessible(true);
+			Object e = f.get(expected);
+			Object a = f.get(actual);
+			assertTrue(msg + "." + f.getName() + ": " + e + " != " + a, Arrays.deepEquals(new Object[] {e}, new Object[] {a}));
+		}
+	}
+
+
+	static void assertSameRadials(String msg, List<LdmRadial> expected, List<LdmRadial> actual) throws Exception
+	{
+		assertNotNull(msg, actual);
+		assertEquals(msg + " radials", expected.size(), actual.size());
+		for(int i=0; i<expected.size(); i++) {
+			LdmRadial e = expected.get(i);
+			LdmRadial a = actual.get(i);
+			String rmsg = msg + " radial " + i;
+			assertEquals(rmsg, e.timeMsUtc, a.timeMsUtc);
+			assertSameFields(rmsg + " dataHeader", e.dataHeader, a.dataHeader);
+			assertSameFields(rmsg + " volumeDataBlock", e.volumeDataBlock, a.volumeDataBlock);
+			assertSameFields(rmsg + " radialDataBlock", e.radialDataBlock, a.radialDataBlock);
+			assertEquals(rmsg, e.momentData.keySet(), a.momentData.keySet());
+			for(Map.Entry<String, MomentDataBlock> m: e.momentData.entrySet()) {
+				MomentDataBlock am = a.momentData.get(m.getKey());
+				String mmsg = rmsg + " " + m.getKey();
+				assertSameFields(mmsg, m.getValue(), am);
+				assertArrayEquals(mmsg, m.getValue().getData(), am.getData(), 0.0f);
+			}
+		}
+	}
+
+
+	List<Path> writeChunks(int numChunks, long seed) throws IOException
+	{
+		List<Path> chunks = new ArrayList<>();
+		for(int i=0; i<numChunks; i++) {
+			Level2ChunkGenerator gen = new Level2ChunkGenerator("KHTX", 120, seed + i)
+					.setElevation(1 + i / 3, 0.5f + (i / 3) * 0.9f)
+					.setStartAzimuth((i % 3) * 120.0f);
+			chunks.add(gen.writeChunk(folder, 100, i + 2, 'I'));
+		}
+		return chunks;
+	}
+
+
+	//  AR2V volume header followed by the records of the chunks
+	Path writeVolume(List<Path> chunks) throws IOException
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream os = new DataOutputStream(bos);
+		os.write("AR2V0006.100".getBytes(StandardCharsets.US_ASCII));
+		os.writeInt(17226);
+		os.writeInt(12896000);
+		os.write("KHTX".getBytes(StandardCharsets.US_ASCII));
+		for(int i=0; i<chunks.size(); i++) {
+			byte [] chunk = Files.readAllBytes(chunks.get(i));
+			// control word is negative only for the last record of a volume
+			int size = Math.abs(ByteBuffer.wrap(chunk).getInt());
+			os.writeInt((i == chunks.size() - 1) ? -size : size);
+			os.write(chunk, 4, size);
+		}
+		os.flush();
+		Path p = folder.resolve("KHTX20170228_033456_V06");
+		Files.write(p, bos.toByteArray());
+		return p;
+	}
+
+
+	@Test
+	public void testChunks() throws Exception
+	{
+		LdmLevel2Reader ldmReader = new LdmLevel2Reader();
+		MappedLevel2Reader mappedReader = new MappedLevel2Reader();
+		for(Path p: writeChunks(6, 17)) {
+			File f = p.toFile();
+			List<LdmRadial> expected = ldmReader.read(f);
+			assertEquals(120, expected.size());
+			assertSameRadials(f.getName(), expected, mappedReader.read(f));
+			assertSameRadials(f.getName() + " stream", expected, mappedReader.read(new ByteArrayInputStream(Files.readAllBytes(p))));
+		}
+	}
+
+
+	@Test
+	public void testVolume() throws Exception
+	{
+		List<Path> chunks = writeChunks(6, 23);
+		LdmLevel2Reader ldmReader = new LdmLevel2Reader();
+		List<LdmRadial> expected = new ArrayList<>();
+		for(Path p: chunks)
+			expected.addAll(ldmReader.read(p.toFile()));
+
+		Path volume = writeVolume(chunks);
+		MappedLevel2Reader mappedReader = new MappedLevel2Reader();
+		assertSameRadials("volume", expected, mappedReader.read(volume.toFile()));
+		assertEquals("KHTX", mappedReader.getVolumeHeader().getSiteId());
+		assertSameRadials("volume stream", expected, mappedReader.read(new ByteArrayInputStream(Files.readAllBytes(volume))));
+		assertEquals("KHTX", mappedReader.getVolumeHeader().getSiteId());
+	}
+
+
+	@Test
+	public void testFilter() throws Exception
+	{
+		RadialFilter filter = new RadialFilter();
+		filter.elevationNumbers.add(2);
+		filter.startAzimuth = 300.0f;
+		filter.stopAzimuth = 60.0f;
+		LdmLevel2Reader ldmReader = new LdmLevel2Reader(filter);
+		MappedLevel2Reader mappedReader = new MappedLevel2Reader(filter);
+
+		int numKept = 0;
+		for(Path p: writeChunks(6, 31)) {
+			File f = p.toFile();
+			List<LdmRadial> expected = ldmReader.read(f);
+			numKept += expected.size();
+			assertSameRadials(f.getName(), expected, mappedReader.read(f));
+		}
+		// elevation 2 chunks cover 0-60, 120-180 and 240-300 deg: only the first is in the sector
+		assertEquals(120, numKept);
+	}
+
+
+	@Test
+	public void testTruncatedVolume() throws Exception
+	{
+		List<Path> chunks = writeChunks(3, 41);
+		LdmLevel2Reader ldmReader = new LdmLevel2Reader();
+		List<LdmRadial> expected = new ArrayList<>();
+		for(Path p: chunks.subList(0, 2))
+			expected.addAll(ldmReader.read(p.toFile()));
+
+		// records before the cut are returned
+		Path volume = writeVolume(chunks);
+		byte [] data = Files.readAllBytes(volume);
+		Files.write(volume, Arrays.copyOf(data, data.length - 100));
+		assertSameRadials("truncated volume", expected, new MappedLevel2Reader().read(volume.toFile()));
+	}
+
+
+	@After
+	public void cleanup() throws Exception
+	{
+		File [] files = folder.toFile().listFiles();
+		if(files != null) {
+			for(File f: files)
+				Files.delete(f.toPath());
+		}
+		Files.delete(folder);
+	}
+}
@@ -0,0 +1,221 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+The Initial Developer is Sensia Software LLC. Portions created by the Initial
+Developer are Copyright (C) 2014 the Initial Developer. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.impl.sensor.nexrad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.api.common.Event;
+import org.sensorhub.api.common.IEventListener;
+import org.sensorhub.api.common.SensorHubException;
+import org.sensorhub.api.sensor.ISensorDataInterface;
+import org.sensorhub.api.sensor.SensorDataEvent;
+import org.sensorhub.impl.sensor.nexrad.NexradConfig;
+import org.sensorhub.impl.sensor.nexrad.NexradSensor;
+import org.sensorhub.impl.sensor.nexrad.NexradTable;
+
+
+/**
+ * <p>
+ * End to end test of the realtime path (chunk notifications -> chunk queues ->
+ * LdmLevel2Reader -> NexradOutput) running against the local replay stand-in
+ * instead of AWS.  By default a few volumes of synthetic chunks are recorded for
+ * a handful of sites and replayed as fast as possible.
+ *
+ * Load tests can be run by pointing to a real recording and setting the rate:
+ *   -Dnexrad.replay.folder=/data/nexrad/recording  (one sub folder per site)
+ *   -Dnexrad.replay.sites=ALL                      (or a comma separated list)
+ *   -Dnexrad.replay.speed=4                        (0 = as fast as possible)
+ *   -Dnexrad.replay.duration=600                   (seconds to run for)
+ * </p>
+ */
+public class TestNexrad implements IEventListener
+{
+	static final String DEFAULT_SITES = "KHTX,KBMX,KGWX,KOHX";
+	static final int NUM_VOLUMES = 2;
+	static final int CHUNKS_PER_VOLUME = 6;
+	static final int RADIALS_PER_CHUNK = 120;
+	static final DateTimeFormatter VOLUME_TIME_FORMAT = DateTimeFormat.forPattern("yyyyMMdd-HHmmss").withZone(DateTimeZone.UTC);
+
+	NexradSensor driver;
+	NexradConfig config;
+	Path rootFolder;
+	Path replayFolder;
+	boolean synthetic;
+	List<String> sites;
+	AtomicInteger radialCount = new AtomicInteger();
+	Map<String, AtomicInteger> siteCounts = new ConcurrentHashMap<>();
+	volatile long lastRadialTime;
+	//  failures on the event thread, rethrown on the test thread
+	volatile Throwable eventError;
+
+
+	@Before
+	public void init() throws Exception
+	{
+		String siteList = System.getProperty("nexrad.replay.sites", DEFAULT_SITES);
+		if(siteList.equalsIgnoreCase("ALL"))
+			sites = new ArrayList<>(NexradTable.getInstance().getAllSiteIds());
+		else
+			sites = new ArrayList<>(Arrays.asList(siteList.split(",")));
+
+		rootFolder = Files.createTempDirectory("nexradRoot");
+		String recording = System.getProperty("nexrad.replay.folder");
+		if(recording != null) {
+			replayFolder = Paths.get(recording);
+		} else {
+			synthetic = true;
+			replayFolder = Files.createTempDirectory("nexradReplay");
+			recordSyntheticVolumes();
+		}
+
+		config = new NexradConfig();
+		config.id = UUID.randomUUID().toString();
+		config.siteIds = sites;
+		config.rootFolder = rootFolder.toString();
+		config.replayFolder = replayFolder.toString();
+		config.replaySpeedFactor = Double.parseDouble(System.getProperty("nexrad.replay.speed", "0"));
+		// a single receiver keeps chunk order deterministic for the synthetic recording
+		config.numThreads = 1;
+
+		driver = new NexradSensor();
+		driver.init(config);
+	}
+
+
+	/**
+	 * Volume numbers are kept at 3 digits, since chunk paths are ordered as strings
+	 */
+	private void recordSyntheticVolumes() throws Exception
+	{
+		DateTime start = new DateTime(2017, 2, 28, 3, 30, DateTimeZone.UTC);
+		for(int s=0; s<sites.size(); s++) {
+			String site = sites.get(s);
+			Path siteFolder = Paths.get(replayFolder.toString(), site);
+			Files.createDirectories(siteFolder);
+			for(int v=0; v<NUM_VOLUMES; v++) {
+				String volumeTime = VOLUME_TIME_FORMAT.print(start.plusMinutes(5 * v));
+				for(int c=1; c<=CHUNKS_PER_VOLUME; c++) {
+					char type = (c == CHUNKS_PER_VOLUME) ? 'E' : 'I';
+					new Level2ChunkGenerator(site, RADIALS_PER_CHUNK, s * 1000 + v * 10 + c)
+						.setStartAzimuth(((c - 1) * RADIALS_PER_CHUNK * 0.5f) % 360.0f)
+						.writeChunk(siteFolder, 100 + v, volumeTime, c, type);
+				}
+			}
+		}
+	}
+
+
+	@Test
+	public void testReplayThroughput() throws Exception
+	{
+		ISensorDataInterface output = driver.getObservationOutputs().get("NexradData");
+		output.registerListener(this);
+
+		// ChunkPathQueue uses the first chunk it receives for a site as its starting point
+		int expected = sites.size() * (NUM_VOLUMES * CHUNKS_PER_VOLUME - 1) * RADIALS_PER_CHUNK;
+		long maxDuration = TimeUnit.SECONDS.toMillis(Long.getLong("nexrad.replay.duration", 60));
+
+		long startTime = System.currentTimeMillis();
+		driver.start();
+		synchronized (this)
+		{
+			while ((!synthetic || radialCount.get() < expected) && eventError == null && System.currentTimeMillis() - startTime < maxDuration)
+				wait(1000L);
+		}
+		driver.stop();
+		if(eventError != null)
+			throw new AssertionError("Bad event: " + eventError, eventError);
+
+		long elapsed = Math.max(1L, lastRadialTime - startTime);
+		System.out.printf("%d radials from %d sites in %d ms: %.0f radials/s%n",
+				radialCount.get(), siteCounts.size(), elapsed, radialCount.get() * 1000.0 / elapsed);
+		for(Map.Entry<String, AtomicInteger> e: siteCounts.entrySet())
+			System.out.println("\t" + e.getKey() + ": " + e.getValue());
+
+		assertTrue("No radials received", radialCount.get() > 0);
+		if(synthetic) {
+			assertEquals(expected, radialCount.get());
+			assertEquals(sites.size(), siteCounts.size());
+		}
+	}
+
+
+	@Override
+	public void handleEvent(Event<?> e)
+	{
+		try {
+			assertTrue(e instanceof SensorDataEvent);
+			SensorDataEvent newDataEvent = (SensorDataEvent)e;
+
+			// site id follows the time stamp in the radial record
+			String site = newDataEvent.getRecords()[0].getStringValue(1);
+			AtomicInteger count = siteCounts.get(site);
+			if(count == null) {
+				siteCounts.putIfAbsent(site, new AtomicInteger());
+				count = siteCounts.get(site);
+			}
+			count.incrementAndGet();
+			radialCount.incrementAndGet();
+			lastRadialTime = System.currentTimeMillis();
+		} catch (Throwable t) {
+			if(eventError == null)
+				eventError = t;
+		}
+
+		synchronized (this) { this.notify(); }
+	}
+
+
+	@After
+	public void cleanup()
+	{
+		try
+		{
+			if(driver != null) {
+				driver.stop();
+				driver.cleanup();
+			}
+		}
+		catch (SensorHubException e)
+		{
+			e.printStackTrace();
+		}
+		FileUtils.deleteQuietly(rootFolder.toFile());
+		if(synthetic)
+			FileUtils.deleteQuietly(replayFolder.toFile());
+	}
+}
@@ -0,0 +1,154 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+The Initial Developer is Sensia Software LLC. Portions created by the Initial
+Developer are Copyright (C) 2014 the Initial Developer. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.impl.sensor.nexrad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.impl.sensor.nexrad.NexradSite;
+import org.sensorhub.impl.sensor.nexrad.NexradTable;
+import org.sensorhub.impl.sensor.nexrad.NexradUtil;
+
+
+/**
+ * <p>
+ * Grid lookups of NexradTable against a scan of all sites, at random points and at points
+ * near the sites, the poles and the antimeridian.
+ * </p>
+ */
+public class TestNexradTable
+{
+	NexradTable table;
+	List<NexradSite> allSites;
+	List<double[]> points = new ArrayList<>();
+
+
+	@Before
+	public void init() throws Exception
+	{
+		table = NexradTable.getInstance();
+		allSites = new ArrayList<>(table.getAllSites());
+
+		Random random = new Random(1);
+		for(int i=0; i<500; i++)
+			points.add(new double[] {random.nextDouble() * 180.0 - 90.0, random.nextDouble() * 360.0 - 180.0});
+		//  North America and the Pacific, where the sites are
+		for(int i=0; i<500; i++)
+			points.add(new double[] {10.0 + random.nextDouble() * 60.0, -180.0 + random.nextDouble() * 120.0});
+		for(NexradSite site: allSites)
+			points.add(new double[] {site.lat + 0.01, site.lon - 0.01});
+		points.add(new double[] {90.0, 0.0});
+		points.add(new double[] {-90.0, 0.0});
+		points.add(new double[] {52.0, 179.99});
+		points.add(new double[] {52.0, -179.99});
+		points.add(new double[] {13.45, 144.8});
+	}
+
+
+	List<NexradSite> scanWithin(double lat, double lon, double range)
+	{
+		List<NexradSite> result = new ArrayList<>();
+		for(NexradSite site: allSites) {
+			if(NexradUtil.getDistance(lat, lon, site.lat, site.lon) <= range)
+				result.add(site);
+		}
+		return result;
+	}
+
+
+	static List<Double> distances(Collection<NexradSite> sites, double lat, double lon)
+	{
+		List<Double> d = new ArrayList<>();
+		for(NexradSite site: sites)
+			d.add(NexradUtil.getDistance(lat, lon, site.lat, site.lon));
+		return d;
+	}
+
+
+	@Test
+	public void testSitesWithin() throws Exception
+	{
+		for(double range: new double[] {50000.0, NexradTable.COVERAGE_RANGE_METERS, 1000000.0, 5000000.0}) {
+			for(double [] p: points) {
+				String msg = p[0] + "," + p[1] + " within " + range;
+				List<NexradSite> result = table.getSitesWithin(p[0], p[1], range);
+				assertEquals(msg, new HashSet<>(scanWithin(p[0], p[1], range)), new HashSet<>(result));
+				assertEquals(msg, result.size(), new HashSet<>(result).size());
+				List<Double> d = distances(result, p[0], p[1]);
+				List<Double> sorted = new ArrayList<>(d);
+				Collections.sort(sorted);
+				assertEquals(msg + " order", sorted, d);
+			}
+		}
+	}
+
+
+	@Test
+	public void testSitesCovering() throws Exception
+	{
+		for(double [] p: points)
+			assertEquals(table.getSitesWithin(p[0], p[1], NexradTable.COVERAGE_RANGE_METERS), table.getSitesCovering(p[0], p[1]));
+	}
+
+
+	@Test
+	public void testNearestSites() throws Exception
+	{
+		for(final double [] p: points) {
+			List<NexradSite> expected = new ArrayList<>(allSites);
+			Collections.sort(expected, new Comparator<NexradSite>() {
+				@Override
+				public int compare(NexradSite s1, NexradSite s2) {
+					return Double.compare(NexradUtil.getDistance(p[0], p[1], s1.lat, s1.lon), NexradUtil.getDistance(p[0], p[1], s2.lat, s2.lon));
+				}
+			});
+			for(int n: new int[] {1, 3, 10}) {
+				List<NexradSite> result = table.getNearestSites(p[0], p[1], n);
+				// compare distances, sites at the same distance can come in any order
+				assertEquals(p[0] + "," + p[1] + " nearest " + n, distances(expected.subList(0, n), p[0], p[1]), distances(result, p[0], p[1]));
+			}
+		}
+		assertEquals(allSites.size(), table.getNearestSites(0.0, 0.0, allSites.size() + 10).size());
+		assertTrue(table.getNearestSites(0.0, 0.0, 0).isEmpty());
+	}
+
+
+	@Test
+	public void testGetSite() throws Exception
+	{
+		for(NexradSite site: allSites) {
+			assertSame(site, table.getSite(site.id));
+			assertSame(site, table.getSite(site.id.toLowerCase()));
+			NexradSite by3 = table.getSite(site.id.substring(1));
+			assertEquals(site.id.substring(1), by3.id.substring(1));
+		}
+		assertNull(table.getSite("XXXX"));
+		assertNull(table.getSite("XX"));
+		assertNull(table.getSite(null));
+	}
+}
@@ -0,0 +1,161 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+The Initial Developer is Sensia Software LLC. Portions created by the Initial
+Developer are Copyright (C) 2014 the Initial Developer. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.impl.sensor.nexrad;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.api.common.Event;
+import org.sensorhub.api.common.IEventListener;
+import org.sensorhub.api.common.SensorHubException;
+import org.sensorhub.api.sensor.ISensorDataInterface;
+import org.sensorhub.impl.sensor.nexrad.NexradConfig;
+import org.sensorhub.impl.sensor.nexrad.NexradSensor;
+import org.sensorhub.impl.sensor.nexrad.SiteActivityTracker;
+
+
+/**
+ * <p>
+ * Demand tracking of sites (siteIdleTimeMinutes).  Sites must stay active while an
+ * output has listeners, even if nobody ever calls getLatestRecord.  Idle checks are
+ * run with a time in the future instead of waiting for the idle time.
+ * </p>
+ */
+public class TestSiteActivity implements IEventListener
+{
+	static final String SITE = "KHTX";
+	static final long IDLE_TIME = TimeUnit.MINUTES.toMillis(1);
+	static final long LATER = 10 * IDLE_TIME;
+
+	NexradSensor driver;
+	Path rootFolder;
+	Path replayFolder;
+
+
+	@Before
+	public void init() throws Exception
+	{
+		rootFolder = Files.createTempDirectory("nexradRoot");
+		replayFolder = Files.createTempDirectory("nexradReplay");
+		Files.createDirectories(replayFolder.resolve(SITE));
+
+		NexradConfig config = new NexradConfig();
+		config.id = UUID.randomUUID().toString();
+		config.siteIds = new ArrayList<>(Arrays.asList(SITE));
+		config.rootFolder = rootFolder.toString();
+		config.replayFolder = replayFolder.toString();
+		config.siteIdleTimeMinutes = TimeUnit.MILLISECONDS.toMinutes(IDLE_TIME);
+		config.numThreads = 1;
+
+		driver = new NexradSensor();
+		driver.init(config);
+	}
+
+
+	@Test
+	public void testListenerKeepsSiteActive() throws Exception
+	{
+		ISensorDataInterface output = driver.getObservationOutputs().get("NexradData");
+		output.registerListener(this);
+		driver.start();
+
+		SiteActivityTracker activity = driver.getSiteActivity();
+		assertNotNull(activity);
+		activity.checkIdleSites(System.currentTimeMillis() + LATER);
+		assertTrue("Site with a listener went idle", activity.isActive(SITE));
+
+		// idle time starts when the last listener is gone
+		output.unregisterListener(this);
+		activity.checkIdleSites(System.currentTimeMillis() + IDLE_TIME / 2);
+		assertTrue(activity.isActive(SITE));
+		activity.checkIdleSites(System.currentTimeMillis() + LATER);
+		assertFalse("Site without listener still active", activity.isActive(SITE));
+	}
+
+
+	@Test
+	public void testListenerReactivatesSite() throws Exception
+	{
+		driver.start();
+
+		SiteActivityTracker activity = driver.getSiteActivity();
+		activity.checkIdleSites(System.currentTimeMillis() + LATER);
+		assertFalse(activity.isActive(SITE));
+
+		driver.getObservationOutputs().get("NexradData").registerListener(this);
+		assertTrue("Site not activated by a new listener", activity.isActive(SITE));
+	}
+
+
+	@Test
+	public void testListenerCountedOnce() throws Exception
+	{
+		ISensorDataInterface output = driver.getObservationOutputs().get("NexradData");
+		output.registerListener(this);
+		driver.start();
+
+		// extra unregister calls must not cancel another listener's subscription
+		IEventListener other = new IEventListener() {
+			@Override
+			public void handleEvent(Event<?> e) {
+			}
+		};
+		output.registerListener(other);
+		output.unregisterListener(this);
+		output.unregisterListener(this);
+
+		SiteActivityTracker activity = driver.getSiteActivity();
+		activity.checkIdleSites(System.currentTimeMillis() + LATER);
+		assertTrue(activity.isActive(SITE));
+	}
+
+
+	@Override
+	public void handleEvent(Event<?> e)
+	{
+	}
+
+
+	@After
+	public void cleanup()
+	{
+		try
+		{
+			if(driver != null) {
+				driver.stop();
+				driver.cleanup();
+			}
+		}
+		catch (SensorHubException e)
+		{
+			e.printStackTrace();
+		}
+		FileUtils.deleteQuietly(rootFolder.toFile());
+		FileUtils.deleteQuietly(replayFolder.toFile());
+	}
+}
@@ -0,0 +1,248 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+The Initial Developer is Sensia Software LLC. Portions created by the Initial
+Developer are Copyright (C) 2014 the Initial Developer. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.impl.sensor.nexrad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.impl.sensor.nexrad.NexradUtil;
+import org.sensorhub.impl.sensor.nexrad.aws.DataHeader;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+import org.sensorhub.impl.sensor.nexrad.aws.MomentDataBlock;
+import org.sensorhub.impl.sensor.nexrad.products.CellListener;
+import org.sensorhub.impl.sensor.nexrad.products.StormCell;
+import org.sensorhub.impl.sensor.nexrad.products.StormCellTracker;
+import org.sensorhub.impl.sensor.nexrad.products.SweepAssembler;
+
+
+/**
+ * <p>
+ * Storm cells of synthetic single-tilt volumes, 1 degree x 250 m gates out to 60 km.
+ * Storms are discs of constant reflectivity placed in x/y (meters east and north of the
+ * radar).  Cells are expected at the center of their disc, and a storm moved by a known
+ * distance between volumes must keep its id and get the matching motion vector.
+ * </p>
+ */
+public class TestStormCellTracker implements CellListener
+{
+	static final String SITE = "KHTX";
+	static final short DAY = 19000;
+	static final int NUM_RADIALS = 360;
+	static final int NUM_GATES = 240;
+	static final float ELEVATION = 0.5f;
+	static final float NO_ECHO = -33.0f;
+	static final float THRESHOLD = 40.0f;
+	static final int MIN_GATES = 10;
+	static final double MAX_SPEED = 30.0;
+	//  5 minutes between volumes
+	static final long VOLUME_MILLIS = TimeUnit.MINUTES.toMillis(5);
+	//  centroids of sampled discs are off by a few hundred meters at most
+	static final double POSITION_TOLERANCE = 500.0;
+
+	StormCellTracker tracker;
+	SweepAssembler assembler;
+	List<List<StormCell>> volumes = new ArrayList<>();
+
+
+	@Before
+	public void init()
+	{
+		tracker = new StormCellTracker(null, THRESHOLD, MIN_GATES, MAX_SPEED);
+		tracker.addListener(this);
+		assembler = new SweepAssembler(SITE);
+		assembler.addListener(tracker);
+	}
+
+
+	@Override
+	public void cellsUpdated(String siteId, long time, List<StormCell> cells)
+	{
+		assertEquals(SITE, siteId);
+		volumes.add(new ArrayList<>(cells));
+	}
+
+
+	/**
+	 * @param storms {x, y, radius, dBZ} of each storm, in meters
+	 */
+	void addVolume(int num, double [][] storms)
+	{
+		int ms = (int)(TimeUnit.HOURS.toMillis(12) + num * VOLUME_MILLIS);
+		for(int i=0; i<NUM_RADIALS; i++) {
+			LdmRadial radial = new LdmRadial();
+			DataHeader header = new DataHeader();
+			header.siteId = SITE;
+			header.daysSince1970 = DAY;
+			header.msSinceMidnight = ms + i * 50;
+			header.elevationNum = 1;
+			header.elevationAngle = ELEVATION;
+			header.azimuthAngle = i;
+			if(i == 0)
+				header.radialStatus = SweepAssembler.START_OF_VOLUME;
+			else if(i == NUM_RADIALS - 1)
+				header.radialStatus = SweepAssembler.END_OF_VOLUME;
+			else
+				header.radialStatus = SweepAssembler.INTERMEDIATE;
+			radial.dataHeader = header;
+
+			MomentDataBlock ref = new MomentDataBlock("REF");
+			ref.blockType = 'D';
+			ref.numGates = NUM_GATES;
+			ref.gateSizeBits = 8;
+			ref.scale = 2.0f;
+			ref.offset = 66.0f;
+			ref.rangeToCenterOfFirstGate = 2125;
+			ref.rangeSampleInterval = 250;
+			float [] dbz = new float[NUM_GATES];
+			double az = Math.toRadians(header.azimuthAngle);
+			for(int g=0; g<NUM_GATES; g++) {
+				double ground = NexradUtil.getGroundRange(ref.rangeToCenterOfFirstGate + g * 250.0, ELEVATION);
+				double x = ground * Math.sin(az);
+				double y = ground * Math.cos(az);
+				dbz[g] = NO_ECHO;
+				for(double [] storm: storms) {
+					if(Math.hypot(x - storm[0], y - storm[1]) <= storm[2])
+						dbz[g] = Math.max(dbz[g], (float)storm[3]);
+				}
+			}
+			ref.setData(dbz);
+			radial.momentData.put(ref.blockName, ref);
+			assembler.addRadial(radial);
+		}
+	}
+
+
+	static StormCell findCell(List<StormCell> cells, double x, double y)
+	{
+		StormCell closest = null;
+		for(StormCell cell: cells) {
+			if(closest == null || Math.hypot(cell.x - x, cell.y - y) < Math.hypot(closest.x - x, closest.y - y))
+				closest = cell;
+		}
+		assertNotNull("No cell", closest);
+		assertEquals("Cell x", x, closest.x, POSITION_TOLERANCE);
+		assertEquals("Cell y", y, closest.y, POSITION_TOLERANCE);
+		return closest;
+	}
+
+
+	@Test
+	public void testCellDetection()
+	{
+		addVolume(0, new double [][] {
+			{20000, 30000, 5000, 50},
+			{20000, 30000, 2000, 55},      // core of the same storm
+			{-25000, -10000, 4000, 45},
+			{0, 40000, 3000, 48},          // across north, split between azimuths 359 and 0
+			{-30000, 30000, 6000, 30},     // below threshold
+			{35000, -35000, 300, 60},      // too few gates
+		});
+		assertEquals(1, volumes.size());
+		List<StormCell> cells = volumes.get(0);
+		assertEquals(3, cells.size());
+
+		// the core sets the max, and being centered doesn't move the weighted centroid
+		StormCell a = findCell(cells, 20000, 30000);
+		assertEquals(55.0f, a.maxDbz, 0.0f);
+		assertEquals(Math.PI * 25.0, a.areaKm2, Math.PI * 25.0 * 0.05);
+
+		StormCell b = findCell(cells, -25000, -10000);
+		assertEquals(45.0f, b.maxDbz, 0.0f);
+		assertEquals(Math.PI * 16.0, b.areaKm2, Math.PI * 16.0 * 0.05);
+
+		StormCell north = findCell(cells, 0, 40000);
+		assertEquals(48.0f, north.maxDbz, 0.0f);
+		assertEquals(Math.PI * 9.0, north.areaKm2, Math.PI * 9.0 * 0.05);
+
+		for(StormCell cell: cells) {
+			assertFalse("Motion of a new cell", cell.hasMotion());
+			assertEquals(1, cell.numVolumes);
+		}
+		assertFalse(a.id.equals(b.id));
+		assertFalse(a.id.equals(north.id));
+	}
+
+
+	@Test
+	public void testTracking()
+	{
+		// A moves 6 km east and 3 km north in 5 minutes: 20 m/s east, 10 m/s north
+		// B moves 3 km west: 10 m/s toward 270 deg
+		addVolume(0, new double [][] {{20000, 30000, 5000, 50}, {-25000, -10000, 4000, 45}});
+		addVolume(1, new double [][] {{26000, 33000, 5000, 50}, {-28000, -10000, 4000, 45}});
+		assertEquals(2, volumes.size());
+
+		StormCell a0 = findCell(volumes.get(0), 20000, 30000);
+		StormCell b0 = findCell(volumes.get(0), -25000, -10000);
+		StormCell a1 = findCell(volumes.get(1), 26000, 33000);
+		StormCell b1 = findCell(volumes.get(1), -28000, -10000);
+		assertEquals(a0.id, a1.id);
+		assertEquals(b0.id, b1.id);
+		assertEquals(2, a1.numVolumes);
+		assertEquals(VOLUME_MILLIS, a1.time - a0.time);
+
+		assertEquals(20.0, a1.u, 0.5);
+		assertEquals(10.0, a1.v, 0.5);
+		assertEquals(Math.hypot(20.0, 10.0), a1.getSpeed(), 0.5);
+		assertEquals(Math.toDegrees(Math.atan2(20.0, 10.0)), a1.getDirection(), 2.0);
+		assertEquals(-10.0, b1.u, 0.5);
+		assertEquals(0.0, b1.v, 0.5);
+		assertEquals(270.0, b1.getDirection(), 3.0);
+	}
+
+
+	@Test
+	public void testMotionAndNewTracks()
+	{
+		addVolume(0, new double [][] {{20000, 30000, 5000, 50}});
+		addVolume(1, new double [][] {{26000, 33000, 5000, 50}});
+		// same motion again and B appears, then B is gone and C appears too far from it
+		addVolume(2, new double [][] {{32000, 36000, 5000, 50}, {-25000, -10000, 4000, 45}});
+		addVolume(3, new double [][] {{38000, 39000, 5000, 50}, {5000, -40000, 4000, 45}});
+		assertEquals(4, volumes.size());
+
+		String id = findCell(volumes.get(0), 20000, 30000).id;
+		StormCell a2 = findCell(volumes.get(2), 32000, 36000);
+		assertEquals(id, a2.id);
+		assertEquals(3, a2.numVolumes);
+		// smoothed with the previous motion, which is the same
+		assertEquals(20.0, a2.u, 0.5);
+		assertEquals(10.0, a2.v, 0.5);
+
+		StormCell b = findCell(volumes.get(2), -25000, -10000);
+		assertFalse(id.equals(b.id));
+		assertEquals(1, b.numVolumes);
+		assertFalse(b.hasMotion());
+
+		StormCell a3 = findCell(volumes.get(3), 38000, 39000);
+		assertEquals(id, a3.id);
+		assertEquals(4, a3.numVolumes);
+		// 42 km from B in 5 minutes, faster than the max speed
+		StormCell c = findCell(volumes.get(3), 5000, -40000);
+		assertFalse(b.id.equals(c.id));
+		assertFalse(id.equals(c.id));
+		assertTrue(Double.isNaN(c.getSpeed()));
+		assertEquals(2, tracker.getCells().size());
+	}
+}
@@ -0,0 +1,329 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+The Initial Developer is Sensia Software LLC. Portions created by the Initial
+Developer are Copyright (C) 2014 the Initial Developer. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.impl.sensor.nexrad;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.impl.sensor.nexrad.aws.AwsNexradUtil;
+import org.sensorhub.impl.sensor.nexrad.aws.DataHeader;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+import org.sensorhub.impl.sensor.nexrad.aws.MomentDataBlock;
+import org.sensorhub.impl.sensor.nexrad.products.RadialSweep;
+import org.sensorhub.impl.sensor.nexrad.products.SweepAssembler;
+import org.sensorhub.impl.sensor.nexrad.products.SweepListener;
+import org.sensorhub.impl.sensor.nexrad.store.StoredSweep;
+import org.sensorhub.impl.sensor.nexrad.store.SweepIndexEntry;
+import org.sensorhub.impl.sensor.nexrad.store.SweepStore;
+
+
+/**
+ * <p>
+ * Write / read round trip of SweepStore, for raw gates and for moments only available
+ * as decoded values, time and elevation queries, and recovery of an index left with
+ * a partial entry.
+ * </p>
+ */
+public class TestSweepStore implements SweepListener
+{
+	static final String SITE = "KHTX";
+	static final short DAY = 19000;
+	static final int NUM_RADIALS = 6;
+	static final int NUM_GATES = 50;
+	static final int NUM_CUTS = 3;
+	static final String DECODED = "DVEL";
+
+	Path rootFolder;
+	SweepStore store;
+	List<RadialSweep> sweeps = new ArrayList<>();
+
+
+	@Before
+	public void init() throws Exception
+	{
+		rootFolder = Files.createTempDirectory("sweepStore");
+		store = new SweepStore(rootFolder);
+
+		SweepAssembler assembler = new SweepAssembler(SITE);
+		assembler.addListener(this);
+		for(int cut=1; cut<=NUM_CUTS; cut++) {
+			for(int i=0; i<NUM_RADIALS; i++)
+				assembler.addRadial(createRadial(cut, i));
+		}
+		assertEquals(NUM_CUTS, sweeps.size());
+	}
+
+
+	@Override
+	public void sweepComplete(RadialSweep sweep)
+	{
+		sweeps.add(sweep);
+	}
+
+
+	LdmRadial createRadial(int cut, int num)
+	{
+		LdmRadial radial = new LdmRadial();
+		DataHeader header = new DataHeader();
+		header.siteId = SITE;
+		header.daysSince1970 = DAY;
+		header.msSinceMidnight = getTime(cut, num);
+		header.elevationNum = cut;
+		header.elevationAngle = 0.5f * cut;
+		header.azimuthAngle = num * 360.0f / NUM_RADIALS;
+		if(num == 0)
+			header.radialStatus = (cut == 1) ? SweepAssembler.START_OF_VOLUME : SweepAssembler.START_OF_ELEVATION;
+		else if(num == NUM_RADIALS - 1)
+			header.radialStatus = (cut == NUM_CUTS) ? SweepAssembler.END_OF_VOLUME : SweepAssembler.END_OF_ELEVATION;
+		else
+			header.radialStatus = SweepAssembler.INTERMEDIATE;
+		radial.dataHeader = header;
+
+		MomentDataBlock ref = new MomentDataBlock("REF");
+		ref.blockType = 'D';
+		ref.numGates = NUM_GATES;
+		ref.gateSizeBits = 8;
+		ref.scale = 2.0f;
+		ref.offset = 66.0f;
+		ref.rangeToCenterOfFirstGate = 2125;
+		ref.rangeSampleInterval = 250;
+		byte [] raw = new byte[NUM_GATES];
+		for(int g=0; g<NUM_GATES; g++)
+			raw[g] = (byte)((cut * 31 + num * 7 + g) % 256);
+		ref.setRawData(raw);
+		radial.momentData.put(ref.blockName, ref);
+
+		// decoded only, as set by the archive reader
+		MomentDataBlock vel = new MomentDataBlock(DECODED);
+		vel.blockType = 'D';
+		vel.numGates = NUM_GATES;
+		vel.scale = 2.0f;
+		vel.offset = 129.0f;
+		vel.rangeToCenterOfFirstGate = 2125;
+		vel.rangeSampleInterval = 250;
+		float [] values = new float[NUM_GATES];
+		for(int g=0; g<NUM_GATES; g++)
+			values[g] = (g % 10 == 0) ? Float.NaN : (g - 25) * 0.37f + cut;
+		vel.setData(values);
+		radial.momentData.put(vel.blockName, vel);
+		return radial;
+	}
+
+
+	static int getTime(int cut, int num)
+	{
+		return (int)TimeUnit.HOURS.toMillis(12) + cut * 60000 + num * 1000;
+	}
+
+
+	static long getJulianTime(int cut, int num)
+	{
+		return AwsNexradUtil.toJulianTime(DAY, getTime(cut, num));
+	}
+
+
+	void writeAll() throws Exception
+	{
+		for(RadialSweep sweep: sweeps)
+			store.write(sweep);
+	}
+
+
+	void checkSweep(RadialSweep expected, StoredSweep stored)
+	{
+		List<LdmRadial> radials = expected.getRadials();
+		assertEquals(SITE, stored.getSiteId());
+		assertEquals(expected.getElevationNum(), stored.getElevationNum());
+		assertEquals(expected.getElevationAngle(), stored.getElevationAngle(), 1e-6);
+		assertEquals(expected.getVolumeStartTime(), stored.getVolumeStartTime());
+		assertEquals(radials.size(), stored.getNumRadials());
+
+		StoredSweep.Moment ref = stored.getMoment("REF");
+		StoredSweep.Moment vel = stored.getMoment(DECODED);
+		assertNotNull(ref);
+		assertNotNull("Decoded moment not stored", vel);
+		assertFalse(ref.isDecoded());
+		assertTrue(vel.isDecoded());
+		for(int i=0; i<radials.size(); i++) {
+			LdmRadial radial = radials.get(i);
+			assertEquals(AwsNexradUtil.toJulianTime(radial.dataHeader.daysSince1970, radial.dataHeader.msSinceMidnight), stored.getTimes()[i]);
+			assertEquals(radial.dataHeader.azimuthAngle, stored.getAzimuths()[i], 0.0);
+			assertEquals(radial.dataHeader.elevationAngle, stored.getElevations()[i], 0.0);
+
+			MomentDataBlock m = radial.momentData.get("REF");
+			assertEquals(NUM_GATES, ref.getNumGates(i));
+			assertArrayEquals(m.getRawData(), ref.getRawGates(i));
+			assertArrayEquals("REF radial " + i, m.getData(), ref.getValues(i), 0.0f);
+			m = radial.momentData.get(DECODED);
+			assertEquals(NUM_GATES, vel.getNumGates(i));
+			assertArrayEquals(DECODED + " radial " + i, m.getData(), vel.getValues(i), 0.0f);
+		}
+
+		// back to radials, as read from Level II
+		List<LdmRadial> copy = stored.toRadials();
+		assertEquals(radials.size(), copy.size());
+		for(int i=0; i<radials.size(); i++) {
+			MomentDataBlock m = copy.get(i).momentData.get("REF");
+			assertEquals(8, m.gateSizeBits);
+			assertArrayEquals(radials.get(i).momentData.get("REF").getRawData(), m.getRawData());
+			m = copy.get(i).momentData.get(DECODED);
+			assertNull(m.getRawData());
+			assertArrayEquals(radials.get(i).momentData.get(DECODED).getData(), m.getData(), 0.0f);
+		}
+	}
+
+
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		writeAll();
+		List<StoredSweep> stored = store.readSweeps(SITE, Long.MIN_VALUE, Long.MAX_VALUE, 0, null);
+		assertEquals(NUM_CUTS, stored.size());
+		for(int i=0; i<NUM_CUTS; i++)
+			checkSweep(sweeps.get(i), stored.get(i));
+	}
+
+
+	@Test
+	public void testReadSomeMoments() throws Exception
+	{
+		writeAll();
+		List<StoredSweep> stored = store.readSweeps(SITE, Long.MIN_VALUE, Long.MAX_VALUE, 0, Arrays.asList(DECODED));
+		assertEquals(NUM_CUTS, stored.size());
+		for(StoredSweep sweep: stored) {
+			assertNull(sweep.getMoment("REF"));
+			assertNotNull(sweep.getMoment(DECODED));
+		}
+	}
+
+
+	@Test
+	public void testQueryTime() throws Exception
+	{
+		writeAll();
+		assertEquals(NUM_CUTS, store.query(SITE, getJulianTime(1, 0), getJulianTime(NUM_CUTS, 0), 0).size());
+
+		// sweeps are selected on their start time
+		List<SweepIndexEntry> entries = store.query(SITE, getJulianTime(1, 1), getJulianTime(2, 0), 0);
+		assertEquals(1, entries.size());
+		assertEquals(2, entries.get(0).getElevationNum());
+		assertEquals(getJulianTime(2, 0), entries.get(0).getStartTime());
+		assertEquals(getJulianTime(2, NUM_RADIALS - 1), entries.get(0).getEndTime());
+
+		assertTrue(store.query(SITE, getJulianTime(NUM_CUTS, 1), Long.MAX_VALUE, 0).isEmpty());
+		assertTrue(store.query(SITE, Long.MIN_VALUE, getJulianTime(1, 0) - 1, 0).isEmpty());
+		assertTrue(store.query("KBMX", Long.MIN_VALUE, Long.MAX_VALUE, 0).isEmpty());
+
+		// other days
+		long day = TimeUnit.DAYS.toMillis(1);
+		assertTrue(store.query(SITE, getJulianTime(1, 0) - 2 * day, getJulianTime(1, 0) - day, 0).isEmpty());
+		assertTrue(store.query(SITE, getJulianTime(1, 0) + day, getJulianTime(1, 0) + 2 * day, 0).isEmpty());
+	}
+
+
+	@Test
+	public void testQueryElevation() throws Exception
+	{
+		writeAll();
+		for(int cut=1; cut<=NUM_CUTS; cut++) {
+			List<SweepIndexEntry> entries = store.query(SITE, Long.MIN_VALUE, Long.MAX_VALUE, cut);
+			assertEquals(1, entries.size());
+			assertEquals(cut, entries.get(0).getElevationNum());
+			assertEquals(0.5f * cut, entries.get(0).getElevationAngle(), 1e-6);
+			assertEquals(NUM_RADIALS, entries.get(0).getNumRadials());
+			checkSweep(sweeps.get(cut - 1), store.read(entries.get(0), null));
+		}
+		assertTrue(store.query(SITE, Long.MIN_VALUE, Long.MAX_VALUE, NUM_CUTS + 1).isEmpty());
+	}
+
+
+	@Test
+	public void testPartialIndexEntry() throws Exception
+	{
+		store.write(sweeps.get(0));
+		store.write(sweeps.get(1));
+
+		// crash while appending the index entry of the next sweep
+		Path indexFile = getIndexFile();
+		try(FileChannel index = FileChannel.open(indexFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			index.write(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6, 7}));
+		}
+
+		// entries written after the partial one must stay aligned
+		store = new SweepStore(rootFolder);
+		store.write(sweeps.get(2));
+		List<StoredSweep> stored = store.readSweeps(SITE, Long.MIN_VALUE, Long.MAX_VALUE, 0, null);
+		assertEquals(NUM_CUTS, stored.size());
+		for(int i=0; i<NUM_CUTS; i++)
+			checkSweep(sweeps.get(i), stored.get(i));
+	}
+
+
+	@Test
+	public void testPartialIndexEntryBeforeAppend() throws Exception
+	{
+		store.write(sweeps.get(0));
+		Path indexFile = getIndexFile();
+		try(FileChannel index = FileChannel.open(indexFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			index.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+		}
+
+		// same store instance, the partial entry is dropped when appending
+		store.write(sweeps.get(1));
+		List<StoredSweep> stored = store.readSweeps(SITE, Long.MIN_VALUE, Long.MAX_VALUE, 0, null);
+		assertEquals(2, stored.size());
+		checkSweep(sweeps.get(0), stored.get(0));
+		checkSweep(sweeps.get(1), stored.get(1));
+	}
+
+
+	Path getIndexFile() throws Exception
+	{
+		List<Path> files = new ArrayList<>();
+		try(DirectoryStream<Path> dir = Files.newDirectoryStream(rootFolder.resolve(SITE), "*.idx")) {
+			for(Path file: dir)
+				files.add(file);
+		}
+		assertEquals(1, files.size());
+		return files.get(0);
+	}
+
+
+	@After
+	public void cleanup()
+	{
+		FileUtils.deleteQuietly(rootFolder.toFile());
+	}
+}
@@ -0,0 +1,213 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+The Initial Developer is Sensia Software LLC. Portions created by the Initial
+Developer are Copyright (C) 2014 the Initial Developer. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.impl.sensor.nexrad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.impl.sensor.nexrad.aws.DataHeader;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmLevel2Reader;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+import org.sensorhub.impl.sensor.nexrad.aws.MomentDataBlock;
+import org.sensorhub.impl.sensor.nexrad.products.SweepAssembler;
+import org.sensorhub.impl.sensor.nexrad.products.VelocityDealiaser;
+
+
+/**
+ * <p>
+ * Unfolding of radials with a known velocity profile, folded by a Nyquist velocity of
+ * 10 m/s.  The profile rises to 30 m/s and falls back to -22 m/s, so some gates are
+ * folded once, and some fall exactly on +Vn or -Vn: a true 10 m/s reported as -10 m/s,
+ * a true -10 m/s reported as +10 m/s, and a true 30 m/s reported as +10 m/s.
+ * </p>
+ */
+public class TestVelocityDealiaser
+{
+	static final float NYQUIST = 10.0f;
+	static final float M = Float.NaN;
+
+	static final float [] TRUE_VEL = {
+		0, 4, 8, 10, 12, 16, 20, 24, 28, 30, 26, 18, 10, 4, -2, -8, -10, -14, M, -18, -22,
+		M, M, M, M, M, M, M, M, M, 6
+	};
+	static final float [] FOLDED_VEL = {
+		0, 4, 8, -10, -8, -4, 0, 4, 8, 10, 6, -2, 10, 4, -2, -8, 10, 6, M, 2, -2,
+		M, M, M, M, M, M, M, M, M, 6
+	};
+	//  first valid gate after more than MAX_GATE_GAP missing gates has no reference
+	static final int GATE_AFTER_GAP = 30;
+
+	VelocityDealiaser dealiaser;
+	LdmLevel2Reader reader = new LdmLevel2Reader();
+
+
+	@Before
+	public void init()
+	{
+		dealiaser = new VelocityDealiaser();
+	}
+
+
+	//  RRAD block as read from a message 31, nyquist in 0.01 m/s
+	LdmRadial createRadial(int elevationNum, float azimuth, int status, float nyquist, float [] vel) throws IOException
+	{
+		ByteBuffer buf = ByteBuffer.allocate(28);
+		buf.put("RRAD".getBytes(StandardCharsets.US_ASCII));
+		buf.putShort((short)28);
+		buf.putShort((short)4600);
+		buf.putFloat(-80.0f);
+		buf.putFloat(-80.0f);
+		buf.putShort((short)Math.round(nyquist * 100.0f));
+		buf.putShort((short)0);
+		buf.putFloat(0.0f);
+		buf.putFloat(0.0f);
+
+		LdmRadial radial = new LdmRadial();
+		radial.radialDataBlock = reader.readRadialDataBlock(new ByteArrayInputStream(buf.array()));
+		DataHeader header = new DataHeader();
+		header.siteId = "KHTX";
+		header.elevationNum = elevationNum;
+		header.elevationAngle = 0.5f * elevationNum;
+		header.azimuthAngle = azimuth;
+		header.radialStatus = status;
+		radial.dataHeader = header;
+
+		MomentDataBlock block = new MomentDataBlock("VEL");
+		block.blockType = 'D';
+		block.numGates = (short)vel.length;
+		block.gateSizeBits = 8;
+		block.scale = 2.0f;
+		block.offset = 129.0f;
+		block.rangeToCenterOfFirstGate = 2125;
+		block.rangeSampleInterval = 250;
+		block.setData(vel.clone());
+		radial.momentData.put(block.blockName, block);
+		return radial;
+	}
+
+
+	static float [] add(float [] vel, float dv)
+	{
+		float [] out = new float[vel.length];
+		for(int i=0; i<vel.length; i++)
+			out[i] = vel[i] + dv;
+		return out;
+	}
+
+
+	//  into [-Vn, Vn), so that +Vn is reported as -Vn
+	static float [] fold(float [] vel)
+	{
+		float [] out = new float[vel.length];
+		for(int i=0; i<vel.length; i++)
+			out[i] = vel[i] - 2.0f * NYQUIST * (float)Math.floor((vel[i] + NYQUIST) / (2.0f * NYQUIST));
+		return out;
+	}
+
+
+	static void assertVelocities(float [] expected, MomentDataBlock block)
+	{
+		assertNotNull(block);
+		assertEquals(VelocityDealiaser.MOMENT_NAME, block.blockName);
+		float [] data = block.getData();
+		assertEquals(expected.length, data.length);
+		for(int i=0; i<expected.length; i++) {
+			if(Float.isNaN(expected[i]))
+				assertTrue("Missing gate " + i, Float.isNaN(data[i]));
+			else
+				assertEquals("Gate " + i, expected[i], data[i], 1e-4f);
+		}
+	}
+
+
+	@Test
+	public void testRadialContinuity() throws Exception
+	{
+		LdmRadial radial = createRadial(1, 0.0f, SweepAssembler.START_OF_ELEVATION, NYQUIST, FOLDED_VEL);
+		assertEquals(NYQUIST, radial.radialDataBlock.getNyquistVelocity(), 0.0f);
+		MomentDataBlock dvl = dealiaser.dealias(radial);
+		assertVelocities(TRUE_VEL, dvl);
+		assertTrue(dvl == radial.momentData.get(VelocityDealiaser.MOMENT_NAME));
+
+		//  gates at +/-Vn
+		float [] data = dvl.getData();
+		assertEquals("-Vn unfolded to +Vn", 10.0f, data[3], 0.0f);
+		assertEquals("+Vn unfolded to 3Vn", 30.0f, data[9], 0.0f);
+		assertEquals("+Vn kept", 10.0f, data[12], 0.0f);
+		assertEquals("+Vn unfolded to -Vn", -10.0f, data[16], 0.0f);
+		assertEquals(6.0f, data[GATE_AFTER_GAP], 0.0f);
+
+		//  raw moment untouched
+		float [] raw = radial.momentData.get("VEL").getData();
+		for(int i=0; i<FOLDED_VEL.length; i++) {
+			if(!Float.isNaN(FOLDED_VEL[i]))
+				assertEquals(FOLDED_VEL[i], raw[i], 0.0f);
+		}
+	}
+
+
+	@Test
+	public void testAzimuthalContinuity() throws Exception
+	{
+		dealiaser.dealias(createRadial(1, 0.0f, SweepAssembler.START_OF_ELEVATION, NYQUIST, FOLDED_VEL));
+
+		//  each radial 4 m/s faster than the previous one, folded into [-Vn, Vn).  From the
+		//  3rd one the first gate is aliased too (12 m/s reported as -8 m/s), which radial
+		//  continuity alone would keep
+		for(int k=1; k<=4; k++) {
+			float [] vel = add(TRUE_VEL, 4.0f * k);
+			float [] folded = fold(vel);
+			if(k == 3)
+				assertEquals(-8.0f, folded[0], 0.0f);
+			assertVelocities(vel, dealiaser.dealias(createRadial(1, k, SweepAssembler.INTERMEDIATE, NYQUIST, folded)));
+		}
+	}
+
+
+	@Test
+	public void testNewSweep() throws Exception
+	{
+		dealiaser.dealias(createRadial(1, 0.0f, SweepAssembler.START_OF_ELEVATION, NYQUIST, FOLDED_VEL));
+		dealiaser.dealias(createRadial(1, 1.0f, SweepAssembler.INTERMEDIATE, NYQUIST, fold(add(TRUE_VEL, 4.0f))));
+
+		//  calm next tilt, near 0 everywhere.  Unfolded against the previous tilt, the gates
+		//  near 30 m/s would be shifted by 2Vn
+		float [] calm = new float[FOLDED_VEL.length];
+		for(int i=0; i<calm.length; i++)
+			calm[i] = (i % 2 == 0) ? 1.0f : -1.0f;
+		assertVelocities(calm, dealiaser.dealias(createRadial(2, 0.0f, SweepAssembler.START_OF_ELEVATION, NYQUIST, calm)));
+
+		//  same tilt, but more than MAX_AZIMUTH_GAP from the previous radial
+		dealiaser.dealias(createRadial(2, 1.0f, SweepAssembler.INTERMEDIATE, NYQUIST, FOLDED_VEL));
+		assertVelocities(TRUE_VEL, dealiaser.dealias(createRadial(2, 10.0f, SweepAssembler.INTERMEDIATE, NYQUIST, FOLDED_VEL)));
+	}
+
+
+	@Test
+	public void testNoNyquist() throws Exception
+	{
+		MomentDataBlock dvl = dealiaser.dealias(createRadial(1, 0.0f, SweepAssembler.START_OF_ELEVATION, 0.0f, FOLDED_VEL));
+		assertVelocities(FOLDED_VEL, dvl);
+	}
+}
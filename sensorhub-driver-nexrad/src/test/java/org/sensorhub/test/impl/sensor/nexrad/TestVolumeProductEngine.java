@@ -0,0 +1,209 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+The Initial Developer is Sensia Software LLC. Portions created by the Initial
+Developer are Copyright (C) 2014 the Initial Developer. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.impl.sensor.nexrad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.impl.sensor.nexrad.aws.DataHeader;
+import org.sensorhub.impl.sensor.nexrad.aws.LdmRadial;
+import org.sensorhub.impl.sensor.nexrad.aws.MomentDataBlock;
+import org.sensorhub.impl.sensor.nexrad.products.ProductListener;
+import org.sensorhub.impl.sensor.nexrad.products.SweepAssembler;
+import org.sensorhub.impl.sensor.nexrad.products.VolumeProductEngine;
+import org.sensorhub.impl.sensor.nexrad.products.VolumeProductEngine.VolumeProducts;
+
+
+/**
+ * <p>
+ * Products of a synthetic volume of 4 tilts, on a grid of 4 azimuths x 5 range bins of
+ * 10 km.  Each gate falls in its own bin.  One column holds a storm with a known vertical
+ * profile, one a weak echo, and the others no echo.  Expected values are worked out by
+ * hand from the profile, with beam heights above the radar (no site) from the 4/3 earth
+ * radius model at the center of the range bin.
+ * </p>
+ */
+public class TestVolumeProductEngine implements ProductListener
+{
+	static final String SITE = "KHTX";
+	static final float [] TILTS = {0.5f, 1.5f, 3.0f, 6.0f};
+	static final int NUM_AZIMUTHS = 4;
+	static final int NUM_GATES = 5;
+	static final float BIN_METERS = 10000.0f;
+
+	//  storm at 90 deg, 25 km.  60 dBZ is above the VIL cap
+	static final int STORM_CELL = 1 * NUM_GATES + 2;
+	static final float [] STORM_DBZ = {45.0f, 60.0f, 30.0f, 10.0f};
+	//  beam heights at 25 km:  254.9, 691.2, 1345.1, 2649.6 m
+	static final float STORM_ECHO_TOP = 1345.08f;
+	//  3.44e-6 * ((10^4.5 + 10^5.6) / 2)^(4/7) * (691.18 - 254.95)  = 1.6720
+	//  3.44e-6 * ((10^5.6 + 10^3.0) / 2)^(4/7) * (1345.08 - 691.18) = 2.4026
+	//  3.44e-6 * ((10^3.0 + 10^1.0) / 2)^(4/7) * (2649.59 - 1345.08) = 0.1573
+	static final float STORM_VIL_2_TILTS = 1.6720f;
+	static final float STORM_VIL = 4.2318f;
+	//  without the cap
+	static final float STORM_VIL_UNCAPPED = 6.9783f;
+
+	//  10 dBZ at 270 deg, 15 km: 3.44e-6 * 10^(4/7) * (1581.02 - 144.14)
+	static final int WEAK_CELL = 3 * NUM_GATES + 1;
+	static final float WEAK_DBZ = 10.0f;
+	static final float WEAK_VIL = 0.018425f;
+
+	//  decodes below the min valid value (raw 2)
+	static final float NO_ECHO = -33.0f;
+
+	List<VolumeProducts> products = new ArrayList<>();
+
+
+	@Before
+	public void init()
+	{
+		VolumeProductEngine engine = new VolumeProductEngine(null, NUM_AZIMUTHS, BIN_METERS, NUM_GATES * BIN_METERS);
+		engine.addListener(this);
+		SweepAssembler assembler = new SweepAssembler(SITE);
+		assembler.addListener(engine);
+		for(int cut=1; cut<=TILTS.length; cut++) {
+			for(int i=0; i<NUM_AZIMUTHS; i++)
+				assembler.addRadial(createRadial(cut, i));
+		}
+		assertEquals(TILTS.length, products.size());
+	}
+
+
+	@Override
+	public void productsUpdated(VolumeProducts p)
+	{
+		products.add(p);
+	}
+
+
+	static LdmRadial createRadial(int cut, int num)
+	{
+		LdmRadial radial = new LdmRadial();
+		DataHeader header = new DataHeader();
+		header.siteId = SITE;
+		header.daysSince1970 = 19000;
+		header.msSinceMidnight = cut * 60000 + num * 1000;
+		header.elevationNum = cut;
+		header.elevationAngle = TILTS[cut - 1];
+		header.azimuthAngle = num * 360.0f / NUM_AZIMUTHS;
+		if(num == 0)
+			header.radialStatus = (cut == 1) ? SweepAssembler.START_OF_VOLUME : SweepAssembler.START_OF_ELEVATION;
+		else if(num == NUM_AZIMUTHS - 1)
+			header.radialStatus = (cut == TILTS.length) ? SweepAssembler.END_OF_VOLUME : SweepAssembler.END_OF_ELEVATION;
+		else
+			header.radialStatus = SweepAssembler.INTERMEDIATE;
+		radial.dataHeader = header;
+
+		MomentDataBlock ref = new MomentDataBlock("REF");
+		ref.blockType = 'D';
+		ref.numGates = NUM_GATES;
+		ref.gateSizeBits = 8;
+		ref.scale = 2.0f;
+		ref.offset = 66.0f;
+		// gate centers at 5, 15, ... 45 km
+		ref.rangeToCenterOfFirstGate = 5000;
+		ref.rangeSampleInterval = 10000;
+		float [] dbz = new float[NUM_GATES];
+		Arrays.fill(dbz, NO_ECHO);
+		if(num == STORM_CELL / NUM_GATES)
+			dbz[STORM_CELL % NUM_GATES] = STORM_DBZ[cut - 1];
+		if(num == WEAK_CELL / NUM_GATES)
+			dbz[WEAK_CELL % NUM_GATES] = WEAK_DBZ;
+		ref.setData(dbz);
+		radial.momentData.put(ref.blockName, ref);
+		return radial;
+	}
+
+
+	VolumeProducts getVolume()
+	{
+		VolumeProducts volume = products.get(products.size() - 1);
+		assertTrue(volume.volumeComplete);
+		assertEquals(TILTS.length, volume.numTilts);
+		assertEquals(NUM_AZIMUTHS, volume.numAzimuths);
+		assertEquals(NUM_GATES, volume.numRangeBins);
+		return volume;
+	}
+
+
+	@Test
+	public void testCompositeReflectivity()
+	{
+		float [] composite = getVolume().compositeReflectivity;
+		assertEquals(60.0f, composite[STORM_CELL], 0.0f);
+		assertEquals(WEAK_DBZ, composite[WEAK_CELL], 0.0f);
+		for(int cell=0; cell<composite.length; cell++) {
+			if(cell != STORM_CELL && cell != WEAK_CELL)
+				assertTrue("Composite without echo at " + cell, Float.isNaN(composite[cell]));
+		}
+	}
+
+
+	@Test
+	public void testEchoTops()
+	{
+		float [] echoTops = getVolume().echoTops;
+		//  highest tilt >= 18 dBZ is the 3rd, 30 dBZ
+		assertEquals(STORM_ECHO_TOP, echoTops[STORM_CELL], 0.5f);
+		assertTrue("Echo top below 18 dBZ", Float.isNaN(echoTops[WEAK_CELL]));
+		for(int cell=0; cell<echoTops.length; cell++) {
+			if(cell != STORM_CELL)
+				assertTrue(Float.isNaN(echoTops[cell]));
+		}
+	}
+
+
+	@Test
+	public void testVil()
+	{
+		float [] vil = getVolume().vil;
+		assertEquals(STORM_VIL, vil[STORM_CELL], 1e-3f);
+		assertTrue("VIL not capped at 56 dBZ", Math.abs(vil[STORM_CELL] - STORM_VIL_UNCAPPED) > 1.0f);
+		assertEquals(WEAK_VIL, vil[WEAK_CELL], 1e-5f);
+		for(int cell=0; cell<vil.length; cell++) {
+			if(cell != STORM_CELL && cell != WEAK_CELL)
+				assertEquals(0.0f, vil[cell], 0.0f);
+		}
+	}
+
+
+	@Test
+	public void testPartialVolume()
+	{
+		for(int i=0; i<products.size(); i++) {
+			VolumeProducts p = products.get(i);
+			assertEquals(i + 1, p.numTilts);
+			assertEquals(TILTS[i], p.elevationAngle, 0.0f);
+			assertEquals(i == TILTS.length - 1, p.volumeComplete);
+		}
+
+		VolumeProducts first = products.get(0);
+		assertEquals(45.0f, first.compositeReflectivity[STORM_CELL], 0.0f);
+		assertEquals(0.0f, first.vil[STORM_CELL], 0.0f);
+		VolumeProducts second = products.get(1);
+		assertEquals(60.0f, second.compositeReflectivity[STORM_CELL], 0.0f);
+		assertEquals(STORM_VIL_2_TILTS, second.vil[STORM_CELL], 1e-3f);
+		assertFalse(second.volumeComplete);
+	}
+}
@@ -0,0 +1,138 @@
+package org.sensorhub.impl.sensor.weather;
+
+import java.lang.ref.SoftReference;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import net.opengis.sensorml.v20.PhysicalSystem;
+
+/**
+ * <p>
+ * FOIs and SensorML descriptions of the entities of a sensor network (stations, radar
+ * sites), created the first time they are asked for instead of for every entity at start.
+ * Only the entity object T is held- FOIs and descriptions are cached through soft
+ * references, so the GC can drop them under memory pressure and they are created again on
+ * the next request.  Entities can be added and removed while running.
+ * </p>
+ *
+ * @param <T> type of the object FOIs and descriptions are created from
+ */
+public abstract class FeatureCache<T>
+{
+	//  by entity UID, sorted
+	final Map<String, T> entities = new ConcurrentSkipListMap<>();
+	final Map<String, SoftReference<PhysicalSystem>> fois = new ConcurrentHashMap<>();
+	final Map<String, SoftReference<PhysicalSystem>> descriptions = new ConcurrentHashMap<>();
+
+	/**
+	 * Add or replace an entity- its FOI and description are created again
+	 */
+	public void put(String uid, T entity) {
+		entities.put(uid, entity);
+		fois.remove(uid);
+		descriptions.remove(uid);
+	}
+
+	public void remove(String uid) {
+		entities.remove(uid);
+		fois.remove(uid);
+		descriptions.remove(uid);
+	}
+
+	/**
+	 * @return UIDs of the entities, which are both entity and FOI IDs
+	 */
+	public Collection<String> getUids() {
+		return Collections.unmodifiableCollection(entities.keySet());
+	}
+
+	/**
+	 * @return FOI of the entity, null if it isn't served
+	 */
+	public PhysicalSystem getFoi(String uid) {
+		return get(fois, uid, true);
+	}
+
+	/**
+	 * @return SensorML description of the entity, null if it isn't served
+	 */
+	public PhysicalSystem getDescription(String uid) {
+		return get(descriptions, uid, false);
+	}
+
+	private PhysicalSystem get(Map<String, SoftReference<PhysicalSystem>> cache, String uid, boolean isFoi) {
+		while(true) {
+			T entity = entities.get(uid);
+			if(entity == null)
+				return null;
+			SoftReference<PhysicalSystem> ref = cache.get(uid);
+			PhysicalSystem obj = (ref != null) ? ref.get() : null;
+			if(obj != null)
+				return obj;
+			obj = isFoi ? newFoi(uid, entity) : newDescription(uid, entity);
+			SoftReference<PhysicalSystem> newRef = new SoftReference<>(obj);
+			cache.put(uid, newRef);
+			//  the entity may have been removed or replaced, and the cache cleared, before
+			//  the put- drop what was created from it and look again
+			if(entities.get(uid) == entity)
+				return obj;
+			cache.remove(uid, newRef);
+		}
+	}
+
+	/**
+	 * @return FOIs of all entities, created as the collection is iterated
+	 */
+	public Collection<PhysicalSystem> getFois() {
+		return new AbstractCollection<PhysicalSystem>() {
+			@Override
+			public Iterator<PhysicalSystem> iterator() {
+				final Iterator<String> uids = entities.keySet().iterator();
+				return new Iterator<PhysicalSystem>() {
+					PhysicalSystem next = advance();
+
+					//  skip entities removed since the iterator passed their UID
+					private PhysicalSystem advance() {
+						while(uids.hasNext()) {
+							PhysicalSystem foi = getFoi(uids.next());
+							if(foi != null)
+								return foi;
+						}
+						return null;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return next != null;
+					}
+
+					@Override
+					public PhysicalSystem next() {
+						if(next == null)
+							throw new NoSuchElementException();
+						PhysicalSystem foi = next;
+						next = advance();
+						return foi;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return entities.size();
+			}
+		};
+	}
+
+	// generate small SensorML for FOI (in this case the system is the FOI)
+	protected abstract PhysicalSystem newFoi(String uid, T entity);
+
+	// SensorML description of the entity
+	protected abstract PhysicalSystem newDescription(String uid, T entity);
+}